@@ -0,0 +1,66 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.job;
+
+import com.axelor.apps.account.service.GeneralLedgerBalanceService;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.repo.CompanyRepository;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import java.lang.invoke.MethodHandles;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build the general ledger balances of the companies which do not have them yet, check the others
+ * and rebuild the ones which drifted.
+ */
+public class GeneralLedgerBalanceJob implements Job {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  @Override
+  public void execute(JobExecutionContext context) throws JobExecutionException {
+    GeneralLedgerBalanceService generalLedgerBalanceService =
+        Beans.get(GeneralLedgerBalanceService.class);
+
+    for (Company company : Beans.get(CompanyRepository.class).all().fetch()) {
+      try {
+        if (!generalLedgerBalanceService.isBuilt(company)) {
+          log.info("Building the general ledger balances of {}", company.getName());
+          generalLedgerBalanceService.rebuild(company);
+          continue;
+        }
+
+        long mismatches = generalLedgerBalanceService.check(company);
+        if (mismatches > 0) {
+          log.warn(
+              "{} general ledger balances of {} do not match move lines, rebuilding",
+              mismatches,
+              company.getName());
+          generalLedgerBalanceService.rebuild(company);
+        }
+      } catch (Exception e) {
+        TraceBackService.trace(new Exception(e));
+      }
+    }
+  }
+}
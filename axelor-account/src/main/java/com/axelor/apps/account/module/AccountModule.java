@@ -59,6 +59,8 @@ import com.axelor.apps.account.service.BankDetailsServiceAccountImpl;
 import com.axelor.apps.account.service.DepositSlipService;
 import com.axelor.apps.account.service.DepositSlipServiceImpl;
 import com.axelor.apps.account.service.FiscalPositionServiceAccountImpl;
+import com.axelor.apps.account.service.GeneralLedgerBalanceService;
+import com.axelor.apps.account.service.GeneralLedgerBalanceServiceImpl;
 import com.axelor.apps.account.service.MoveLineExportService;
 import com.axelor.apps.account.service.MoveLineExportServiceImpl;
 import com.axelor.apps.account.service.NotificationService;
@@ -131,6 +133,8 @@ public class AccountModule extends AxelorModule {
 
     bind(AccountingReportService.class).to(AccountingReportServiceImpl.class);
 
+    bind(GeneralLedgerBalanceService.class).to(GeneralLedgerBalanceServiceImpl.class);
+
     bind(JournalRepository.class).to(JournalManagementRepository.class);
 
     bind(PaymentVoucherRepository.class).to(PaymentVoucherManagementRepository.class);
@@ -38,8 +38,13 @@ import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import javax.persistence.Query;
 import javax.persistence.TemporalType;
 import org.slf4j.Logger;
@@ -267,6 +272,7 @@ public class AccountCustomerService {
    * @param partnerList Une liste de tiers à mettre à jour
    * @param company Une société
    */
+  @Transactional(rollbackOn = {AxelorException.class, Exception.class})
   public void updatePartnerAccountingSituation(
       List<Partner> partnerList,
       Company company,
@@ -274,6 +280,7 @@ public class AccountCustomerService {
       boolean updateDueCustAccount,
       boolean updateDueDebtRecoveryCustAccount)
       throws AxelorException {
+    List<Long> partnerIds = new ArrayList<>();
     for (Partner partner : partnerList) {
       AccountingSituation accountingSituation =
           accountingSituationService.getAccountingSituation(partner, company);
@@ -282,13 +289,198 @@ public class AccountCustomerService {
             accountingSituationService.createAccountingSituation(partner, company);
       }
       if (accountingSituation != null) {
-        this.updateAccountingSituationCustomerAccount(
-            accountingSituation,
-            updateCustAccount,
-            updateDueCustAccount,
-            updateDueDebtRecoveryCustAccount);
+        partnerIds.add(partner.getId());
       }
     }
+    if (!partnerIds.isEmpty()) {
+      this.updateAccountingSituations(
+          company,
+          partnerIds,
+          false,
+          updateCustAccount,
+          updateDueCustAccount,
+          updateDueDebtRecoveryCustAccount);
+    }
+  }
+
+  /**
+   * Recompute the balances of a set of accounting situations with a single grouped statement,
+   * instead of three queries per partner.
+   *
+   * <p>Accounting situations already loaded in the persistence context are refreshed when the
+   * partners are given, otherwise the caller has to clear the context.
+   *
+   * @param company the company, or null for every company
+   * @param partnerIds the partners to update, or null for every partner
+   * @param onlyFlagged update only the accounting situations flagged to be updated
+   * @return the number of updated accounting situations
+   */
+  @Transactional(rollbackOn = {AxelorException.class, Exception.class})
+  public int updateAccountingSituations(
+      Company company,
+      Collection<Long> partnerIds,
+      boolean onlyFlagged,
+      boolean updateCustAccount,
+      boolean updateDueCustAccount,
+      boolean updateDueDebtRecoveryCustAccount)
+      throws AxelorException {
+
+    if (partnerIds != null && partnerIds.isEmpty()) {
+      return 0;
+    }
+
+    log.debug(
+        "Update customer accounts (Company : {}, Partners : {}, Only flagged : {})",
+        company != null ? company.getName() : null,
+        partnerIds,
+        onlyFlagged);
+
+    StringBuilder lineFilter = new StringBuilder();
+    StringBuilder situationFilter = new StringBuilder();
+    if (company != null) {
+      lineFilter.append(" AND move.company = :company");
+      situationFilter.append(" AND s.company = :company");
+    }
+    if (partnerIds != null) {
+      lineFilter.append(" AND ml.partner IN (:partners)");
+      situationFilter.append(" AND s.partner IN (:partners)");
+    }
+    if (onlyFlagged) {
+      lineFilter.append(
+          " AND (ml.partner, move.company) IN (SELECT partner, company "
+              + "FROM public.account_accounting_situation "
+              + "WHERE cust_account_must_be_update_ok = TRUE)");
+      situationFilter.append(" AND s.cust_account_must_be_update_ok = TRUE");
+    }
+
+    StringBuilder set = new StringBuilder();
+    if (updateCustAccount) {
+      set.append("balance_cust_account = COALESCE(balance.balance, 0), ");
+    }
+    if (updateDueCustAccount) {
+      set.append("balance_due_cust_account = COALESCE(balance.balance_due, 0), ");
+    }
+    if (updateDueDebtRecoveryCustAccount) {
+      set.append(
+          "balance_due_debt_recovery_cust_account = "
+              + "COALESCE(balance.balance_due_debt_recovery, 0), ");
+    }
+
+    // Same conditions as getBalance, getBalanceDue and getBalanceDueDebtRecovery, summed by
+    // partner and company in one pass over the move lines
+    Query query =
+        JPA.em()
+            .createNativeQuery(
+                "UPDATE public.account_accounting_situation AS situation SET "
+                    + set
+                    + "cust_account_must_be_update_ok = FALSE, version = situation.version + 1 "
+                    + "FROM public.account_accounting_situation AS s "
+                    + "LEFT OUTER JOIN ( "
+                    + "SELECT ml.partner AS partner, move.company AS company, "
+                    + "SUM(CASE WHEN ml.debit > 0 THEN ml.amount_remaining "
+                    + "WHEN ml.credit > 0 THEN -ml.amount_remaining ELSE 0 END) AS balance, "
+                    + "SUM(CASE WHEN move.ignore_in_debt_recovery_ok = TRUE THEN 0 "
+                    + "WHEN ml.debit > 0 AND COALESCE(ml.due_date, ml.date_val) <= :today "
+                    + "THEN ml.amount_remaining "
+                    + "WHEN ml.credit > 0 THEN -ml.amount_remaining ELSE 0 END) AS balance_due, "
+                    + "SUM(CASE WHEN move.ignore_in_debt_recovery_ok = TRUE "
+                    + "OR invoice.debt_recovery_blocking_ok IS NULL "
+                    + "OR invoice.debt_recovery_blocking_ok = TRUE THEN 0 "
+                    + "WHEN ml.debit > 0 AND ((ml.date_val = ml.due_date "
+                    + "AND ml.due_date + COALESCE(config.mail_transit_time, 0) < :today) "
+                    + "OR (ml.due_date IS NOT NULL AND ml.date_val != ml.due_date "
+                    + "AND ml.due_date < :today) "
+                    + "OR (ml.due_date IS NULL AND ml.date_val < :today)) "
+                    + "THEN ml.amount_remaining "
+                    + "WHEN ml.credit > 0 THEN -ml.amount_remaining "
+                    + "ELSE 0 END) AS balance_due_debt_recovery "
+                    + "FROM public.account_move_line AS ml "
+                    + "JOIN public.account_account AS account ON (ml.account = account.id) "
+                    + "JOIN public.account_move AS move ON (ml.move = move.id) "
+                    + "LEFT OUTER JOIN public.account_invoice AS invoice "
+                    + "ON (move.invoice = invoice.id) "
+                    + "LEFT OUTER JOIN public.account_account_config AS config "
+                    + "ON (config.company = move.company) "
+                    + "WHERE move.ignore_in_accounting_ok = FALSE "
+                    + "AND account.use_for_partner_balance = TRUE "
+                    + "AND move.status_select = :validated AND ml.amount_remaining > 0"
+                    + lineFilter
+                    + " GROUP BY ml.partner, move.company) AS balance "
+                    + "ON (balance.partner = s.partner AND balance.company = s.company) "
+                    + "WHERE situation.id = s.id"
+                    + situationFilter)
+            .setParameter(
+                "today",
+                Date.from(
+                    appBaseService
+                        .getTodayDate()
+                        .atStartOfDay()
+                        .atZone(ZoneOffset.UTC)
+                        .toInstant()),
+                TemporalType.DATE)
+            .setParameter("validated", MoveRepository.STATUS_VALIDATED);
+
+    if (company != null) {
+      query.setParameter("company", company.getId());
+    }
+    if (partnerIds != null) {
+      query.setParameter("partners", partnerIds);
+    }
+
+    JPA.flush();
+    int count = query.executeUpdate();
+
+    log.debug("{} customer accounts updated", count);
+
+    if (partnerIds != null) {
+      for (Long id : this.getAccountingSituationIds(company, partnerIds, false)) {
+        JPA.em().refresh(accSituationRepo.find(id));
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Get the ids of the accounting situations updated by {@link #updateAccountingSituations}.
+   *
+   * @param company the company, or null for every company
+   * @param partnerIds the partners, or null for every partner
+   * @param onlyFlagged only the accounting situations flagged to be updated
+   * @return the ids of the accounting situations
+   */
+  public List<Long> getAccountingSituationIds(
+      Company company, Collection<Long> partnerIds, boolean onlyFlagged) {
+
+    if (partnerIds != null && partnerIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    List<String> filters = new ArrayList<>();
+    Map<String, Object> binding = new HashMap<>();
+    filters.add("self.partner IS NOT NULL");
+    if (company != null) {
+      filters.add("self.company = :company");
+      binding.put("company", company);
+    }
+    if (partnerIds != null) {
+      filters.add("self.partner.id IN (:partners)");
+      binding.put("partners", partnerIds);
+    }
+    if (onlyFlagged) {
+      filters.add("self.custAccountMustBeUpdateOk = TRUE");
+    }
+
+    return accSituationRepo
+        .all()
+        .filter(String.join(" AND ", filters))
+        .bind(binding)
+        .order("id")
+        .select("id")
+        .fetch(0, 0)
+        .stream()
+        .map(map -> (Long) map.get("id"))
+        .collect(Collectors.toList());
   }
 
   @Transactional(rollbackOn = {AxelorException.class, Exception.class})
@@ -0,0 +1,62 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import java.math.BigDecimal;
+import javax.annotation.concurrent.Immutable;
+
+/** Debit, credit and remaining totals of the move lines matching an accounting report. */
+@Immutable
+public final class AccountingReportBalance {
+
+  public static final AccountingReportBalance ZERO =
+      new AccountingReportBalance(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+
+  private final BigDecimal debit;
+
+  private final BigDecimal credit;
+
+  private final BigDecimal amountRemaining;
+
+  public AccountingReportBalance(BigDecimal debit, BigDecimal credit, BigDecimal amountRemaining) {
+    this.debit = debit != null ? debit : BigDecimal.ZERO;
+    this.credit = credit != null ? credit : BigDecimal.ZERO;
+    this.amountRemaining = amountRemaining != null ? amountRemaining : BigDecimal.ZERO;
+  }
+
+  public BigDecimal getDebit() {
+    return debit;
+  }
+
+  public BigDecimal getCredit() {
+    return credit;
+  }
+
+  public BigDecimal getAmountRemaining() {
+    return amountRemaining;
+  }
+
+  public BigDecimal getBalance() {
+    return debit.subtract(credit);
+  }
+
+  @Override
+  public String toString() {
+    return "debit=" + debit + ", credit=" + credit + ", amountRemaining=" + amountRemaining;
+  }
+}
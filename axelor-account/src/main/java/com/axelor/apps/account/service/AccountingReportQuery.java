@@ -0,0 +1,169 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.concurrent.Immutable;
+import javax.persistence.Query;
+
+/**
+ * Immutable filter built from an accounting report, on move lines or on general ledger balances.
+ *
+ * <p>Parameters are positional and only hold ids, dates and plain values, so an instance can be
+ * cached and shared between threads and persistence contexts.
+ */
+@Immutable
+public final class AccountingReportQuery {
+
+  private static final Pattern PARAM_PATTERN = Pattern.compile("\\?(\\d+)");
+
+  private final String filter;
+
+  private final List<Object> params;
+
+  private AccountingReportQuery(String filter, List<Object> params) {
+    this.filter = filter;
+    this.params = params;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Create a builder initialized with the conditions and parameters of this filter.
+   *
+   * @return a new builder
+   */
+  public Builder toBuilder() {
+    Builder builder = new Builder();
+    builder.filter.append(filter);
+    builder.params.addAll(params);
+    return builder;
+  }
+
+  /** @return the JPQL filter aliased as self, with positional parameters */
+  public String getFilter() {
+    return filter;
+  }
+
+  public List<Object> getParams() {
+    return params;
+  }
+
+  /**
+   * Bind the parameters of this filter on the given query.
+   *
+   * @param query a query built on {@link #getFilter()}
+   * @return the given query
+   */
+  public <T extends Query> T bind(T query) {
+    int position = 1;
+    for (Object param : params) {
+      query.setParameter(position++, param);
+    }
+    return query;
+  }
+
+  /**
+   * Get the filter with its parameters written inline, to be used as a view domain.
+   *
+   * @return the filter without positional parameters
+   */
+  public String toDomain() {
+    Matcher matcher = PARAM_PATTERN.matcher(filter);
+    StringBuffer domain = new StringBuffer();
+    while (matcher.find()) {
+      Object param = params.get(Integer.parseInt(matcher.group(1)) - 1);
+      matcher.appendReplacement(domain, Matcher.quoteReplacement(format(param)));
+    }
+    matcher.appendTail(domain);
+    return domain.toString();
+  }
+
+  private static String format(Object param) {
+    if (param == null) {
+      return "null";
+    }
+    if (param instanceof Collection) {
+      return ((Collection<?>) param)
+          .stream()
+          .map(AccountingReportQuery::format)
+          .collect(Collectors.joining(","));
+    }
+    if (param instanceof LocalDate || param instanceof String) {
+      return "'" + param.toString().replace("'", "''") + "'";
+    }
+    return param.toString();
+  }
+
+  @Override
+  public String toString() {
+    return filter + " " + params;
+  }
+
+  public static final class Builder {
+
+    private final StringBuilder filter = new StringBuilder();
+
+    private final List<Object> params = new ArrayList<>();
+
+    private Builder() {}
+
+    /**
+     * Add a condition without parameter.
+     *
+     * @param condition JPQL condition aliased as self
+     * @return this builder
+     */
+    public Builder add(String condition) {
+      if (filter.length() > 0) {
+        filter.append(" AND ");
+      }
+      filter.append(condition);
+      return this;
+    }
+
+    /**
+     * Add a condition with one parameter, referenced as <code>?%d</code> in the condition.
+     *
+     * @param condition JPQL condition aliased as self
+     * @param param an id, a collection of ids, a date or a plain value
+     * @return this builder
+     */
+    public Builder add(String condition, Object param) {
+      if (param instanceof Collection) {
+        param = Collections.unmodifiableList(new ArrayList<>((Collection<?>) param));
+      }
+      params.add(param);
+      return add(condition.replace("%d", String.valueOf(params.size())));
+    }
+
+    public AccountingReportQuery build() {
+      return new AccountingReportQuery(
+          filter.toString(), Collections.unmodifiableList(new ArrayList<>(params)));
+    }
+  }
+}
@@ -28,11 +28,16 @@ public interface AccountingReportService {
 
   public String getMoveLineList(AccountingReport accountingReport) throws AxelorException;
 
-  public String buildQuery(AccountingReport accountingReport) throws AxelorException;
-
-  public String addParams(String paramQuery, Object param);
-
-  public String addParams(String paramQuery);
+  /**
+   * Build the move line filter of the given report. The result is immutable and cached for saved
+   * reports until the report is modified.
+   *
+   * @param accountingReport
+   * @return
+   * @throws AxelorException
+   */
+  public AccountingReportQuery buildQuery(AccountingReport accountingReport)
+      throws AxelorException;
 
   @Transactional(rollbackOn = {AxelorException.class, Exception.class})
   public void setSequence(AccountingReport accountingReport, String sequence);
@@ -51,20 +56,34 @@ public interface AccountingReportService {
   public void setPublicationDateTime(AccountingReport accountingReport);
 
   /**
-   * @param queryFilter
+   * Compute debit, credit and remaining totals of the move lines matching the query in one pass.
+   *
+   * @param query
    * @return
    */
-  public BigDecimal getDebitBalance();
+  public AccountingReportBalance getBalance(AccountingReportQuery query);
 
   /**
-   * @param queryFilter
+   * Compute debit and credit totals of the report. Validated moves of the periods entirely
+   * covered by the report are read from general ledger balances when the report does not filter
+   * on journal, payment mode or line state; the remaining amount then only covers the other move
+   * lines.
+   *
+   * @param accountingReport
    * @return
+   * @throws AxelorException
    */
-  public BigDecimal getCreditBalance();
+  public AccountingReportBalance getBalance(AccountingReport accountingReport)
+      throws AxelorException;
+
+  public BigDecimal getDebitBalance(AccountingReportQuery query);
+
+  public BigDecimal getCreditBalance(AccountingReportQuery query);
 
-  public BigDecimal getDebitBalanceType4();
+  public BigDecimal getDebitBalanceType4(AccountingReportQuery query);
 
-  public BigDecimal getCreditBalance(AccountingReport accountingReport, String queryFilter);
+  public BigDecimal getCreditBalance(
+      AccountingReport accountingReport, AccountingReportQuery query);
 
-  public BigDecimal getCreditBalanceType4();
+  public BigDecimal getCreditBalanceType4(AccountingReportQuery query);
 }
@@ -23,6 +23,7 @@ import com.axelor.apps.account.db.AccountingReport;
 import com.axelor.apps.account.db.JournalType;
 import com.axelor.apps.account.db.repo.AccountRepository;
 import com.axelor.apps.account.db.repo.AccountingReportRepository;
+import com.axelor.apps.account.db.repo.MoveRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.service.app.AppAccountService;
 import com.axelor.apps.account.service.config.AccountConfigService;
@@ -36,182 +37,183 @@ import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.persist.Transactional;
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
-import java.time.LocalDate;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import javax.persistence.Query;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.persistence.TypedQuery;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+@Singleton
 public class AccountingReportServiceImpl implements AccountingReportService {
 
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  private static final int MAX_CACHED_QUERIES = 500;
+
+  /** Filter on an account set, matching the accounts and their children down to six levels. */
+  protected static final String ACCOUNT_SET_FILTER =
+      "(self.account.id in (?%d) or self.account.parentAccount.id in (?%d) "
+          + "or self.account.parentAccount.parentAccount.id in (?%d) "
+          + "or self.account.parentAccount.parentAccount.parentAccount.id in (?%d) "
+          + "or self.account.parentAccount.parentAccount.parentAccount"
+          + ".parentAccount.id in (?%d) "
+          + "or self.account.parentAccount.parentAccount.parentAccount.parentAccount"
+          + ".parentAccount.id in (?%d) "
+          + "or self.account.parentAccount.parentAccount.parentAccount.parentAccount"
+          + ".parentAccount.parentAccount.id in (?%d))";
+
   protected AccountingReportRepository accountingReportRepo;
 
   protected AppBaseService appBaseService;
 
-  protected String query = "";
-
   protected AccountRepository accountRepo;
 
-  protected List<Object> params = new ArrayList<Object>();
-  protected int paramNumber = 1;
+  protected GeneralLedgerBalanceService generalLedgerBalanceService;
+
+  /** Built filters of saved reports, keyed by report id and version. */
+  protected final Cache<List<Object>, AccountingReportQuery> queryCache =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_QUERIES)
+          .expireAfterWrite(10, TimeUnit.MINUTES)
+          .build();
 
   @Inject
   public AccountingReportServiceImpl(
       AppAccountService appBaseService,
       AccountingReportRepository accountingReportRepo,
-      AccountRepository accountRepo) {
+      AccountRepository accountRepo,
+      GeneralLedgerBalanceService generalLedgerBalanceService) {
     this.accountingReportRepo = accountingReportRepo;
     this.accountRepo = accountRepo;
     this.appBaseService = appBaseService;
+    this.generalLedgerBalanceService = generalLedgerBalanceService;
   }
 
-  @SuppressWarnings("unchecked")
   public String getMoveLineList(AccountingReport accountingReport) throws AxelorException {
 
-    this.buildQuery(accountingReport);
-
-    int i = 1;
-
-    String domainQuery = this.query;
-
-    for (Object param : params.toArray()) {
-
-      String paramStr = "";
-      if (param instanceof Model) {
-        paramStr = ((Model) param).getId().toString();
-      } else if (param instanceof Set) {
-        Set<Object> paramSet = (Set<Object>) param;
-        for (Object object : paramSet) {
-          if (!paramStr.isEmpty()) {
-            paramStr += ",";
-          }
-          paramStr += ((Model) object).getId().toString();
-        }
-      } else if (param instanceof LocalDate) {
-        paramStr = "'" + param.toString() + "'";
-      } else {
-        paramStr = param.toString();
-      }
-
-      domainQuery = domainQuery.replace("?" + i, paramStr);
-      i++;
-    }
+    String domainQuery = this.buildQuery(accountingReport).toDomain();
 
     log.debug("domainQuery : {}", domainQuery);
 
     return domainQuery;
   }
 
-  public String buildQuery(AccountingReport accountingReport) throws AxelorException {
+  public AccountingReportQuery buildQuery(AccountingReport accountingReport)
+      throws AxelorException {
+
+    if (accountingReport.getId() == null) {
+      return this.createQuery(accountingReport);
+    }
+
+    List<Object> key = Arrays.asList(accountingReport.getId(), accountingReport.getVersion());
+    AccountingReportQuery query = queryCache.getIfPresent(key);
+    if (query == null) {
+      query = this.createQuery(accountingReport);
+      queryCache.put(key, query);
+    }
+    return query;
+  }
+
+  protected AccountingReportQuery createQuery(AccountingReport accountingReport)
+      throws AxelorException {
+
+    AccountingReportQuery.Builder builder = AccountingReportQuery.builder();
 
     if (accountingReport.getCompany() != null) {
-      this.addParams("self.move.company = ?%d", accountingReport.getCompany());
+      builder.add("self.move.company.id = ?%d", accountingReport.getCompany().getId());
     }
 
     if (accountingReport.getDateFrom() != null) {
-      this.addParams("self.date >= ?%d", accountingReport.getDateFrom());
+      builder.add("self.date >= ?%d", accountingReport.getDateFrom());
     }
 
     if (accountingReport.getDateTo() != null) {
-      this.addParams("self.date <= ?%d", accountingReport.getDateTo());
+      builder.add("self.date <= ?%d", accountingReport.getDateTo());
     }
 
     if (accountingReport.getDate() != null) {
-      this.addParams("self.date <= ?%d", accountingReport.getDate());
+      builder.add("self.date <= ?%d", accountingReport.getDate());
     }
 
     if (accountingReport.getJournal() != null) {
-      this.addParams("self.move.journal = ?%d", accountingReport.getJournal());
+      builder.add("self.move.journal.id = ?%d", accountingReport.getJournal().getId());
     }
 
     if (accountingReport.getPeriod() != null) {
-      this.addParams("self.move.period = ?%d", accountingReport.getPeriod());
+      builder.add("self.move.period.id = ?%d", accountingReport.getPeriod().getId());
     }
 
     if (accountingReport.getAccountSet() != null && !accountingReport.getAccountSet().isEmpty()) {
-      this.addParams(
-          "(self.account in (?%d) or self.account.parentAccount in (?%d) "
-              + "or self.account.parentAccount.parentAccount in (?%d) or self.account.parentAccount.parentAccount.parentAccount in (?%d) "
-              + "or self.account.parentAccount.parentAccount.parentAccount.parentAccount in (?%d) or self.account.parentAccount.parentAccount.parentAccount.parentAccount.parentAccount in (?%d) "
-              + "or self.account.parentAccount.parentAccount.parentAccount.parentAccount.parentAccount.parentAccount in (?%d))",
-          accountingReport.getAccountSet());
+      builder.add(ACCOUNT_SET_FILTER, getIds(accountingReport.getAccountSet()));
     }
 
     if (accountingReport.getPartnerSet() != null && !accountingReport.getPartnerSet().isEmpty()) {
-      this.addParams("self.partner in (?%d)", accountingReport.getPartnerSet());
+      builder.add("self.partner.id in (?%d)", getIds(accountingReport.getPartnerSet()));
     }
 
     if (accountingReport.getYear() != null) {
-      this.addParams("self.move.period.year = ?%d", accountingReport.getYear());
+      builder.add("self.move.period.year.id = ?%d", accountingReport.getYear().getId());
     }
 
     if (accountingReport.getPaymentMode() != null) {
-      this.addParams("self.move.paymentMode = ?%d", accountingReport.getPaymentMode());
+      builder.add("self.move.paymentMode.id = ?%d", accountingReport.getPaymentMode().getId());
     }
 
     if (accountingReport.getTypeSelect() == AccountingReportRepository.REPORT_CHEQUE_DEPOSIT) {
-      this.addParams("self.amountPaid > 0 AND self.credit > 0");
+      builder.add("self.amountPaid > 0 AND self.credit > 0");
     }
 
     if (accountingReport.getTypeSelect() == AccountingReportRepository.REPORT_AGED_BALANCE) {
-      this.addParams("self.amountRemaining > 0 AND self.debit > 0");
+      builder.add("self.amountRemaining > 0 AND self.debit > 0");
     }
 
-    this.addParams("self.move.ignoreInAccountingOk = 'false'");
+    builder.add("self.move.ignoreInAccountingOk = 'false'");
 
     // FOR EXPORT ONLY :
 
     if (accountingReport.getTypeSelect()
         > AccountingReportRepository.EXPORT_PAYROLL_JOURNAL_ENTRY) {
-      this.addParams(
-          "(self.move.accountingOk = false OR (self.move.accountingOk = true and self.move.accountingReport = ?%d))",
-          accountingReport);
+      builder.add(
+          "(self.move.accountingOk = false OR "
+              + "(self.move.accountingOk = true and self.move.accountingReport.id = ?%d))",
+          accountingReport.getId());
     }
 
     if (accountingReport.getTypeSelect()
         >= AccountingReportRepository.EXPORT_PAYROLL_JOURNAL_ENTRY) {
-      this.addParams("self.move.journal.notExportOk = false ");
+      builder.add("self.move.journal.notExportOk = false ");
     }
 
     if (accountingReport.getTypeSelect()
         > AccountingReportRepository.EXPORT_PAYROLL_JOURNAL_ENTRY) {
       JournalType journalType = this.getJournalType(accountingReport);
       if (journalType != null) {
-        this.addParams("self.move.journal.journalType = ?%d", journalType);
+        builder.add("self.move.journal.journalType.id = ?%d", journalType.getId());
       }
     }
 
-    log.debug("Query : {}", this.query);
+    AccountingReportQuery query = builder.build();
 
-    return this.query;
-  }
+    log.debug("Query : {}", query);
 
-  public String addParams(String paramQuery, Object param) {
-
-    log.debug("requete et param : {} : {}", paramQuery, paramNumber);
-
-    this.addParams(paramQuery.replaceAll("%d", String.valueOf(paramNumber++)));
-    this.params.add(param);
-
-    return this.query;
+    return query;
   }
 
-  public String addParams(String paramQuery) {
-
-    if (!this.query.equals("")) {
-      this.query += " AND ";
-    }
-
-    this.query += paramQuery;
-    return this.query;
+  protected List<Long> getIds(Set<? extends Model> models) {
+    return models.stream().map(Model::getId).collect(Collectors.toList());
   }
 
   public void setSequence(AccountingReport accountingReport, String sequence) {
@@ -318,76 +320,159 @@ public class AccountingReportServiceImpl implements AccountingReportService {
     accountingReportRepo.save(accountingReport);
   }
 
-  /**
-   * @param queryFilter
-   * @return
-   */
-  public BigDecimal getDebitBalance() {
+  public AccountingReportBalance getBalance(AccountingReportQuery query) {
+
+    Object[] result =
+        query
+            .bind(
+                JPA.em()
+                    .createQuery(
+                        "select SUM(self.debit), SUM(self.credit), SUM(self.amountRemaining) "
+                            + "FROM MoveLine as self WHERE "
+                            + query.getFilter(),
+                        Object[].class))
+            .getSingleResult();
+
+    if (result == null) {
+      return AccountingReportBalance.ZERO;
+    }
 
-    Query q =
-        JPA.em()
-            .createQuery(
-                "select SUM(self.debit) FROM MoveLine as self WHERE " + query, BigDecimal.class);
+    AccountingReportBalance balance =
+        new AccountingReportBalance(
+            (BigDecimal) result[0], (BigDecimal) result[1], (BigDecimal) result[2]);
+    log.debug("Balance : {}", balance);
 
-    int i = 1;
+    return balance;
+  }
 
-    for (Object param : params.toArray()) {
-      q.setParameter(i++, param);
-    }
+  public AccountingReportBalance getBalance(AccountingReport accountingReport)
+      throws AxelorException {
 
-    BigDecimal result = (BigDecimal) q.getSingleResult();
-    log.debug("Total debit : {}", result);
+    AccountingReportQuery query = this.buildQuery(accountingReport);
 
-    if (result != null) {
-      return result;
-    } else {
-      return BigDecimal.ZERO;
+    List<Long> periodIds =
+        this.isBalanceAggregated(accountingReport)
+            ? this.getCoveredPeriodIds(accountingReport)
+            : Collections.emptyList();
+    if (periodIds.isEmpty()) {
+      return this.getBalance(query);
     }
+
+    AccountingReportBalance aggregated =
+        generalLedgerBalanceService.getBalance(
+            this.createBalanceQuery(accountingReport, periodIds));
+    AccountingReportBalance remaining =
+        this.getBalance(
+            query
+                .toBuilder()
+                .add(
+                    "(self.move.statusSelect != "
+                        + MoveRepository.STATUS_VALIDATED
+                        + " OR self.move.period.id NOT IN (?%d))",
+                    periodIds)
+                .build());
+
+    return new AccountingReportBalance(
+        aggregated.getDebit().add(remaining.getDebit()),
+        aggregated.getCredit().add(remaining.getCredit()),
+        remaining.getAmountRemaining());
   }
 
   /**
-   * @param queryFilter
-   * @return
+   * Whether the report only filters on company, periods, dates, accounts and partners, so that
+   * general ledger balances can replace move lines. Until the balances of the company are built,
+   * move lines are read.
    */
-  public BigDecimal getCreditBalance() {
+  protected boolean isBalanceAggregated(AccountingReport accountingReport) {
+    int typeSelect = accountingReport.getTypeSelect();
+    return accountingReport.getCompany() != null
+        && generalLedgerBalanceService.isBuilt(accountingReport.getCompany())
+        && accountingReport.getJournal() == null
+        && accountingReport.getPaymentMode() == null
+        && typeSelect < AccountingReportRepository.EXPORT_ADMINISTRATION
+        && typeSelect != AccountingReportRepository.REPORT_CHEQUE_DEPOSIT
+        && typeSelect != AccountingReportRepository.REPORT_AGED_BALANCE;
+  }
 
-    Query q =
-        JPA.em()
-            .createQuery(
-                "select SUM(self.credit) FROM MoveLine as self WHERE " + query, BigDecimal.class);
+  /** Get the periods of the report company which are entirely inside the report dates. */
+  protected List<Long> getCoveredPeriodIds(AccountingReport accountingReport) {
 
-    int i = 1;
+    StringBuilder filter =
+        new StringBuilder(
+            "SELECT self.id FROM Period self WHERE self.year.company = :company "
+                + "AND self.fromDate IS NOT NULL AND self.toDate IS NOT NULL");
+    Map<String, Object> params = new HashMap<>();
+    params.put("company", accountingReport.getCompany());
 
-    for (Object param : params.toArray()) {
-      q.setParameter(i++, param);
+    if (accountingReport.getPeriod() != null) {
+      filter.append(" AND self = :period");
+      params.put("period", accountingReport.getPeriod());
+    }
+    if (accountingReport.getYear() != null) {
+      filter.append(" AND self.year = :year");
+      params.put("year", accountingReport.getYear());
+    }
+    if (accountingReport.getDateFrom() != null) {
+      filter.append(" AND self.fromDate >= :dateFrom");
+      params.put("dateFrom", accountingReport.getDateFrom());
+    }
+    if (accountingReport.getDateTo() != null) {
+      filter.append(" AND self.toDate <= :dateTo");
+      params.put("dateTo", accountingReport.getDateTo());
+    }
+    if (accountingReport.getDate() != null) {
+      filter.append(" AND self.toDate <= :date");
+      params.put("date", accountingReport.getDate());
     }
 
-    BigDecimal result = (BigDecimal) q.getSingleResult();
-    log.debug("Total debit : {}", result);
+    TypedQuery<Long> query = JPA.em().createQuery(filter.toString(), Long.class);
+    params.forEach(query::setParameter);
+    return query.getResultList();
+  }
 
-    if (result != null) {
-      return result;
-    } else {
-      return BigDecimal.ZERO;
+  protected AccountingReportQuery createBalanceQuery(
+      AccountingReport accountingReport, List<Long> periodIds) {
+
+    AccountingReportQuery.Builder builder =
+        AccountingReportQuery.builder()
+            .add("self.company.id = ?%d", accountingReport.getCompany().getId())
+            .add("self.period.id IN (?%d)", periodIds);
+
+    if (accountingReport.getAccountSet() != null && !accountingReport.getAccountSet().isEmpty()) {
+      builder.add(ACCOUNT_SET_FILTER, getIds(accountingReport.getAccountSet()));
+    }
+
+    if (accountingReport.getPartnerSet() != null && !accountingReport.getPartnerSet().isEmpty()) {
+      builder.add("self.partner.id in (?%d)", getIds(accountingReport.getPartnerSet()));
     }
+
+    return builder.build();
   }
 
-  public BigDecimal getDebitBalanceType4() {
+  public BigDecimal getDebitBalance(AccountingReportQuery query) {
+    return this.getSum("self.debit", query);
+  }
 
-    Query q =
-        JPA.em()
-            .createQuery(
-                "select SUM(self.amountRemaining) FROM MoveLine as self WHERE " + query,
-                BigDecimal.class);
+  public BigDecimal getCreditBalance(AccountingReportQuery query) {
+    return this.getSum("self.credit", query);
+  }
 
-    int i = 1;
+  public BigDecimal getDebitBalanceType4(AccountingReportQuery query) {
+    return this.getSum("self.amountRemaining", query);
+  }
 
-    for (Object param : params.toArray()) {
-      q.setParameter(i++, param);
-    }
+  protected BigDecimal getSum(String field, AccountingReportQuery query) {
 
-    BigDecimal result = (BigDecimal) q.getSingleResult();
-    log.debug("Total debit : {}", result);
+    BigDecimal result =
+        query
+            .bind(
+                JPA.em()
+                    .createQuery(
+                        "select SUM(" + field + ") FROM MoveLine as self WHERE "
+                            + query.getFilter(),
+                        BigDecimal.class))
+            .getSingleResult();
+    log.debug("Total {} : {}", field, result);
 
     if (result != null) {
       return result;
@@ -396,17 +481,19 @@ public class AccountingReportServiceImpl implements AccountingReportService {
     }
   }
 
-  public BigDecimal getCreditBalance(AccountingReport accountingReport, String queryFilter) {
+  public BigDecimal getCreditBalance(
+      AccountingReport accountingReport, AccountingReportQuery query) {
 
     if (accountingReport.getTypeSelect() == AccountingReportRepository.REPORT_AGED_BALANCE) {
-      return this.getCreditBalanceType4();
+      return this.getCreditBalanceType4(query);
     } else {
-      return this.getCreditBalance();
+      return this.getCreditBalance(query);
     }
   }
 
-  public BigDecimal getCreditBalanceType4() {
+  public BigDecimal getCreditBalanceType4(AccountingReportQuery query) {
 
-    return this.getDebitBalance().subtract(this.getDebitBalanceType4());
+    AccountingReportBalance balance = this.getBalance(query);
+    return balance.getDebit().subtract(balance.getAmountRemaining());
   }
 }
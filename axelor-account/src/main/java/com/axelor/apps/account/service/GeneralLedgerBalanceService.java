@@ -0,0 +1,77 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import com.axelor.apps.account.db.Move;
+import com.axelor.apps.base.db.Company;
+
+/**
+ * Maintain the debit and credit totals of validated moves per company, period, account and
+ * partner, so that balances do not have to be computed from every move line.
+ */
+public interface GeneralLedgerBalanceService {
+
+  /**
+   * Add the lines of a move which has just been validated.
+   *
+   * @param move
+   */
+  void add(Move move);
+
+  /**
+   * Subtract the lines of a validated move which is being canceled.
+   *
+   * @param move
+   */
+  void subtract(Move move);
+
+  /**
+   * Whether the balances of a company have been built from its existing moves, so that they can be
+   * read instead of its move lines.
+   *
+   * @param company
+   * @return
+   */
+  boolean isBuilt(Company company);
+
+  /**
+   * Sum debit and credit of the balances matching the given query.
+   *
+   * @param query a filter on GeneralLedgerBalance aliased as self
+   * @return
+   */
+  AccountingReportBalance getBalance(AccountingReportQuery query);
+
+  /**
+   * Count the (period, account, partner) keys of a company whose balance does not match its
+   * validated move lines.
+   *
+   * @param company
+   * @return
+   */
+  long check(Company company);
+
+  /**
+   * Recompute all balances of a company from its validated move lines, and mark them as built.
+   * Moves of the company cannot be validated or canceled meanwhile.
+   *
+   * @param company
+   * @return the number of balances created
+   */
+  int rebuild(Company company);
+}
@@ -0,0 +1,258 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.AccountConfig;
+import com.axelor.apps.account.db.GeneralLedgerBalance;
+import com.axelor.apps.account.db.Move;
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.db.repo.GeneralLedgerBalanceRepository;
+import com.axelor.apps.account.db.repo.MoveRepository;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.Period;
+import com.axelor.db.JPA;
+import com.google.inject.Inject;
+import com.google.inject.persist.Transactional;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.persistence.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class GeneralLedgerBalanceServiceImpl implements GeneralLedgerBalanceService {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final String MOVE_LINE_TOTALS =
+      "SELECT move.period AS period, ml.account AS account, ml.partner AS partner, "
+          + "SUM(ml.debit) AS debit, SUM(ml.credit) AS credit "
+          + "FROM public.account_move_line AS ml "
+          + "JOIN public.account_move AS move ON (ml.move = move.id) "
+          + "WHERE move.company = :company AND move.status_select = :validated "
+          + "AND move.ignore_in_accounting_ok IS NOT TRUE "
+          + "GROUP BY move.period, ml.account, ml.partner";
+
+  /** First key of the advisory locks taken on the balances of a company. */
+  private static final int LOCK_KEY = 0x474c42;
+
+  protected GeneralLedgerBalanceRepository generalLedgerBalanceRepo;
+
+  @Inject
+  public GeneralLedgerBalanceServiceImpl(GeneralLedgerBalanceRepository generalLedgerBalanceRepo) {
+    this.generalLedgerBalanceRepo = generalLedgerBalanceRepo;
+  }
+
+  @Override
+  @Transactional
+  public void add(Move move) {
+    this.apply(move, false);
+  }
+
+  @Override
+  @Transactional
+  public void subtract(Move move) {
+    this.apply(move, true);
+  }
+
+  protected void apply(Move move, boolean negate) {
+
+    if (move.getIgnoreInAccountingOk() || move.getMoveLineList() == null) {
+      return;
+    }
+
+    this.lock(move.getCompany(), false);
+
+    Map<List<Object>, BigDecimal[]> totals = new LinkedHashMap<>();
+    for (MoveLine moveLine : move.getMoveLineList()) {
+      BigDecimal[] total =
+          totals.computeIfAbsent(
+              Arrays.asList(moveLine.getAccount(), moveLine.getPartner()),
+              key -> new BigDecimal[] {BigDecimal.ZERO, BigDecimal.ZERO});
+      total[0] = total[0].add(moveLine.getDebit());
+      total[1] = total[1].add(moveLine.getCredit());
+    }
+
+    for (Entry<List<Object>, BigDecimal[]> entry : totals.entrySet()) {
+      BigDecimal[] total = entry.getValue();
+      this.update(
+          move.getCompany(),
+          move.getPeriod(),
+          (Account) entry.getKey().get(0),
+          (Partner) entry.getKey().get(1),
+          negate ? total[0].negate() : total[0],
+          negate ? total[1].negate() : total[1]);
+    }
+  }
+
+  /**
+   * Lock the balances of a company until the end of the transaction. Moves take a shared lock, so
+   * that they do not wait for each other, and a rebuild takes an exclusive one, so that it does not
+   * miss or count twice a move validated at the same time.
+   */
+  protected void lock(Company company, boolean exclusive) {
+    JPA.em()
+        .createNativeQuery(
+            "SELECT COUNT(*) FROM (SELECT "
+                + (exclusive ? "pg_advisory_xact_lock" : "pg_advisory_xact_lock_shared")
+                + "(:key, :company)) AS lock")
+        .setParameter("key", LOCK_KEY)
+        .setParameter("company", company.getId().intValue())
+        .getSingleResult();
+  }
+
+  /**
+   * Add the given amounts to a balance with an atomic update, or create the balance. Two
+   * transactions creating the same balance at once leave two rows, which sum to the right amount
+   * until the next rebuild.
+   */
+  protected void update(
+      Company company,
+      Period period,
+      Account account,
+      Partner partner,
+      BigDecimal debit,
+      BigDecimal credit) {
+
+    Query query =
+        JPA.em()
+            .createQuery(
+                "UPDATE GeneralLedgerBalance self "
+                    + "SET self.debit = self.debit + :debit, self.credit = self.credit + :credit, "
+                    + "self.version = self.version + 1 "
+                    + "WHERE self.company = :company AND self.period = :period "
+                    + "AND self.account = :account AND "
+                    + (partner == null ? "self.partner IS NULL" : "self.partner = :partner"))
+            .setParameter("debit", debit)
+            .setParameter("credit", credit)
+            .setParameter("company", company)
+            .setParameter("period", period)
+            .setParameter("account", account);
+    if (partner != null) {
+      query.setParameter("partner", partner);
+    }
+
+    if (query.executeUpdate() == 0) {
+      GeneralLedgerBalance balance = new GeneralLedgerBalance();
+      balance.setCompany(company);
+      balance.setPeriod(period);
+      balance.setAccount(account);
+      balance.setPartner(partner);
+      balance.setDebit(debit);
+      balance.setCredit(credit);
+      generalLedgerBalanceRepo.save(balance);
+    }
+  }
+
+  @Override
+  public boolean isBuilt(Company company) {
+    AccountConfig accountConfig = company.getAccountConfig();
+    return accountConfig != null && accountConfig.getGeneralLedgerBalanceOk();
+  }
+
+  @Override
+  public AccountingReportBalance getBalance(AccountingReportQuery query) {
+
+    Object[] result =
+        query
+            .bind(
+                JPA.em()
+                    .createQuery(
+                        "select SUM(self.debit), SUM(self.credit) "
+                            + "FROM GeneralLedgerBalance as self WHERE "
+                            + query.getFilter(),
+                        Object[].class))
+            .getSingleResult();
+
+    if (result == null) {
+      return AccountingReportBalance.ZERO;
+    }
+    return new AccountingReportBalance(
+        (BigDecimal) result[0], (BigDecimal) result[1], BigDecimal.ZERO);
+  }
+
+  @Override
+  public long check(Company company) {
+
+    Object result =
+        JPA.em()
+            .createNativeQuery(
+                "SELECT COUNT(*) FROM "
+                    + "(SELECT gl.period, gl.account, gl.partner, "
+                    + "SUM(gl.debit) AS debit, SUM(gl.credit) AS credit "
+                    + "FROM public.account_general_ledger_balance AS gl "
+                    + "WHERE gl.company = :company "
+                    + "GROUP BY gl.period, gl.account, gl.partner) AS balance "
+                    + "FULL OUTER JOIN ("
+                    + MOVE_LINE_TOTALS
+                    + ") AS total ON (balance.period = total.period "
+                    + "AND balance.account = total.account "
+                    + "AND balance.partner IS NOT DISTINCT FROM total.partner) "
+                    + "WHERE COALESCE(balance.debit, 0) <> COALESCE(total.debit, 0) "
+                    + "OR COALESCE(balance.credit, 0) <> COALESCE(total.credit, 0)")
+            .setParameter("company", company.getId())
+            .setParameter("validated", MoveRepository.STATUS_VALIDATED)
+            .getSingleResult();
+
+    long count = ((Number) result).longValue();
+    log.debug("General ledger balances of {} not matching move lines : {}", company, count);
+    return count;
+  }
+
+  @Override
+  @Transactional
+  public int rebuild(Company company) {
+
+    this.lock(company, true);
+
+    JPA.em()
+        .createNativeQuery(
+            "DELETE FROM public.account_general_ledger_balance WHERE company = :company")
+        .setParameter("company", company.getId())
+        .executeUpdate();
+
+    int count =
+        JPA.em()
+            .createNativeQuery(
+                "INSERT INTO public.account_general_ledger_balance "
+                    + "(id, version, company, period, account, partner, debit, credit) "
+                    + "SELECT nextval('account_general_ledger_balance_seq'), 0, :company, "
+                    + "total.period, total.account, total.partner, total.debit, total.credit "
+                    + "FROM ("
+                    + MOVE_LINE_TOTALS
+                    + ") AS total")
+            .setParameter("company", company.getId())
+            .setParameter("validated", MoveRepository.STATUS_VALIDATED)
+            .executeUpdate();
+
+    if (company.getAccountConfig() != null) {
+      AccountConfig accountConfig =
+          JPA.em().find(AccountConfig.class, company.getAccountConfig().getId());
+      accountConfig.setGeneralLedgerBalanceOk(true);
+    }
+
+    log.debug("General ledger balances rebuilt for {} : {}", company, count);
+    return count;
+  }
+}
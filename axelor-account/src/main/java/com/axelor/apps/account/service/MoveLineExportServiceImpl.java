@@ -48,6 +48,7 @@ import com.axelor.inject.Beans;
 import com.axelor.meta.MetaFiles;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import com.opencsv.CSVWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -60,9 +61,16 @@ import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.persistence.Query;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,6 +94,8 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
   protected static final String DATE_FORMAT_YYYYMMDD = "YYYYMMdd";
   protected static final String DATE_FORMAT_YYYYMMDDHHMMSS = "YYYYMMddHHmmss";
 
+  protected static final int EXPORT_CHUNK_SIZE = 1000;
+
   @Inject
   public MoveLineExportServiceImpl(
       AppAccountService appAccountService,
@@ -1074,7 +1084,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
   public void exportMoveLineTypeSelect1010(AccountingReport accountingReport)
       throws AxelorException, IOException {
     log.info("In Export type 1010 service:");
-    List<String[]> allMoveLineData = new ArrayList<>();
     String filterStr = accountingReportService.getMoveLineList(accountingReport);
     String queryStr =
         String.format(
@@ -1082,18 +1091,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
                 + "FROM MoveLine self WHERE %s "
                 + "GROUP BY self.accountCode, self.accountName ORDER BY self.accountCode",
             filterStr);
-    Query query = JPA.em().createQuery(queryStr);
-
-    @SuppressWarnings("unchecked")
-    List<Object[]> resultList = query.getResultList();
-
-    for (Object[] result : resultList) {
-      String[] items = new String[result.length];
-      for (int i = 0; i < result.length; ++i) {
-        items[i] = String.valueOf(result[i]);
-      }
-      allMoveLineData.add(items);
-    }
 
     String filePath =
         accountConfigService.getExportPath(
@@ -1117,7 +1114,26 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
     Path path = Paths.get(filePath, fileName);
 
     log.debug("Full path to export: {}", path);
-    CsvTool.csvWriter(filePath, fileName, '|', null, allMoveLineData);
+
+    long startTime = System.currentTimeMillis();
+    long rowCount = 0;
+
+    CSVWriter csvWriter = CsvTool.setCsvFile(filePath, fileName, '|');
+    try (ScrollableResults results = this.scroll(queryStr)) {
+      while (results.next()) {
+        Object[] result = results.get();
+        String[] items = new String[result.length];
+        for (int i = 0; i < result.length; ++i) {
+          items[i] = String.valueOf(result[i]);
+        }
+        csvWriter.writeNext(items);
+        rowCount++;
+      }
+    } finally {
+      csvWriter.close();
+    }
+
+    this.logThroughput(fileName, rowCount, startTime);
 
     try (InputStream is = new FileInputStream(path.toFile())) {
       Beans.get(MetaFiles.class).attach(is, fileName, accountingReport);
@@ -1136,11 +1152,12 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       throws AxelorException, IOException {
 
     log.info("In Export type 1000 service : ");
-    List<String[]> allMoveLineData = new ArrayList<>();
     Company company = accountingReport.getCompany();
 
     LocalDate interfaceDate = accountingReport.getDate();
     String exportNumber = this.getSaleExportNumber(company);
+    // The sequence update must reach the database before the context is cleared below
+    JPA.flush();
 
     String moveLineQueryStr = "";
     moveLineQueryStr += String.format(" AND self.move.company = %s", company.getId());
@@ -1182,90 +1199,9 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
       }
     }
 
-    List<MoveLine> moveLineList =
-        moveLineRepo
-            .all()
-            .filter(
-                "self.move.statusSelect = ?1" + moveLineQueryStr, MoveRepository.STATUS_VALIDATED)
-            .order("date")
-            .order("name")
-            .fetch();
-    if (!moveLineList.isEmpty()) {
-      List<Move> moveList = new ArrayList<>();
-      for (MoveLine moveLine : moveLineList) {
-        String[] items = new String[18];
-        Move move = moveLine.getMove();
-        if (!moveList.contains(move)) {
-          moveList.add(move);
-        }
-        Journal journal = move.getJournal();
-        items[0] = journal.getCode();
-        items[1] = journal.getName();
-        items[2] = moveLine.getName();
-        items[3] = moveLine.getDate().format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD));
-        items[4] = moveLine.getAccount().getCode();
-        items[5] = moveLine.getAccount().getName();
-        items[6] = "";
-        items[7] = "";
-        Partner partner = moveLine.getPartner();
-        if (partner != null) {
-          items[6] = partner.getPartnerSeq();
-          items[7] = partner.getFullName();
-        }
-        items[8] = moveLine.getOrigin();
-        items[9] =
-            moveLine
-                .getDate()
-                .format(
-                    DateTimeFormatter.ofPattern(
-                        DATE_FORMAT_YYYYMMDD)); // Pour le moment on va utiliser la date des lignes
-        // d'écriture.
-        items[10] = moveLine.getDescription();
-        items[11] = moveLine.getDebit().toString();
-        items[12] = moveLine.getCredit().toString();
-        if (moveLine.getDebit().compareTo(BigDecimal.ZERO) > 0) {
-          List<String> reconcileSeqList = new ArrayList<>();
-          List<String> reconcileDateList = new ArrayList<>();
-
-          for (Reconcile reconcile : moveLine.getDebitReconcileList()) {
-            reconcileSeqList.add(reconcile.getReconcileSeq());
-            reconcileDateList.add(
-                reconcile
-                    .getReconciliationDate()
-                    .format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD)));
-          }
-          items[13] = StringUtils.join(reconcileSeqList, "; ");
-          items[14] = StringUtils.join(reconcileDateList, "; ");
-        } else {
-          List<String> reconcileSeqList = new ArrayList<>();
-          List<String> reconcileDateList = new ArrayList<>();
-          for (Reconcile reconcile : moveLine.getCreditReconcileList()) {
-            if (reconcile.getStatusSelect() == ReconcileRepository.STATUS_CONFIRMED) {
-              reconcileSeqList.add(reconcile.getReconcileSeq());
-              reconcileDateList.add(
-                  reconcile
-                      .getReconciliationDate()
-                      .format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD)));
-            }
-          }
-          items[13] = StringUtils.join(reconcileSeqList, "; ");
-          items[14] = StringUtils.join(reconcileDateList, "; ");
-        }
-        items[15] =
-            move.getValidationDate().format(DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD));
-        items[16] = moveLine.getCurrencyAmount().toString();
-        if (move.getCurrency() != null) {
-          items[17] = move.getCurrency().getCode();
-        }
-        allMoveLineData.add(items);
-      }
-
-      if (!administration) {
-        this.updateMoveList(moveList, accountingReport, interfaceDate, exportNumber);
-      }
-    }
-
-    accountingReport = accountingReportRepo.find(accountingReport.getId());
+    String moveLineFilter =
+        String.format("self.move.statusSelect = %s", MoveRepository.STATUS_VALIDATED)
+            + moveLineQueryStr;
 
     String fileName = this.setFileName(accountingReport);
     String filePath =
@@ -1274,9 +1210,58 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
 
     new File(filePath).mkdirs();
     log.debug("Full path to export : {}{}", filePath, fileName);
-    //		CsvTool.csvWriter(filePath, fileName, '|', null, allMoveLineData);
-    CsvTool.csvWriter(
-        filePath, fileName, '|', this.createHeaderForPayrollJournalEntry(), allMoveLineData);
+
+    Long accountingReportId = accountingReport.getId();
+    long startTime = System.currentTimeMillis();
+    long rowCount = 0;
+
+    // Lines are read through a cursor and written as they come, the persistence context being
+    // cleared after each chunk so that the memory used does not depend on the period size.
+    CSVWriter csvWriter = CsvTool.setCsvFile(filePath, fileName, '|');
+    try (ScrollableResults results =
+        this.scroll(
+            "SELECT self FROM MoveLine self "
+                + "JOIN FETCH self.move move "
+                + "JOIN FETCH move.journal "
+                + "JOIN FETCH self.account "
+                + "LEFT JOIN FETCH self.partner "
+                + "LEFT JOIN FETCH move.currency "
+                + "WHERE "
+                + moveLineFilter
+                + " ORDER BY self.date, self.name, self.id")) {
+
+      csvWriter.writeNext(this.createHeaderForPayrollJournalEntry());
+
+      List<MoveLine> moveLineList = new ArrayList<>(EXPORT_CHUNK_SIZE);
+      boolean hasNext = results.next();
+
+      while (hasNext) {
+        moveLineList.add((MoveLine) results.get(0));
+        hasNext = results.next();
+
+        if (moveLineList.size() == EXPORT_CHUNK_SIZE || !hasNext) {
+          this.writeMoveLineTypeSelect1000(csvWriter, moveLineList);
+          rowCount += moveLineList.size();
+          moveLineList.clear();
+          JPA.clear();
+
+          if (rowCount % (EXPORT_CHUNK_SIZE * 100) == 0) {
+            this.logThroughput(fileName, rowCount, startTime);
+          }
+        }
+      }
+    } finally {
+      csvWriter.close();
+    }
+
+    this.logThroughput(fileName, rowCount, startTime);
+
+    accountingReport = accountingReportRepo.find(accountingReportId);
+
+    if (!administration && rowCount > 0) {
+      this.updateMoves(moveLineFilter, accountingReport, interfaceDate, exportNumber);
+    }
+
     accountingReportRepo.save(accountingReport);
 
     Path path = Paths.get(filePath + fileName);
@@ -1286,6 +1271,144 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
     }
   }
 
+  protected void writeMoveLineTypeSelect1000(CSVWriter csvWriter, List<MoveLine> moveLineList) {
+
+    DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(DATE_FORMAT_YYYYMMDD);
+
+    // Load the reconciliations of the whole chunk at once
+    Map<Long, List<Reconcile>> debitReconcileMap = new HashMap<>();
+    Map<Long, List<Reconcile>> creditReconcileMap = new HashMap<>();
+    List<Reconcile> reconcileList =
+        JPA.em()
+            .createQuery(
+                "SELECT self FROM Reconcile self "
+                    + "WHERE self.debitMoveLine IN (:moveLines) "
+                    + "OR self.creditMoveLine IN (:moveLines) "
+                    + "ORDER BY self.id",
+                Reconcile.class)
+            .setParameter("moveLines", moveLineList)
+            .getResultList();
+    for (Reconcile reconcile : reconcileList) {
+      if (reconcile.getDebitMoveLine() != null) {
+        debitReconcileMap
+            .computeIfAbsent(reconcile.getDebitMoveLine().getId(), id -> new ArrayList<>())
+            .add(reconcile);
+      }
+      if (reconcile.getCreditMoveLine() != null) {
+        creditReconcileMap
+            .computeIfAbsent(reconcile.getCreditMoveLine().getId(), id -> new ArrayList<>())
+            .add(reconcile);
+      }
+    }
+
+    for (MoveLine moveLine : moveLineList) {
+      String[] items = new String[18];
+      Move move = moveLine.getMove();
+      Journal journal = move.getJournal();
+      items[0] = journal.getCode();
+      items[1] = journal.getName();
+      items[2] = moveLine.getName();
+      items[3] = moveLine.getDate().format(dateFormatter);
+      items[4] = moveLine.getAccount().getCode();
+      items[5] = moveLine.getAccount().getName();
+      items[6] = "";
+      items[7] = "";
+      Partner partner = moveLine.getPartner();
+      if (partner != null) {
+        items[6] = partner.getPartnerSeq();
+        items[7] = partner.getFullName();
+      }
+      items[8] = moveLine.getOrigin();
+      // Pour le moment on va utiliser la date des lignes d'écriture.
+      items[9] = moveLine.getDate().format(dateFormatter);
+      items[10] = moveLine.getDescription();
+      items[11] = moveLine.getDebit().toString();
+      items[12] = moveLine.getCredit().toString();
+
+      List<String> reconcileSeqList = new ArrayList<>();
+      List<String> reconcileDateList = new ArrayList<>();
+      if (moveLine.getDebit().compareTo(BigDecimal.ZERO) > 0) {
+        for (Reconcile reconcile :
+            debitReconcileMap.getOrDefault(moveLine.getId(), Collections.emptyList())) {
+          reconcileSeqList.add(reconcile.getReconcileSeq());
+          reconcileDateList.add(reconcile.getReconciliationDate().format(dateFormatter));
+        }
+      } else {
+        for (Reconcile reconcile :
+            creditReconcileMap.getOrDefault(moveLine.getId(), Collections.emptyList())) {
+          if (reconcile.getStatusSelect() == ReconcileRepository.STATUS_CONFIRMED) {
+            reconcileSeqList.add(reconcile.getReconcileSeq());
+            reconcileDateList.add(reconcile.getReconciliationDate().format(dateFormatter));
+          }
+        }
+      }
+      items[13] = StringUtils.join(reconcileSeqList, "; ");
+      items[14] = StringUtils.join(reconcileDateList, "; ");
+
+      items[15] = move.getValidationDate().format(dateFormatter);
+      items[16] = moveLine.getCurrencyAmount().toString();
+      if (move.getCurrency() != null) {
+        items[17] = move.getCurrency().getCode();
+      }
+      csvWriter.writeNext(items);
+    }
+  }
+
+  /**
+   * Flag as exported all the moves having a line matching the filter, with a single update
+   * statement.
+   */
+  protected void updateMoves(
+      String moveLineFilter,
+      AccountingReport accountingReport,
+      LocalDate localDate,
+      String exportToAgressoNumber) {
+
+    int updated =
+        JPA.em()
+            .createQuery(
+                "UPDATE Move move SET move.exportNumber = :exportNumber, "
+                    + "move.exportDate = :exportDate, move.accountingOk = true, "
+                    + "move.accountingReport = :accountingReport, move.version = move.version + 1 "
+                    + "WHERE move.id IN (SELECT self.move.id FROM MoveLine self WHERE "
+                    + moveLineFilter
+                    + ")")
+            .setParameter("exportNumber", exportToAgressoNumber)
+            .setParameter("exportDate", localDate)
+            .setParameter("accountingReport", accountingReport)
+            .executeUpdate();
+
+    log.debug("{} moves flagged as exported", updated);
+  }
+
+  /**
+   * Open a forward-only cursor on the query, fetching rows by chunks from the database.
+   *
+   * @param queryStr
+   * @return
+   */
+  protected ScrollableResults scroll(String queryStr) {
+
+    return JPA.em()
+        .unwrap(Session.class)
+        .createQuery(queryStr)
+        .setFetchSize(EXPORT_CHUNK_SIZE)
+        .setReadOnly(true)
+        .scroll(ScrollMode.FORWARD_ONLY);
+  }
+
+  protected void logThroughput(String fileName, long rowCount, long startTime) {
+
+    long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+
+    log.info(
+        "Export {} : {} rows written in {} ms ({} rows/s)",
+        fileName,
+        rowCount,
+        duration,
+        rowCount * 1000 / duration);
+  }
+
   /**
    * Méthode réalisant l'export SI - Agresso des fichiers détails
    *
@@ -1294,7 +1417,6 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
    * @throws AxelorException
    * @throws IOException
    */
-  @SuppressWarnings("unchecked")
   public void exportMoveLineAllTypeSelectFILE2(AccountingReport accountingReport, String fileName)
       throws AxelorException, IOException {
 
@@ -1348,153 +1470,168 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
     moveLineQueryStr +=
         String.format(" AND self.move.statusSelect = %s ", MoveRepository.STATUS_VALIDATED);
 
-    Query queryDate =
-        JPA.em()
-            .createQuery(
-                "SELECT self.date from MoveLine self where self.account != null AND (self.debit > 0 OR self.credit > 0) "
-                    + moveLineQueryStr
-                    + " group by self.date ORDER BY self.date");
-
-    List<LocalDate> dates = new ArrayList<LocalDate>();
-    dates = queryDate.getResultList();
-
-    log.debug("dates : {}", dates);
-
-    List<String[]> allMoveLineData = new ArrayList<String[]>();
-
-    for (LocalDate localDate : dates) {
-
-      Query queryExportAgressoRef =
-          JPA.em()
-              .createQuery(
-                  "SELECT DISTINCT self.move.exportNumber from MoveLine self where self.account != null "
-                      + "AND (self.debit > 0 OR self.credit > 0) AND self.date = '"
-                      + localDate.toString()
-                      + "'"
-                      + moveLineQueryStr);
-      List<String> exportAgressoRefs = new ArrayList<String>();
-      exportAgressoRefs = queryExportAgressoRef.getResultList();
-      for (String exportAgressoRef : exportAgressoRefs) {
-
-        if (exportAgressoRef != null && !exportAgressoRef.isEmpty()) {
-
-          int sequence = 1;
-
-          Query query =
-              JPA.em()
-                  .createQuery(
-                      "SELECT self.account.id from MoveLine self where self.account != null AND (self.debit > 0 OR self.credit > 0) "
-                          + "AND self.date = '"
-                          + localDate.toString()
-                          + "' AND self.move.exportNumber = '"
-                          + exportAgressoRef
-                          + "'"
-                          + moveLineQueryStr
-                          + " group by self.account.id");
-
-          List<Long> accountIds = new ArrayList<Long>();
-          accountIds = query.getResultList();
-
-          log.debug("accountIds : {}", accountIds);
-
-          for (Long accountId : accountIds) {
-            if (accountId != null) {
-              String accountCode = accountRepo.find(accountId).getCode();
-              List<MoveLine> moveLines =
-                  moveLineRepo
-                      .all()
-                      .filter(
-                          "self.account.id = ?1 AND (self.debit > 0 OR self.credit > 0) AND self.date = '"
-                              + localDate.toString()
-                              + "' AND self.move.exportNumber = '"
-                              + exportAgressoRef
-                              + "'"
-                              + moveLineQueryStr,
-                          accountId)
-                      .fetch();
-
-              log.debug("movelines  : {} ", moveLines);
-
-              if (moveLines.size() > 0) {
-
-                List<MoveLine> moveLineList = moveLineService.consolidateMoveLines(moveLines);
-
-                List<MoveLine> sortMoveLineList = this.sortMoveLineByDebitCredit(moveLineList);
-
-                for (MoveLine moveLine3 : sortMoveLineList) {
-
-                  Journal journal = moveLine3.getMove().getJournal();
-                  LocalDate date = moveLine3.getDate();
-                  String items[] = null;
-
-                  if (typeSelect == 9) {
-                    items = new String[13];
-                  } else {
-                    items = new String[12];
-                  }
-
-                  items[0] = companyCode;
-                  items[1] = journal.getExportCode();
-                  items[2] = moveLine3.getMove().getExportNumber();
-                  items[3] = String.format("%s", sequence);
-                  sequence++;
-                  items[4] = accountCode;
-
-                  BigDecimal totAmt = moveLine3.getCredit().subtract(moveLine3.getDebit());
-                  String moveLineSign = "C";
-                  if (totAmt.compareTo(BigDecimal.ZERO) == -1) {
-                    moveLineSign = "D";
-                    totAmt = totAmt.negate();
-                  }
-                  items[5] = moveLineSign;
-                  items[6] = totAmt.toString();
-
-                  String analyticAccounts = "";
-                  for (AnalyticMoveLine analyticDistributionLine :
-                      moveLine3.getAnalyticMoveLineList()) {
-                    analyticAccounts =
-                        analyticAccounts
-                            + analyticDistributionLine.getAnalyticAccount().getCode()
-                            + "/";
-                  }
-
-                  if (typeSelect == 9) {
-                    items[7] = "";
-                    items[8] = analyticAccounts;
-                    items[9] =
-                        String.format(
-                            "%s DU %s",
-                            journal.getCode(),
-                            date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
-                  } else {
-                    items[7] = analyticAccounts;
-                    items[8] =
-                        String.format(
-                            "%s DU %s",
-                            journal.getCode(),
-                            date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
-                  }
-
-                  allMoveLineData.add(items);
-                }
-              }
-            }
-          }
-        }
-      }
-    }
-
     String filePath =
         accountConfigService.getExportPath(accountConfigService.getAccountConfig(company));
     new File(filePath).mkdirs();
 
     log.debug("Full path to export : {}{}", filePath, fileName);
-    CsvTool.csvWriter(filePath, fileName, '|', null, allMoveLineData);
+
+    long startTime = System.currentTimeMillis();
+    long rowCount = 0;
+    long readCount = 0;
+
+    // Lines are read in the order of the former loops over dates, export numbers and accounts.
+    // Each account group is consolidated and written as soon as it is complete, and the
+    // persistence context is cleared between groups, which also drops the consolidated amounts.
+    CSVWriter csvWriter = CsvTool.setCsvFile(filePath, fileName, '|');
+    try (ScrollableResults results =
+        this.scroll(
+            "SELECT self FROM MoveLine self "
+                + "JOIN FETCH self.move move "
+                + "JOIN FETCH move.journal "
+                + "JOIN FETCH self.account "
+                + "WHERE self.account != null AND (self.debit > 0 OR self.credit > 0) "
+                + "AND move.exportNumber IS NOT NULL AND move.exportNumber != '' "
+                + moveLineQueryStr
+                + " ORDER BY self.date, move.exportNumber, self.account.id, self.id")) {
+
+      List<MoveLine> moveLines = new ArrayList<>();
+      List<Object> exportKey = null;
+      int sequence = 1;
+      boolean hasNext = results.next();
+
+      while (hasNext) {
+        MoveLine moveLine = (MoveLine) results.get(0);
+        if (!JPA.em().contains(moveLine)) {
+          // Read before the context was cleared, its analytic lines can no longer be loaded
+          moveLine = moveLineRepo.find(moveLine.getId());
+          JPA.em().unwrap(Session.class).setReadOnly(moveLine, true);
+        }
+        moveLines.add(moveLine);
+        hasNext = results.next();
+
+        MoveLine nextMoveLine = hasNext ? (MoveLine) results.get(0) : null;
+        if (nextMoveLine != null
+            && nextMoveLine.getAccount().getId().equals(moveLine.getAccount().getId())
+            && getExportKey(nextMoveLine).equals(getExportKey(moveLine))) {
+          continue;
+        }
+
+        // Lines are numbered from 1 for each date and export number
+        if (!getExportKey(moveLine).equals(exportKey)) {
+          exportKey = getExportKey(moveLine);
+          sequence = 1;
+        }
+
+        readCount += moveLines.size();
+        List<String[]> moveLineData =
+            this.createMoveLineDataFILE2(moveLines, companyCode, typeSelect, sequence);
+        for (String[] items : moveLineData) {
+          csvWriter.writeNext(items);
+        }
+        sequence += moveLineData.size();
+        rowCount += moveLineData.size();
+        moveLines = new ArrayList<>();
+
+        if (readCount >= EXPORT_CHUNK_SIZE) {
+          readCount = 0;
+          JPA.clear();
+        }
+      }
+    } finally {
+      csvWriter.close();
+      JPA.clear();
+    }
+
+    this.logThroughput(fileName, rowCount, startTime);
     // Utilisé pour le debuggage
     //			CsvTool.csvWriter(filePath, fileName, '|',  this.createHeaderForDetailFile(typeSelect),
     // allMoveLineData);
   }
 
+  protected List<Object> getExportKey(MoveLine moveLine) {
+    return Arrays.asList(moveLine.getDate(), moveLine.getMove().getExportNumber());
+  }
+
+  /**
+   * Consolidate the lines of an account for a date and an export number, and create the rows of
+   * the details file.
+   *
+   * @param moveLines the lines of the account
+   * @param companyCode
+   * @param typeSelect
+   * @param sequence the number of the first row
+   * @return the rows, debit lines first
+   */
+  protected List<String[]> createMoveLineDataFILE2(
+      List<MoveLine> moveLines, String companyCode, int typeSelect, int sequence) {
+
+    List<String[]> moveLineData = new ArrayList<>();
+    String accountCode = moveLines.get(0).getAccount().getCode();
+
+    log.debug("movelines  : {} ", moveLines);
+
+    List<MoveLine> moveLineList = moveLineService.consolidateMoveLines(moveLines);
+
+    List<MoveLine> sortMoveLineList = this.sortMoveLineByDebitCredit(moveLineList);
+
+    for (MoveLine moveLine3 : sortMoveLineList) {
+
+      Journal journal = moveLine3.getMove().getJournal();
+      LocalDate date = moveLine3.getDate();
+      String items[] = null;
+
+      if (typeSelect == 9) {
+        items = new String[13];
+      } else {
+        items = new String[12];
+      }
+
+      items[0] = companyCode;
+      items[1] = journal.getExportCode();
+      items[2] = moveLine3.getMove().getExportNumber();
+      items[3] = String.format("%s", sequence);
+      sequence++;
+      items[4] = accountCode;
+
+      BigDecimal totAmt = moveLine3.getCredit().subtract(moveLine3.getDebit());
+      String moveLineSign = "C";
+      if (totAmt.compareTo(BigDecimal.ZERO) == -1) {
+        moveLineSign = "D";
+        totAmt = totAmt.negate();
+      }
+      items[5] = moveLineSign;
+      items[6] = totAmt.toString();
+
+      String analyticAccounts = "";
+      for (AnalyticMoveLine analyticDistributionLine : moveLine3.getAnalyticMoveLineList()) {
+        analyticAccounts =
+            analyticAccounts + analyticDistributionLine.getAnalyticAccount().getCode() + "/";
+      }
+
+      if (typeSelect == 9) {
+        items[7] = "";
+        items[8] = analyticAccounts;
+        items[9] =
+            String.format(
+                "%s DU %s",
+                journal.getCode(),
+                date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+      } else {
+        items[7] = analyticAccounts;
+        items[8] =
+            String.format(
+                "%s DU %s",
+                journal.getCode(),
+                date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+      }
+
+      moveLineData.add(items);
+    }
+
+    return moveLineData;
+  }
+
   /**
    * Méthode permettant de trier une liste en ajoutant d'abord les lignes d'écriture au débit puis
    * celles au crédit
@@ -1710,14 +1847,12 @@ public class MoveLineExportServiceImpl implements MoveLineExportService {
     accountingReport.setDate(appAccountService.getTodayDateTime().toLocalDate());
     accountingReport.setRef(accountingReportService.getSequence(accountingReport));
 
-    accountingReportService.buildQuery(accountingReport);
-
-    BigDecimal debitBalance = accountingReportService.getDebitBalance();
-    BigDecimal creditBalance = accountingReportService.getCreditBalance();
+    AccountingReportBalance balance =
+        accountingReportService.getBalance(accountingReportService.buildQuery(accountingReport));
 
-    accountingReport.setTotalDebit(debitBalance);
-    accountingReport.setTotalCredit(creditBalance);
-    accountingReport.setBalance(debitBalance.subtract(creditBalance));
+    accountingReport.setTotalDebit(balance.getDebit());
+    accountingReport.setTotalCredit(balance.getCredit());
+    accountingReport.setBalance(balance.getBalance());
 
     accountingReportRepo.save(accountingReport);
 
@@ -0,0 +1,432 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.MoveLine;
+import com.axelor.apps.account.db.Reconcile;
+import com.axelor.apps.account.db.repo.MoveLineRepository;
+import com.axelor.apps.account.service.payment.PaymentService;
+import com.axelor.apps.base.db.Company;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.base.db.repo.CompanyRepository;
+import com.axelor.apps.base.db.repo.PartnerRepository;
+import com.axelor.db.JPA;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.service.TraceBackService;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.persist.UnitOfWork;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.persistence.EntityTransaction;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reconcile large sets of move lines, grouped by company and partner.
+ *
+ * <p>Lines of a group are matched in memory, with the same rules as {@link
+ * PaymentService#useExcessPaymentOnMoveLines(List, List)}: each credit line pays the debit lines in
+ * date order. The accounting situations of the partners are updated once, at the end, instead of
+ * once per reconciliation. Groups are independent and are processed in parallel, each in its own
+ * transaction.
+ */
+public class ReconcileBulkService {
+
+  /** Number of reconciliations after which the persistence context is flushed. */
+  public static final int FLUSH_SIZE = 100;
+
+  /** Configuration key of the number of groups reconciled in parallel. */
+  public static final String THREAD_COUNT_KEY = "reconcile.threads";
+
+  private static final int QUERY_CHUNK_SIZE = 1000;
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  protected ReconcileService reconcileService;
+  protected PaymentService paymentService;
+  protected AccountCustomerService accountCustomerService;
+  protected MoveLineRepository moveLineRepo;
+  protected CompanyRepository companyRepo;
+  protected PartnerRepository partnerRepo;
+  protected UnitOfWork unitOfWork;
+
+  @Inject
+  public ReconcileBulkService(
+      ReconcileService reconcileService,
+      PaymentService paymentService,
+      AccountCustomerService accountCustomerService,
+      MoveLineRepository moveLineRepo,
+      CompanyRepository companyRepo,
+      PartnerRepository partnerRepo,
+      UnitOfWork unitOfWork) {
+
+    this.reconcileService = reconcileService;
+    this.paymentService = paymentService;
+    this.accountCustomerService = accountCustomerService;
+    this.moveLineRepo = moveLineRepo;
+    this.companyRepo = companyRepo;
+    this.partnerRepo = partnerRepo;
+    this.unitOfWork = unitOfWork;
+  }
+
+  /**
+   * Reconcile groups of move lines.
+   *
+   * <p>When called inside a transaction, the groups are reconciled sequentially in it, as the
+   * workers could not see its changes.
+   *
+   * @param groups pairs of debit move lines and credit move lines, of one company and partner
+   */
+  public void reconcile(Collection<Pair<List<MoveLine>, List<MoveLine>>> groups) {
+
+    long start = System.currentTimeMillis();
+
+    List<Pair<List<Long>, List<Long>>> idGroups = new ArrayList<>();
+    for (Pair<List<MoveLine>, List<MoveLine>> group : groups) {
+      idGroups.add(Pair.of(getIds(group.getLeft()), getIds(group.getRight())));
+    }
+
+    Map<Long, Set<Long>> partnerIdsByCompany = new ConcurrentHashMap<>();
+    int threadCount = Math.min(getThreadCount(), idGroups.size());
+
+    if (threadCount <= 1 || JPA.em().getTransaction().isActive()) {
+      for (Pair<List<Long>, List<Long>> idGroup : idGroups) {
+        reconcileGroup(idGroup.getLeft(), idGroup.getRight(), partnerIdsByCompany);
+      }
+    } else {
+      reconcileInParallel(idGroups, threadCount, partnerIdsByCompany);
+    }
+
+    try {
+      updatePartnerAccountingSituations(partnerIdsByCompany);
+    } catch (Exception e) {
+      TraceBackService.trace(e);
+      log.debug(e.getMessage());
+    }
+
+    log.debug(
+        "{} groups of move lines reconciled in {} ms",
+        idGroups.size(),
+        System.currentTimeMillis() - start);
+  }
+
+  protected int getThreadCount() {
+    return AppSettings.get()
+        .getInt(THREAD_COUNT_KEY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  protected void reconcileInParallel(
+      List<Pair<List<Long>, List<Long>>> idGroups,
+      int threadCount,
+      Map<Long, Set<Long>> partnerIdsByCompany) {
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<?>> futures = new ArrayList<>();
+
+    try {
+      for (Pair<List<Long>, List<Long>> idGroup : idGroups) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  unitOfWork.begin();
+                  try {
+                    reconcileGroup(idGroup.getLeft(), idGroup.getRight(), partnerIdsByCompany);
+                  } finally {
+                    unitOfWork.end();
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Reconcile the lines of a group in a transaction. If it fails, the transaction is rolled back
+   * and the group is reconciled again line by line by {@link
+   * PaymentService#useExcessPaymentOnMoveLinesDontThrow(List, List)}, which skips the failing
+   * reconciliations.
+   */
+  protected void reconcileGroup(
+      List<Long> debitMoveLineIds,
+      List<Long> creditMoveLineIds,
+      Map<Long, Set<Long>> partnerIdsByCompany) {
+
+    EntityTransaction transaction = JPA.em().getTransaction();
+    boolean owner = !transaction.isActive();
+
+    try {
+      if (owner) {
+        transaction.begin();
+      }
+      matchMoveLines(
+          getMoveLines(debitMoveLineIds), getMoveLines(creditMoveLineIds), partnerIdsByCompany);
+      if (owner) {
+        transaction.commit();
+      }
+    } catch (Exception e) {
+      if (owner && transaction.isActive()) {
+        transaction.rollback();
+      }
+      TraceBackService.trace(e);
+      log.debug(e.getMessage());
+      if (owner) {
+        JPA.clear();
+        paymentService.useExcessPaymentOnMoveLinesDontThrow(
+            getMoveLines(debitMoveLineIds), getMoveLines(creditMoveLineIds));
+      }
+    } finally {
+      if (owner) {
+        JPA.clear();
+      }
+    }
+  }
+
+  /**
+   * Match the credit lines with the debit lines of a group. Both lists must be sorted by date.
+   *
+   * <p>Debit lines are queued by account, and each credit line takes the first line with an amount
+   * remaining among the queues of the accounts it can be reconciled with. Fully paid lines are
+   * dropped from their queue, so that the group is reconciled in linear time.
+   */
+  protected void matchMoveLines(
+      List<MoveLine> debitMoveLines,
+      List<MoveLine> creditMoveLines,
+      Map<Long, Set<Long>> partnerIdsByCompany)
+      throws AxelorException {
+
+    BigDecimal debitTotalRemaining = BigDecimal.ZERO;
+    BigDecimal creditTotalRemaining = BigDecimal.ZERO;
+    for (MoveLine debitMoveLine : debitMoveLines) {
+      debitTotalRemaining = debitTotalRemaining.add(debitMoveLine.getAmountRemaining());
+    }
+    for (MoveLine creditMoveLine : creditMoveLines) {
+      creditTotalRemaining = creditTotalRemaining.add(creditMoveLine.getAmountRemaining());
+    }
+
+    Map<Long, DebitQueue> queueMap = new HashMap<>();
+    for (int i = 0; i < debitMoveLines.size(); i++) {
+      MoveLine debitMoveLine = debitMoveLines.get(i);
+      if (debitMoveLine.getAccount().getReconcileOk()) {
+        queueMap
+            .computeIfAbsent(
+                debitMoveLine.getAccount().getId(),
+                id -> new DebitQueue(debitMoveLine.getAccount(), debitMoveLines))
+            .indexes
+            .add(i);
+      }
+    }
+
+    Map<Long, List<DebitQueue>> candidateMap = new HashMap<>();
+    int count = 0;
+
+    for (MoveLine creditMoveLine : creditMoveLines) {
+
+      Account creditAccount = creditMoveLine.getAccount();
+      if (creditMoveLine.getAmountRemaining().signum() <= 0 || !creditAccount.getReconcileOk()) {
+        continue;
+      }
+
+      List<DebitQueue> candidates =
+          candidateMap.computeIfAbsent(
+              creditAccount.getId(), id -> getCandidates(queueMap.values(), creditAccount));
+      int[] cursors = new int[candidates.size()];
+      for (int i = 0; i < cursors.length; i++) {
+        cursors[i] = candidates.get(i).skipPaid();
+      }
+
+      while (creditMoveLine.getAmountRemaining().signum() > 0) {
+
+        // Next debit line in date order among the candidate accounts
+        int next = -1;
+        for (int i = 0; i < cursors.length; i++) {
+          cursors[i] = candidates.get(i).skipPaid(cursors[i]);
+          if (cursors[i] < candidates.get(i).indexes.size()
+              && (next < 0
+                  || candidates.get(i).indexes.get(cursors[i])
+                      < candidates.get(next).indexes.get(cursors[next]))) {
+            next = i;
+          }
+        }
+        if (next < 0) {
+          break;
+        }
+
+        DebitQueue queue = candidates.get(next);
+        MoveLine debitMoveLine = debitMoveLines.get(queue.indexes.get(cursors[next]++));
+
+        BigDecimal amount;
+        if (debitMoveLine.getMaxAmountToReconcile() != null
+            && debitMoveLine.getMaxAmountToReconcile().signum() > 0) {
+          amount = debitMoveLine.getMaxAmountToReconcile().min(creditMoveLine.getAmountRemaining());
+          debitMoveLine.setMaxAmountToReconcile(null);
+        } else {
+          amount = creditMoveLine.getAmountRemaining().min(debitMoveLine.getAmountRemaining());
+        }
+
+        // Gestion du passage en 580
+        boolean canBeZeroBalanceOk =
+            debitTotalRemaining.subtract(amount).signum() <= 0
+                || creditTotalRemaining.subtract(amount).signum() <= 0;
+
+        Reconcile reconcile =
+            reconcileService.createReconcile(
+                debitMoveLine, creditMoveLine, amount, canBeZeroBalanceOk);
+
+        if (reconcile != null) {
+          reconcileService.confirmReconcile(reconcile, true, false);
+          addPartners(reconcile, partnerIdsByCompany);
+
+          if (++count % FLUSH_SIZE == 0) {
+            JPA.flush();
+          }
+        }
+      }
+    }
+
+    log.debug(
+        "{} reconciliations for {} debit and {} credit move lines",
+        count,
+        debitMoveLines.size(),
+        creditMoveLines.size());
+  }
+
+  /** Same rule as {@link ReconcileService#isReconcilable(MoveLine, MoveLine)}. */
+  protected List<DebitQueue> getCandidates(Collection<DebitQueue> queues, Account creditAccount) {
+    return queues
+        .stream()
+        .filter(
+            queue ->
+                queue.account.getId().equals(creditAccount.getId())
+                    || queue.account.getCompatibleAccountSet().contains(creditAccount))
+        .collect(Collectors.toList());
+  }
+
+  protected void addPartners(Reconcile reconcile, Map<Long, Set<Long>> partnerIdsByCompany) {
+    Company company = reconcile.getDebitMoveLine().getMove().getCompany();
+    for (Partner partner : reconcileService.getPartners(reconcile)) {
+      partnerIdsByCompany
+          .computeIfAbsent(company.getId(), id -> ConcurrentHashMap.newKeySet())
+          .add(partner.getId());
+    }
+  }
+
+  /**
+   * As {@link ReconcileService#updatePartnerAccountingSituation(Reconcile)}, once per partner. Each
+   * company is updated in its own transaction by {@link AccountCustomerService}.
+   */
+  protected void updatePartnerAccountingSituations(Map<Long, Set<Long>> partnerIdsByCompany)
+      throws AxelorException {
+
+    for (Map.Entry<Long, Set<Long>> entry : partnerIdsByCompany.entrySet()) {
+      Company company = companyRepo.find(entry.getKey());
+      List<Partner> partnerList =
+          entry.getValue().stream().map(partnerRepo::find).collect(Collectors.toList());
+
+      if (AccountingService.getUpdateCustomerAccount()) {
+        accountCustomerService.updatePartnerAccountingSituation(
+            partnerList, company, true, true, false);
+      } else {
+        accountCustomerService.flagPartners(partnerList, company);
+      }
+    }
+  }
+
+  /** Load move lines in the current persistence context, in the given order, then by date. */
+  protected List<MoveLine> getMoveLines(List<Long> ids) {
+
+    Map<Long, MoveLine> moveLineMap = new HashMap<>();
+    for (List<Long> chunk : Lists.partition(ids, QUERY_CHUNK_SIZE)) {
+      moveLineMap.putAll(
+          moveLineRepo
+              .all()
+              .filter("self.id IN (:ids)")
+              .bind("ids", chunk)
+              .fetch()
+              .stream()
+              .collect(Collectors.toMap(MoveLine::getId, Function.identity())));
+    }
+
+    List<MoveLine> moveLines =
+        ids
+            .stream()
+            .map(moveLineMap::get)
+            .filter(moveLine -> moveLine != null)
+            .collect(Collectors.toList());
+    moveLines.sort(Comparator.comparing(MoveLine::getDate));
+
+    return moveLines;
+  }
+
+  private List<Long> getIds(List<MoveLine> moveLines) {
+    return moveLines.stream().map(MoveLine::getId).collect(Collectors.toList());
+  }
+
+  /** Positions of the debit lines of one account, in date order. */
+  protected static class DebitQueue {
+    private final Account account;
+    private final List<MoveLine> debitMoveLines;
+    private final List<Integer> indexes = new ArrayList<>();
+    private int position;
+
+    private DebitQueue(Account account, List<MoveLine> debitMoveLines) {
+      this.account = account;
+      this.debitMoveLines = debitMoveLines;
+    }
+
+    /** Drop the fully paid lines at the head of the queue. */
+    private int skipPaid() {
+      position = skipPaid(position);
+      return position;
+    }
+
+    private int skipPaid(int cursor) {
+      while (cursor < indexes.size()
+          && debitMoveLines.get(indexes.get(cursor)).getAmountRemaining().signum() <= 0) {
+        cursor++;
+      }
+      return cursor;
+    }
+  }
+}
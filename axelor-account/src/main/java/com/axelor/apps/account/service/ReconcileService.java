@@ -38,6 +38,13 @@ public interface ReconcileService {
   public Reconcile confirmReconcile(Reconcile reconcile, boolean updateInvoicePayments)
       throws AxelorException;
 
+  @Transactional(rollbackOn = {AxelorException.class, Exception.class})
+  public Reconcile confirmReconcile(
+      Reconcile reconcile,
+      boolean updateInvoicePayments,
+      boolean updatePartnerAccountingSituation)
+      throws AxelorException;
+
   public void reconcilePreconditions(Reconcile reconcile) throws AxelorException;
 
   public void updatePartnerAccountingSituation(Reconcile reconcile) throws AxelorException;
@@ -138,6 +138,26 @@ public class ReconcileServiceImpl implements ReconcileService {
   @Transactional(rollbackOn = {AxelorException.class, Exception.class})
   public Reconcile confirmReconcile(Reconcile reconcile, boolean updateInvoicePayments)
       throws AxelorException {
+    return confirmReconcile(reconcile, updateInvoicePayments, true);
+  }
+
+  /**
+   * Permet de confirmer une réconciliation On ne peut réconcilier que des moveLine ayant le même
+   * compte
+   *
+   * @param reconcile Une reconciliation
+   * @param updateInvoicePayments
+   * @param updatePartnerAccountingSituation false if the accounting situations of the partners
+   *     are updated by the caller, once for all the reconciliations
+   * @return L'etat de la reconciliation
+   * @throws AxelorException
+   */
+  @Transactional(rollbackOn = {AxelorException.class, Exception.class})
+  public Reconcile confirmReconcile(
+      Reconcile reconcile,
+      boolean updateInvoicePayments,
+      boolean updatePartnerAccountingSituation)
+      throws AxelorException {
 
     this.reconcilePreconditions(reconcile);
 
@@ -162,7 +182,9 @@ public class ReconcileServiceImpl implements ReconcileService {
 
     reconcileSequenceService.setSequence(reconcile);
 
-    this.updatePartnerAccountingSituation(reconcile);
+    if (updatePartnerAccountingSituation) {
+      this.updatePartnerAccountingSituation(reconcile);
+    }
     this.updateInvoiceCompanyInTaxTotalRemaining(reconcile);
     if (updateInvoicePayments) {
       this.updateInvoicePayments(reconcile);
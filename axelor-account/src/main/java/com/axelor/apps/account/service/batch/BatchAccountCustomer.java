@@ -18,7 +18,6 @@
 package com.axelor.apps.account.service.batch;
 
 import com.axelor.apps.account.db.AccountingBatch;
-import com.axelor.apps.account.db.AccountingSituation;
 import com.axelor.apps.account.db.repo.AccountingSituationRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.service.AccountCustomerService;
@@ -28,6 +27,7 @@ import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.IException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import java.lang.invoke.MethodHandles;
 import java.util.List;
@@ -69,49 +69,34 @@ public class BatchAccountCustomer extends BatchStrategy {
     boolean updateDueDebtRecoveryCustAccountOk =
         accountingBatch.getUpdateDueDebtRecoveryCustAccountOk();
 
-    List<AccountingSituation> accountingSituationList =
-        (List<AccountingSituation>)
-            accountingSituationRepo.all().filter("self.company = ?1", company).fetch();
-    int i = 0;
+    List<Long> accountingSituationIds =
+        accountCustomerService.getAccountingSituationIds(company, null, false);
+
+    try {
+      accountCustomerService.updateAccountingSituations(
+          company,
+          null,
+          false,
+          updateCustAccountOk,
+          updateDueCustAccountOk,
+          updateDueDebtRecoveryCustAccountOk);
+    } catch (Exception e) {
+      TraceBackService.trace(e, IException.ACCOUNT_CUSTOMER, batch.getId());
+      incrementAnomaly();
+      log.error(
+          "Bug(Anomalie) généré(e) pour les situations comptables de {}", company.getName());
+      return;
+    }
+
     JPA.clear();
-    for (AccountingSituation accountingSituation : accountingSituationList) {
-      try {
-
-        accountingSituation =
-            accountCustomerService.updateAccountingSituationCustomerAccount(
-                accountingSituationRepo.find(accountingSituation.getId()),
-                updateCustAccountOk,
-                updateDueCustAccountOk,
-                updateDueDebtRecoveryCustAccountOk);
-
-        if (accountingSituation != null) {
-          this.updateAccountingSituation(accountingSituation);
-          i++;
-        }
-
-      } catch (Exception e) {
-
-        TraceBackService.trace(
-            new Exception(
-                String.format(
-                    I18n.get(IExceptionMessage.BATCH_ACCOUNT_1),
-                    accountingSituationRepo.find(accountingSituation.getId()).getName()),
-                e),
-            IException.ACCOUNT_CUSTOMER,
-            batch.getId());
-
-        incrementAnomaly();
-
-        log.error(
-            "Bug(Anomalie) généré(e) pour la situation compable {}",
-            accountingSituationRepo.find(accountingSituation.getId()).getName());
-
-      } finally {
-
-        if (i % 1 == 0) {
-          JPA.clear();
-        }
-      }
+    for (List<Long> idList : Lists.partition(accountingSituationIds, FETCH_LIMIT)) {
+      JPA.runInTransaction(
+          () ->
+              idList
+                  .stream()
+                  .map(accountingSituationRepo::find)
+                  .forEach(this::updateAccountingSituation));
+      JPA.clear();
     }
   }
 
@@ -137,62 +122,16 @@ public class BatchAccountCustomer extends BatchStrategy {
   public String updateAccountingSituationMarked(Company company) {
 
     int anomaly = 0;
-
-    List<AccountingSituation> accountingSituationList = null;
-
-    if (company != null) {
-      accountingSituationList =
-          (List<AccountingSituation>)
-              accountingSituationRepo
-                  .all()
-                  .filter("self.company = ?1 and self.custAccountMustBeUpdateOk = 'true'", company)
-                  .fetch();
-    } else {
-      accountingSituationList =
-          (List<AccountingSituation>)
-              accountingSituationRepo
-                  .all()
-                  .filter("self.custAccountMustBeUpdateOk = 'true'")
-                  .fetch();
-    }
-
     int i = 0;
-    JPA.clear();
-    for (AccountingSituation accountingSituation : accountingSituationList) {
-      try {
 
-        accountingSituation =
-            accountCustomerService.updateAccountingSituationCustomerAccount(
-                accountingSituationRepo.find(accountingSituation.getId()), true, true, false);
-
-        if (accountingSituation != null) {
-          i++;
-        }
-
-      } catch (Exception e) {
-
-        TraceBackService.trace(
-            new Exception(
-                String.format(
-                    I18n.get(IExceptionMessage.BATCH_ACCOUNT_1),
-                    accountingSituationRepo.find(accountingSituation.getId()).getName()),
-                e),
-            IException.ACCOUNT_CUSTOMER,
-            batch.getId());
-
-        anomaly++;
-
-        log.error(
-            "Bug(Anomalie) généré(e) pour le compte client {}",
-            accountingSituationRepo.find(accountingSituation.getId()));
-
-      } finally {
-
-        if (i % 5 == 0) {
-          JPA.clear();
-        }
-      }
+    try {
+      i = accountCustomerService.updateAccountingSituations(company, null, true, true, true, false);
+    } catch (Exception e) {
+      TraceBackService.trace(e, IException.ACCOUNT_CUSTOMER, batch.getId());
+      anomaly = accountCustomerService.getAccountingSituationIds(company, null, true).size();
+      log.error("Bug(Anomalie) généré(e) pour la mise à jour des comptes clients");
     }
+    JPA.clear();
 
     if (anomaly != 0) {
       return String.format(I18n.get(IExceptionMessage.BATCH_ACCOUNT_4), anomaly);
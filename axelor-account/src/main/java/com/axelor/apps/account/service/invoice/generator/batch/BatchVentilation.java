@@ -18,15 +18,27 @@
 package com.axelor.apps.account.service.invoice.generator.batch;
 
 import com.axelor.apps.account.db.Invoice;
+import com.axelor.apps.account.db.InvoiceLine;
 import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.apps.account.service.AccountCustomerService;
+import com.axelor.apps.account.service.AccountingService;
 import com.axelor.apps.account.service.invoice.InvoiceService;
+import com.axelor.apps.base.db.Company;
 import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.IException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,43 +46,161 @@ public class BatchVentilation extends BatchWkf {
 
   static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  /** Number of statements sent at once to the database while ventilating. */
+  protected static final int JDBC_BATCH_SIZE = 50;
+
+  /** Number of invoices loaded and ventilated in the same persistence context. */
+  protected static final int CHUNK_SIZE = 20;
+
+  protected AccountCustomerService accountCustomerService;
+
   @Inject
-  public BatchVentilation(InvoiceService invoiceService) {
+  public BatchVentilation(
+      InvoiceService invoiceService, AccountCustomerService accountCustomerService) {
 
     super(invoiceService);
+    this.accountCustomerService = accountCustomerService;
   }
 
   @Override
   protected void process() {
 
-    for (Invoice invoice : invoices(batch.getInvoiceBatch(), true)) {
+    List<Long> invoiceIds =
+        invoices(batch.getInvoiceBatch(), true)
+            .stream()
+            .map(Invoice::getId)
+            .collect(Collectors.toList());
+    Set<Long> companyIds = new HashSet<>();
+
+    JPA.clear();
+
+    // The customer accounts are only flagged while ventilating, then updated once per company
+    boolean updateCustomerAccount = AccountingService.getUpdateCustomerAccount();
+    AccountingService.setUpdateCustomerAccount(false);
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+    try {
+      for (List<Long> idList : Lists.partition(invoiceIds, CHUNK_SIZE)) {
+        Map<Long, Invoice> invoiceMap = fetchInvoices(idList);
+
+        for (int i = 0; i < idList.size(); i++) {
+          Invoice invoice = invoiceMap.get(idList.get(i));
+          if (invoice == null) {
+            continue;
+          }
+          String invoiceId = invoice.getInvoiceId();
+
+          try {
+
+            invoiceService.ventilate(invoice);
+            updateInvoice(invoice);
+            companyIds.add(invoice.getCompany().getId());
+
+          } catch (AxelorException e) {
+
+            TraceBackService.trace(
+                new AxelorException(e, e.getCategory(), I18n.get("Invoice") + " %s", invoiceId),
+                IException.INVOICE_ORIGIN,
+                batch.getId());
+            incrementAnomaly();
+            invoiceMap = reloadInvoices(idList, i);
+
+          } catch (Exception e) {
+
+            TraceBackService.trace(
+                new Exception(String.format(I18n.get("Invoice") + " %s", invoiceId), e),
+                IException.INVOICE_ORIGIN,
+                batch.getId());
+            incrementAnomaly();
+            invoiceMap = reloadInvoices(idList, i);
+          }
+        }
 
-      try {
+        JPA.clear();
+      }
+    } finally {
+      AccountingService.setUpdateCustomerAccount(updateCustomerAccount);
+      session.setJdbcBatchSize(jdbcBatchSize);
+    }
+
+    if (updateCustomerAccount) {
+      updateCustomerAccounts(companyIds);
+    }
+  }
 
-        invoiceService.ventilate(invoiceRepo.find(invoice.getId()));
-        updateInvoice(invoiceRepo.find(invoice.getId()));
+  /**
+   * Load invoices with their lines, tax lines and accounts in a few queries.
+   *
+   * @param ids ids of the invoices
+   * @return the invoices by id
+   */
+  protected Map<Long, Invoice> fetchInvoices(List<Long> ids) {
 
-      } catch (AxelorException e) {
+    Map<Long, Invoice> invoiceMap = new HashMap<>();
 
-        TraceBackService.trace(
-            new AxelorException(
-                e, e.getCategory(), I18n.get("Invoice") + " %s", invoice.getInvoiceId()),
-            IException.INVOICE_ORIGIN,
-            batch.getId());
-        incrementAnomaly();
+    if (ids.isEmpty()) {
+      return invoiceMap;
+    }
 
-      } catch (Exception e) {
+    JPA.em()
+        .createQuery(
+            "SELECT DISTINCT self FROM Invoice self "
+                + "LEFT JOIN FETCH self.invoiceLineList "
+                + "LEFT JOIN FETCH self.partner "
+                + "LEFT JOIN FETCH self.partnerAccount "
+                + "LEFT JOIN FETCH self.journal "
+                + "WHERE self.id IN (:ids)",
+            Invoice.class)
+        .setParameter("ids", ids)
+        .getResultList()
+        .forEach(invoice -> invoiceMap.put(invoice.getId(), invoice));
+
+    // Filled in the same persistence context, one bag can be fetched per query
+    JPA.em()
+        .createQuery(
+            "SELECT DISTINCT self FROM Invoice self "
+                + "LEFT JOIN FETCH self.invoiceLineTaxList "
+                + "WHERE self.id IN (:ids)",
+            Invoice.class)
+        .setParameter("ids", ids)
+        .getResultList();
+
+    JPA.em()
+        .createQuery(
+            "SELECT self FROM InvoiceLine self "
+                + "LEFT JOIN FETCH self.account "
+                + "LEFT JOIN FETCH self.taxLine "
+                + "LEFT JOIN FETCH self.product "
+                + "WHERE self.invoice.id IN (:ids)",
+            InvoiceLine.class)
+        .setParameter("ids", ids)
+        .getResultList();
+
+    return invoiceMap;
+  }
 
-        TraceBackService.trace(
-            new Exception(String.format(I18n.get("Invoice") + " %s", invoice.getInvoiceId()), e),
-            IException.INVOICE_ORIGIN,
-            batch.getId());
-        incrementAnomaly();
+  /**
+   * After a failure the persistence context can't be trusted, reload the invoices left in the
+   * chunk.
+   */
+  protected Map<Long, Invoice> reloadInvoices(List<Long> idList, int failedIndex) {
 
-      } finally {
+    JPA.clear();
+    return fetchInvoices(idList.subList(failedIndex + 1, idList.size()));
+  }
 
-        JPA.clear();
+  protected void updateCustomerAccounts(Set<Long> companyIds) {
+
+    for (Long companyId : companyIds) {
+      try {
+        accountCustomerService.updateAccountingSituations(
+            JPA.find(Company.class, companyId), null, true, true, true, false);
+      } catch (Exception e) {
+        TraceBackService.trace(e, IException.INVOICE_ORIGIN, batch.getId());
       }
+      JPA.clear();
     }
   }
 
@@ -21,6 +21,7 @@ import com.axelor.apps.account.db.Move;
 import com.axelor.apps.account.db.MoveLine;
 import com.axelor.apps.account.db.repo.MoveRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.apps.account.service.GeneralLedgerBalanceService;
 import com.axelor.apps.account.service.config.AccountConfigService;
 import com.axelor.apps.base.db.Period;
 import com.axelor.apps.base.db.repo.PeriodRepository;
@@ -38,6 +39,8 @@ public class MoveCancelService {
   protected MoveRepository moveRepository;
   protected AccountConfigService accountConfigService;
 
+  @Inject protected GeneralLedgerBalanceService generalLedgerBalanceService;
+
   @Inject
   public MoveCancelService(
       AccountConfigService accountConfigService, MoveRepository moveRepository) {
@@ -72,6 +75,10 @@ public class MoveCancelService {
           I18n.get(IExceptionMessage.MOVE_CANCEL_2));
     }
 
+    if (move.getStatusSelect() == MoveRepository.STATUS_VALIDATED) {
+      generalLedgerBalanceService.subtract(move);
+    }
+
     try {
 
       if (accountConfigService.getAccountConfig(move.getCompany()).getAllowRemovalValidatedMove()) {
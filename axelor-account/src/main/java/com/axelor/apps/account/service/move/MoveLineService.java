@@ -34,15 +34,16 @@ import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.service.AccountManagementAccountService;
 import com.axelor.apps.account.service.AnalyticMoveLineService;
 import com.axelor.apps.account.service.FiscalPositionServiceAccountImpl;
+import com.axelor.apps.account.service.ReconcileBulkService;
 import com.axelor.apps.account.service.TaxAccountService;
 import com.axelor.apps.account.service.app.AppAccountService;
-import com.axelor.apps.account.service.payment.PaymentService;
 import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.db.Currency;
 import com.axelor.apps.base.db.Partner;
 import com.axelor.apps.base.db.repo.AppAccountRepository;
 import com.axelor.apps.base.service.CurrencyService;
 import com.axelor.apps.base.service.config.CompanyConfigService;
+import com.axelor.db.Model;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -54,9 +55,10 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -463,64 +465,48 @@ public class MoveLineService {
     return moveLines;
   }
 
-  public MoveLine findConsolidateMoveLine(
-      Map<List<Object>, MoveLine> map, MoveLine moveLine, List<Object> keys) {
-    if (map != null && !map.isEmpty()) {
-
-      Map<List<Object>, MoveLine> copyMap = new HashMap<List<Object>, MoveLine>(map);
-      while (!copyMap.isEmpty()) {
+  /**
+   * Get the key under which a move line is consolidated: its account, its tax line and its
+   * analytic distribution. The analytic distribution is represented as a multiset of the analytic
+   * line keys, so that it does not depend on the order of the analytic lines.
+   *
+   * @param moveLine
+   * @return
+   */
+  protected List<Object> getConsolidateKey(MoveLine moveLine) {
 
-        if (map.containsKey(keys)) {
+    Map<List<Object>, Integer> analyticDistribution = new HashMap<>();
 
-          MoveLine moveLineIt = map.get(keys);
-          int count = 0;
-          if (moveLineIt.getAnalyticMoveLineList() == null
-              && moveLine.getAnalyticMoveLineList() == null) {
-            return moveLineIt;
-          } else if (moveLineIt.getAnalyticMoveLineList() == null
-              || moveLine.getAnalyticMoveLineList() == null) {
-            break;
-          }
-          List<AnalyticMoveLine> list1 = moveLineIt.getAnalyticMoveLineList();
-          List<AnalyticMoveLine> list2 = moveLine.getAnalyticMoveLineList();
-          List<AnalyticMoveLine> copyList = new ArrayList<AnalyticMoveLine>(list1);
-          if (list1.size() == list2.size()) {
-            for (AnalyticMoveLine analyticDistributionLine : list2) {
-              for (AnalyticMoveLine analyticDistributionLineIt : copyList) {
-                if (analyticDistributionLine
-                        .getAnalyticAxis()
-                        .equals(analyticDistributionLineIt.getAnalyticAxis())
-                    && analyticDistributionLine
-                        .getAnalyticAccount()
-                        .equals(analyticDistributionLineIt.getAnalyticAccount())
-                    && analyticDistributionLine
-                        .getAccount()
-                        .equals(analyticDistributionLineIt.getAccount())
-                    && analyticDistributionLine
-                        .getPercentage()
-                        .equals(analyticDistributionLineIt.getPercentage())
-                    && ((analyticDistributionLine.getAnalyticJournal() == null
-                            && analyticDistributionLineIt.getAnalyticJournal() == null)
-                        || analyticDistributionLine
-                            .getAnalyticJournal()
-                            .equals(analyticDistributionLineIt.getAnalyticJournal()))) {
-                  copyList.remove(analyticDistributionLineIt);
-                  count++;
-                  break;
-                }
-              }
-            }
-            if (count == list1.size()) {
-              return moveLineIt;
-            }
-          }
-        } else {
-          return null;
-        }
+    if (moveLine.getAnalyticMoveLineList() != null) {
+      for (AnalyticMoveLine analyticMoveLine : moveLine.getAnalyticMoveLineList()) {
+        analyticDistribution.merge(this.getConsolidateKey(analyticMoveLine), 1, Integer::sum);
       }
     }
 
-    return null;
+    return Arrays.asList(
+        this.getConsolidateKeyPart(moveLine.getAccount()),
+        this.getConsolidateKeyPart(moveLine.getTaxLine()),
+        analyticDistribution);
+  }
+
+  protected List<Object> getConsolidateKey(AnalyticMoveLine analyticMoveLine) {
+
+    BigDecimal percentage = analyticMoveLine.getPercentage();
+
+    return Arrays.asList(
+        this.getConsolidateKeyPart(analyticMoveLine.getAnalyticAxis()),
+        this.getConsolidateKeyPart(analyticMoveLine.getAnalyticAccount()),
+        this.getConsolidateKeyPart(analyticMoveLine.getAccount()),
+        this.getConsolidateKeyPart(analyticMoveLine.getAnalyticJournal()),
+        percentage == null ? null : percentage.stripTrailingZeros());
+  }
+
+  /** Use ids rather than entities, whose hash code is constant. */
+  protected Object getConsolidateKeyPart(Model model) {
+    if (model == null) {
+      return null;
+    }
+    return model.getId() != null ? model.getId() : model;
   }
 
   /**
@@ -530,17 +516,15 @@ public class MoveLineService {
    */
   public List<MoveLine> consolidateMoveLines(List<MoveLine> moveLines) {
 
-    Map<List<Object>, MoveLine> map = new HashMap<List<Object>, MoveLine>();
-    MoveLine consolidateMoveLine = null;
+    Map<List<Object>, MoveLine> map = new LinkedHashMap<>();
+    Map<List<Object>, Map<List<Object>, List<AnalyticMoveLine>>> analyticMoveLineMap =
+        new HashMap<>();
 
     for (MoveLine moveLine : moveLines) {
 
-      List<Object> keys = new ArrayList<Object>();
-
-      keys.add(moveLine.getAccount());
-      keys.add(moveLine.getTaxLine());
+      List<Object> keys = this.getConsolidateKey(moveLine);
 
-      consolidateMoveLine = this.findConsolidateMoveLine(map, moveLine, keys);
+      MoveLine consolidateMoveLine = map.get(keys);
       if (consolidateMoveLine != null) {
 
         BigDecimal consolidateCurrencyAmount = BigDecimal.ZERO;
@@ -571,36 +555,12 @@ public class MoveLineService {
         consolidateMoveLine.setCredit(consolidateMoveLine.getCredit().add(moveLine.getCredit()));
         consolidateMoveLine.setDebit(consolidateMoveLine.getDebit().add(moveLine.getDebit()));
 
-        if (consolidateMoveLine.getAnalyticMoveLineList() != null
-            && !consolidateMoveLine.getAnalyticMoveLineList().isEmpty()) {
-          for (AnalyticMoveLine analyticDistributionLine :
-              consolidateMoveLine.getAnalyticMoveLineList()) {
-            for (AnalyticMoveLine analyticDistributionLineIt : moveLine.getAnalyticMoveLineList()) {
-              if (analyticDistributionLine
-                      .getAnalyticAxis()
-                      .equals(analyticDistributionLineIt.getAnalyticAxis())
-                  && analyticDistributionLine
-                      .getAnalyticAccount()
-                      .equals(analyticDistributionLineIt.getAnalyticAccount())
-                  && analyticDistributionLine
-                      .getAccount()
-                      .equals(analyticDistributionLineIt.getAccount())
-                  && analyticDistributionLine
-                      .getPercentage()
-                      .equals(analyticDistributionLineIt.getPercentage())
-                  && ((analyticDistributionLine.getAnalyticJournal() == null
-                          && analyticDistributionLineIt.getAnalyticJournal() == null)
-                      || analyticDistributionLine
-                          .getAnalyticJournal()
-                          .equals(analyticDistributionLineIt.getAnalyticJournal()))) {
-                analyticDistributionLine.setAmount(
-                    analyticDistributionLine
-                        .getAmount()
-                        .add(analyticDistributionLineIt.getAmount()));
-                break;
-              }
-            }
-          }
+        if (moveLine.getAnalyticMoveLineList() != null
+            && !moveLine.getAnalyticMoveLineList().isEmpty()) {
+          this.consolidateAnalyticMoveLines(
+              analyticMoveLineMap.computeIfAbsent(
+                  keys, key -> this.getAnalyticMoveLineMap(consolidateMoveLine)),
+              moveLine);
         }
       } else {
         map.put(keys, moveLine);
@@ -643,6 +603,37 @@ public class MoveLineService {
     return moveLines;
   }
 
+  /** Index the analytic move lines of a consolidated move line by their consolidation key. */
+  protected Map<List<Object>, List<AnalyticMoveLine>> getAnalyticMoveLineMap(MoveLine moveLine) {
+
+    Map<List<Object>, List<AnalyticMoveLine>> analyticMoveLineMap = new HashMap<>();
+
+    for (AnalyticMoveLine analyticMoveLine : moveLine.getAnalyticMoveLineList()) {
+      analyticMoveLineMap
+          .computeIfAbsent(this.getConsolidateKey(analyticMoveLine), key -> new ArrayList<>())
+          .add(analyticMoveLine);
+    }
+
+    return analyticMoveLineMap;
+  }
+
+  /**
+   * Add the amounts of the analytic move lines of a move line to the matching lines of the
+   * consolidated move line, both having the same analytic distribution.
+   */
+  protected void consolidateAnalyticMoveLines(
+      Map<List<Object>, List<AnalyticMoveLine>> analyticMoveLineMap, MoveLine moveLine) {
+
+    Map<List<Object>, Integer> usedCountMap = new HashMap<>();
+
+    for (AnalyticMoveLine analyticMoveLineIt : moveLine.getAnalyticMoveLineList()) {
+      List<Object> key = this.getConsolidateKey(analyticMoveLineIt);
+      int index = usedCountMap.merge(key, 1, Integer::sum) - 1;
+      AnalyticMoveLine analyticMoveLine = analyticMoveLineMap.get(key).get(index);
+      analyticMoveLine.setAmount(analyticMoveLine.getAmount().add(analyticMoveLineIt.getAmount()));
+    }
+  }
+
   /**
    * Fonction permettant de récuperer la ligne d'écriture (au credit et non complétement lettrée sur
    * le compte client) de la facture
@@ -820,18 +811,12 @@ public class MoveLineService {
 
     populateDebit(moveLineMap, reconciliableDebitMoveLineList);
 
-    Comparator<MoveLine> byDate = Comparator.comparing(MoveLine::getDate);
-
-    PaymentService paymentService = Beans.get(PaymentService.class);
-
+    List<Pair<List<MoveLine>, List<MoveLine>>> debitCreditMoveLineLists = new ArrayList<>();
     for (Pair<List<MoveLine>, List<MoveLine>> moveLineLists : moveLineMap.values()) {
-      List<MoveLine> companyPartnerCreditMoveLineList = moveLineLists.getLeft();
-      List<MoveLine> companyPartnerDebitMoveLineList = moveLineLists.getRight();
-      companyPartnerCreditMoveLineList.sort(byDate);
-      companyPartnerDebitMoveLineList.sort(byDate);
-      paymentService.useExcessPaymentOnMoveLinesDontThrow(
-          companyPartnerDebitMoveLineList, companyPartnerCreditMoveLineList);
+      debitCreditMoveLineLists.add(Pair.of(moveLineLists.getRight(), moveLineLists.getLeft()));
     }
+
+    Beans.get(ReconcileBulkService.class).reconcile(debitCreditMoveLineLists);
   }
 
   private void populateCredit(
@@ -22,6 +22,7 @@ import com.axelor.apps.account.db.Move;
 import com.axelor.apps.account.db.MoveLine;
 import com.axelor.apps.account.db.repo.MoveRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.apps.account.service.GeneralLedgerBalanceService;
 import com.axelor.apps.account.service.app.AppAccountService;
 import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.db.Partner;
@@ -48,6 +49,8 @@ public class MoveValidateService {
   protected MoveCustAccountService moveCustAccountService;
   protected MoveRepository moveRepository;
 
+  @Inject protected GeneralLedgerBalanceService generalLedgerBalanceService;
+
   @Inject
   public MoveValidateService(
       AppAccountService appAccountService,
@@ -118,6 +121,7 @@ public class MoveValidateService {
   public void validateMove(Move move, boolean updateCustomerAccount) throws AxelorException {
 
     log.debug("Validation de l'écriture comptable {}", move.getReference());
+    boolean alreadyValidated = move.getStatusSelect() == MoveRepository.STATUS_VALIDATED;
     Journal journal = move.getJournal();
     Company company = move.getCompany();
     if (journal == null) {
@@ -165,6 +169,10 @@ public class MoveValidateService {
     this.fillMoveLines(move);
     moveRepository.save(move);
 
+    if (!alreadyValidated && move.getStatusSelect() == MoveRepository.STATUS_VALIDATED) {
+      generalLedgerBalanceService.add(move);
+    }
+
     moveCustAccountService.updateCustomerAccount(move);
 
     move.setValidationDate(LocalDate.now());
@@ -26,6 +26,7 @@ import com.axelor.apps.account.db.MoveLine;
 import com.axelor.apps.account.db.repo.AccountingReportRepository;
 import com.axelor.apps.account.exception.IExceptionMessage;
 import com.axelor.apps.account.report.IReport;
+import com.axelor.apps.account.service.AccountingReportBalance;
 import com.axelor.apps.account.service.AccountingReportService;
 import com.axelor.apps.account.service.MoveLineExportService;
 import com.axelor.apps.report.engine.ReportSettings;
@@ -40,7 +41,6 @@ import com.axelor.rpc.ActionResponse;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.lang.invoke.MethodHandles;
-import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -66,12 +66,11 @@ public class AccountingReportController {
       accountingReport = accountingReportRepo.find(accountingReport.getId());
 
       String query = accountingReportService.getMoveLineList(accountingReport);
-      BigDecimal debitBalance = accountingReportService.getDebitBalance();
-      BigDecimal creditBalance = accountingReportService.getCreditBalance();
+      AccountingReportBalance balance = accountingReportService.getBalance(accountingReport);
 
-      response.setValue("totalDebit", debitBalance);
-      response.setValue("totalCredit", creditBalance);
-      response.setValue("balance", debitBalance.subtract(creditBalance));
+      response.setValue("totalDebit", balance.getDebit());
+      response.setValue("totalCredit", balance.getCredit());
+      response.setValue("balance", balance.getBalance());
 
       ActionViewBuilder actionViewBuilder =
           ActionView.define(I18n.get(IExceptionMessage.ACCOUNTING_REPORT_3));
@@ -0,0 +1,207 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.account.service.move;
+
+import com.axelor.apps.account.db.Account;
+import com.axelor.apps.account.db.AnalyticAccount;
+import com.axelor.apps.account.db.AnalyticAxis;
+import com.axelor.apps.account.db.AnalyticJournal;
+import com.axelor.apps.account.db.AnalyticMoveLine;
+import com.axelor.apps.account.db.MoveLine;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestMoveLineConsolidate {
+
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Timing dependent, so only run on demand, e.g. -Daccount.consolidate.benchmark=true */
+  private static final boolean BENCHMARK = Boolean.getBoolean("account.consolidate.benchmark");
+
+  private static final int ACCOUNTS = 50;
+  private static final int DISTRIBUTIONS = 20;
+
+  private final MoveLineService moveLineService =
+      new MoveLineService(null, null, null, null, null, null, null);
+
+  private final List<Account> accounts = new ArrayList<>();
+  private final List<AnalyticAccount> analyticAccounts = new ArrayList<>();
+  private final AnalyticAxis analyticAxis = new AnalyticAxis();
+  private final AnalyticJournal analyticJournal = new AnalyticJournal();
+
+  public TestMoveLineConsolidate() {
+    for (long id = 1; id <= ACCOUNTS; id++) {
+      Account account = new Account();
+      account.setId(id);
+      accounts.add(account);
+      AnalyticAccount analyticAccount = new AnalyticAccount();
+      analyticAccount.setId(id);
+      analyticAccounts.add(analyticAccount);
+    }
+    analyticAxis.setId(1L);
+    analyticJournal.setId(1L);
+  }
+
+  @Test
+  public void testConsolidate() {
+
+    List<MoveLine> moveLines = new ArrayList<>();
+    moveLines.add(createMoveLine(0, 0, new Random(1)));
+    moveLines.add(createMoveLine(0, 0, new Random(2)));
+    moveLines.add(createMoveLine(0, 1, new Random(3)));
+    moveLines.add(createMoveLine(1, 0, new Random(4)));
+
+    List<MoveLine> result = moveLineService.consolidateMoveLines(moveLines);
+
+    Assert.assertEquals(3, result.size());
+    Assert.assertEquals(new BigDecimal("200.00"), result.get(0).getDebit());
+    Assert.assertEquals(1, result.get(0).getCounter());
+    Assert.assertEquals(3, result.get(2).getCounter());
+
+    for (AnalyticMoveLine analyticMoveLine : result.get(0).getAnalyticMoveLineList()) {
+      Assert.assertEquals(
+          new BigDecimal("200.00")
+              .multiply(analyticMoveLine.getPercentage())
+              .divide(new BigDecimal(100))
+              .setScale(2),
+          analyticMoveLine.getAmount());
+    }
+  }
+
+  @Test
+  public void testLinearScaling() {
+    Assume.assumeTrue(BENCHMARK);
+
+    // Warm up
+    consolidate(10_000);
+    consolidate(10_000);
+
+    long small = consolidate(10_000);
+    long large = consolidate(40_000);
+    log.info(
+        "Consolidation : 10k lines in {} ms, 40k lines in {} ms",
+        small / 1_000_000,
+        large / 1_000_000);
+
+    // Four times more lines: a quadratic consolidation would take sixteen times longer.
+    Assert.assertTrue(
+        String.format("10k lines: %d ms, 40k lines: %d ms", small / 1_000_000, large / 1_000_000),
+        large < Math.max(small, 1_000_000) * 10);
+  }
+
+  /** @return the best time of three runs, in nanoseconds */
+  private long consolidate(int size) {
+
+    long best = Long.MAX_VALUE;
+
+    for (int run = 0; run < 3; run++) {
+      Random random = new Random(size);
+      List<MoveLine> moveLines = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        moveLines.add(
+            createMoveLine(random.nextInt(ACCOUNTS), random.nextInt(DISTRIBUTIONS), random));
+      }
+
+      long start = System.nanoTime();
+      List<MoveLine> result = moveLineService.consolidateMoveLines(moveLines);
+      best = Math.min(best, System.nanoTime() - start);
+
+      Assert.assertEquals(ACCOUNTS * DISTRIBUTIONS, result.size());
+    }
+
+    return best;
+  }
+
+  @Test
+  public void testConsolidateMany() {
+
+    int size = 40_000;
+    int[][] counts = new int[ACCOUNTS][DISTRIBUTIONS];
+    Random random = new Random(size);
+    List<MoveLine> moveLines = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int accountIndex = random.nextInt(ACCOUNTS);
+      int distribution = random.nextInt(DISTRIBUTIONS);
+      counts[accountIndex][distribution]++;
+      moveLines.add(createMoveLine(accountIndex, distribution, random));
+    }
+
+    List<MoveLine> result = moveLineService.consolidateMoveLines(moveLines);
+
+    Assert.assertEquals(ACCOUNTS * DISTRIBUTIONS, result.size());
+
+    for (MoveLine moveLine : result) {
+      int accountIndex = (int) (moveLine.getAccount().getId() - 1);
+      int distribution = -1;
+      for (AnalyticMoveLine analyticMoveLine : moveLine.getAnalyticMoveLineList()) {
+        if (analyticMoveLine.getPercentage().compareTo(new BigDecimal(50)) == 0) {
+          distribution = (int) (analyticMoveLine.getAnalyticAccount().getId() - 1);
+        }
+      }
+      BigDecimal expected =
+          new BigDecimal("100.00").multiply(new BigDecimal(counts[accountIndex][distribution]));
+
+      Assert.assertEquals(3, moveLine.getAnalyticMoveLineList().size());
+      Assert.assertEquals(expected, moveLine.getDebit());
+      Assert.assertEquals(expected, moveLine.getCurrencyAmount());
+    }
+  }
+
+  /**
+   * Create a move line of 100.00 on an account, split over three analytic accounts in one of the
+   * distributions. The analytic lines are shuffled so that their order does not matter.
+   */
+  private MoveLine createMoveLine(int accountIndex, int distribution, Random random) {
+
+    MoveLine moveLine = new MoveLine();
+    moveLine.setAccount(accounts.get(accountIndex));
+    moveLine.setDebit(new BigDecimal("100.00"));
+    moveLine.setCredit(BigDecimal.ZERO);
+    moveLine.setCurrencyAmount(new BigDecimal("100.00"));
+
+    List<AnalyticMoveLine> analyticMoveLineList = new ArrayList<>();
+    analyticMoveLineList.add(createAnalyticMoveLine(distribution, "50"));
+    analyticMoveLineList.add(createAnalyticMoveLine(distribution + 1, "30"));
+    analyticMoveLineList.add(createAnalyticMoveLine(distribution + 2, "20"));
+    Collections.shuffle(analyticMoveLineList, random);
+    moveLine.setAnalyticMoveLineList(analyticMoveLineList);
+
+    return moveLine;
+  }
+
+  private AnalyticMoveLine createAnalyticMoveLine(int analyticAccountIndex, String percentage) {
+
+    AnalyticMoveLine analyticMoveLine = new AnalyticMoveLine();
+    analyticMoveLine.setAnalyticAxis(analyticAxis);
+    analyticMoveLine.setAnalyticJournal(analyticJournal);
+    analyticMoveLine.setAnalyticAccount(analyticAccounts.get(analyticAccountIndex));
+    analyticMoveLine.setPercentage(new BigDecimal(percentage));
+    analyticMoveLine.setAmount(new BigDecimal(percentage).setScale(2));
+
+    return analyticMoveLine;
+  }
+}
@@ -36,12 +36,15 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 import com.google.inject.Inject;
+import com.google.inject.persist.UnitOfWork;
 import com.opencsv.CSVWriter;
 import com.thoughtworks.xstream.XStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -52,9 +55,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.eclipse.persistence.config.HintValues;
 import org.eclipse.persistence.config.QueryHints;
 import org.slf4j.Logger;
@@ -66,11 +73,16 @@ public class DataBackupCreateService {
   private static final char QUOTE_CHAR = '"';
   private static final char REFERENCE_FIELD_SEPARATOR = '|';
 
+  private static final int DEFAULT_FETCH_LIMIT = 1000;
+  private static final int MAX_THREAD_COUNT = 4;
+  private static final int ROW_QUEUE_CAPACITY = 10000;
+  private static final String[] END_OF_DATA = new String[0];
+
   @Inject private MetaModelRepository metaModelRepo;
 
-  private Logger LOG = LoggerFactory.getLogger(getClass());
+  @Inject private UnitOfWork unitOfWork;
 
-  private boolean notNullReferenceFlag, referenceFlag;
+  private Logger LOG = LoggerFactory.getLogger(getClass());
 
   private static Set<String> exceptColumnNameList =
       ImmutableSet.of(
@@ -99,73 +111,85 @@ public class DataBackupCreateService {
           .put("com.axelor.apps.bankpayment.db.BankStatementFileFormat", "self.name = :name")
           .build();
 
-  /* Generate csv Files for each individual MetaModel and single config file */
-  public File create(Integer fetchLimit) {
+  /*
+   * Generate csv Files for each individual MetaModel and single config file. The backup fails if
+   * the data of a MetaModel can not be read, rather than missing its csv file.
+   */
+  public File create(Integer fetchLimit) throws IOException {
     File tempDir = Files.createTempDir();
-    String tempDirectoryPath = tempDir.getAbsolutePath();
+    int limit = fetchLimit == null || fetchLimit <= 0 ? DEFAULT_FETCH_LIMIT : fetchLimit;
 
-    List<String> fileNameList = new ArrayList<>();
-    List<MetaModel> metaModelList = getMetaModels();
+    List<ModelExport> exportList = new ArrayList<>();
+    for (MetaModel metaModel : getMetaModels()) {
+      try {
+        Class<?> klass = Class.forName(metaModel.getFullName());
+        if (klass.getSuperclass().isAssignableFrom(AuditableModel.class)) {
+          exportList.add(createModelExport(metaModel, klass));
+        }
+      } catch (ClassNotFoundException e) {
+        LOG.error("Model class not found : {}", metaModel.getFullName(), e);
+      }
+    }
 
     LinkedList<CSVInput> simpleCsvs = new LinkedList<>();
     LinkedList<CSVInput> refernceCsvs = new LinkedList<>();
     LinkedList<CSVInput> notNullReferenceCsvs = new LinkedList<>();
 
-    for (MetaModel metaModel : metaModelList) {
-      try {
-        if (Class.forName(metaModel.getFullName())
-            .getSuperclass()
-            .isAssignableFrom(AuditableModel.class)) {
-          long totalRecord = getMetaModelDataCount(metaModel);
-          if (totalRecord > 0) {
-            LOG.debug("Exporting Model : " + metaModel.getFullName());
-
-            notNullReferenceFlag = false;
-            referenceFlag = false;
-
-            CSVWriter csvWriter =
-                new CSVWriter(
-                    new FileWriter(new File(tempDirectoryPath, metaModel.getName() + ".csv")),
-                    SEPARATOR,
-                    QUOTE_CHAR);
-            CSVInput csvInput = writeCSVData(metaModel, csvWriter, fetchLimit, totalRecord);
-            csvWriter.close();
-
-            if (notNullReferenceFlag) {
-              notNullReferenceCsvs.add(csvInput);
-            } else if (referenceFlag) {
-              refernceCsvs.add(csvInput);
-
-              CSVInput temcsv = new CSVInput();
-              temcsv.setFileName(csvInput.getFileName());
-              temcsv.setTypeName(csvInput.getTypeName());
-              if (AutoImportModelMap.containsKey(csvInput.getTypeName())) {
-                temcsv.setSearch(AutoImportModelMap.get(csvInput.getTypeName()).toString());
-              }
-              simpleCsvs.add(temcsv);
-            } else {
-              simpleCsvs.add(csvInput);
-            }
-
-            fileNameList.add(metaModel.getName() + ".csv");
+    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmSS");
+    String backupZipFileName = "DataBackup_" + LocalDateTime.now().format(formatter) + ".zip";
+    File zipFile = new File(tempDir, backupZipFileName);
+
+    /*
+     * Models are read by the workers in the order of the list, and written to the zip by this
+     * thread in the same order. The bounded queues let the workers read ahead of the writer.
+     */
+    ExecutorService executor = Executors.newFixedThreadPool(getThreadCount());
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      for (ModelExport export : exportList) {
+        executor.submit(() -> exportModel(export, limit));
+      }
+
+      for (ModelExport export : exportList) {
+        if (!writeModelExport(out, export)) {
+          continue;
+        }
+
+        CSVInput csvInput = export.csvInput;
+        if (export.notNullReferenceFlag) {
+          notNullReferenceCsvs.add(csvInput);
+        } else if (export.referenceFlag) {
+          refernceCsvs.add(csvInput);
+
+          CSVInput temcsv = new CSVInput();
+          temcsv.setFileName(csvInput.getFileName());
+          temcsv.setTypeName(csvInput.getTypeName());
+          if (AutoImportModelMap.containsKey(csvInput.getTypeName())) {
+            temcsv.setSearch(AutoImportModelMap.get(csvInput.getTypeName()).toString());
           }
+          simpleCsvs.add(temcsv);
+        } else {
+          simpleCsvs.add(csvInput);
         }
-      } catch (ClassNotFoundException | IOException | InterruptedException e) {
-        e.printStackTrace();
       }
-    }
 
-    CSVConfig csvConfig = new CSVConfig();
-    csvConfig.setInputs(simpleCsvs);
-    csvConfig.getInputs().addAll(notNullReferenceCsvs);
-    csvConfig.getInputs().addAll(refernceCsvs);
-    csvConfig.getInputs().addAll(notNullReferenceCsvs);
-    generateConfig(tempDirectoryPath, csvConfig);
+      CSVConfig csvConfig = new CSVConfig();
+      csvConfig.setInputs(simpleCsvs);
+      csvConfig.getInputs().addAll(notNullReferenceCsvs);
+      csvConfig.getInputs().addAll(refernceCsvs);
+      csvConfig.getInputs().addAll(notNullReferenceCsvs);
+      generateConfig(out, csvConfig);
+    } catch (IOException e) {
+      zipFile.delete();
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
 
-    fileNameList.add(DataBackupServiceImpl.configFileName);
-    File zippedFile = generateZIP(tempDirectoryPath, fileNameList);
     LOG.debug("Data Import Completed");
-    return zippedFile;
+    return zipFile;
   }
 
   /* Get All MetaModels */
@@ -178,77 +202,126 @@ public class DataBackupCreateService {
     return metaModels;
   }
 
-  /* Get All Data of Specific MetaModel */
-  private List<Model> getMetaModelDataList(MetaModel metaModel, int start, Integer fetchLimit) {
+  protected int getThreadCount() {
+    return Math.max(1, Math.min(MAX_THREAD_COUNT, Runtime.getRuntime().availableProcessors()));
+  }
+
+  /* Get a page of data of a specific MetaModel, after the given id */
+  private List<Model> getMetaModelDataList(String modelName, long lastId, int fetchLimit) {
     return JPA.em()
-        .createQuery("FROM " + metaModel.getName(), Model.class)
+        .createQuery(
+            "SELECT self FROM " + modelName + " self WHERE self.id > :lastId ORDER BY self.id",
+            Model.class)
         .setHint(QueryHints.MAINTAIN_CACHE, HintValues.FALSE)
-        .setFirstResult(start)
+        .setParameter("lastId", lastId)
         .setMaxResults(fetchLimit)
         .getResultList();
   }
 
-  private long getMetaModelDataCount(MetaModel metaModel)
-      throws InterruptedException, ClassNotFoundException {
-    return (long)
-        JPA.em().createQuery("SELECT count(*) FROM " + metaModel.getName()).getSingleResult();
-  }
+  /* Prepare the csv input and header of a MetaModel */
+  private ModelExport createModelExport(MetaModel metaModel, Class<?> klass) {
+    ModelExport export = new ModelExport(metaModel.getName(), Mapper.of(klass));
+
+    CSVInput csvInput = export.csvInput;
+    csvInput.setFileName(metaModel.getName() + ".csv");
+    csvInput.setTypeName(metaModel.getFullName());
+    csvInput.setBindings(new ArrayList<>());
 
-  private CSVInput writeCSVData(
-      MetaModel metaModel, CSVWriter csvWriter, Integer fetchLimit, long totalRecord) {
-    CSVInput csvInput = new CSVInput();
-    boolean headerFlag = true;
-    List<String> dataArr = null;
     List<String> headerArr = new ArrayList<>();
-    List<Model> dataList = null;
+    for (Property property : export.mapper.getProperties()) {
+      if (StringUtils.isEmpty(property.getMappedBy())
+          && !exceptColumnNameList.contains(property.getName())) {
+        export.properties.add(property);
+        headerArr.add(getMetaModelHeader(property, export));
+      }
+    }
+    export.header = headerArr.toArray(new String[headerArr.size()]);
+
+    if (AutoImportModelMap.containsKey(csvInput.getTypeName())) {
+      csvInput.setSearch(AutoImportModelMap.get(csvInput.getTypeName()).toString());
+    }
+    return export;
+  }
 
+  /* Read all the data of a MetaModel by pages of ids, on a worker thread */
+  private void exportModel(ModelExport export, int fetchLimit) {
+    unitOfWork.begin();
     try {
-      Mapper metaModelMapper = Mapper.of(Class.forName(metaModel.getFullName()));
-      Property[] pro = metaModelMapper.getProperties();
-
-      csvInput.setFileName(metaModel.getName() + ".csv");
-      csvInput.setTypeName(metaModel.getFullName());
-      csvInput.setBindings(new ArrayList<>());
-
-      for (int i = 0; i < totalRecord; i = i + fetchLimit) {
-
-        dataList = getMetaModelDataList(metaModel, i, fetchLimit);
-
-        if (dataList != null && dataList.size() > 0) {
-          for (Object dataObject : dataList) {
-            dataArr = new ArrayList<>();
-
-            for (Property property : pro) {
-              if (StringUtils.isEmpty(property.getMappedBy())
-                  && !exceptColumnNameList.contains(property.getName())) {
-                if (headerFlag) {
-                  headerArr.add(getMetaModelHeader(dataObject, property, csvInput));
-                }
-                dataArr.add(
-                    getMetaModelData(
-                        property, metaModelMapper.get(dataObject, property.getName())));
-              }
-            }
-
-            if (headerFlag) {
-              csvWriter.writeNext(headerArr.toArray(new String[headerArr.size()]), true);
-              headerFlag = false;
-            }
-            csvWriter.writeNext(dataArr.toArray(new String[dataArr.size()]), true);
+      long lastId = 0;
+      List<Model> dataList;
+      do {
+        dataList = getMetaModelDataList(export.name, lastId, fetchLimit);
+        for (Model dataObject : dataList) {
+          String[] dataArr = new String[export.properties.size()];
+          for (int i = 0; i < dataArr.length; i++) {
+            Property property = export.properties.get(i);
+            dataArr[i] =
+                getMetaModelData(property, export.mapper.get(dataObject, property.getName()));
           }
+          export.rows.put(dataArr);
+          lastId = dataObject.getId();
         }
+        JPA.clear();
+      } while (dataList.size() == fetchLimit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      export.error = e;
+    } catch (Exception e) {
+      export.error = e;
+    } finally {
+      unitOfWork.end();
+      try {
+        export.rows.put(END_OF_DATA);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
-      if (AutoImportModelMap.containsKey(csvInput.getTypeName())) {
-        csvInput.setSearch(AutoImportModelMap.get(csvInput.getTypeName()).toString());
-      }
-    } catch (ClassNotFoundException e) {
-      e.printStackTrace();
     }
-    return csvInput;
+  }
+
+  /* Stream the data of a MetaModel into its zip entry, returns false if it has no data */
+  private boolean writeModelExport(ZipOutputStream out, ModelExport export)
+      throws IOException, InterruptedException {
+    String[] dataArr = take(export);
+    if (dataArr == END_OF_DATA) {
+      checkExportError(export);
+      return false;
+    }
+
+    LOG.debug("Exporting Model : " + export.csvInput.getTypeName());
+
+    out.putNextEntry(new ZipEntry(export.csvInput.getFileName()));
+    CSVWriter csvWriter =
+        new CSVWriter(
+            new OutputStreamWriter(new CloseShieldOutputStream(out), StandardCharsets.UTF_8),
+            SEPARATOR,
+            QUOTE_CHAR);
+    csvWriter.writeNext(export.header, true);
+    for (; dataArr != END_OF_DATA; dataArr = take(export)) {
+      csvWriter.writeNext(dataArr, true);
+    }
+    csvWriter.close();
+    out.closeEntry();
+
+    checkExportError(export);
+    return true;
+  }
+
+  private String[] take(ModelExport export) throws InterruptedException {
+    String[] dataArr = export.rows.poll();
+    return dataArr != null ? dataArr : export.rows.take();
+  }
+
+  /* Fail the backup if the worker could not read all the data of the MetaModel */
+  private void checkExportError(ModelExport export) throws IOException {
+    if (export.error != null) {
+      LOG.error(
+          "Error From DataBackupCreateService - exportModel() : {}", export.name, export.error);
+      throw new IOException("Unable to export the data of " + export.name, export.error);
+    }
   }
 
   /* Get Header For csv File */
-  private String getMetaModelHeader(Object value, Property property, CSVInput csvInput) {
+  private String getMetaModelHeader(Property property, ModelExport export) {
     String propertyTypeStr = property.getType().toString();
     String propertyName = property.getName();
     switch (propertyTypeStr) {
@@ -256,17 +329,18 @@ public class DataBackupCreateService {
         return propertyName.equalsIgnoreCase("id") ? "importId" : propertyName;
       case "ONE_TO_ONE":
       case "MANY_TO_ONE":
-        return getRelationalFieldHeader(property, csvInput, "ONE");
+        return getRelationalFieldHeader(property, export, "ONE");
       case "ONE_TO_MANY":
       case "MANY_TO_MANY":
-        return getRelationalFieldHeader(property, csvInput, "MANY");
+        return getRelationalFieldHeader(property, export, "MANY");
       default:
         return propertyName;
     }
   }
 
   private String getRelationalFieldHeader(
-      Property property, CSVInput csvInput, String relationship) {
+      Property property, ModelExport export, String relationship) {
+    CSVInput csvInput = export.csvInput;
     csvInput.setSearch("self.importId = :importId");
     CSVBind csvBind = new CSVBind();
 
@@ -291,9 +365,9 @@ public class DataBackupCreateService {
       csvBind.setExpression(columnName + ".split('\\\\|') as List");
     }
     csvInput.getBindings().add(csvBind);
-    referenceFlag = true;
+    export.referenceFlag = true;
     if (property.isRequired()) {
-      notNullReferenceFlag = true;
+      export.notNullReferenceFlag = true;
     }
     return columnName;
   }
@@ -349,50 +423,36 @@ public class DataBackupCreateService {
     }
   }
 
-  private File generateZIP(String dirPath, List<String> fileNameList) {
-    int length = 0;
-    byte[] data = null;
-
-    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMddHHmmSS");
-    String backupZipFileName = "DataBackup_" + LocalDateTime.now().format(formatter) + ".zip";
-    File zipFile = new File(dirPath, backupZipFileName);
-    try {
-      ZipOutputStream out = null;
-      out = new ZipOutputStream(new FileOutputStream(zipFile));
-      for (String fileName : fileNameList) {
-        ZipEntry e = new ZipEntry(fileName);
-        out.putNextEntry(e);
-        File file = new File(dirPath, fileName);
-        length = (int) file.length();
-        data = new byte[length];
-        data = FileUtils.readFileToByteArray(file);
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        file.delete();
-      }
-      out.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-      LOG.debug("Error From DataBackupCreateService - generateZIP() : " + e.getMessage());
-    }
-    return zipFile;
-  }
-
   /* Generate XML File from CSVConfig */
-  private void generateConfig(String dirPath, CSVConfig csvConfig) {
-    try {
-      File file = new File(dirPath, DataBackupServiceImpl.configFileName);
-      FileWriter fileWriter = new FileWriter(file, true);
-
-      XStream xStream = new XStream();
-      xStream.processAnnotations(CSVConfig.class);
-      xStream.setMode(XStream.NO_REFERENCES);
-      fileWriter.append(xStream.toXML(csvConfig));
+  private void generateConfig(ZipOutputStream out, CSVConfig csvConfig) throws IOException {
+    out.putNextEntry(new ZipEntry(DataBackupServiceImpl.configFileName));
+
+    XStream xStream = new XStream();
+    xStream.processAnnotations(CSVConfig.class);
+    xStream.setMode(XStream.NO_REFERENCES);
+    Writer writer =
+        new OutputStreamWriter(new CloseShieldOutputStream(out), StandardCharsets.UTF_8);
+    writer.append(xStream.toXML(csvConfig));
+    writer.close();
+
+    out.closeEntry();
+  }
 
-      fileWriter.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-      LOG.debug("Error From DataBackupCreateService - generateConfig() : " + e.getMessage());
+  /* Data of a MetaModel, read by a worker and written to the zip by the calling thread */
+  private static final class ModelExport {
+    private final String name;
+    private final Mapper mapper;
+    private final CSVInput csvInput = new CSVInput();
+    private final List<Property> properties = new ArrayList<>();
+    private final BlockingQueue<String[]> rows = new ArrayBlockingQueue<>(ROW_QUEUE_CAPACITY);
+    private String[] header;
+    private boolean notNullReferenceFlag;
+    private boolean referenceFlag;
+    private volatile Exception error;
+
+    private ModelExport(String name, Mapper mapper) {
+      this.name = name;
+      this.mapper = mapper;
     }
   }
 }
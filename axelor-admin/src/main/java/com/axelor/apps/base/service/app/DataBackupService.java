@@ -19,10 +19,11 @@ package com.axelor.apps.base.service.app;
 
 import com.axelor.meta.db.MetaFile;
 import java.io.File;
+import java.io.IOException;
 
 public interface DataBackupService {
 
-  public File createBackUp(Integer fetchLimit);
+  public File createBackUp(Integer fetchLimit) throws IOException;
 
   public File restoreBackUp(MetaFile zipedBackupFile);
 
@@ -20,6 +20,7 @@ package com.axelor.apps.base.service.app;
 import com.axelor.meta.db.MetaFile;
 import com.google.inject.Inject;
 import java.io.File;
+import java.io.IOException;
 
 public class DataBackupServiceImpl implements DataBackupService {
 
@@ -30,7 +31,7 @@ public class DataBackupServiceImpl implements DataBackupService {
   static String configFileName = "config.xml";
 
   @Override
-  public File createBackUp(Integer fetchLimit) {
+  public File createBackUp(Integer fetchLimit) throws IOException {
     return createService.create(fetchLimit);
   }
 
@@ -278,6 +278,24 @@ public class EbicsUtils {
    */
   private static byte[] encryptOrDecrypt(int mode, byte[] input, SecretKeySpec keySpec)
       throws AxelorException {
+    try {
+      return createCipher(mode, keySpec).doFinal(input);
+    } catch (GeneralSecurityException e) {
+      throw new AxelorException(
+          e.getCause(), TraceBackRepository.CATEGORY_CONFIGURATION_ERROR, e.getMessage());
+    }
+  }
+
+  /**
+   * Creates the cipher used to encrypt or decrypt order data, so that it can be applied
+   * incrementally on a stream instead of a whole byte array.
+   *
+   * @param mode the encryption-decryption mode.
+   * @param keySpec the key spec.
+   * @return the initialized cipher.
+   * @throws EbicsException
+   */
+  public static Cipher createCipher(int mode, SecretKeySpec keySpec) throws AxelorException {
     IvParameterSpec iv;
     Cipher cipher;
 
@@ -285,7 +303,7 @@ public class EbicsUtils {
     try {
       cipher = Cipher.getInstance("AES/CBC/ISO10126Padding", BouncyCastleProvider.PROVIDER_NAME);
       cipher.init(mode, keySpec, iv);
-      return cipher.doFinal(input);
+      return cipher;
     } catch (GeneralSecurityException e) {
       throw new AxelorException(
           e.getCause(), TraceBackRepository.CATEGORY_CONFIGURATION_ERROR, e.getMessage());
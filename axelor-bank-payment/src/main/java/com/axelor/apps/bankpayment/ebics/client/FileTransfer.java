@@ -36,8 +36,11 @@ import com.axelor.exception.AxelorException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
 import java.util.Date;
 import org.jdom.JDOMException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Handling of file transfers. Files can be transferred to and fetched from the bank. Every transfer
@@ -85,57 +88,71 @@ public class FileTransfer {
    */
   public void sendFile(byte[] content, OrderType orderType, byte[] signature)
       throws IOException, AxelorException {
+    sendFile(new ByteArrayContentFactory(content), orderType, signature);
+  }
+
+  /**
+   * Initiates a file transfer to the bank. The content is compressed, encrypted and segmented on
+   * the fly, so that only one segment is held in memory at a time.
+   *
+   * @param content The content you want to send.
+   * @param orderType As which order type
+   * @throws IOException
+   * @throws EbicsException
+   */
+  public void sendFile(ContentFactory content, OrderType orderType, byte[] signature)
+      throws IOException, AxelorException {
     HttpRequestSender sender;
-    UInitializationRequestElement initializer;
     InitializationResponseElement response;
     int httpCode;
     EbicsTransferState state;
 
     sender = new HttpRequestSender(session);
 
-    initializer = new UInitializationRequestElement(session, orderType, content, signature);
+    try (UInitializationRequestElement initializer =
+        new UInitializationRequestElement(session, orderType, content, signature)) {
 
-    initializer.build();
+      initializer.build();
 
-    initializer.validate();
-    ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    try {
-      initializer.save(bout);
-    } catch (JDOMException e) {
-      // TODO Bloc catch généré automatiquement
-      e.printStackTrace();
-    }
-    System.out.println(
-        "Requete ----------------------------------------------------------------------------");
-    System.out.println(bout.toString());
+      initializer.validate();
+      if (log.isDebugEnabled()) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+          initializer.save(bout);
+          log.debug("Upload initialization request: {}", bout);
+        } catch (JDOMException e) {
+          log.warn("Unable to print the upload initialization request", e);
+        }
+      }
 
-    httpCode = sender.send(new ByteArrayContentFactory(initializer.prettyPrint()));
+      httpCode = sender.send(new ByteArrayContentFactory(initializer.prettyPrint()));
 
-    EbicsUtils.checkHttpCode(httpCode);
-    response =
-        new InitializationResponseElement(
-            sender.getResponseBody(),
-            orderType,
-            DefaultEbicsRootElement.generateName(orderType),
-            session.getUser());
-    response.build();
-    response.report(new EbicsRootElement[] {initializer, response});
-    state = new EbicsTransferState();
-    state.setNumSegments(initializer.getSegmentNumber());
-    state.setTransactionId(response.getTransactionId());
-    int segNumber = 1;
-    while (segNumber <= state.getNumSegments()) {
-      state.setSegmentNumber(segNumber);
-      if (segNumber == state.getSegmentNumber()) {
-        state.setLastSegment(true);
+      EbicsUtils.checkHttpCode(httpCode);
+      response =
+          new InitializationResponseElement(
+              sender.getResponseBody(),
+              orderType,
+              DefaultEbicsRootElement.generateName(orderType),
+              session.getUser());
+      response.build();
+      response.report(new EbicsRootElement[] {initializer, response});
+      state = new EbicsTransferState();
+      state.setNumSegments(initializer.getSegmentNumber());
+      state.setTransactionId(response.getTransactionId());
+      int segNumber = 1;
+      while (segNumber <= state.getNumSegments()) {
+        state.setSegmentNumber(segNumber);
+        if (segNumber == state.getNumSegments()) {
+          state.setLastSegment(true);
+        }
+        sendFile(
+            initializer.getContent(segNumber),
+            segNumber,
+            state.getLastSegment(),
+            state.getTransactionId(),
+            orderType);
+        segNumber++;
       }
-      sendFile(
-          initializer.getContent(segNumber),
-          segNumber,
-          state.getLastSegment(),
-          state.getTransactionId(),
-          orderType);
-      segNumber++;
     }
   }
 
@@ -200,7 +217,6 @@ public class FileTransfer {
     ReceiptResponseElement receiptResponse;
     int httpCode;
     EbicsTransferState state;
-    Joiner joiner;
 
     sender = new HttpRequestSender(session);
     initializer = new DInitializationRequestElement(session, orderType, start, end);
@@ -217,25 +233,25 @@ public class FileTransfer {
     response.build();
     response.report(new EbicsRootElement[] {initializer, response});
     state = new EbicsTransferState();
-    state.setSegmentNumber(response.getSegmentsNumber());
+    state.setNumSegments(response.getSegmentsNumber());
     state.setTransactionId(response.getTransactionId());
-    state.setSegmentNumber(response.getSegmentNumber());
-    joiner = new Joiner(session.getUser());
-    joiner.append(response.getOrderData());
-    while (state.getSegmentNumber() <= state.getNumSegments()) {
-      if (state.getSegmentNumber() == state.getNumSegments()) {
-        state.setLastSegment(true);
+    state.setSegmentNumber(response.getSegmentNumber() + 1);
+    try (Joiner joiner = new Joiner(session.getUser(), dest, response.getTransactionKey())) {
+      joiner.append(response.getOrderData());
+      while (state.getSegmentNumber() <= state.getNumSegments()) {
+        if (state.getSegmentNumber() == state.getNumSegments()) {
+          state.setLastSegment(true);
+        }
+        fetchFile(
+            orderType,
+            state.getSegmentNumber(),
+            state.getLastSegment(),
+            state.getTransactionId(),
+            joiner);
+        state.setSegmentNumber(state.getSegmentNumber() + 1);
       }
-      fetchFile(
-          orderType,
-          state.getSegmentNumber(),
-          state.getLastSegment(),
-          state.getTransactionId(),
-          joiner);
-      state.setSegmentNumber(state.getSegmentNumber() + 1);
     }
 
-    joiner.writeTo(dest, response.getTransactionKey());
     receipt =
         new ReceiptRequestElement(
             session, state.getTransactionId(), DefaultEbicsRootElement.generateName(orderType));
@@ -297,5 +313,7 @@ public class FileTransfer {
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
   private EbicsSession session;
 }
@@ -20,59 +20,113 @@ package com.axelor.apps.bankpayment.ebics.io;
 import com.axelor.apps.bankpayment.db.EbicsUser;
 import com.axelor.apps.bankpayment.ebics.client.EbicsUtils;
 import com.axelor.apps.bankpayment.ebics.service.EbicsUserService;
+import com.axelor.apps.bankpayment.exception.IExceptionMessage;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
+import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * A simple mean to join downloaded segments from the bank ebics server.
  *
+ * <p>Segments are decrypted and uncompressed as soon as they are appended and written directly to
+ * the destination stream, so that the downloaded file is never held in memory. The last block is
+ * only decrypted on {@link #close()}, which fails if the data is corrupt or incomplete.
+ *
  * @author Hachani
  */
-public class Joiner {
+public class Joiner implements AutoCloseable {
+
+  private static final int BUFFER_SIZE = 8192;
 
   /**
    * Constructs a new <code>Joiner</code> object.
    *
    * @param user the ebics user.
+   * @param output the output stream.
+   * @param transactionKey the transaction key
+   * @throws EbicsException
    */
-  public Joiner(EbicsUser user) {
-    this.user = user;
-    buffer = new ByteArrayOutputStream();
+  public Joiner(EbicsUser user, OutputStream output, byte[] transactionKey)
+      throws AxelorException {
+    this(output, new SecretKeySpec(decryptTransactionKey(user, transactionKey), "EAS"));
   }
 
-  public void append(byte[] data) throws AxelorException {
+  /**
+   * Constructs a new <code>Joiner</code> object with an already decrypted transaction key.
+   *
+   * @param output the output stream.
+   * @param keySpec the secret key spec
+   * @throws EbicsException
+   */
+  Joiner(OutputStream output, SecretKeySpec keySpec) throws AxelorException {
+    this.output = output;
+    this.cipher = EbicsUtils.createCipher(Cipher.DECRYPT_MODE, keySpec);
+    this.inflater = new Inflater();
+  }
+
+  private static byte[] decryptTransactionKey(EbicsUser user, byte[] transactionKey)
+      throws AxelorException {
     try {
-      buffer.write(data);
-      buffer.flush();
+      return Beans.get(EbicsUserService.class).decryptTransactionKey(user, transactionKey);
+    } catch (GeneralSecurityException e) {
+      throw new AxelorException(
+          e.getCause(), TraceBackRepository.CATEGORY_INCONSISTENCY, e.getMessage());
     } catch (IOException e) {
       throw new AxelorException(e.getCause(), TraceBackRepository.TYPE_TECHNICAL, e.getMessage());
     }
   }
 
+  public void append(byte[] data) throws AxelorException {
+    byte[] decrypted = cipher.update(data);
+    if (decrypted != null) {
+      inflate(decrypted);
+    }
+  }
+
   /**
-   * Writes the joined part to an output stream.
+   * Decrypts the last block, checks that the whole compressed data has been received and closes
+   * the destination stream.
    *
-   * @param output the output stream.
-   * @param transactionKey the transaction key
    * @throws EbicsException
    */
-  public void writeTo(OutputStream output, byte[] transactionKey) throws AxelorException {
+  @Override
+  public void close() throws AxelorException {
     try {
-      byte[] decrypted;
-
-      buffer.close();
-      decrypted =
-          Beans.get(EbicsUserService.class).decrypt(user, buffer.toByteArray(), transactionKey);
-      output.write(EbicsUtils.unzip(decrypted));
-      output.close();
+      inflate(cipher.doFinal());
+      if (!inflater.finished()) {
+        throw new AxelorException(
+            TraceBackRepository.CATEGORY_INCONSISTENCY,
+            I18n.get(IExceptionMessage.EBICS_INCOMPLETE_ORDER_DATA));
+      }
     } catch (GeneralSecurityException e) {
       throw new AxelorException(
-          e.getCause(), TraceBackRepository.CATEGORY_INCONSISTENCY, e.getMessage());
+          e.getCause(), TraceBackRepository.CATEGORY_CONFIGURATION_ERROR, e.getMessage());
+    } finally {
+      inflater.end();
+      try {
+        output.close();
+      } catch (IOException e) {
+        throw new AxelorException(e.getCause(), TraceBackRepository.TYPE_TECHNICAL, e.getMessage());
+      }
+    }
+  }
+
+  private void inflate(byte[] data) throws AxelorException {
+    inflater.setInput(data);
+    try {
+      while (!inflater.finished() && !inflater.needsInput() && !inflater.needsDictionary()) {
+        output.write(buffer, 0, inflater.inflate(buffer));
+      }
+    } catch (DataFormatException e) {
+      throw new AxelorException(e.getCause(), TraceBackRepository.TYPE_FUNCTIONNAL, e.getMessage());
     } catch (IOException e) {
       throw new AxelorException(e.getCause(), TraceBackRepository.TYPE_TECHNICAL, e.getMessage());
     }
@@ -82,6 +136,8 @@ public class Joiner {
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
-  private EbicsUser user;
-  private ByteArrayOutputStream buffer;
+  private final OutputStream output;
+  private final Cipher cipher;
+  private final Inflater inflater;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
 }
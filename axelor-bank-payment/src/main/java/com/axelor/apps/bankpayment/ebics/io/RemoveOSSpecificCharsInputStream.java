@@ -0,0 +1,87 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.bankpayment.ebics.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream skipping the carriage returns, line feeds and CTRL-Z characters of the
+ * underlying stream. This is the streaming counterpart of {@link
+ * com.axelor.apps.bankpayment.ebics.service.EbicsUserService#removeOSSpecificChars(byte[])} used
+ * to compute the A005 signature of order data without loading it in memory.
+ */
+public class RemoveOSSpecificCharsInputStream extends FilterInputStream {
+
+  public RemoveOSSpecificCharsInputStream(InputStream input) {
+    super(input);
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b;
+
+    do {
+      b = super.read();
+    } while (isOSSpecificChar(b));
+
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int count;
+
+    do {
+      count = super.read(b, off, len);
+      if (count <= 0) {
+        return count;
+      }
+      int kept = off;
+      for (int i = off; i < off + count; i++) {
+        if (!isOSSpecificChar(b[i])) {
+          b[kept++] = b[i];
+        }
+      }
+      count = kept - off;
+    } while (count == 0);
+
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = 0;
+
+    while (skipped < n && read() != -1) {
+      skipped++;
+    }
+
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private static boolean isOSSpecificChar(int b) {
+    return b == '\r' || b == '\n' || b == 0x1A;
+  }
+}
@@ -21,14 +21,42 @@ import com.axelor.apps.bankpayment.ebics.client.EbicsUtils;
 import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.io.input.BoundedInputStream;
 
 /**
  * A mean to split a given input file to 1MB portions. this i useful to handle big file uploading.
  *
+ * <p>The input is compressed and encrypted on the fly into a temporary file, and each segment is
+ * read back from that file when it is sent, so that neither the order data nor its encrypted form
+ * is ever held entirely in memory.
+ *
  * @author Hachani
  */
-public class Splitter {
+public class Splitter implements Closeable {
+
+  /**
+   * The maximum size of a segment once base64-coded. The order data is base64-coded when the
+   * request is serialized, so segments are cut on the raw encrypted bytes at 3/4 of that size.
+   */
+  public static final int SEGMENT_SIZE = 1048576; // (1024 * 1024)
+
+  private static final int RAW_SEGMENT_SIZE = SEGMENT_SIZE / 4 * 3;
+
+  private static final int BUFFER_SIZE = 8192;
 
   /**
    * Constructs a new <code>FileSplitter</code> with a given file.
@@ -36,6 +64,15 @@ public class Splitter {
    * @param input the input byte array
    */
   public Splitter(byte[] input) {
+    this(new ByteArrayContentFactory(input));
+  }
+
+  /**
+   * Constructs a new <code>FileSplitter</code> with a given content.
+   *
+   * @param input the input content
+   */
+  public Splitter(ContentFactory input) {
     this.input = input;
   }
 
@@ -65,18 +102,44 @@ public class Splitter {
    */
   public final void readInput(boolean isCompressionEnabled, SecretKeySpec keySpec)
       throws AxelorException {
+    close();
     try {
-      if (isCompressionEnabled) {
-        input = EbicsUtils.zip(input);
+      Cipher cipher = EbicsUtils.createCipher(Cipher.ENCRYPT_MODE, keySpec);
+      content = File.createTempFile("ebics", ".segments");
+
+      Deflater compressor = new Deflater(Deflater.BEST_COMPRESSION);
+      try (InputStream in = input.getContent();
+          OutputStream out = openOutput(isCompressionEnabled, compressor, cipher)) {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+          out.write(buffer, 0, len);
+        }
+      } finally {
+        compressor.end();
       }
-      content = EbicsUtils.encrypt(input, keySpec);
+
       segmentation();
-    } catch (Exception e) {
+    } catch (IOException e) {
+      close();
       throw new AxelorException(
           e.getCause(), TraceBackRepository.CATEGORY_CONFIGURATION_ERROR, e.getMessage());
     }
   }
 
+  private OutputStream openOutput(boolean isCompressionEnabled, Deflater compressor, Cipher cipher)
+      throws IOException {
+    OutputStream out =
+        new CipherOutputStream(
+            new BufferedOutputStream(new FileOutputStream(content), BUFFER_SIZE), cipher);
+
+    if (isCompressionEnabled) {
+      out = new DeflaterOutputStream(out, compressor, BUFFER_SIZE);
+    }
+
+    return out;
+  }
+
   /**
    * Slits the input into 1MB portions.
    *
@@ -87,44 +150,36 @@ public class Splitter {
    * irrespective of the transfer direction (upload/download).
    */
   private void segmentation() {
+    contentLength = content.length();
 
-    numSegments = content.length / 1048576; // (1024 * 1024)
+    numSegments = (int) (contentLength / RAW_SEGMENT_SIZE);
 
-    if (content.length % 1048576 != 0) {
+    if (contentLength % RAW_SEGMENT_SIZE != 0) {
       numSegments++;
     }
-
-    segmentSize = content.length / numSegments;
   }
 
   /**
-   * Returns the content of a data segment according to a given segment number.
+   * Returns the content of a data segment according to a given segment number. The segment is read
+   * from the temporary file each time the returned factory is asked for its content.
    *
    * @param segmentNumber the segment number
    * @return
    */
   public ContentFactory getContent(int segmentNumber) {
-    byte[] segment;
-    int offset;
-
-    offset = segmentSize * (segmentNumber - 1);
-    if (content.length < segmentSize + offset) {
-      segment = new byte[content.length - offset];
-    } else {
-      segment = new byte[segmentSize];
-    }
-
-    System.arraycopy(content, offset, segment, 0, segment.length);
-    return new ByteArrayContentFactory(segment);
-  }
+    long offset = (long) RAW_SEGMENT_SIZE * (segmentNumber - 1);
+    long length = Math.min(RAW_SEGMENT_SIZE, contentLength - offset);
 
-  /**
-   * Returns the hole content.
-   *
-   * @return the input content.
-   */
-  public byte[] getContent() {
-    return content;
+    return () -> {
+      FileInputStream in = new FileInputStream(content);
+      try {
+        in.getChannel().position(offset);
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+      return new BoundedInputStream(in, length);
+    };
   }
 
   /**
@@ -136,12 +191,25 @@ public class Splitter {
     return numSegments;
   }
 
+  /** Deletes the temporary file holding the encrypted content. */
+  @Override
+  public void close() {
+    if (content != null) {
+      try {
+        Files.deleteIfExists(content.toPath());
+      } catch (IOException e) {
+        content.deleteOnExit();
+      }
+      content = null;
+    }
+  }
+
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
-  private byte[] input;
-  private byte[] content;
-  private int segmentSize;
+  private ContentFactory input;
+  private File content;
+  private long contentLength;
   private int numSegments;
 }
@@ -31,6 +31,7 @@ import com.axelor.apps.bankpayment.ebics.client.EbicsSession;
 import com.axelor.apps.bankpayment.ebics.client.FileTransfer;
 import com.axelor.apps.bankpayment.ebics.client.KeyManagement;
 import com.axelor.apps.bankpayment.ebics.client.OrderType;
+import com.axelor.apps.bankpayment.ebics.io.FileContentFactory;
 import com.axelor.apps.bankpayment.ebics.io.IOUtils;
 import com.axelor.apps.bankpayment.exception.IExceptionMessage;
 import com.axelor.auth.db.User;
@@ -373,12 +374,11 @@ public class EbicsService {
     try {
       if (ebicsPartner.getEbicsTypeSelect() == EbicsPartnerRepository.EBICS_TYPE_TS) {
         transferManager.sendFile(
-            IOUtils.getFileContent(file.getAbsolutePath()),
+            new FileContentFactory(file),
             OrderType.FUL,
             IOUtils.getFileContent(signature.getAbsolutePath()));
       } else {
-        transferManager.sendFile(
-            IOUtils.getFileContent(file.getAbsolutePath()), OrderType.FUL, null);
+        transferManager.sendFile(new FileContentFactory(file), OrderType.FUL, null);
       }
       userService.getNextOrderId(transportUser);
     } catch (IOException | AxelorException e) {
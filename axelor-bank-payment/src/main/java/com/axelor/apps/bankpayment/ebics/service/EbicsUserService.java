@@ -24,6 +24,9 @@ import com.axelor.apps.bankpayment.db.repo.EbicsRequestLogRepository;
 import com.axelor.apps.bankpayment.db.repo.EbicsUserRepository;
 import com.axelor.apps.bankpayment.ebics.client.EbicsRootElement;
 import com.axelor.apps.bankpayment.ebics.client.EbicsUtils;
+import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
+import com.axelor.apps.bankpayment.ebics.io.ByteArrayContentFactory;
+import com.axelor.apps.bankpayment.ebics.io.RemoveOSSpecificCharsInputStream;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -31,6 +34,7 @@ import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.security.Signature;
 import java.time.LocalDateTime;
@@ -91,11 +95,30 @@ public class EbicsUserService {
    */
   public byte[] sign(EbicsUser ebicsUser, byte[] digest)
       throws IOException, GeneralSecurityException {
+    return sign(ebicsUser, new ByteArrayContentFactory(digest));
+  }
+
+  /**
+   * Signs the given content with the A005 user signature key, reading it as a stream so that large
+   * order data is never loaded in memory.
+   *
+   * @see #sign(EbicsUser, byte[])
+   */
+  public byte[] sign(EbicsUser ebicsUser, ContentFactory content)
+      throws IOException, GeneralSecurityException {
 
     Signature signature =
         Signature.getInstance("SHA256WithRSA", BouncyCastleProvider.PROVIDER_NAME);
     signature.initSign(ebicsService.getPrivateKey(ebicsUser.getA005Certificate().getPrivateKey()));
-    signature.update(removeOSSpecificChars(digest));
+
+    try (InputStream in = new RemoveOSSpecificCharsInputStream(content.getContent())) {
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        signature.update(buffer, 0, len);
+      }
+    }
+
     return signature.sign();
   }
 
@@ -186,6 +209,19 @@ public class EbicsUserService {
    */
   public byte[] decrypt(EbicsUser user, byte[] encryptedData, byte[] transactionKey)
       throws AxelorException, GeneralSecurityException, IOException {
+    return decryptData(encryptedData, decryptTransactionKey(user, transactionKey));
+  }
+
+  /**
+   * Decrypts the transaction key sent by the bank, so that the order data can be decrypted
+   * segment by segment as it is received.
+   *
+   * @param user the ebics user
+   * @param transactionKey the encrypted transaction key
+   * @return the decoded transaction key
+   */
+  public byte[] decryptTransactionKey(EbicsUser user, byte[] transactionKey)
+      throws AxelorException, GeneralSecurityException, IOException {
     Cipher cipher;
     int blockSize;
     ByteArrayOutputStream outputStream;
@@ -199,7 +235,7 @@ public class EbicsUserService {
       outputStream.write(cipher.doFinal(transactionKey, j * blockSize, blockSize));
     }
 
-    return decryptData(encryptedData, outputStream.toByteArray());
+    return outputStream.toByteArray();
   }
 
   /**
@@ -44,9 +44,11 @@ import com.axelor.apps.bankpayment.ebics.client.EbicsSession;
 import com.axelor.apps.bankpayment.ebics.client.EbicsUtils;
 import com.axelor.apps.bankpayment.ebics.client.OrderAttribute;
 import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
+import com.axelor.apps.bankpayment.ebics.io.ByteArrayContentFactory;
 import com.axelor.apps.bankpayment.ebics.io.Splitter;
 import com.axelor.exception.AxelorException;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
@@ -63,7 +65,8 @@ import org.slf4j.LoggerFactory;
  *
  * @author Hachani
  */
-public class UInitializationRequestElement extends InitializationRequestElement {
+public class UInitializationRequestElement extends InitializationRequestElement
+    implements Closeable {
 
   private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -81,6 +84,24 @@ public class UInitializationRequestElement extends InitializationRequestElement
       byte[] userData,
       byte[] userSignatureData)
       throws AxelorException {
+    this(session, orderType, new ByteArrayContentFactory(userData), userSignatureData);
+  }
+
+  /**
+   * Constructs a new <code>UInitializationRequestElement</code> for uploads initializations, the
+   * user data being read as a stream.
+   *
+   * @param session the current ebics session.
+   * @param orderType the upload order type
+   * @param userData the user data to be uploaded
+   * @throws EbicsException
+   */
+  public UInitializationRequestElement(
+      EbicsSession session,
+      com.axelor.apps.bankpayment.ebics.client.OrderType orderType,
+      ContentFactory userData,
+      byte[] userSignatureData)
+      throws AxelorException {
     super(session, orderType, generateName(orderType));
     this.userData = userData;
     this.userSignatureData = userSignatureData;
@@ -282,11 +303,17 @@ public class UInitializationRequestElement extends InitializationRequestElement
     return splitter.getSegmentNumber();
   }
 
+  /** Releases the temporary file holding the encrypted user data. */
+  @Override
+  public void close() {
+    splitter.close();
+  }
+
   // --------------------------------------------------------------------
   // DATA MEMBERS
   // --------------------------------------------------------------------
 
-  private byte[] userData;
+  private ContentFactory userData;
   private byte[] userSignatureData;
   private UserSignature userSignature;
   private SecretKeySpec keySpec;
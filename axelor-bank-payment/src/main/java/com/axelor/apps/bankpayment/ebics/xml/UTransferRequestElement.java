@@ -30,8 +30,6 @@ import com.axelor.apps.bankpayment.ebics.client.OrderType;
 import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
 import com.axelor.apps.bankpayment.ebics.io.IOUtils;
 import com.axelor.exception.AxelorException;
-import java.io.ByteArrayOutputStream;
-import org.jdom.JDOMException;
 
 /**
  * The <code>UTransferRequestElement</code> is the root element for all ebics upload transfers.
@@ -81,18 +79,6 @@ public class UTransferRequestElement extends TransferRequestElement {
     body = EbicsXmlFactory.createEbicsRequestBody(dataTransfer); // TODO CHECK
     request = EbicsXmlFactory.createEbicsRequest(1, "H003", header, body);
     document = EbicsXmlFactory.createEbicsRequestDocument(request);
-
-    ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    try {
-      this.save(bout);
-    } catch (JDOMException e) {
-      // TODO Bloc catch généré automatiquement
-      e.printStackTrace();
-    }
-
-    System.out.println(
-        "Requete data ----------------------------------------------------------------------------");
-    System.out.println(bout.toString());
   }
 
   // --------------------------------------------------------------------
@@ -21,6 +21,8 @@ import com.axelor.apps.account.ebics.schema.s001.OrderSignatureDataType;
 import com.axelor.apps.account.ebics.schema.s001.UserSignatureDataSigBookType;
 import com.axelor.apps.bankpayment.db.EbicsUser;
 import com.axelor.apps.bankpayment.db.repo.EbicsPartnerRepository;
+import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
+import com.axelor.apps.bankpayment.ebics.io.ByteArrayContentFactory;
 import com.axelor.apps.bankpayment.ebics.service.EbicsUserService;
 import com.axelor.exception.AxelorException;
 import com.axelor.inject.Beans;
@@ -41,7 +43,7 @@ public class UserSignature extends DefaultEbicsRootElement {
 
   private EbicsUser user;
   private String signatureVersion;
-  private byte[] data;
+  private ContentFactory data;
   private byte[] signature;
   private String name;
 
@@ -54,6 +56,19 @@ public class UserSignature extends DefaultEbicsRootElement {
    */
   public UserSignature(
       EbicsUser user, String name, String signatureVersion, byte[] data, byte[] signature) {
+    this(user, name, signatureVersion, new ByteArrayContentFactory(data), signature);
+  }
+
+  /**
+   * Constructs a new <code>UserSignature</code> element for an Ebics user and a data to sign, read
+   * as a stream.
+   *
+   * @param user the ebics user
+   * @param signatureVersion the signature version
+   * @param toSign the data to be signed
+   */
+  public UserSignature(
+      EbicsUser user, String name, String signatureVersion, ContentFactory data, byte[] signature) {
     this.user = user;
     this.data = data;
     this.signature = signature;
@@ -19,10 +19,14 @@ package com.axelor.apps.bankpayment.ebics.xml;
 
 import com.axelor.apps.bankpayment.db.EbicsCertificate;
 import com.axelor.apps.bankpayment.db.EbicsUser;
-import com.axelor.apps.bankpayment.ebics.service.EbicsUserService;
+import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
+import com.axelor.apps.bankpayment.ebics.io.ByteArrayContentFactory;
+import com.axelor.apps.bankpayment.ebics.io.RemoveOSSpecificCharsInputStream;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigInteger;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
@@ -41,7 +45,7 @@ public class UserSignatureVerify {
 
   private EbicsUser user;
   private byte[] signature;
-  private byte[] bankOrderContent;
+  private ContentFactory bankOrderContent;
   private String modulus;
   private String exponent;
 
@@ -53,6 +57,10 @@ public class UserSignatureVerify {
    * @param toSign the data to be signed
    */
   public UserSignatureVerify(EbicsUser user, byte[] bankOrderContent, byte[] signature) {
+    this(user, new ByteArrayContentFactory(bankOrderContent), signature);
+  }
+
+  public UserSignatureVerify(EbicsUser user, ContentFactory bankOrderContent, byte[] signature) {
     this.user = user;
     this.bankOrderContent = bankOrderContent;
     this.signature = signature;
@@ -89,11 +97,15 @@ public class UserSignatureVerify {
     this.exponent = certificate.getPublicKeyExponent();
   }
 
-  public String computeSha256Digest() {
+  public String computeSha256Digest() throws AxelorException {
 
-    bankOrderContent = EbicsUserService.removeOSSpecificChars(bankOrderContent);
+    String sha;
 
-    String sha = DigestUtils.sha256Hex(bankOrderContent);
+    try (InputStream in = new RemoveOSSpecificCharsInputStream(bankOrderContent.getContent())) {
+      sha = DigestUtils.sha256Hex(in);
+    } catch (IOException e) {
+      throw new AxelorException(e.getCause(), TraceBackRepository.TYPE_TECHNICAL, e.getMessage());
+    }
 
     log.debug("Digest (SHA256) of bank order content : {}", sha);
 
@@ -185,6 +185,8 @@ public interface IExceptionMessage {
       "At least one bank details you have entered is missing currency. Here is the list of invalid bank details : %s" /*)*/;
   static final String EBICS_MISSING_SIGNATORY_EBICS_USER = /* $$( */
       "Signatory EBICS user is missing." /* ) */;
+  static final String EBICS_INCOMPLETE_ORDER_DATA = /*$$(*/
+      "The downloaded order data is incomplete" /*)*/;
 
   /** Batch bank statement */
   String BATCH_BANK_STATEMENT_RETRIEVED_BANK_STATEMENT_COUNT = /*$$(*/
@@ -199,6 +201,8 @@ public interface IExceptionMessage {
       "Missing bank statement file format" /*)*/;
   static final String BANK_STATEMENT_EBICS_PARTNER = /*$$(*/
       "Error with EBICS partner %s: %s" /*)*/;
+  static final String BANK_STATEMENT_AFB120_COMPLEMENT_WITHOUT_RECORD = /*$$(*/
+      "Line %s: complement record without a previous record" /*)*/;
 
   /*
    * Batch direct debit
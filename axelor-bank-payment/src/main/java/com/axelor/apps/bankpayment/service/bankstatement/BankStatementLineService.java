@@ -46,7 +46,39 @@ public class BankStatementLineService {
       String origin,
       String reference) {
 
-    BankStatementLine bankStatementLine = new BankStatementLine();
+    return fillBankStatementLine(
+        new BankStatementLine(),
+        bankStatement,
+        sequence,
+        bankDetails,
+        debit,
+        credit,
+        currency,
+        description,
+        operationDate,
+        valueDate,
+        operationInterbankCodeLine,
+        rejectInterbankCodeLine,
+        origin,
+        reference);
+  }
+
+  protected <T extends BankStatementLine> T fillBankStatementLine(
+      T bankStatementLine,
+      BankStatement bankStatement,
+      int sequence,
+      BankDetails bankDetails,
+      BigDecimal debit,
+      BigDecimal credit,
+      Currency currency,
+      String description,
+      LocalDate operationDate,
+      LocalDate valueDate,
+      InterbankCodeLine operationInterbankCodeLine,
+      InterbankCodeLine rejectInterbankCodeLine,
+      String origin,
+      String reference) {
+
     bankStatementLine.setBankStatement(bankStatement);
     bankStatementLine.setSequence(sequence);
     bankStatementLine.setBankDetails(bankDetails);
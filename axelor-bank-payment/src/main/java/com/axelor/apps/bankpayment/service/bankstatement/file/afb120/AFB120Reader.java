@@ -0,0 +1,355 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.bankpayment.service.bankstatement.file.afb120;
+
+import com.axelor.apps.account.exception.IExceptionMessage;
+import com.axelor.apps.bankpayment.db.repo.BankStatementLineAFB120Repository;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.db.repo.TraceBackRepository;
+import com.axelor.i18n.I18n;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Streaming reader of AFB120 statement files.
+ *
+ * <p>Records are read one line at a time and fixed-width zones are parsed in place. Complement
+ * records (05) are merged into the record they follow, so {@link #next()} returns one statement
+ * line per call and the file is never held in memory.
+ */
+public class AFB120Reader implements Closeable {
+
+  protected static final String PREVIOUS_BALANCE_OPERATION_CODE = "01";
+  protected static final String MOVEMENT_OPERATION_CODE = "04";
+  protected static final String COMPLEMENT_MOVEMENT_OPERATION_CODE = "05";
+  protected static final String NEW_BALANCE_OPERATION_CODE = "07";
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final BufferedReader reader;
+
+  private AFB120Record pending;
+
+  private int lineNumber;
+
+  public AFB120Reader(Reader reader) {
+    this.reader =
+        reader instanceof BufferedReader
+            ? (BufferedReader) reader
+            : new BufferedReader(reader, BUFFER_SIZE);
+  }
+
+  /** @return the number of file lines read so far */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Read the next statement line.
+   *
+   * @return the next record, or null at the end of the file
+   * @throws IOException
+   * @throws AxelorException if a zone is missing or malformed
+   */
+  public AFB120Record next() throws IOException, AxelorException {
+
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+
+      if (isBlank(line)) {
+        continue;
+      }
+
+      AFB120Record record;
+      switch (numeric(line, "Record code", 1, 2)) {
+        case PREVIOUS_BALANCE_OPERATION_CODE:
+          record =
+              readBalanceRecord(line, BankStatementLineAFB120Repository.LINE_TYPE_INITIAL_BALANCE);
+          break;
+        case MOVEMENT_OPERATION_CODE:
+          record = readMovementRecord(line);
+          break;
+        case COMPLEMENT_MOVEMENT_OPERATION_CODE:
+          if (pending == null) {
+            throw new AxelorException(
+                TraceBackRepository.CATEGORY_INCONSISTENCY,
+                I18n.get(
+                    com.axelor.apps.bankpayment.exception.IExceptionMessage
+                        .BANK_STATEMENT_AFB120_COMPLEMENT_WITHOUT_RECORD),
+                lineNumber);
+          }
+          pending.addAdditionalInformation(readAdditionalInformation(line));
+          continue;
+        case NEW_BALANCE_OPERATION_CODE:
+          record =
+              readBalanceRecord(line, BankStatementLineAFB120Repository.LINE_TYPE_FINAL_BALANCE);
+          break;
+        default:
+          continue;
+      }
+
+      AFB120Record previous = pending;
+      pending = record;
+      if (previous != null) {
+        return previous;
+      }
+    }
+
+    AFB120Record last = pending;
+    pending = null;
+    return last;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  /** Zones 1 and 3 : previous or new balance. */
+  protected AFB120Record readBalanceRecord(String line, int lineType) throws AxelorException {
+
+    AFB120Record record = new AFB120Record(lineType);
+    readAccount(record, line);
+
+    int decimalDigitNumber = digit(line, "F : decimal number", 20);
+    record.operationDate = date(line, "J : date", 35);
+    record.setAmount(parseAmount(mandatory(line, "L : amount", 91, 14), decimalDigitNumber));
+
+    return record;
+  }
+
+  /** Zone 2 : movement. */
+  protected AFB120Record readMovementRecord(String line) throws AxelorException {
+
+    AFB120Record record = new AFB120Record(BankStatementLineAFB120Repository.LINE_TYPE_MOVEMENT);
+    readAccount(record, line);
+
+    int decimalDigitNumber = digit(line, "2-F : decimal number", 20);
+    record.operationInterbankCode = mandatory(line, "2-I : interbank operation code", 33, 2);
+    record.operationDate = date(line, "2-J : operation date", 35);
+
+    String rejectCode = optional(line, 41, 2);
+    if (rejectCode != null) {
+      checkDigits(rejectCode, "2-K : interbank reject code", 0, rejectCode.length());
+    }
+    record.rejectInterbankCode = rejectCode;
+
+    record.valueDate = date(line, "2-L : value date", 43);
+    record.description = mandatory(line, "2-M : label", 49, 31);
+    record.origin = mandatory(line, "2-O : move number", 82, 7);
+    record.commissionExemptionIndexSelect = optional(line, 89, 1);
+    record.unavailabilityIndexSelect = optional(line, 90, 1);
+    record.setAmount(parseAmount(mandatory(line, "2-R : amount", 91, 14), decimalDigitNumber));
+    record.reference = optional(line, 105, 16);
+
+    return record;
+  }
+
+  /** Zone 2b : complement of a movement. */
+  protected String readAdditionalInformation(String line) throws AxelorException {
+
+    numeric(line, "2b-B : bank code", 3, 5);
+    numeric(line, "2b-D : sort code", 12, 5);
+    numeric(line, "2b-F : decimal number", 20, 1);
+    numeric(line, "2b-J : operation date", 35, 6);
+
+    String additionalInformationType =
+        mandatory(line, "2b-L : qualifying of additional information zone", 46, 3);
+
+    if (!"MMO".equals(additionalInformationType)) {
+      return mandatory(line, "2b-M : additional informations", 49, 70);
+    }
+
+    String origineCurrencyCode = mandatory(line, "2b-M-1 : currency code", 49, 3);
+    int decimalDigitNumber = digit(line, "2b-M-2 : decimal digit number", 52);
+    String amountInCurrency = mandatory(line, "2b-M-3 : original amount", 53, 14);
+    int separator = amountInCurrency.length() - decimalDigitNumber;
+    if (separator < 0) {
+      throw digitalZoneException("2b-M-3 : original amount", amountInCurrency);
+    }
+
+    return amountInCurrency.substring(0, separator)
+        + "."
+        + amountInCurrency.substring(separator)
+        + " "
+        + origineCurrencyCode;
+  }
+
+  protected void readAccount(AFB120Record record, String line) throws AxelorException {
+    record.bankCode = numeric(line, "B : bank code", 3, 5);
+    record.sortCode = numeric(line, "D : sort code", 12, 5);
+    record.currencyCode = mandatory(line, "E : currency code", 17, 3);
+    record.accountNumber = mandatory(line, "H : account number", 22, 11);
+  }
+
+  /**
+   * Le montant est cadré à droite, complété à gauche par des zéros ; le montant étant signé, le
+   * signe est superposé au dernier caractère à droite : "{" et "A" à "I" pour + 0 à + 9, "}" et "J"
+   * à "R" pour - 0 à - 9.
+   *
+   * @param amount the trimmed amount zone
+   * @param decimalDigitNumber
+   * @return the signed amount
+   * @throws AxelorException
+   */
+  public static BigDecimal parseAmount(String amount, int decimalDigitNumber)
+      throws AxelorException {
+
+    int last = amount.length() - 1;
+    char signChar = amount.charAt(last);
+    int lastDigit;
+    boolean negative = false;
+
+    if (signChar == '{') {
+      lastDigit = 0;
+    } else if (signChar >= 'A' && signChar <= 'I') {
+      lastDigit = signChar - 'A' + 1;
+    } else if (signChar == '}') {
+      lastDigit = 0;
+      negative = true;
+    } else if (signChar >= 'J' && signChar <= 'R') {
+      lastDigit = signChar - 'J' + 1;
+      negative = true;
+    } else if (signChar >= '0' && signChar <= '9') {
+      lastDigit = signChar - '0';
+    } else {
+      throw digitalZoneException("amount", amount);
+    }
+
+    long unscaled = 0;
+    for (int i = 0; i < last; i++) {
+      char c = amount.charAt(i);
+      if (c < '0' || c > '9') {
+        throw digitalZoneException("amount", amount);
+      }
+      unscaled = unscaled * 10 + (c - '0');
+    }
+    unscaled = unscaled * 10 + lastDigit;
+
+    return BigDecimal.valueOf(negative ? -unscaled : unscaled, decimalDigitNumber);
+  }
+
+  /**
+   * @param date a JJMMAA date
+   * @return the date, in the 2000s
+   */
+  public static LocalDate parseDate(String date) {
+    return LocalDate.of(2000 + twoDigits(date, 4), twoDigits(date, 2), twoDigits(date, 0));
+  }
+
+  private static boolean isBlank(String line) {
+    for (int i = 0; i < line.length(); i++) {
+      if (!Character.isWhitespace(line.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int twoDigits(String value, int index) {
+    return (value.charAt(index) - '0') * 10 + value.charAt(index + 1) - '0';
+  }
+
+  /** Read a mandatory alphanumeric zone, trimmed. */
+  protected String mandatory(String line, String zone, int position, int length)
+      throws AxelorException {
+    String value = optional(line, position, length);
+    if (value == null) {
+      throw new AxelorException(
+          TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+          I18n.get(IExceptionMessage.CFONB_TOOL_EMPTY_ZONE),
+          zone);
+    }
+    return value;
+  }
+
+  /** Read a mandatory numeric zone, as is. */
+  protected String numeric(String line, String zone, int position, int length)
+      throws AxelorException {
+    if (line.length() < position + length - 1) {
+      throw new AxelorException(
+          TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+          I18n.get(IExceptionMessage.CFONB_TOOL_EMPTY_ZONE),
+          zone);
+    }
+    checkDigits(line, zone, position - 1, position + length - 1);
+    return line.substring(position - 1, position + length - 1);
+  }
+
+  /** Read a mandatory one digit zone. */
+  protected int digit(String line, String zone, int position) throws AxelorException {
+    char c = numeric(line, zone, position, 1).charAt(0);
+    if (c == ' ') {
+      throw new AxelorException(
+          TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+          I18n.get(IExceptionMessage.CFONB_TOOL_EMPTY_ZONE),
+          zone);
+    }
+    return c - '0';
+  }
+
+  /** Read a mandatory JJMMAA date zone. */
+  protected LocalDate date(String line, String zone, int position) throws AxelorException {
+    String value = numeric(line, zone, position, 6);
+    if (value.indexOf(' ') >= 0) {
+      throw digitalZoneException(zone, value);
+    }
+    try {
+      return parseDate(value);
+    } catch (DateTimeException e) {
+      throw digitalZoneException(zone, value);
+    }
+  }
+
+  /** Read an optional alphanumeric zone, trimmed, or null if blank or beyond the line. */
+  protected String optional(String line, int position, int length) {
+    int start = position - 1;
+    int end = Math.min(line.length(), start + length);
+    while (start < end && line.charAt(start) == ' ') {
+      start++;
+    }
+    while (end > start && line.charAt(end - 1) == ' ') {
+      end--;
+    }
+    return start < end ? line.substring(start, end) : null;
+  }
+
+  protected void checkDigits(String value, String zone, int start, int end)
+      throws AxelorException {
+    for (int i = start; i < end; i++) {
+      char c = value.charAt(i);
+      if ((c < '0' || c > '9') && c != ' ') {
+        throw digitalZoneException(zone, value.substring(start, end));
+      }
+    }
+  }
+
+  private static AxelorException digitalZoneException(String zone, String value) {
+    return new AxelorException(
+        TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
+        I18n.get(IExceptionMessage.CFONB_TOOL_DIGITAL_ZONE_NOT_CORRECT),
+        zone,
+        value);
+  }
+}
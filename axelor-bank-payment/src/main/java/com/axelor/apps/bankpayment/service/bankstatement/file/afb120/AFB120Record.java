@@ -0,0 +1,138 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.bankpayment.service.bankstatement.file.afb120;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * One line of an AFB120 statement: a previous balance, a movement with its complement records, or
+ * a new balance. Reference data is kept as read in the file and resolved when the line is saved.
+ */
+public class AFB120Record {
+
+  int lineType;
+  String bankCode;
+  String sortCode;
+  String currencyCode;
+  String accountNumber;
+  String operationInterbankCode;
+  String rejectInterbankCode;
+  LocalDate operationDate;
+  LocalDate valueDate;
+  BigDecimal debit;
+  BigDecimal credit;
+  String description;
+  String origin;
+  String reference;
+  String unavailabilityIndexSelect;
+  String commissionExemptionIndexSelect;
+  String additionalInformation;
+
+  AFB120Record(int lineType) {
+    this.lineType = lineType;
+  }
+
+  void addAdditionalInformation(String information) {
+    additionalInformation =
+        additionalInformation == null ? information : additionalInformation + "\n" + information;
+  }
+
+  void setAmount(BigDecimal amount) {
+    if (amount.signum() == 1) {
+      debit = BigDecimal.ZERO;
+      credit = amount;
+    } else {
+      credit = BigDecimal.ZERO;
+      debit = amount.abs();
+    }
+  }
+
+  public int getLineType() {
+    return lineType;
+  }
+
+  public String getBankCode() {
+    return bankCode;
+  }
+
+  public String getSortCode() {
+    return sortCode;
+  }
+
+  public String getCurrencyCode() {
+    return currencyCode;
+  }
+
+  public String getAccountNumber() {
+    return accountNumber;
+  }
+
+  public String getOperationInterbankCode() {
+    return operationInterbankCode;
+  }
+
+  public String getRejectInterbankCode() {
+    return rejectInterbankCode;
+  }
+
+  public LocalDate getOperationDate() {
+    return operationDate;
+  }
+
+  public LocalDate getValueDate() {
+    return valueDate;
+  }
+
+  public BigDecimal getDebit() {
+    return debit;
+  }
+
+  public BigDecimal getCredit() {
+    return credit;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  /** @return the label followed by the additional information of the complement records */
+  public String getFullDescription() {
+    return additionalInformation == null ? description : description + "\n" + additionalInformation;
+  }
+
+  public String getOrigin() {
+    return origin;
+  }
+
+  public String getReference() {
+    return reference;
+  }
+
+  public String getUnavailabilityIndexSelect() {
+    return unavailabilityIndexSelect;
+  }
+
+  public String getCommissionExemptionIndexSelect() {
+    return commissionExemptionIndexSelect;
+  }
+
+  public String getAdditionalInformation() {
+    return additionalInformation;
+  }
+}
@@ -19,12 +19,10 @@ package com.axelor.apps.bankpayment.service.bankstatement.file.afb120;
 
 import com.axelor.apps.account.db.InterbankCodeLine;
 import com.axelor.apps.bankpayment.db.BankStatement;
-import com.axelor.apps.bankpayment.db.BankStatementLine;
 import com.axelor.apps.bankpayment.db.BankStatementLineAFB120;
 import com.axelor.apps.bankpayment.service.bankstatement.BankStatementLineService;
 import com.axelor.apps.base.db.BankDetails;
 import com.axelor.apps.base.db.Currency;
-import com.axelor.db.mapper.Mapper;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
 import java.math.BigDecimal;
@@ -56,8 +54,9 @@ public class BankStatementLineAFB120Service extends BankStatementLineService {
       String unavailabilityIndexSelect,
       String commissionExemptionIndexSelect) {
 
-    BankStatementLine bankStatementLine =
-        super.createBankStatementLine(
+    BankStatementLineAFB120 bankStatementLineAFB120 =
+        fillBankStatementLine(
+            new BankStatementLineAFB120(),
             bankStatement,
             sequence,
             bankDetails,
@@ -72,9 +71,6 @@ public class BankStatementLineAFB120Service extends BankStatementLineService {
             origin,
             reference);
 
-    BankStatementLineAFB120 bankStatementLineAFB120 =
-        Mapper.toBean(BankStatementLineAFB120.class, Mapper.toMap(bankStatementLine));
-
     bankStatementLineAFB120.setLineTypeSelect(lineType);
     if (!Strings.isNullOrEmpty(unavailabilityIndexSelect)) {
       bankStatementLineAFB120.setUnavailabilityIndexSelect(
@@ -0,0 +1,243 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.bankpayment.ebics.io;
+
+import com.axelor.apps.bankpayment.ebics.client.EbicsUtils;
+import com.axelor.apps.bankpayment.ebics.interfaces.ContentFactory;
+import com.axelor.exception.AxelorException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.Base64;
+import java.util.zip.InflaterOutputStream;
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestSplitter {
+
+  /** Size of the synthetic order data, e.g. -Debics.benchmark.bytes=104857600 */
+  private static final long BENCHMARK_BYTES = Long.getLong("ebics.benchmark.bytes", 8388608L);
+
+  /** Enough poorly compressible data for a few segments. */
+  private static final long JOINED_BYTES = 2097152L;
+
+  private static final SecretKeySpec KEY = new SecretKeySpec(new byte[16], "EAS");
+
+  @BeforeClass
+  public static void addProvider() {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  @Test
+  public void testSmallContent() throws Exception {
+    byte[] content = "<Document>small payment file</Document>".getBytes();
+
+    Splitter splitter = new Splitter(content);
+    try {
+      splitter.readInput(true, KEY);
+
+      Assert.assertEquals(1, splitter.getSegmentNumber());
+      Assert.assertArrayEquals(
+          content, EbicsUtils.unzip(EbicsUtils.decrypt(read(splitter.getContent(1)), KEY)));
+    } finally {
+      splitter.close();
+    }
+  }
+
+  /**
+   * Plays the bank side of an upload: every segment is base64-coded as it would be in the request,
+   * checked against the 1 MB limit, then decoded, decrypted and uncompressed on the fly and
+   * compared with the digest of the generated order data.
+   */
+  @Test
+  public void testSegmentation() throws Exception {
+    ContentFactory content = () -> new SyntheticInputStream(BENCHMARK_BYTES);
+
+    Splitter splitter = new Splitter(content);
+    try {
+      splitter.readInput(true, KEY);
+
+      Assert.assertTrue(splitter.getSegmentNumber() > 1);
+
+      DigestOutputStream received = new DigestOutputStream();
+      try (OutputStream bank =
+          new CipherOutputStream(
+              new InflaterOutputStream(received),
+              EbicsUtils.createCipher(Cipher.DECRYPT_MODE, KEY))) {
+
+        for (int i = 1; i <= splitter.getSegmentNumber(); i++) {
+          byte[] segment = Base64.getEncoder().encode(read(splitter.getContent(i)));
+          Assert.assertTrue(segment.length <= Splitter.SEGMENT_SIZE);
+          bank.write(Base64.getDecoder().decode(segment));
+        }
+      }
+
+      Assert.assertEquals(BENCHMARK_BYTES, received.count);
+      Assert.assertArrayEquals(digest(content), received.digest.digest());
+    } finally {
+      splitter.close();
+    }
+  }
+
+  @Test
+  public void testJoinSegments() throws Exception {
+    ContentFactory content = () -> new SyntheticInputStream(JOINED_BYTES);
+
+    Splitter splitter = new Splitter(content);
+    try {
+      splitter.readInput(true, KEY);
+
+      DigestOutputStream received = new DigestOutputStream();
+      join(splitter, splitter.getSegmentNumber(), received, KEY);
+
+      Assert.assertEquals(JOINED_BYTES, received.count);
+      Assert.assertArrayEquals(digest(content), received.digest.digest());
+    } finally {
+      splitter.close();
+    }
+  }
+
+  /** A download missing its last segment must fail instead of leaving a partial file. */
+  @Test
+  public void testTruncatedSegments() throws Exception {
+    Splitter splitter = new Splitter(() -> new SyntheticInputStream(JOINED_BYTES));
+    try {
+      splitter.readInput(true, KEY);
+
+      Assert.assertTrue(splitter.getSegmentNumber() > 1);
+
+      try {
+        join(splitter, splitter.getSegmentNumber() - 1, new DigestOutputStream(), KEY);
+        Assert.fail("Truncated order data was joined");
+      } catch (AxelorException e) {
+        // expected
+      }
+    } finally {
+      splitter.close();
+    }
+  }
+
+  @Test
+  public void testWrongKey() throws Exception {
+    byte[] wrongKey = new byte[16];
+    wrongKey[0] = 1;
+
+    Splitter splitter = new Splitter("<Document>small payment file</Document>".getBytes());
+    try {
+      splitter.readInput(true, KEY);
+
+      try {
+        join(
+            splitter,
+            splitter.getSegmentNumber(),
+            new DigestOutputStream(),
+            new SecretKeySpec(wrongKey, "EAS"));
+        Assert.fail("Order data was joined with a wrong key");
+      } catch (AxelorException e) {
+        // expected
+      }
+    } finally {
+      splitter.close();
+    }
+  }
+
+  private static void join(
+      Splitter splitter, int segmentNumber, OutputStream output, SecretKeySpec keySpec)
+      throws Exception {
+    try (Joiner joiner = new Joiner(output, keySpec)) {
+      for (int i = 1; i <= segmentNumber; i++) {
+        joiner.append(read(splitter.getContent(i)));
+      }
+    }
+  }
+
+  private static byte[] read(ContentFactory factory) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = factory.getContent()) {
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] digest(ContentFactory factory) throws Exception {
+    DigestOutputStream out = new DigestOutputStream();
+    try (InputStream in = factory.getContent()) {
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+    }
+    return out.digest.digest();
+  }
+
+  private static class DigestOutputStream extends OutputStream {
+
+    private final MessageDigest digest;
+    private long count;
+
+    DigestOutputStream() throws Exception {
+      digest = MessageDigest.getInstance("SHA-256");
+    }
+
+    @Override
+    public void write(int b) {
+      digest.update((byte) b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      digest.update(b, off, len);
+      count += len;
+    }
+  }
+
+  /** Generates pseudo-random, poorly compressible order data of the given size. */
+  private static class SyntheticInputStream extends InputStream {
+
+    private long seed = 42;
+    private long remaining;
+
+    SyntheticInputStream(long size) {
+      remaining = size;
+    }
+
+    @Override
+    public int read() {
+      if (remaining <= 0) {
+        return -1;
+      }
+      remaining--;
+      seed = seed * 6364136223846793005L + 1442695040888963407L;
+      return (int) (seed >>> 56);
+    }
+  }
+}
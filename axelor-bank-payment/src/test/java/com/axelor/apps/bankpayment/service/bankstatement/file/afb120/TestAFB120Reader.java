@@ -0,0 +1,232 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.bankpayment.service.bankstatement.file.afb120;
+
+import com.axelor.apps.bankpayment.db.repo.BankStatementLineAFB120Repository;
+import com.axelor.exception.AxelorException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestAFB120Reader {
+
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Lines of the benchmark, which only runs if set, e.g. -Dafb120.benchmark.lines=1000000 */
+  private static final int BENCHMARK_LINES = Integer.getInteger("afb120.benchmark.lines", 0);
+
+  private static final String PREVIOUS_BALANCE =
+      record("01").put(35, "010318").put(91, "0000001234567{").toString();
+
+  private static final String MOVEMENT =
+      record("04")
+          .put(33, "18")
+          .put(35, "020318")
+          .put(43, "030318")
+          .put(49, "PAYMENT INVOICE 42")
+          .put(82, "0000042")
+          .put(91, "0000000012345J")
+          .put(105, "REF42")
+          .toString();
+
+  private static final String COMPLEMENT =
+      record("05").put(35, "020318").put(46, "LIB").put(49, "SUPPLIER SA").toString();
+
+  private static final String COMPLEMENT_AMOUNT =
+      record("05")
+          .put(35, "020318")
+          .put(46, "MMO")
+          .put(49, "USD2")
+          .put(53, "00000000015000")
+          .toString();
+
+  private static final String NEW_BALANCE =
+      record("07").put(35, "310318").put(91, "0000001234444B").toString();
+
+  @Test
+  public void testParseAmount() throws Exception {
+    Assert.assertEquals(new BigDecimal("123456.70"), AFB120Reader.parseAmount("0000001234567{", 2));
+    Assert.assertEquals(new BigDecimal("-1234.51"), AFB120Reader.parseAmount("0000000012345J", 2));
+    Assert.assertEquals(new BigDecimal("-12345"), AFB120Reader.parseAmount("0000000001234N", 0));
+    Assert.assertEquals(new BigDecimal("0.009"), AFB120Reader.parseAmount("0000000000000I", 3));
+  }
+
+  @Test
+  public void testRead() throws Exception {
+
+    try (AFB120Reader reader =
+        new AFB120Reader(
+            lines(PREVIOUS_BALANCE, MOVEMENT, COMPLEMENT, COMPLEMENT_AMOUNT, "", NEW_BALANCE))) {
+
+      AFB120Record previousBalance = reader.next();
+      Assert.assertEquals(
+          BankStatementLineAFB120Repository.LINE_TYPE_INITIAL_BALANCE,
+          previousBalance.getLineType());
+      Assert.assertEquals(new BigDecimal("12345.670"), previousBalance.getCredit());
+      Assert.assertEquals(BigDecimal.ZERO, previousBalance.getDebit());
+      Assert.assertEquals(LocalDate.of(2018, 3, 1), previousBalance.getOperationDate());
+      Assert.assertEquals("30004", previousBalance.getBankCode());
+      Assert.assertEquals("00012345678", previousBalance.getAccountNumber());
+      Assert.assertEquals("EUR", previousBalance.getCurrencyCode());
+
+      AFB120Record movement = reader.next();
+      Assert.assertEquals(
+          BankStatementLineAFB120Repository.LINE_TYPE_MOVEMENT, movement.getLineType());
+      Assert.assertEquals(new BigDecimal("1234.51"), movement.getDebit());
+      Assert.assertEquals(BigDecimal.ZERO, movement.getCredit());
+      Assert.assertEquals(LocalDate.of(2018, 3, 3), movement.getValueDate());
+      Assert.assertEquals("18", movement.getOperationInterbankCode());
+      Assert.assertNull(movement.getRejectInterbankCode());
+      Assert.assertEquals("0000042", movement.getOrigin());
+      Assert.assertEquals("REF42", movement.getReference());
+      Assert.assertEquals(
+          "PAYMENT INVOICE 42\nSUPPLIER SA\n000000000150.00 USD", movement.getFullDescription());
+
+      AFB120Record newBalance = reader.next();
+      Assert.assertEquals(
+          BankStatementLineAFB120Repository.LINE_TYPE_FINAL_BALANCE, newBalance.getLineType());
+      Assert.assertEquals(new BigDecimal("12344.442"), newBalance.getCredit());
+
+      Assert.assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void testBlankNumericZones() throws Exception {
+    assertRejected(record("01").put(20, " ").put(35, "010318").put(91, "0000001234567{"));
+    assertRejected(record("01").put(35, "01  18").put(91, "0000001234567{"));
+    assertRejected(record("01").put(35, "320318").put(91, "0000001234567{"));
+    assertRejected(
+        record("04")
+            .put(33, "18")
+            .put(35, "020318")
+            .put(49, "PAYMENT INVOICE 42")
+            .put(82, "0000042")
+            .put(91, "0000000012345J"));
+  }
+
+  private static void assertRejected(Line line) throws Exception {
+    try (AFB120Reader reader = new AFB120Reader(lines(line.toString()))) {
+      reader.next();
+      Assert.fail("Expected an AxelorException for " + line);
+    } catch (AxelorException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testThroughput() throws Exception {
+    Assume.assumeTrue(BENCHMARK_LINES > 0);
+
+    String[] pattern = {PREVIOUS_BALANCE, MOVEMENT, COMPLEMENT, MOVEMENT, MOVEMENT, NEW_BALANCE};
+    int records = 0;
+    BigDecimal total = BigDecimal.ZERO;
+
+    long start = System.nanoTime();
+    try (AFB120Reader reader = new AFB120Reader(new SyntheticReader(pattern, BENCHMARK_LINES))) {
+      AFB120Record record;
+      while ((record = reader.next()) != null) {
+        total = total.add(record.getDebit());
+        records++;
+      }
+      Assert.assertEquals(BENCHMARK_LINES, reader.getLineNumber());
+    }
+    long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+    Assert.assertTrue(records > 0);
+    Assert.assertTrue(total.signum() > 0);
+    log.info(
+        "AFB120 : {} lines, {} records in {} ms ({} lines/s)",
+        BENCHMARK_LINES,
+        records,
+        elapsed,
+        BENCHMARK_LINES * 1000L / elapsed);
+  }
+
+  private static Reader lines(String... lines) {
+    return new StringReader(String.join("\n", lines));
+  }
+
+  private static Line record(String code) {
+    return new Line()
+        .put(1, code)
+        .put(3, "30004")
+        .put(12, "00123")
+        .put(17, "EUR")
+        .put(20, code.equals("01") || code.equals("07") ? "3" : "2")
+        .put(22, "00012345678");
+  }
+
+  private static class Line {
+
+    private final char[] chars = new char[120];
+
+    Line() {
+      Arrays.fill(chars, ' ');
+    }
+
+    Line put(int position, String value) {
+      value.getChars(0, value.length(), chars, position - 1);
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return new String(chars);
+    }
+  }
+
+  /** Produce a file of the given number of lines by repeating a pattern, without storing it. */
+  private static class SyntheticReader extends Reader {
+
+    private final char[] content;
+    private final int patternLines;
+    private final long length;
+    private long position;
+
+    SyntheticReader(String[] pattern, int lines) {
+      this.content = (String.join("\n", pattern) + "\n").toCharArray();
+      this.patternLines = pattern.length;
+      this.length = (long) content.length * lines / patternLines;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int count) {
+      if (position >= length) {
+        return -1;
+      }
+      int read = (int) Math.min(count, length - position);
+      for (int i = 0; i < read; i++) {
+        buffer[offset + i] = content[(int) ((position + i) % content.length)];
+      }
+      position += read;
+      return read;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.db.repo;
+
+import com.axelor.apps.base.db.EventsPlanningLine;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
+import com.axelor.apps.tool.TransactionTool;
+import com.google.inject.Inject;
+
+public class EventsPlanningLineBaseRepository extends EventsPlanningLineRepository {
+
+  @Inject private WorkingDayCalendarService workingDayCalendarService;
+
+  @Override
+  public EventsPlanningLine save(EventsPlanningLine eventsPlanningLine) {
+
+    workingDayCalendarService.evict(eventsPlanningLine.getEventsPlanning());
+    TransactionTool.afterCompletion(
+        () -> workingDayCalendarService.evict(eventsPlanningLine.getEventsPlanning()));
+
+    return super.save(eventsPlanningLine);
+  }
+
+  @Override
+  public void remove(EventsPlanningLine eventsPlanningLine) {
+
+    workingDayCalendarService.evict(eventsPlanningLine.getEventsPlanning());
+    TransactionTool.afterCompletion(
+        () -> workingDayCalendarService.evict(eventsPlanningLine.getEventsPlanning()));
+
+    super.remove(eventsPlanningLine);
+  }
+}
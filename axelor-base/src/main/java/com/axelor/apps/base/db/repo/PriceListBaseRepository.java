@@ -0,0 +1,46 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.db.repo;
+
+import com.axelor.apps.base.db.PriceList;
+import com.axelor.apps.base.service.PriceListLineCache;
+import com.axelor.apps.tool.TransactionTool;
+import com.google.inject.Inject;
+
+public class PriceListBaseRepository extends PriceListRepository {
+
+  @Inject private PriceListLineCache priceListLineCache;
+
+  @Override
+  public PriceList save(PriceList priceList) {
+
+    priceListLineCache.evict(priceList);
+    TransactionTool.afterCompletion(() -> priceListLineCache.evict(priceList));
+
+    return super.save(priceList);
+  }
+
+  @Override
+  public void remove(PriceList priceList) {
+
+    priceListLineCache.evict(priceList);
+    TransactionTool.afterCompletion(() -> priceListLineCache.evict(priceList));
+
+    super.remove(priceList);
+  }
+}
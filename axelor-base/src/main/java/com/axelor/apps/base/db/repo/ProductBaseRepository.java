@@ -21,6 +21,8 @@ import com.axelor.apps.base.db.Product;
 import com.axelor.apps.base.service.BarcodeGeneratorService;
 import com.axelor.apps.base.service.ProductService;
 import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.apps.base.service.tax.AccountManagementCache;
+import com.axelor.apps.tool.TransactionTool;
 import com.axelor.apps.tool.service.TranslationService;
 import com.axelor.exception.AxelorException;
 import com.axelor.inject.Beans;
@@ -46,8 +48,12 @@ public class ProductBaseRepository extends ProductRepository {
 
   @Inject protected BarcodeGeneratorService barcodeGeneratorService;
 
+  @Inject protected AccountManagementCache accountManagementCache;
+
   @Override
   public Product save(Product product) {
+    accountManagementCache.evict(product);
+    TransactionTool.afterCompletion(() -> accountManagementCache.evict(product));
     product.setFullName(String.format(FULL_NAME_FORMAT, product.getCode(), product.getName()));
 
     if (product.getId() != null) {
@@ -18,9 +18,21 @@
 package com.axelor.apps.base.db.repo;
 
 import com.axelor.apps.base.db.Sequence;
+import com.axelor.apps.base.service.administration.SequenceBlockAllocator;
+import com.google.inject.Inject;
 
 public class SequenceBaseRepository extends SequenceRepository {
 
+  @Inject private SequenceBlockAllocator sequenceBlockAllocator;
+
+  @Override
+  public Sequence save(Sequence sequence) {
+
+    sequenceBlockAllocator.invalidate(sequence);
+
+    return super.save(sequence);
+  }
+
   @Override
   public Sequence copy(Sequence sequence, boolean deep) {
 
@@ -0,0 +1,47 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.db.repo;
+
+import com.axelor.apps.account.db.TaxEquiv;
+import com.axelor.apps.account.db.repo.TaxEquivRepository;
+import com.axelor.apps.base.service.tax.AccountManagementCache;
+import com.axelor.apps.tool.TransactionTool;
+import com.google.inject.Inject;
+
+public class TaxEquivBaseRepository extends TaxEquivRepository {
+
+  @Inject private AccountManagementCache accountManagementCache;
+
+  @Override
+  public TaxEquiv save(TaxEquiv taxEquiv) {
+
+    accountManagementCache.evictDeterminations();
+    TransactionTool.afterCompletion(accountManagementCache::evictDeterminations);
+
+    return super.save(taxEquiv);
+  }
+
+  @Override
+  public void remove(TaxEquiv taxEquiv) {
+
+    accountManagementCache.evictDeterminations();
+    TransactionTool.afterCompletion(accountManagementCache::evictDeterminations);
+
+    super.remove(taxEquiv);
+  }
+}
@@ -18,19 +18,34 @@
 package com.axelor.apps.base.module;
 
 import com.axelor.app.AxelorModule;
+import com.axelor.apps.account.db.repo.AccountManagementRepository;
+import com.axelor.apps.account.db.repo.FiscalPositionRepository;
+import com.axelor.apps.account.db.repo.TaxEquivRepository;
+import com.axelor.apps.account.db.repo.TaxLineRepository;
+import com.axelor.apps.account.db.repo.TaxRepository;
 import com.axelor.apps.base.db.PartnerAddress;
+import com.axelor.apps.base.db.repo.AccountManagementBaseRepository;
 import com.axelor.apps.base.db.repo.AddressBaseRepository;
 import com.axelor.apps.base.db.repo.AddressRepository;
 import com.axelor.apps.base.db.repo.AlarmEngineBatchBaseRepository;
 import com.axelor.apps.base.db.repo.AlarmEngineBatchRepository;
+import com.axelor.apps.base.db.repo.AppBaseBaseRepository;
+import com.axelor.apps.base.db.repo.AppBaseRepository;
 import com.axelor.apps.base.db.repo.BankAddressBaseRepository;
 import com.axelor.apps.base.db.repo.BankAddressRepository;
 import com.axelor.apps.base.db.repo.BankBaseRepository;
 import com.axelor.apps.base.db.repo.BankRepository;
 import com.axelor.apps.base.db.repo.BaseBatchBaseRepository;
 import com.axelor.apps.base.db.repo.BaseBatchRepository;
+import com.axelor.apps.base.db.repo.CurrencyConversionLineBaseRepository;
+import com.axelor.apps.base.db.repo.CurrencyConversionLineRepository;
 import com.axelor.apps.base.db.repo.DurationBaseRepository;
 import com.axelor.apps.base.db.repo.DurationRepository;
+import com.axelor.apps.base.db.repo.EventsPlanningBaseRepository;
+import com.axelor.apps.base.db.repo.EventsPlanningLineBaseRepository;
+import com.axelor.apps.base.db.repo.EventsPlanningLineRepository;
+import com.axelor.apps.base.db.repo.EventsPlanningRepository;
+import com.axelor.apps.base.db.repo.FiscalPositionBaseRepository;
 import com.axelor.apps.base.db.repo.ICalendarEventManagementRepository;
 import com.axelor.apps.base.db.repo.ICalendarEventRepository;
 import com.axelor.apps.base.db.repo.MailBatchBaseRepository;
@@ -38,11 +53,22 @@ import com.axelor.apps.base.db.repo.MailBatchRepository;
 import com.axelor.apps.base.db.repo.PartnerAddressRepository;
 import com.axelor.apps.base.db.repo.PartnerBaseRepository;
 import com.axelor.apps.base.db.repo.PartnerRepository;
+import com.axelor.apps.base.db.repo.PriceListBaseRepository;
+import com.axelor.apps.base.db.repo.PriceListLineBaseRepository;
+import com.axelor.apps.base.db.repo.PriceListLineRepository;
+import com.axelor.apps.base.db.repo.PriceListRepository;
 import com.axelor.apps.base.db.repo.ProductBaseRepository;
+import com.axelor.apps.base.db.repo.ProductFamilyBaseRepository;
+import com.axelor.apps.base.db.repo.ProductFamilyRepository;
 import com.axelor.apps.base.db.repo.ProductRepository;
 import com.axelor.apps.base.db.repo.SequenceBaseRepository;
 import com.axelor.apps.base.db.repo.SequenceRepository;
+import com.axelor.apps.base.db.repo.TaxBaseRepository;
+import com.axelor.apps.base.db.repo.TaxEquivBaseRepository;
+import com.axelor.apps.base.db.repo.TaxLineBaseRepository;
 import com.axelor.apps.base.db.repo.UserBaseRepository;
+import com.axelor.apps.base.db.repo.WeeklyPlanningBaseRepository;
+import com.axelor.apps.base.db.repo.WeeklyPlanningRepository;
 import com.axelor.apps.base.db.repo.YearBaseRepository;
 import com.axelor.apps.base.db.repo.YearRepository;
 import com.axelor.apps.base.service.AddressService;
@@ -150,5 +176,18 @@ public class BaseModule extends AxelorModule {
     bind(ConvertDemoDataFileService.class).to(ConvertDemoDataFileServiceImpl.class);
     bind(ImportDemoDataService.class).to(ImportDemoDataServiceImpl.class);
     bind(MapRestService.class).to(MapRestServiceImpl.class);
+    bind(CurrencyConversionLineRepository.class).to(CurrencyConversionLineBaseRepository.class);
+    bind(AppBaseRepository.class).to(AppBaseBaseRepository.class);
+    bind(PriceListRepository.class).to(PriceListBaseRepository.class);
+    bind(PriceListLineRepository.class).to(PriceListLineBaseRepository.class);
+    bind(WeeklyPlanningRepository.class).to(WeeklyPlanningBaseRepository.class);
+    bind(EventsPlanningRepository.class).to(EventsPlanningBaseRepository.class);
+    bind(EventsPlanningLineRepository.class).to(EventsPlanningLineBaseRepository.class);
+    bind(AccountManagementRepository.class).to(AccountManagementBaseRepository.class);
+    bind(FiscalPositionRepository.class).to(FiscalPositionBaseRepository.class);
+    bind(TaxEquivRepository.class).to(TaxEquivBaseRepository.class);
+    bind(TaxRepository.class).to(TaxBaseRepository.class);
+    bind(TaxLineRepository.class).to(TaxLineBaseRepository.class);
+    bind(ProductFamilyRepository.class).to(ProductFamilyBaseRepository.class);
   }
 }
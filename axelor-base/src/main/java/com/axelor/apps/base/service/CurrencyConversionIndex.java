@@ -0,0 +1,187 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.axelor.apps.base.db.Currency;
+import com.axelor.apps.base.db.CurrencyConversionLine;
+import com.axelor.apps.base.service.app.AppBaseService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the currency conversion lines of the base app.
+ *
+ * <p>Lines are grouped by currency pair and sorted by start date, so that the line covering a
+ * date is found by binary search. The index is built on first use and dropped by {@link
+ * #invalidate()} whenever a currency conversion line or the base app is saved.
+ */
+@ThreadSafe
+@Singleton
+public class CurrencyConversionIndex {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  protected AppBaseService appBaseService;
+
+  private volatile Map<String, Map<String, Rates>> index;
+
+  @Inject
+  public CurrencyConversionIndex(AppBaseService appBaseService) {
+    this.appBaseService = appBaseService;
+  }
+
+  /**
+   * Get the conversion rates from a currency to another one.
+   *
+   * @param startCurrency
+   * @param endCurrency
+   * @return the rates of the pair, or null if no conversion line exists for it
+   */
+  public Rates getRates(Currency startCurrency, Currency endCurrency) {
+
+    Map<String, Rates> ratesByEndCode = getIndex().get(startCurrency.getCode());
+
+    return ratesByEndCode == null ? null : ratesByEndCode.get(endCurrency.getCode());
+  }
+
+  public void invalidate() {
+    index = null;
+  }
+
+  protected Map<String, Map<String, Rates>> getIndex() {
+
+    Map<String, Map<String, Rates>> result = index;
+
+    if (result == null) {
+      synchronized (this) {
+        result = index;
+        if (result == null) {
+          result = build(appBaseService.getCurrencyConfigurationLineList());
+          index = result;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  protected Map<String, Map<String, Rates>> build(List<CurrencyConversionLine> lineList) {
+
+    Map<String, Map<String, List<CurrencyConversionLine>>> linesByPair = new HashMap<>();
+
+    if (lineList != null) {
+      for (CurrencyConversionLine ccl : lineList) {
+        linesByPair
+            .computeIfAbsent(ccl.getStartCurrency().getCode(), code -> new HashMap<>())
+            .computeIfAbsent(ccl.getEndCurrency().getCode(), code -> new ArrayList<>())
+            .add(ccl);
+      }
+    }
+
+    Map<String, Map<String, Rates>> result = new HashMap<>();
+
+    linesByPair.forEach(
+        (startCode, linesByEndCode) -> {
+          Map<String, Rates> ratesByEndCode = new HashMap<>();
+          linesByEndCode.forEach((endCode, lines) -> ratesByEndCode.put(endCode, new Rates(lines)));
+          result.put(startCode, ratesByEndCode);
+        });
+
+    log.debug("Currency conversion index built for {} source currencies", result.size());
+
+    return Collections.unmodifiableMap(result);
+  }
+
+  /** Conversion lines of one currency pair, sorted by start date. */
+  public static final class Rates {
+
+    private final long[] fromDays;
+    private final long[] toDays;
+    /** Latest end date of the lines up to each position, to stop looking back early. */
+    private final long[] maxToDays;
+    private final BigDecimal[] exchangeRates;
+
+    private Rates(List<CurrencyConversionLine> lines) {
+
+      lines.sort(Comparator.comparing(CurrencyConversionLine::getFromDate));
+
+      int size = lines.size();
+      fromDays = new long[size];
+      toDays = new long[size];
+      maxToDays = new long[size];
+      exchangeRates = new BigDecimal[size];
+
+      for (int i = 0; i < size; i++) {
+        CurrencyConversionLine ccl = lines.get(i);
+        fromDays[i] = ccl.getFromDate().toEpochDay();
+        toDays[i] = ccl.getToDate() == null ? Long.MAX_VALUE : ccl.getToDate().toEpochDay();
+        maxToDays[i] = i == 0 ? toDays[i] : Math.max(maxToDays[i - 1], toDays[i]);
+        exchangeRates[i] = ccl.getExchangeRate();
+      }
+    }
+
+    /**
+     * Find the line covering a date. When periods overlap, the one starting the latest wins.
+     *
+     * @param date
+     * @return the position of the line, or -1 if no line covers the date
+     */
+    public int indexOf(LocalDate date) {
+
+      long day = date.toEpochDay();
+
+      // Last line starting on or before the date
+      int low = 0;
+      int high = fromDays.length - 1;
+      int found = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (fromDays[mid] <= day) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+
+      for (int i = found; i >= 0 && maxToDays[i] >= day; i--) {
+        if (toDays[i] >= day) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    public BigDecimal getExchangeRate(int index) {
+      return exchangeRates[index];
+    }
+  }
+}
@@ -18,8 +18,8 @@
 package com.axelor.apps.base.service;
 
 import com.axelor.apps.base.db.Currency;
-import com.axelor.apps.base.db.CurrencyConversionLine;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
+import com.axelor.apps.base.service.CurrencyConversionIndex.Rates;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
@@ -31,7 +31,6 @@ import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,18 +41,23 @@ public class CurrencyService {
 
   protected AppBaseService appBaseService;
 
+  protected CurrencyConversionIndex currencyConversionIndex;
+
   private LocalDate today;
 
   @Inject
-  public CurrencyService(AppBaseService appBaseService) {
+  public CurrencyService(
+      AppBaseService appBaseService, CurrencyConversionIndex currencyConversionIndex) {
 
     this.appBaseService = appBaseService;
+    this.currencyConversionIndex = currencyConversionIndex;
     this.today = appBaseService.getTodayDate();
   }
 
   public CurrencyService(LocalDate today) {
 
     this.appBaseService = Beans.get(AppBaseService.class);
+    this.currencyConversionIndex = Beans.get(CurrencyConversionIndex.class);
     this.today = today;
   }
 
@@ -71,16 +75,22 @@ public class CurrencyService {
 
       LocalDate dateToConvert = this.getDateToConvert(date);
 
-      CurrencyConversionLine currencyConversionLine =
-          this.getCurrencyConversionLine(startCurrency, endCurrency, dateToConvert);
-      if (currencyConversionLine != null) {
-        return currencyConversionLine.getExchangeRate();
-      } else {
-        currencyConversionLine =
-            this.getCurrencyConversionLine(endCurrency, startCurrency, dateToConvert);
+      log.debug(
+          "Currency from: {}, Currency to: {}, localDate: {}",
+          startCurrency,
+          endCurrency,
+          dateToConvert);
+
+      Rates rates = currencyConversionIndex.getRates(startCurrency, endCurrency);
+      int index = rates == null ? -1 : rates.indexOf(dateToConvert);
+      if (index >= 0) {
+        return rates.getExchangeRate(index);
       }
 
-      if (currencyConversionLine == null) {
+      rates = currencyConversionIndex.getRates(endCurrency, startCurrency);
+      index = rates == null ? -1 : rates.indexOf(dateToConvert);
+
+      if (index < 0) {
         throw new AxelorException(
             TraceBackRepository.CATEGORY_CONFIGURATION_ERROR,
             I18n.get(IExceptionMessage.CURRENCY_1),
@@ -89,7 +99,7 @@ public class CurrencyService {
             dateToConvert);
       }
 
-      BigDecimal exchangeRate = currencyConversionLine.getExchangeRate();
+      BigDecimal exchangeRate = rates.getExchangeRate(index);
 
       if (exchangeRate == null || exchangeRate.compareTo(BigDecimal.ZERO) == 0) {
         throw new AxelorException(
@@ -100,46 +110,12 @@ public class CurrencyService {
             dateToConvert);
       }
 
-      return BigDecimal.ONE.divide(
-          currencyConversionLine.getExchangeRate(), 10, RoundingMode.HALF_EVEN);
+      return BigDecimal.ONE.divide(exchangeRate, 10, RoundingMode.HALF_EVEN);
     }
 
     return BigDecimal.ONE;
   }
 
-  private CurrencyConversionLine getCurrencyConversionLine(
-      Currency startCurrency, Currency endCurrency, LocalDate localDate) {
-
-    List<CurrencyConversionLine> currencyConversionLineList =
-        appBaseService.getCurrencyConfigurationLineList();
-
-    if (currencyConversionLineList == null) {
-      return null;
-    }
-
-    log.debug(
-        "Currency from: {}, Currency to: {}, localDate: {}", startCurrency, endCurrency, localDate);
-
-    for (CurrencyConversionLine ccl : currencyConversionLineList) {
-
-      String cclStartCode = ccl.getStartCurrency().getCode();
-      String cclEndCode = ccl.getEndCurrency().getCode();
-      String startCode = startCurrency.getCode();
-      String endCode = endCurrency.getCode();
-      LocalDate fromDate = ccl.getFromDate();
-      LocalDate toDate = ccl.getToDate();
-
-      if (cclStartCode.equals(startCode) && cclEndCode.equals(endCode)) {
-        if ((fromDate.isBefore(localDate) || fromDate.equals(localDate))
-            && (toDate == null || toDate.isAfter(localDate) || toDate.isEqual(localDate))) {
-          return ccl;
-        }
-      }
-    }
-
-    return null;
-  }
-
   /**
    * Convert the amount in start currency into the end currency according to the date to convert
    *
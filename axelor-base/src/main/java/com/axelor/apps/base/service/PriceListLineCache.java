@@ -0,0 +1,178 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service;
+
+import com.axelor.apps.base.db.PriceList;
+import com.axelor.apps.base.db.Product;
+import com.axelor.db.JPA;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Quantity breaks of the price lists, grouped by product and by product category.
+ *
+ * <p>All the lines of a price list are loaded with a single query the first time it is used. An
+ * entry is reloaded when the version of the price list changes, and evicted when the price list or
+ * one of its lines is saved.
+ */
+@ThreadSafe
+@Singleton
+public class PriceListLineCache {
+
+  private static final int MAX_PRICE_LISTS = 200;
+
+  private final Cache<Long, PriceListBreaks> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_PRICE_LISTS).build();
+
+  /**
+   * Find the price list line to apply to a product and a quantity: the line of the product with
+   * the highest minimum quantity lower than or equal to the quantity, else the line of its
+   * category.
+   *
+   * @param product
+   * @param qty null is taken as zero
+   * @param priceList a saved price list
+   * @return the id of the price list line, or null if none applies
+   */
+  public Long findPriceListLineId(Product product, BigDecimal qty, PriceList priceList) {
+
+    PriceListBreaks breaks = getBreaks(priceList);
+
+    if (qty == null) {
+      qty = BigDecimal.ZERO;
+    }
+
+    Long priceListLineId = find(breaks.byProduct.get(product.getId()), qty);
+
+    if (priceListLineId == null && product.getProductCategory() != null) {
+      priceListLineId =
+          find(breaks.byProductCategory.get(product.getProductCategory().getId()), qty);
+    }
+
+    return priceListLineId;
+  }
+
+  public void evict(PriceList priceList) {
+    if (priceList != null && priceList.getId() != null) {
+      cache.invalidate(priceList.getId());
+    }
+  }
+
+  protected PriceListBreaks getBreaks(PriceList priceList) {
+
+    PriceListBreaks breaks = cache.getIfPresent(priceList.getId());
+
+    if (breaks == null || !Objects.equals(breaks.version, priceList.getVersion())) {
+      breaks = load(priceList);
+      cache.put(priceList.getId(), breaks);
+    }
+
+    return breaks;
+  }
+
+  protected PriceListBreaks load(PriceList priceList) {
+
+    List<Object[]> rows =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, product.id, productCategory.id, self.minQty "
+                    + "FROM PriceListLine self "
+                    + "LEFT JOIN self.product product "
+                    + "LEFT JOIN self.productCategory productCategory "
+                    + "WHERE self.priceList.id = :priceList AND self.minQty IS NOT NULL",
+                Object[].class)
+            .setParameter("priceList", priceList.getId())
+            .getResultList();
+
+    Map<Long, List<Break>> byProduct = new HashMap<>();
+    Map<Long, List<Break>> byProductCategory = new HashMap<>();
+
+    for (Object[] row : rows) {
+      Break priceBreak = new Break((Long) row[0], (BigDecimal) row[3]);
+      if (row[1] != null) {
+        byProduct.computeIfAbsent((Long) row[1], id -> new ArrayList<>()).add(priceBreak);
+      }
+      if (row[2] != null) {
+        byProductCategory.computeIfAbsent((Long) row[2], id -> new ArrayList<>()).add(priceBreak);
+      }
+    }
+
+    return new PriceListBreaks(
+        priceList.getVersion(), toArrays(byProduct), toArrays(byProductCategory));
+  }
+
+  private Map<Long, Break[]> toArrays(Map<Long, List<Break>> breakLists) {
+
+    Map<Long, Break[]> result = new HashMap<>();
+
+    breakLists.forEach(
+        (id, breakList) -> {
+          breakList.sort(Comparator.comparing((Break priceBreak) -> priceBreak.minQty).reversed());
+          result.put(id, breakList.toArray(new Break[breakList.size()]));
+        });
+
+    return result;
+  }
+
+  private Long find(Break[] breaks, BigDecimal qty) {
+
+    if (breaks == null) {
+      return null;
+    }
+
+    for (Break priceBreak : breaks) {
+      if (priceBreak.minQty.compareTo(qty) <= 0) {
+        return priceBreak.priceListLineId;
+      }
+    }
+
+    return null;
+  }
+
+  protected static final class PriceListBreaks {
+    private final Integer version;
+    private final Map<Long, Break[]> byProduct;
+    private final Map<Long, Break[]> byProductCategory;
+
+    private PriceListBreaks(
+        Integer version, Map<Long, Break[]> byProduct, Map<Long, Break[]> byProductCategory) {
+      this.version = version;
+      this.byProduct = byProduct;
+      this.byProductCategory = byProductCategory;
+    }
+  }
+
+  private static final class Break {
+    private final Long priceListLineId;
+    private final BigDecimal minQty;
+
+    private Break(Long priceListLineId, BigDecimal minQty) {
+      this.priceListLineId = priceListLineId;
+      this.minQty = minQty;
+    }
+  }
+}
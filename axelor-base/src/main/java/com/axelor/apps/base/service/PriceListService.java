@@ -28,7 +28,6 @@ import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
-import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.math.BigDecimal;
@@ -46,34 +45,17 @@ public class PriceListService {
 
   @Inject protected AppBaseService appBaseService;
 
+  @Inject protected PriceListLineCache priceListLineCache;
+
   public PriceListLine getPriceListLine(Product product, BigDecimal qty, PriceList priceList) {
 
-    PriceListLine priceListLine = null;
-
-    if (product != null && priceList != null) {
-      priceListLine =
-          Beans.get(PriceListLineRepository.class)
-              .all()
-              .filter(
-                  "self.product = ?1 AND self.minQty <= ?2 AND self.priceList.id = ?3 ORDER BY self.minQty DESC",
-                  product,
-                  qty,
-                  priceList.getId())
-              .fetchOne();
-      if (priceListLine == null && product.getProductCategory() != null) {
-        priceListLine =
-            priceListLineRepo
-                .all()
-                .filter(
-                    "self.productCategory = ?1 AND self.minQty <= ?2 AND self.priceList.id = ?3 ORDER BY self.minQty DESC",
-                    product.getProductCategory(),
-                    qty,
-                    priceList.getId())
-                .fetchOne();
-      }
+    if (product == null || priceList == null || priceList.getId() == null) {
+      return null;
     }
 
-    return priceListLine;
+    Long priceListLineId = priceListLineCache.findPriceListLineId(product, qty, priceList);
+
+    return priceListLineId == null ? null : priceListLineRepo.find(priceListLineId);
   }
 
   public int getDiscountTypeSelect(PriceListLine priceListLine) {
@@ -17,6 +17,7 @@
  */
 package com.axelor.apps.base.service.administration;
 
+import com.axelor.app.AppSettings;
 import com.axelor.apps.base.db.Batch;
 import com.axelor.apps.base.db.repo.BatchRepository;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
@@ -29,12 +30,25 @@ import com.axelor.exception.AxelorException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import com.google.inject.persist.UnitOfWork;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.EntityTransaction;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +57,12 @@ public abstract class AbstractBatch {
 
   public static final int FETCH_LIMIT = 10;
 
+  /** Number of records of a partition, when processed by {@link #processPartitioned}. */
+  public static final int PARTITION_SIZE = 100;
+
+  /** Configuration key of the number of workers used by {@link #processPartitioned}. */
+  public static final String THREAD_COUNT_KEY = "batch.threads";
+
   @Inject protected AppBaseService appBaseService;
 
   protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
@@ -50,20 +70,29 @@ public abstract class AbstractBatch {
   protected Batch batch;
   protected Model model;
 
-  private int done, anomaly;
+  private final AtomicInteger done = new AtomicInteger();
+  private final AtomicInteger anomaly = new AtomicInteger();
+
+  /** Set on the worker threads of {@link #processPartitioned}. */
+  private static ThreadLocal<Boolean> threadWorker = new ThreadLocal<>();
 
   @Inject protected BatchRepository batchRepo;
 
+  @Inject protected UnitOfWork unitOfWork;
+
+  /** Process one record in partitioned mode. */
+  @FunctionalInterface
+  public interface RecordProcessor {
+    void process(Long id) throws Exception;
+  }
+
   protected AbstractBatch() {
     this.batch = new Batch();
 
     this.batch.setStartDate(ZonedDateTime.now());
 
-    this.done = 0;
-    this.anomaly = 0;
-
-    this.batch.setDone(this.done);
-    this.batch.setAnomaly(this.anomaly);
+    this.batch.setDone(0);
+    this.batch.setAnomaly(0);
   }
 
   public Batch getBatch() {
@@ -106,6 +135,7 @@ public abstract class AbstractBatch {
       } catch (Exception e) {
         throw new RuntimeException(e);
       } finally {
+        TraceBackService.flush(batch.getId());
         unarchived();
         threadBatch.remove();
       }
@@ -146,30 +176,163 @@ public abstract class AbstractBatch {
     LOG.info("Fin batch {} ::: {}", new Object[] {model, batch.getEndDate()});
   }
 
+  /**
+   * Count a record as done. On the workers of {@link #processPartitioned}, only the counter is
+   * incremented: it is saved on the batch by the calling thread.
+   */
   protected void incrementDone() {
+    if (isWorker()) {
+      done.incrementAndGet();
+      return;
+    }
     findBatch();
     _incrementDone();
   }
 
   protected void _incrementDone() {
-    done += 1;
-    batch.setDone(done);
+    batch.setDone(done.incrementAndGet());
     checkPoint();
 
-    LOG.debug("Done ::: {}", done);
+    LOG.debug("Done ::: {}", batch.getDone());
   }
 
+  /**
+   * Count a record as an anomaly. On the workers of {@link #processPartitioned}, only the counter
+   * is incremented: it is saved on the batch by the calling thread.
+   */
   protected void incrementAnomaly() {
+    if (isWorker()) {
+      anomaly.incrementAndGet();
+      return;
+    }
     findBatch();
     _incrementAnomaly();
   }
 
   protected void _incrementAnomaly() {
-    anomaly += 1;
-    batch.setAnomaly(anomaly);
+    batch.setAnomaly(anomaly.incrementAndGet());
     checkPoint();
 
-    LOG.debug("Anomaly ::: {}", anomaly);
+    LOG.debug("Anomaly ::: {}", batch.getAnomaly());
+  }
+
+  /**
+   * Process records on a pool of workers, by partitions of {@link #PARTITION_SIZE} ids.
+   *
+   * <p>Each worker has its own entity manager, which is cleared after each partition, and each
+   * record is processed in its own transaction. A record is counted as done when the processor
+   * returns, and as an anomaly when it throws: the processor must not call {@link
+   * #incrementDone()} or {@link #incrementAnomaly()} itself. Records must be loaded from their id
+   * by the processor, as entities cannot be shared between workers. {@link #getCurrentBatch()}
+   * returns the batch on the workers as well.
+   *
+   * @param ids ids of the records to process
+   * @param processor
+   */
+  protected void processPartitioned(List<Long> ids, RecordProcessor processor) {
+
+    List<List<Long>> partitions = Lists.partition(ids, PARTITION_SIZE);
+    int threadCount = Math.max(1, Math.min(getThreadCount(), partitions.size()));
+
+    LOG.info(
+        "Batch {} : {} records in {} partitions on {} workers",
+        batch.getId(),
+        ids.size(),
+        partitions.size(),
+        threadCount);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+    Batch currentBatch = threadBatch.get();
+    // The workers run as the user who launched the batch
+    Subject subject = ThreadContext.getSubject();
+
+    try {
+      for (List<Long> partition : partitions) {
+        Callable<Void> task =
+            () -> {
+              processPartition(currentBatch, partition, processor);
+              return null;
+            };
+        completionService.submit(subject != null ? subject.associateWith(task) : task);
+      }
+
+      for (int i = 0; i < partitions.size(); i++) {
+        try {
+          completionService.take().get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          TraceBackService.trace(
+              cause instanceof Exception ? (Exception) cause : new RuntimeException(cause),
+              null,
+              batch.getId());
+        }
+        saveCounters();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  protected void processPartition(Batch currentBatch, List<Long> ids, RecordProcessor processor) {
+
+    threadBatch.set(currentBatch);
+    threadWorker.set(true);
+    unitOfWork.begin();
+
+    try {
+      for (Long id : ids) {
+        EntityTransaction transaction = JPA.em().getTransaction();
+        try {
+          transaction.begin();
+          processor.process(id);
+          transaction.commit();
+          done.incrementAndGet();
+        } catch (Exception e) {
+          if (transaction.isActive()) {
+            transaction.rollback();
+          }
+          anomaly.incrementAndGet();
+          onRecordError(id, e);
+        }
+      }
+    } finally {
+      unitOfWork.end();
+      threadWorker.remove();
+      threadBatch.remove();
+    }
+  }
+
+  /**
+   * Called on the worker when a record fails in partitioned mode, after its transaction has been
+   * rolled back.
+   *
+   * @param id
+   * @param e
+   */
+  protected void onRecordError(Long id, Exception e) {
+    JPA.clear();
+    TraceBackService.trace(e, null, getCurrentBatchId());
+  }
+
+  /** @return the number of workers used by {@link #processPartitioned} */
+  protected int getThreadCount() {
+    return AppSettings.get()
+        .getInt(THREAD_COUNT_KEY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  protected static boolean isWorker() {
+    return threadWorker.get() != null;
+  }
+
+  private void saveCounters() {
+    findBatch();
+    batch.setDone(done.get());
+    batch.setAnomaly(anomaly.get());
+    checkPoint();
   }
 
   protected void addComment(String comment) {
@@ -0,0 +1,254 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.administration;
+
+import com.axelor.apps.base.db.Sequence;
+import com.axelor.apps.base.db.SequenceVersion;
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out sequence numbers from blocks reserved in memory.
+ *
+ * <p>Each block is reserved on the {@link SequenceVersion} row in a short transaction of its own
+ * entity manager, so the caller's transaction never holds the row lock. Numbers left in a block
+ * when the server stops, or taken by a transaction that is rolled back, are lost: this must only
+ * be used for sequences where gaps are allowed.
+ */
+@ThreadSafe
+@Singleton
+public class SequenceBlockAllocator {
+
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final ConcurrentMap<BlockKey, Block> blocks = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<>();
+
+  /**
+   * Take the next number of the given version, reserving a new block if the current one is
+   * exhausted.
+   *
+   * @param sequence the sequence, its block size must be greater than one
+   * @param sequenceVersion the version matching the reference date, may not be saved yet
+   * @return the number to use
+   */
+  public long nextNum(Sequence sequence, SequenceVersion sequenceVersion) {
+
+    long start = System.nanoTime();
+    Block block =
+        blocks.computeIfAbsent(
+            new BlockKey(
+                sequence.getId(), sequenceVersion.getStartDate(), sequenceVersion.getEndDate()),
+            key -> new Block());
+    Statistics stats = statistics.computeIfAbsent(sequence.getCode(), code -> new Statistics());
+
+    long nextNum;
+    boolean allocated = false;
+
+    synchronized (block) {
+      if (block.next >= block.end) {
+        reserve(sequence, sequenceVersion, block);
+        allocated = true;
+      }
+      nextNum = block.next;
+      block.next += sequence.getToBeAdded();
+    }
+
+    stats.record(System.nanoTime() - start, allocated);
+
+    return nextNum;
+  }
+
+  /**
+   * Drop the blocks kept in memory for a sequence, e.g. when its increment, block size or versions
+   * are modified. The numbers left in these blocks are lost.
+   *
+   * @param sequence
+   */
+  public void invalidate(Sequence sequence) {
+    if (sequence.getId() != null) {
+      blocks.keySet().removeIf(key -> key.sequenceId.equals(sequence.getId()));
+    }
+  }
+
+  /**
+   * Get allocation metrics, grouped by sequence code.
+   *
+   * @return a map of sequence code to metrics: served numbers, reserved blocks, total and maximum
+   *     wait time in milliseconds
+   */
+  public Map<String, Map<String, Object>> getStatistics() {
+    Map<String, Map<String, Object>> result = new HashMap<>();
+    statistics.forEach((code, stats) -> result.put(code, stats.toMap()));
+    return Collections.unmodifiableMap(result);
+  }
+
+  protected void reserve(Sequence sequence, SequenceVersion sequenceVersion, Block block) {
+
+    long size = (long) sequence.getBlockSize() * sequence.getToBeAdded();
+
+    for (int attempt = 1; ; attempt++) {
+      EntityManager em = JPA.em().getEntityManagerFactory().createEntityManager();
+      EntityTransaction transaction = em.getTransaction();
+      try {
+        transaction.begin();
+
+        SequenceVersion version = findOrCreateVersion(em, sequence, sequenceVersion);
+        em.lock(version, LockModeType.PESSIMISTIC_WRITE);
+        em.refresh(version);
+
+        long next = version.getNextNum();
+        version.setNextNum(next + size);
+
+        transaction.commit();
+
+        block.next = next;
+        block.end = next + size;
+
+        log.debug(
+            "Sequence {} : numbers {} to {} reserved", sequence.getCode(), block.next, block.end);
+        return;
+      } catch (PersistenceException e) {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+        // Another node may have created the same version concurrently.
+        if (attempt >= MAX_ATTEMPTS) {
+          throw e;
+        }
+      } finally {
+        em.close();
+      }
+    }
+  }
+
+  protected SequenceVersion findOrCreateVersion(
+      EntityManager em, Sequence sequence, SequenceVersion sequenceVersion) {
+
+    if (sequenceVersion.getId() != null) {
+      return em.find(SequenceVersion.class, sequenceVersion.getId());
+    }
+
+    List<SequenceVersion> versions =
+        em.createQuery(
+                "SELECT self FROM SequenceVersion self WHERE self.sequence.id = :sequence "
+                    + "AND self.startDate = :startDate "
+                    + "AND (self.endDate = :endDate OR (self.endDate IS NULL AND :endDate IS NULL))",
+                SequenceVersion.class)
+            .setParameter("sequence", sequence.getId())
+            .setParameter("startDate", sequenceVersion.getStartDate())
+            .setParameter("endDate", sequenceVersion.getEndDate())
+            .getResultList();
+
+    if (!versions.isEmpty()) {
+      return versions.get(0);
+    }
+
+    SequenceVersion version =
+        new SequenceVersion(
+            em.getReference(Sequence.class, sequence.getId()),
+            sequenceVersion.getStartDate(),
+            sequenceVersion.getEndDate(),
+            sequenceVersion.getNextNum());
+    em.persist(version);
+    em.flush();
+
+    return version;
+  }
+
+  protected static class Block {
+    private long next;
+    private long end;
+  }
+
+  private static final class BlockKey {
+    private final Long sequenceId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    private BlockKey(Long sequenceId, LocalDate startDate, LocalDate endDate) {
+      this.sequenceId = sequenceId;
+      this.startDate = startDate;
+      this.endDate = endDate;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey other = (BlockKey) obj;
+      return Objects.equals(sequenceId, other.sequenceId)
+          && Objects.equals(startDate, other.startDate)
+          && Objects.equals(endDate, other.endDate);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sequenceId, startDate, endDate);
+    }
+  }
+
+  private static final class Statistics {
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+
+    private void record(long wait, boolean newBlock) {
+      served.incrementAndGet();
+      if (newBlock) {
+        allocated.incrementAndGet();
+      }
+      totalWait.addAndGet(wait);
+      maxWait.accumulateAndGet(wait, Math::max);
+    }
+
+    private Map<String, Object> toMap() {
+      Map<String, Object> map = new HashMap<>();
+      map.put("served", served.get());
+      map.put("blocks", allocated.get());
+      map.put("totalWaitMs", totalWait.get() / 1_000_000);
+      map.put("maxWaitMs", maxWait.get() / 1_000_000);
+      return map;
+    }
+  }
+}
@@ -33,6 +33,7 @@ import com.axelor.inject.Beans;
 import com.axelor.meta.db.MetaSelectItem;
 import com.axelor.meta.db.repo.MetaSelectItemRepository;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.persist.Transactional;
@@ -41,6 +42,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
 import java.time.temporal.IsoFields;
+import java.util.Set;
 import javax.annotation.concurrent.ThreadSafe;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -60,6 +62,9 @@ public class SequenceService {
       PATTERN_WEEK = "%WY",
       PADDING_STRING = "0";
 
+  /** Codes of the sequences which must stay gap-free, they are never allocated by blocks. */
+  protected static final Set<String> GAP_FREE_CODES = ImmutableSet.of("invoice", "move");
+
   private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
   private SequenceVersionRepository sequenceVersionRepository;
@@ -68,6 +73,8 @@ public class SequenceService {
 
   @Inject private SequenceRepository sequenceRepo;
 
+  @Inject private SequenceBlockAllocator sequenceBlockAllocator;
+
   @Inject
   public SequenceService(
       SequenceVersionRepository sequenceVersionRepository, AppBaseService appBaseService) {
@@ -191,11 +198,18 @@ public class SequenceService {
 
     SequenceVersion sequenceVersion = getVersion(sequence, refDate);
 
+    long nextNum;
+    if (isBlockAllocated(sequence)) {
+      nextNum = sequenceBlockAllocator.nextNum(sequence, sequenceVersion);
+    } else {
+      nextNum = sequenceVersion.getNextNum();
+      sequenceVersion.setNextNum(nextNum + sequence.getToBeAdded());
+      sequenceVersionRepository.save(sequenceVersion);
+    }
+
     String seqPrefixe = StringUtils.defaultString(sequence.getPrefixe(), ""),
         seqSuffixe = StringUtils.defaultString(sequence.getSuffixe(), ""),
-        padLeft =
-            StringUtils.leftPad(
-                sequenceVersion.getNextNum().toString(), sequence.getPadding(), PADDING_STRING);
+        padLeft = StringUtils.leftPad(Long.toString(nextNum), sequence.getPadding(), PADDING_STRING);
 
     String nextSeq =
         (seqPrefixe + padLeft + seqSuffixe)
@@ -209,11 +223,26 @@ public class SequenceService {
 
     log.debug("nextSeq : : : : {}", nextSeq);
 
-    sequenceVersion.setNextNum(sequenceVersion.getNextNum() + sequence.getToBeAdded());
-    sequenceVersionRepository.save(sequenceVersion);
     return nextSeq;
   }
 
+  /**
+   * Whether the numbers of the sequence are taken from blocks reserved in memory instead of
+   * locking the sequence version in the current transaction.
+   *
+   * @param sequence
+   * @return true if a block size is set and the sequence does not need to be gap-free
+   */
+  public boolean isBlockAllocated(Sequence sequence) {
+    return sequence.getId() != null
+        && sequence.getBlockSize() > 1
+        && !GAP_FREE_CODES.contains(sequence.getCode());
+  }
+
+  public static boolean isBlockSizeValid(Sequence sequence) {
+    return sequence.getBlockSize() <= 1 || !GAP_FREE_CODES.contains(sequence.getCode());
+  }
+
   protected SequenceVersion getVersion(Sequence sequence, LocalDate refDate) {
 
     log.debug("Reference date : : : : {}", refDate);
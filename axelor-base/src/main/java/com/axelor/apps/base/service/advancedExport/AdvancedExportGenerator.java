@@ -18,14 +18,20 @@
 package com.axelor.apps.base.service.advancedExport;
 
 import com.axelor.apps.base.db.AdvancedExport;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.itextpdf.text.DocumentException;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,9 +54,10 @@ public abstract class AdvancedExportGenerator {
    * This method generate the body of export file.
    *
    * @param dataList
+   * @throws AxelorException
    */
   @SuppressWarnings("rawtypes")
-  public abstract void generateBody(List<List> dataList);
+  public abstract void generateBody(List<List> dataList) throws AxelorException;
 
   /**
    * This method close the object.
@@ -85,6 +92,9 @@ public abstract class AdvancedExportGenerator {
   /**
    * This method is used to generate the export file.
    *
+   * <p>The rows are read through a forward-only cursor and handed to the generator by chunks of
+   * the query fetch size, so that the memory used does not depend on the number of exported rows.
+   *
    * @param advancedExport
    * @param query
    * @return
@@ -92,42 +102,82 @@ public abstract class AdvancedExportGenerator {
    * @throws IOException
    * @throws DocumentException
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
+  @SuppressWarnings("rawtypes")
   public File generateFile(Query query) throws AxelorException {
 
     AdvancedExport advancedExport = getAdvancedExport();
 
     log.debug("Export file : {}", getFileName());
 
+    long startTime = System.currentTimeMillis();
+    long startAllocatedBytes = getAllocatedBytes();
+
     generateHeader();
 
-    int startPosition = 0;
     int reachLimit = 0;
     int maxExportLimit = advancedExport.getMaxExportLimit();
     int queryFetchLimit = advancedExport.getQueryFetchSize();
-    List<List> dataList = new ArrayList<>();
-    query.setMaxResults(queryFetchLimit);
+    List<List> dataList = new ArrayList<>(queryFetchLimit);
 
-    while (startPosition < maxExportLimit) {
-      if ((maxExportLimit - startPosition) < queryFetchLimit) {
-        query.setMaxResults((maxExportLimit - startPosition));
-      }
-      query.setFirstResult(startPosition);
-      dataList = query.getResultList();
-      if (dataList.isEmpty()) break;
-
-      generateBody(dataList);
+    // PostgreSQL only uses a cursor for the fetch size inside a transaction
+    EntityTransaction transaction = JPA.em().getTransaction();
+    boolean isNewTransaction = !transaction.isActive();
+    if (isNewTransaction) {
+      transaction.begin();
+    }
 
-      startPosition = startPosition + queryFetchLimit;
-      reachLimit += dataList.size();
+    try (ScrollableResults results =
+        query
+            .unwrap(org.hibernate.query.Query.class)
+            .setMaxResults(maxExportLimit)
+            .setFetchSize(queryFetchLimit)
+            .setReadOnly(true)
+            .scroll(ScrollMode.FORWARD_ONLY)) {
+
+      while (results.next()) {
+        dataList.add((List) results.get(0));
+        if (dataList.size() == queryFetchLimit) {
+          generateBody(dataList);
+          reachLimit += dataList.size();
+          dataList.clear();
+        }
+      }
+      if (!dataList.isEmpty()) {
+        generateBody(dataList);
+        reachLimit += dataList.size();
+      }
+    } finally {
+      if (isNewTransaction && transaction.isActive()) {
+        transaction.rollback();
+      }
     }
+
     if (maxExportLimit == reachLimit) {
       isReachMaxExportLimit = true;
     }
     close();
+
+    log.info(
+        "Export file {} : {} rows in {} ms, {} KB allocated, {} KB of heap used",
+        getFileName(),
+        reachLimit,
+        System.currentTimeMillis() - startTime,
+        (getAllocatedBytes() - startAllocatedBytes) / 1024,
+        (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024);
+
     return getExportFile();
   }
 
+  /** Bytes allocated by the current thread so far, or 0 if the JVM does not measure it. */
+  protected long getAllocatedBytes() {
+    ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
   public boolean getIsReachMaxExportLimit() {
     return isReachMaxExportLimit;
   }
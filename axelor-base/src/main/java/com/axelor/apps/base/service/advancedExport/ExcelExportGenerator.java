@@ -31,15 +31,19 @@ import java.util.List;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 public class ExcelExportGenerator extends AdvancedExportGenerator {
 
-  private Workbook workbook;
+  /** Number of rows kept in memory, the older ones being flushed to a temporary file. */
+  private static final int ROW_ACCESS_WINDOW_SIZE = 100;
+
+  private SXSSFWorkbook workbook;
 
   private Sheet sheet;
 
+  private int rowIndex;
+
   private AdvancedExport advancedExport;
 
   private File exportFile;
@@ -55,13 +59,14 @@ public class ExcelExportGenerator extends AdvancedExportGenerator {
       TraceBackService.trace(e);
       throw new AxelorException(e, TraceBackRepository.CATEGORY_CONFIGURATION_ERROR);
     }
-    workbook = new XSSFWorkbook();
+    workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
+    workbook.setCompressTempFiles(true);
     sheet = workbook.createSheet(advancedExport.getMetaModel().getName());
   }
 
   @Override
   public void generateHeader() {
-    Row headerRow = sheet.createRow(sheet.getFirstRowNum());
+    Row headerRow = sheet.createRow(rowIndex++);
     int colHeaderNum = 0;
     for (AdvancedExportLine advancedExportLine : advancedExport.getAdvancedExportLineList()) {
       Cell headerCell = headerRow.createCell(colHeaderNum++);
@@ -73,7 +78,7 @@ public class ExcelExportGenerator extends AdvancedExportGenerator {
   @Override
   public void generateBody(List<List> dataList) {
     for (List listObj : dataList) {
-      Row row = sheet.createRow(sheet.getLastRowNum() + 1);
+      Row row = sheet.createRow(rowIndex++);
       for (int colIndex = 0; colIndex < listObj.size(); colIndex++) {
         Object value = listObj.get(colIndex);
         Cell cell = row.createCell(colIndex);
@@ -89,13 +94,13 @@ public class ExcelExportGenerator extends AdvancedExportGenerator {
 
   @Override
   public void close() throws AxelorException {
-    try {
-      FileOutputStream fout = new FileOutputStream(exportFile);
+    try (FileOutputStream fout = new FileOutputStream(exportFile)) {
       workbook.write(fout);
-      fout.close();
     } catch (IOException e) {
       TraceBackService.trace(e);
       throw new AxelorException(e, TraceBackRepository.CATEGORY_CONFIGURATION_ERROR);
+    } finally {
+      workbook.dispose();
     }
   }
 
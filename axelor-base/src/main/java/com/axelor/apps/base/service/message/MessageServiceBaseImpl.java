@@ -44,7 +44,6 @@ import java.io.UnsupportedEncodingException;
 import java.lang.invoke.MethodHandles;
 import java.net.URLEncoder;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Locale;
@@ -155,20 +154,14 @@ public class MessageServiceBaseImpl extends MessageServiceImpl {
   }
 
   @Override
-  @Transactional(rollbackOn = {MessagingException.class, IOException.class, Exception.class})
-  public Message sendByEmail(Message message)
+  public boolean sendEmail(Message message)
       throws MessagingException, IOException, AxelorException {
 
     if (Beans.get(AppBaseService.class).getAppBase().getActivateSendingEmail()) {
-      return super.sendByEmail(message);
+      return super.sendEmail(message);
     }
 
-    message.setSentByEmail(true);
-    message.setStatusSelect(MessageRepository.STATUS_SENT);
-    message.setSentDateT(LocalDateTime.now());
-    message.setSenderUser(AuthUtils.getUser());
-
-    return messageRepository.save(message);
+    return true;
   }
 
   public List<String> getEmailAddressNames(Set<EmailAddress> emailAddressSet) {
@@ -18,28 +18,30 @@
 package com.axelor.apps.base.service.publicHoliday;
 
 import com.axelor.apps.base.db.EventsPlanning;
-import com.axelor.apps.base.db.EventsPlanningLine;
 import com.axelor.apps.base.db.WeeklyPlanning;
 import com.axelor.apps.base.db.repo.EventsPlanningLineRepository;
 import com.axelor.apps.base.service.weeklyplanning.WeeklyPlanningService;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
 import com.axelor.exception.AxelorException;
 import com.google.inject.Inject;
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.List;
 
 public class PublicHolidayService {
 
   protected WeeklyPlanningService weeklyPlanningService;
   protected EventsPlanningLineRepository eventsPlanningLineRepo;
+  protected WorkingDayCalendarService workingDayCalendarService;
 
   @Inject
   public PublicHolidayService(
       WeeklyPlanningService weeklyPlanningService,
-      EventsPlanningLineRepository eventsPlanningLineRepo) {
+      EventsPlanningLineRepository eventsPlanningLineRepo,
+      WorkingDayCalendarService workingDayCalendarService) {
 
     this.weeklyPlanningService = weeklyPlanningService;
     this.eventsPlanningLineRepo = eventsPlanningLineRepo;
+    this.workingDayCalendarService = workingDayCalendarService;
   }
 
   public BigDecimal computePublicHolidayDays(
@@ -48,25 +50,9 @@ public class PublicHolidayService {
       WeeklyPlanning weeklyPlanning,
       EventsPlanning publicHolidayPlanning)
       throws AxelorException {
-    BigDecimal publicHolidayDays = BigDecimal.ZERO;
-
-    List<EventsPlanningLine> publicHolidayDayList =
-        eventsPlanningLineRepo
-            .all()
-            .filter(
-                "self.eventsPlanning = ?1 AND self.date BETWEEN ?2 AND ?3",
-                publicHolidayPlanning,
-                fromDate,
-                toDate)
-            .fetch();
-    for (EventsPlanningLine publicHolidayDay : publicHolidayDayList) {
-      publicHolidayDays =
-          publicHolidayDays.add(
-              new BigDecimal(
-                  weeklyPlanningService.workingDayValue(
-                      weeklyPlanning, publicHolidayDay.getDate())));
-    }
-    return publicHolidayDays;
+    return workingDayCalendarService
+        .getCalendar(weeklyPlanning, publicHolidayPlanning, fromDate, toDate)
+        .getPublicHolidayDays(fromDate, toDate);
   }
 
   public boolean checkPublicHolidayDay(LocalDate date, EventsPlanning publicHolidayEventsPlanning)
@@ -75,12 +61,8 @@ public class PublicHolidayService {
     if (publicHolidayEventsPlanning == null) {
       return false;
     }
-    List<EventsPlanningLine> publicHolidayDayList =
-        eventsPlanningLineRepo
-            .all()
-            .filter(
-                "self.eventsPlanning = ?1 AND self.date = ?2", publicHolidayEventsPlanning, date)
-            .fetch();
-    return publicHolidayDayList != null && !publicHolidayDayList.isEmpty();
+    return workingDayCalendarService
+        .getCalendar(null, publicHolidayEventsPlanning, date, date)
+        .isPublicHoliday(date);
   }
 }
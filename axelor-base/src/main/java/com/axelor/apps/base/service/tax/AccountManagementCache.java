@@ -0,0 +1,237 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.tax;
+
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.base.db.ProductFamily;
+import com.axelor.apps.tool.date.DateTool;
+import com.axelor.db.JPA;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Resolved account management and tax determination.
+ *
+ * <p>The account management and the tax of a product are cached by product, company, fiscal
+ * position and purchase/sale. The dates of the tax versions are cached by tax, so that the version
+ * applying at a date is found without loading the tax lines. Entries are built lazily, checked
+ * against the version of the product and the tax, and evicted when an account management, a tax, a
+ * tax line, a fiscal position or a tax equivalence is saved.
+ */
+@ThreadSafe
+@Singleton
+public class AccountManagementCache {
+
+  private static final int MAX_DETERMINATIONS = 20000;
+
+  private static final int MAX_TAXES = 1000;
+
+  private final Cache<List<Object>, Determination> determinations =
+      CacheBuilder.newBuilder().maximumSize(MAX_DETERMINATIONS).build();
+
+  private final Cache<Long, TaxVersions> taxVersions =
+      CacheBuilder.newBuilder().maximumSize(MAX_TAXES).build();
+
+  private final LongAdder hitCount = new LongAdder();
+
+  private final LongAdder missCount = new LongAdder();
+
+  /**
+   * Get the id of the account management of a product, computing it if needed.
+   *
+   * @param product a saved product
+   * @param companyId
+   * @param loader computes the id of the account management, null if there is none
+   * @return the id of the account management, or null
+   */
+  public Long getAccountManagementId(Product product, Long companyId, Supplier<Long> loader) {
+    return getDetermination(
+        Arrays.asList(product.getId(), getProductFamilyId(product), companyId), product, loader);
+  }
+
+  /**
+   * Get the id of the tax of a product, after the fiscal position, computing it if needed.
+   *
+   * @param product a saved product
+   * @param companyId
+   * @param fiscalPositionId
+   * @param isPurchase
+   * @param loader computes the id of the tax, null if there is none
+   * @return the id of the tax, or null
+   */
+  public Long getProductTaxId(
+      Product product,
+      Long companyId,
+      Long fiscalPositionId,
+      boolean isPurchase,
+      Supplier<Long> loader) {
+    return getDetermination(
+        Arrays.asList(
+            product.getId(), getProductFamilyId(product), companyId, fiscalPositionId, isPurchase),
+        product,
+        loader);
+  }
+
+  /**
+   * Find the id of the first tax line of a tax whose dates include a date.
+   *
+   * @param taxId a saved tax
+   * @param taxVersion version of the tax
+   * @param date
+   * @return the id of the tax line, or null if none applies
+   */
+  public Long getTaxLineId(Long taxId, Integer taxVersion, LocalDate date) {
+
+    TaxVersions versions = taxVersions.getIfPresent(taxId);
+
+    if (versions == null || !Objects.equals(versions.taxVersion, taxVersion)) {
+      missCount.increment();
+      versions = loadTaxVersions(taxId, taxVersion);
+      taxVersions.put(taxId, versions);
+    } else {
+      hitCount.increment();
+    }
+
+    for (TaxVersion version : versions.versions) {
+      if (DateTool.isBetween(version.startDate, version.endDate, date)) {
+        return version.taxLineId;
+      }
+    }
+
+    return null;
+  }
+
+  /** Evict every determination, e.g. when an account management or a fiscal position changes. */
+  public void evictDeterminations() {
+    determinations.invalidateAll();
+  }
+
+  /** Evict the determinations of a product. */
+  public void evict(Product product) {
+    if (product != null && product.getId() != null) {
+      determinations.asMap().keySet().removeIf(key -> product.getId().equals(key.get(0)));
+    }
+  }
+
+  /** Evict the tax versions of a tax and the determinations that may lead to it. */
+  public void evictTax(Long taxId) {
+    if (taxId != null) {
+      taxVersions.invalidate(taxId);
+    }
+    determinations.invalidateAll();
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public double getHitRate() {
+    long hits = hitCount.sum();
+    long total = hits + missCount.sum();
+    return total == 0 ? 1.0 : (double) hits / total;
+  }
+
+  public long getSize() {
+    return determinations.size() + taxVersions.size();
+  }
+
+  protected Long getDetermination(List<Object> key, Product product, Supplier<Long> loader) {
+
+    Determination determination = determinations.getIfPresent(key);
+
+    if (determination == null
+        || !Objects.equals(determination.productVersion, product.getVersion())) {
+      missCount.increment();
+      determination = new Determination(product.getVersion(), loader.get());
+      determinations.put(key, determination);
+    } else {
+      hitCount.increment();
+    }
+
+    return determination.id;
+  }
+
+  protected TaxVersions loadTaxVersions(Long taxId, Integer taxVersion) {
+
+    List<Object[]> rows =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, self.startDate, self.endDate FROM TaxLine self "
+                    + "WHERE self.tax.id = :tax ORDER BY self.id",
+                Object[].class)
+            .setParameter("tax", taxId)
+            .getResultList();
+
+    TaxVersion[] versions = new TaxVersion[rows.size()];
+    for (int i = 0; i < versions.length; i++) {
+      Object[] row = rows.get(i);
+      versions[i] = new TaxVersion((Long) row[0], (LocalDate) row[1], (LocalDate) row[2]);
+    }
+
+    return new TaxVersions(taxVersion, versions);
+  }
+
+  private Long getProductFamilyId(Product product) {
+    ProductFamily productFamily = product.getProductFamily();
+    return productFamily == null ? null : productFamily.getId();
+  }
+
+  private static final class Determination {
+    private final Integer productVersion;
+    private final Long id;
+
+    private Determination(Integer productVersion, Long id) {
+      this.productVersion = productVersion;
+      this.id = id;
+    }
+  }
+
+  private static final class TaxVersions {
+    private final Integer taxVersion;
+    private final TaxVersion[] versions;
+
+    private TaxVersions(Integer taxVersion, TaxVersion[] versions) {
+      this.taxVersion = taxVersion;
+      this.versions = versions;
+    }
+  }
+
+  private static final class TaxVersion {
+    private final Long taxLineId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    private TaxVersion(Long taxLineId, LocalDate startDate, LocalDate endDate) {
+      this.taxLineId = taxLineId;
+      this.startDate = startDate;
+      this.endDate = endDate;
+    }
+  }
+}
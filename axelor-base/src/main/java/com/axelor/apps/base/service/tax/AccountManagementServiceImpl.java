@@ -25,9 +25,11 @@ import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.db.Product;
 import com.axelor.apps.base.db.ProductFamily;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
+import com.google.inject.Inject;
 import java.lang.invoke.MethodHandles;
 import java.time.LocalDate;
 import java.util.List;
@@ -38,6 +40,8 @@ public class AccountManagementServiceImpl implements AccountManagementService {
 
   private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  @Inject protected AccountManagementCache accountManagementCache;
+
   /**
    * Obtenir la bonne configuration comptable en fonction du produit et de la société.
    *
@@ -50,6 +54,41 @@ public class AccountManagementServiceImpl implements AccountManagementService {
   public AccountManagement getAccountManagement(Product product, Company company)
       throws AxelorException {
 
+    AccountManagement accountManagement;
+
+    if (product.getId() != null && company.getId() != null) {
+      Long accountManagementId =
+          accountManagementCache.getAccountManagementId(
+              product, company.getId(), () -> findAccountManagementId(product, company));
+      accountManagement =
+          accountManagementId == null
+              ? null
+              : JPA.find(AccountManagement.class, accountManagementId);
+    } else {
+      accountManagement = this.findAccountManagement(product, company);
+    }
+
+    if (accountManagement == null) {
+      this.generateAccountManagementException(product, company);
+    }
+
+    return accountManagement;
+  }
+
+  protected Long findAccountManagementId(Product product, Company company) {
+    AccountManagement accountManagement = this.findAccountManagement(product, company);
+    return accountManagement == null ? null : accountManagement.getId();
+  }
+
+  /**
+   * Walk from the product to its family to find the account management of the company.
+   *
+   * @param product
+   * @param company
+   * @return the account management, or null if there is none
+   */
+  protected AccountManagement findAccountManagement(Product product, Company company) {
+
     AccountManagement accountManagement = null;
 
     if (product.getAccountManagementList() != null
@@ -57,12 +96,13 @@ public class AccountManagementServiceImpl implements AccountManagementService {
       accountManagement = this.getAccountManagement(product.getAccountManagementList(), company);
     }
 
-    if (accountManagement == null && product.getProductFamily() != null) {
-      accountManagement = this.getAccountManagement(product.getProductFamily(), company);
-    }
-
-    if (accountManagement == null) {
-      this.generateAccountManagementException(product, company);
+    ProductFamily productFamily = product.getProductFamily();
+    if (accountManagement == null
+        && productFamily != null
+        && productFamily.getAccountManagementList() != null
+        && !productFamily.getAccountManagementList().isEmpty()) {
+      accountManagement =
+          this.getAccountManagement(productFamily.getAccountManagementList(), company);
     }
 
     return accountManagement;
@@ -138,11 +178,32 @@ public class AccountManagementServiceImpl implements AccountManagementService {
         "Obtention du compte comptable pour le produit {} (société : {}, achat ? {})",
         new Object[] {product.getCode(), company.getName(), isPurchase});
 
-    Tax tax =
-        new FiscalPositionServiceImpl()
-            .getTax(
-                fiscalPosition,
-                this.getProductTax(this.getAccountManagement(product, company), isPurchase));
+    Tax tax;
+
+    if (product.getId() != null
+        && company.getId() != null
+        && (fiscalPosition == null || fiscalPosition.getId() != null)) {
+      AccountManagement accountManagement = this.getAccountManagement(product, company);
+      Long taxId =
+          accountManagementCache.getProductTaxId(
+              product,
+              company.getId(),
+              fiscalPosition == null ? null : fiscalPosition.getId(),
+              isPurchase,
+              () -> {
+                Tax productTax =
+                    new FiscalPositionServiceImpl()
+                        .getTax(fiscalPosition, this.getProductTax(accountManagement, isPurchase));
+                return productTax == null ? null : productTax.getId();
+              });
+      tax = taxId == null ? null : JPA.find(Tax.class, taxId);
+    } else {
+      tax =
+          new FiscalPositionServiceImpl()
+              .getTax(
+                  fiscalPosition,
+                  this.getProductTax(this.getAccountManagement(product, company), isPurchase));
+    }
 
     if (tax != null) {
       return tax;
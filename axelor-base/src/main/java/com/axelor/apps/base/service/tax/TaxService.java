@@ -21,9 +21,11 @@ import com.axelor.apps.account.db.Tax;
 import com.axelor.apps.account.db.TaxLine;
 import com.axelor.apps.base.exceptions.IExceptionMessage;
 import com.axelor.apps.tool.date.DateTool;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
+import com.axelor.inject.Beans;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 
@@ -59,7 +61,14 @@ public class TaxService {
       return tax.getActiveTaxLine();
     }
 
-    if (tax.getTaxLineList() != null && !tax.getTaxLineList().isEmpty()) {
+    if (tax.getId() != null) {
+      Long taxLineId =
+          Beans.get(AccountManagementCache.class)
+              .getTaxLineId(tax.getId(), tax.getVersion(), localDate);
+      if (taxLineId != null) {
+        return JPA.find(TaxLine.class, taxLineId);
+      }
+    } else if (tax.getTaxLineList() != null && !tax.getTaxLineList().isEmpty()) {
 
       for (TaxLine taxLine : tax.getTaxLineList()) {
 
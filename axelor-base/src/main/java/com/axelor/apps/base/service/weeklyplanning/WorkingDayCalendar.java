@@ -0,0 +1,244 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.weeklyplanning;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Objects;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Working day values of a weekly planning and public holidays of an events planning, over a range
+ * of whole years.
+ *
+ * <p>Values are stored as half days for each date of the range, with prefix sums, so that the
+ * number of working days between two dates is computed in constant time.
+ */
+@Immutable
+public final class WorkingDayCalendar {
+
+  private final Long weeklyPlanningId;
+  private final Integer weeklyPlanningVersion;
+  private final Long eventsPlanningId;
+  private final Integer eventsPlanningVersion;
+
+  private final LocalDate fromDate;
+  private final LocalDate toDate;
+  private final long firstDay;
+
+  /** Half days worked on each day of the week, monday first. */
+  private final int[] weekHalfDays;
+
+  private final boolean[] publicHolidays;
+
+  /** Half days worked before each date of the range. */
+  private final int[] halfDaySums;
+
+  /** Half days worked on public holidays before each date of the range. */
+  private final int[] publicHolidayHalfDaySums;
+
+  /** Public holidays before each date of the range. */
+  private final int[] publicHolidaySums;
+
+  /** Dates worked, at least half a day, which are not public holidays, before each date. */
+  private final int[] openDaySums;
+
+  WorkingDayCalendar(
+      Long weeklyPlanningId,
+      Integer weeklyPlanningVersion,
+      Long eventsPlanningId,
+      Integer eventsPlanningVersion,
+      int[] weekHalfDays,
+      Collection<LocalDate> publicHolidayDates,
+      int fromYear,
+      int toYear) {
+
+    this.weeklyPlanningId = weeklyPlanningId;
+    this.weeklyPlanningVersion = weeklyPlanningVersion;
+    this.eventsPlanningId = eventsPlanningId;
+    this.eventsPlanningVersion = eventsPlanningVersion;
+    this.weekHalfDays = weekHalfDays.clone();
+    this.fromDate = LocalDate.of(fromYear, 1, 1);
+    this.toDate = LocalDate.of(toYear, 12, 31);
+    this.firstDay = fromDate.toEpochDay();
+
+    int size = (int) (toDate.toEpochDay() - firstDay + 1);
+
+    publicHolidays = new boolean[size];
+    for (LocalDate date : publicHolidayDates) {
+      if (covers(date)) {
+        publicHolidays[indexOf(date)] = true;
+      }
+    }
+
+    halfDaySums = new int[size + 1];
+    publicHolidayHalfDaySums = new int[size + 1];
+    publicHolidaySums = new int[size + 1];
+    openDaySums = new int[size + 1];
+
+    int dayOfWeek = fromDate.getDayOfWeek().getValue() - 1;
+    for (int i = 0; i < size; i++) {
+      int halfDays = weekHalfDays[dayOfWeek];
+      halfDaySums[i + 1] = halfDaySums[i] + halfDays;
+      publicHolidayHalfDaySums[i + 1] =
+          publicHolidayHalfDaySums[i] + (publicHolidays[i] ? halfDays : 0);
+      publicHolidaySums[i + 1] = publicHolidaySums[i] + (publicHolidays[i] ? 1 : 0);
+      openDaySums[i + 1] = openDaySums[i] + (halfDays > 0 && !publicHolidays[i] ? 1 : 0);
+      dayOfWeek = (dayOfWeek + 1) % 7;
+    }
+  }
+
+  public boolean covers(LocalDate date) {
+    return !date.isBefore(fromDate) && !date.isAfter(toDate);
+  }
+
+  public boolean covers(LocalDate from, LocalDate to) {
+    return covers(from) && covers(to);
+  }
+
+  boolean isBuiltFrom(
+      Integer weeklyPlanningVersion, Long eventsPlanningId, Integer eventsPlanningVersion) {
+    return Objects.equals(this.weeklyPlanningVersion, weeklyPlanningVersion)
+        && Objects.equals(this.eventsPlanningId, eventsPlanningId)
+        && Objects.equals(this.eventsPlanningVersion, eventsPlanningVersion);
+  }
+
+  public Long getWeeklyPlanningId() {
+    return weeklyPlanningId;
+  }
+
+  public Long getEventsPlanningId() {
+    return eventsPlanningId;
+  }
+
+  public LocalDate getFromDate() {
+    return fromDate;
+  }
+
+  public LocalDate getToDate() {
+    return toDate;
+  }
+
+  /**
+   * Get the working day value of a date, as {@link WeeklyPlanningService#workingDayValue}.
+   *
+   * @param date any date, public holidays are not taken into account
+   * @return 0, 0.5 or 1
+   */
+  public double workingDayValue(LocalDate date) {
+    return weekHalfDays[date.getDayOfWeek().getValue() - 1] / 2d;
+  }
+
+  /**
+   * @param date a date of the range
+   * @return true if the date is a public holiday
+   */
+  public boolean isPublicHoliday(LocalDate date) {
+    return publicHolidays[indexOf(date)];
+  }
+
+  /**
+   * Get the sum of the working day values between two dates, public holidays included.
+   *
+   * @param from first date, included
+   * @param to last date, included
+   * @return the number of working days, zero if the period is empty
+   */
+  public BigDecimal getWorkingDays(LocalDate from, LocalDate to) {
+    return halfDays(halfDaySums, from, to);
+  }
+
+  /**
+   * Get the sum of the working day values of the public holidays between two dates, as {@link
+   * com.axelor.apps.base.service.publicHoliday.PublicHolidayService#computePublicHolidayDays}.
+   *
+   * @param from first date, included
+   * @param to last date, included
+   * @return the number of working days on public holidays
+   */
+  public BigDecimal getPublicHolidayDays(LocalDate from, LocalDate to) {
+    return halfDays(publicHolidayHalfDaySums, from, to);
+  }
+
+  /**
+   * @param from first date, included
+   * @param to last date, included
+   * @return the number of public holidays between the two dates, worked or not
+   */
+  public int getPublicHolidayCount(LocalDate from, LocalDate to) {
+    if (from.isAfter(to)) {
+      return 0;
+    }
+    return publicHolidaySums[indexOf(to) + 1] - publicHolidaySums[indexOf(from)];
+  }
+
+  /** @return true if at least one day of the week is worked */
+  public boolean hasWorkingDays() {
+    for (int halfDays : weekHalfDays) {
+      if (halfDays > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Find the n-th open day from a date: a date worked, at least half a day, which is not a public
+   * holiday. The search is a binary search on the prefix sums.
+   *
+   * @param from first date, included
+   * @param count number of open days, at least one
+   * @return the date of the last of the open days, or null if it is after the range
+   */
+  public LocalDate findOpenDay(LocalDate from, int count) {
+    int target = openDaySums[indexOf(from)] + count;
+    if (openDaySums[openDaySums.length - 1] < target) {
+      return null;
+    }
+
+    // First index whose open days, itself included, reach the target
+    int low = indexOf(from);
+    int high = openDaySums.length - 2;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (openDaySums[middle + 1] >= target) {
+        high = middle;
+      } else {
+        low = middle + 1;
+      }
+    }
+    return fromDate.plusDays(low);
+  }
+
+  private BigDecimal halfDays(int[] sums, LocalDate from, LocalDate to) {
+    if (from.isAfter(to)) {
+      return BigDecimal.ZERO;
+    }
+    int halfDays = sums[indexOf(to) + 1] - sums[indexOf(from)];
+    return BigDecimal.valueOf(halfDays).divide(BigDecimal.valueOf(2));
+  }
+
+  private int indexOf(LocalDate date) {
+    if (!covers(date)) {
+      throw new IllegalArgumentException(
+          String.format("%s is not between %s and %s", date, fromDate, toDate));
+    }
+    return (int) (date.toEpochDay() - firstDay);
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.weeklyplanning;
+
+import com.axelor.apps.base.db.DayPlanning;
+import com.axelor.apps.base.db.EventsPlanning;
+import com.axelor.apps.base.db.WeeklyPlanning;
+import com.axelor.db.JPA;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Working day calendars, cached by weekly planning and public holiday planning.
+ *
+ * <p>A calendar covers whole years, at least from the previous year to the next one. It is rebuilt
+ * over a larger range when a date outside of it is requested, and evicted when one of its
+ * plannings is saved.
+ */
+@ThreadSafe
+@Singleton
+public class WorkingDayCalendarService {
+
+  private static final int MAX_CALENDARS = 500;
+
+  private static final String[] DAY_NAMES =
+      new String[] {"monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final Cache<List<Long>, WorkingDayCalendar> cache =
+      CacheBuilder.newBuilder().maximumSize(MAX_CALENDARS).build();
+
+  /**
+   * Get the calendar of a weekly planning and a public holiday planning, covering two dates.
+   *
+   * @param weeklyPlanning may be null, if only public holidays are needed
+   * @param publicHolidayPlanning may be null
+   * @param from
+   * @param to
+   * @return
+   */
+  public WorkingDayCalendar getCalendar(
+      WeeklyPlanning weeklyPlanning,
+      EventsPlanning publicHolidayPlanning,
+      LocalDate from,
+      LocalDate to) {
+
+    Long weeklyPlanningId = weeklyPlanning == null ? null : weeklyPlanning.getId();
+    Integer weeklyPlanningVersion = weeklyPlanning == null ? null : weeklyPlanning.getVersion();
+    Long eventsPlanningId = publicHolidayPlanning == null ? null : publicHolidayPlanning.getId();
+    Integer eventsPlanningVersion =
+        publicHolidayPlanning == null ? null : publicHolidayPlanning.getVersion();
+
+    if ((weeklyPlanning != null && weeklyPlanningId == null)
+        || (publicHolidayPlanning != null && eventsPlanningId == null)) {
+      return build(weeklyPlanning, publicHolidayPlanning, from.getYear(), to.getYear());
+    }
+
+    List<Long> key = Arrays.asList(weeklyPlanningId, eventsPlanningId);
+    WorkingDayCalendar calendar = cache.getIfPresent(key);
+
+    if (calendar != null
+        && calendar.isBuiltFrom(weeklyPlanningVersion, eventsPlanningId, eventsPlanningVersion)) {
+      if (calendar.covers(from, to)) {
+        return calendar;
+      }
+      from = from.isBefore(calendar.getFromDate()) ? from : calendar.getFromDate();
+      to = to.isAfter(calendar.getToDate()) ? to : calendar.getToDate();
+    }
+
+    int currentYear = LocalDate.now().getYear();
+    calendar =
+        build(
+            weeklyPlanning,
+            publicHolidayPlanning,
+            Math.min(from.getYear(), currentYear - 1),
+            Math.max(to.getYear(), currentYear + 1));
+    cache.put(key, calendar);
+
+    return calendar;
+  }
+
+  /**
+   * Find the n-th open day from a date, as {@link WorkingDayCalendar#findOpenDay}, on a calendar
+   * extended as far as needed.
+   *
+   * @param weeklyPlanning
+   * @param publicHolidayPlanning may be null
+   * @param from first date, included
+   * @param count number of open days, at least one
+   * @return the date of the last of the open days, or null if no day of the week is worked
+   */
+  public LocalDate findOpenDay(
+      WeeklyPlanning weeklyPlanning,
+      EventsPlanning publicHolidayPlanning,
+      LocalDate from,
+      int count) {
+
+    LocalDate to = from.plusDays(Math.max(count * 2L, 31));
+
+    while (true) {
+      WorkingDayCalendar calendar = getCalendar(weeklyPlanning, publicHolidayPlanning, from, to);
+      if (!calendar.hasWorkingDays()) {
+        return null;
+      }
+      LocalDate openDay = calendar.findOpenDay(from, count);
+      if (openDay != null) {
+        return openDay;
+      }
+      to = calendar.getToDate().plusDays(Math.max(count * 2L, 366));
+    }
+  }
+
+  public void evict(WeeklyPlanning weeklyPlanning) {
+    if (weeklyPlanning != null && weeklyPlanning.getId() != null) {
+      cache.asMap().keySet().removeIf(key -> weeklyPlanning.getId().equals(key.get(0)));
+    }
+  }
+
+  public void evict(EventsPlanning eventsPlanning) {
+    if (eventsPlanning != null && eventsPlanning.getId() != null) {
+      cache.asMap().keySet().removeIf(key -> eventsPlanning.getId().equals(key.get(1)));
+    }
+  }
+
+  protected WorkingDayCalendar build(
+      WeeklyPlanning weeklyPlanning,
+      EventsPlanning publicHolidayPlanning,
+      int fromYear,
+      int toYear) {
+
+    // As WeeklyPlanningService#findDayWithName, the first day planning of each name is used.
+    int[] weekHalfDays = new int[DAY_NAMES.length];
+    boolean[] found = new boolean[DAY_NAMES.length];
+    if (weeklyPlanning != null && weeklyPlanning.getWeekDays() != null) {
+      for (DayPlanning dayPlanning : weeklyPlanning.getWeekDays()) {
+        int dayOfWeek = Arrays.asList(DAY_NAMES).indexOf(dayPlanning.getName());
+        if (dayOfWeek >= 0 && !found[dayOfWeek]) {
+          weekHalfDays[dayOfWeek] = getHalfDays(dayPlanning);
+          found[dayOfWeek] = true;
+        }
+      }
+    }
+
+    List<LocalDate> publicHolidayDates = Collections.emptyList();
+    if (publicHolidayPlanning != null) {
+      publicHolidayDates =
+          publicHolidayPlanning.getId() == null
+              ? getPublicHolidayDates(publicHolidayPlanning)
+              : JPA.em()
+                  .createQuery(
+                      "SELECT self.date FROM EventsPlanningLine self "
+                          + "WHERE self.eventsPlanning.id = :eventsPlanning "
+                          + "AND self.date BETWEEN :fromDate AND :toDate",
+                      LocalDate.class)
+                  .setParameter("eventsPlanning", publicHolidayPlanning.getId())
+                  .setParameter("fromDate", LocalDate.of(fromYear, 1, 1))
+                  .setParameter("toDate", LocalDate.of(toYear, 12, 31))
+                  .getResultList();
+    }
+
+    log.debug(
+        "Working day calendar built for weekly planning {} and public holidays {}, {} to {}",
+        weeklyPlanning == null ? null : weeklyPlanning.getId(),
+        publicHolidayPlanning == null ? null : publicHolidayPlanning.getId(),
+        fromYear,
+        toYear);
+
+    return new WorkingDayCalendar(
+        weeklyPlanning == null ? null : weeklyPlanning.getId(),
+        weeklyPlanning == null ? null : weeklyPlanning.getVersion(),
+        publicHolidayPlanning == null ? null : publicHolidayPlanning.getId(),
+        publicHolidayPlanning == null ? null : publicHolidayPlanning.getVersion(),
+        weekHalfDays,
+        publicHolidayDates,
+        fromYear,
+        toYear);
+  }
+
+  /** Same values as {@link WeeklyPlanningService#workingDayValue}, in half days. */
+  protected int getHalfDays(DayPlanning dayPlanning) {
+    int halfDays = 0;
+    if (dayPlanning.getMorningFrom() != null && dayPlanning.getMorningTo() != null) {
+      halfDays++;
+    }
+    if (dayPlanning.getAfternoonFrom() != null && dayPlanning.getAfternoonTo() != null) {
+      halfDays++;
+    }
+    return halfDays;
+  }
+
+  private List<LocalDate> getPublicHolidayDates(EventsPlanning publicHolidayPlanning) {
+    if (publicHolidayPlanning.getEventsPlanningLineList() == null) {
+      return Collections.emptyList();
+    }
+    return publicHolidayPlanning
+        .getEventsPlanningLineList()
+        .stream()
+        .map(line -> line.getDate())
+        .filter(date -> date != null)
+        .collect(Collectors.toList());
+  }
+}
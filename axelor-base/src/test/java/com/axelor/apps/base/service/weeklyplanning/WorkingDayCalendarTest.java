@@ -0,0 +1,119 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.base.service.weeklyplanning;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkingDayCalendarTest {
+
+  /** Monday to friday. */
+  private static final int[] WEEK = {2, 2, 2, 2, 2, 0, 0};
+
+  /** Monday to friday, and saturday morning. */
+  private static final int[] WEEK_SATURDAY_MORNING = {2, 2, 2, 2, 2, 1, 0};
+
+  /** New year's day on a monday, two tuesdays of may, bastille day on a saturday. */
+  private static final List<LocalDate> PUBLIC_HOLIDAYS =
+      Arrays.asList(
+          LocalDate.of(2018, 1, 1),
+          LocalDate.of(2018, 5, 1),
+          LocalDate.of(2018, 5, 8),
+          LocalDate.of(2018, 7, 14),
+          LocalDate.of(2018, 12, 25));
+
+  private static WorkingDayCalendar calendar(int[] week) {
+    return new WorkingDayCalendar(1L, 0, 1L, 0, week, PUBLIC_HOLIDAYS, 2018, 2018);
+  }
+
+  @Test
+  public void testFindOpenDayAroundHolidays() {
+    WorkingDayCalendar calendar = calendar(WEEK);
+
+    Assert.assertEquals(
+        LocalDate.of(2018, 1, 2), calendar.findOpenDay(LocalDate.of(2018, 1, 1), 1));
+
+    // Friday 27 april, then monday 30, then wednesday 2 may after the 1st
+    LocalDate friday = LocalDate.of(2018, 4, 27);
+    Assert.assertEquals(friday, calendar.findOpenDay(friday, 1));
+    Assert.assertEquals(LocalDate.of(2018, 4, 30), calendar.findOpenDay(friday, 2));
+    Assert.assertEquals(LocalDate.of(2018, 5, 2), calendar.findOpenDay(friday, 3));
+    Assert.assertEquals(LocalDate.of(2018, 5, 9), calendar.findOpenDay(friday, 7));
+
+    // From a weekend day
+    Assert.assertEquals(
+        LocalDate.of(2018, 4, 30), calendar.findOpenDay(LocalDate.of(2018, 4, 28), 1));
+  }
+
+  @Test
+  public void testFindOpenDayHalfDay() {
+    WorkingDayCalendar calendar = calendar(WEEK_SATURDAY_MORNING);
+
+    Assert.assertEquals(
+        LocalDate.of(2018, 4, 28), calendar.findOpenDay(LocalDate.of(2018, 4, 27), 2));
+
+    // Saturday 14 july is a public holiday
+    Assert.assertEquals(
+        LocalDate.of(2018, 7, 16), calendar.findOpenDay(LocalDate.of(2018, 7, 13), 2));
+  }
+
+  @Test
+  public void testFindOpenDayAfterRange() {
+    WorkingDayCalendar calendar = calendar(WEEK);
+    LocalDate lastDay = LocalDate.of(2018, 12, 31);
+
+    Assert.assertEquals(lastDay, calendar.findOpenDay(lastDay, 1));
+    Assert.assertNull(calendar.findOpenDay(lastDay, 2));
+    Assert.assertNull(calendar.findOpenDay(LocalDate.of(2018, 12, 24), 6));
+  }
+
+  @Test
+  public void testFindOpenDayAsDayByDay() {
+    for (int[] week : new int[][] {WEEK, WEEK_SATURDAY_MORNING}) {
+      WorkingDayCalendar calendar = calendar(week);
+
+      for (LocalDate from = LocalDate.of(2018, 1, 1);
+          from.getYear() == 2018;
+          from = from.plusDays(1)) {
+        for (int count = 1; count <= 10; count++) {
+          Assert.assertEquals(
+              from + " + " + count,
+              findOpenDayByDay(week, from, count),
+              calendar.findOpenDay(from, count));
+        }
+      }
+    }
+  }
+
+  /** Walk the days as the deadline computation did before the calendar. */
+  private static LocalDate findOpenDayByDay(int[] week, LocalDate from, int count) {
+    LocalDate date = from;
+    while (date.getYear() == 2018) {
+      if (week[date.getDayOfWeek().getValue() - 1] > 0 && !PUBLIC_HOLIDAYS.contains(date)) {
+        if (--count == 0) {
+          return date;
+        }
+      }
+      date = date.plusDays(1);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.exception.service;
+
+import com.axelor.auth.db.User;
+import com.axelor.db.JPA;
+import com.axelor.exception.db.TraceBack;
+import com.axelor.inject.Beans;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Singleton;
+import com.google.inject.persist.UnitOfWork;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracebacks of batches, written in background by a single thread.
+ *
+ * <p>Queued tracebacks are inserted in JDBC batches, in one transaction per {@link #BATCH_SIZE}
+ * tracebacks. The same exception raised again by a batch, with the same category, message and
+ * origin, is not written again: the occurrence counter of the first traceback is incremented
+ * instead. {@link #flush(long)} writes the pending tracebacks synchronously, and must be called
+ * when the batch stops.
+ */
+@Singleton
+public class TraceBackQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  protected static final int BATCH_SIZE = 100;
+
+  /** Tracebacks queued or written, by batch and exception. Guarded by this. */
+  private final Map<Key, Entry> entries = new HashMap<>();
+
+  /** Entries with occurrences not written yet. Guarded by this. */
+  private final List<Entry> pending = new ArrayList<>();
+
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("traceback-writer-%d").setDaemon(true).build());
+
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /** Queue a traceback of a batch, which must have its batch id. */
+  public void enqueue(TraceBack traceBack) {
+    Key key = new Key(traceBack);
+
+    synchronized (this) {
+      Entry entry = entries.computeIfAbsent(key, k -> new Entry(traceBack));
+      entry.count++;
+      if (entry.count == 1) {
+        pending.add(entry);
+      }
+    }
+
+    schedule();
+  }
+
+  /**
+   * Write the pending tracebacks of all the batches and wait for them to be written. They are
+   * written by the writer thread, out of the transaction of the caller.
+   */
+  public void flush() {
+    try {
+      executor.submit(this::write).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.error("Unable to write queued tracebacks", e.getCause());
+    }
+  }
+
+  /**
+   * Write the pending tracebacks and forget the ones of the batch, whose next exceptions would be
+   * written as new tracebacks.
+   */
+  public void flush(long batchId) {
+    flush();
+
+    synchronized (this) {
+      entries.keySet().removeIf(key -> key.batchId == batchId);
+    }
+  }
+
+  public synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  protected void schedule() {
+    if (!scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    executor.submit(
+        () -> {
+          try {
+            write();
+          } catch (Exception e) {
+            LOG.error("Unable to write queued tracebacks", e);
+          } finally {
+            scheduled.set(false);
+            if (getPendingCount() > 0) {
+              schedule();
+            }
+          }
+        });
+  }
+
+  /** Write all the pending tracebacks. Only called on the writer thread. */
+  protected void write() {
+    List<Entry> batch;
+    while (!(batch = drain()).isEmpty()) {
+      write(batch);
+    }
+  }
+
+  /** Take at most {@link #BATCH_SIZE} pending entries, with their occurrences to write. */
+  private synchronized List<Entry> drain() {
+    int size = Math.min(BATCH_SIZE, pending.size());
+    List<Entry> batch = new ArrayList<>(pending.subList(0, size));
+    pending.subList(0, size).clear();
+
+    for (Entry entry : batch) {
+      entry.written = entry.count;
+      entry.count = 0;
+    }
+
+    return batch;
+  }
+
+  /**
+   * Write a batch of entries. On failure, the entries are dropped, including the occurrences
+   * queued meanwhile: their exceptions have already been logged, and the next ones are written as
+   * new tracebacks.
+   */
+  private void write(List<Entry> batch) {
+    try {
+      persist(batch);
+    } catch (Exception e) {
+      LOG.error("Unable to write {} tracebacks", batch.size(), e);
+      synchronized (this) {
+        entries.values().removeAll(batch);
+        pending.removeAll(batch);
+      }
+    }
+  }
+
+  /**
+   * Insert the new tracebacks, with their number of occurrences, and add the occurrences of the
+   * ones already written to their counter, in one transaction.
+   *
+   * <p>The writer thread has no request scope, so each batch is written in its own unit of work.
+   */
+  void persist(List<Entry> batch) {
+    UnitOfWork unitOfWork = Beans.get(UnitOfWork.class);
+    unitOfWork.begin();
+    try {
+      JPA.runInTransaction(
+          () -> {
+            JPA.em().unwrap(Session.class).setJdbcBatchSize(BATCH_SIZE);
+
+            for (Entry entry : batch) {
+              if (entry.traceBackId == null) {
+                TraceBack traceBack = entry.traceBack;
+                traceBack.setOccurrenceCount(entry.written);
+                if (traceBack.getInternalUser() != null) {
+                  // Loaded by the thread which raised the exception
+                  traceBack.setInternalUser(
+                      JPA.em().getReference(User.class, traceBack.getInternalUser().getId()));
+                }
+                JPA.em().persist(traceBack);
+              } else {
+                JPA.em()
+                    .createQuery(
+                        "UPDATE TraceBack self "
+                            + "SET self.occurrenceCount = self.occurrenceCount + :count "
+                            + "WHERE self.id = :id")
+                    .setParameter("count", entry.written)
+                    .setParameter("id", entry.traceBackId)
+                    .executeUpdate();
+              }
+            }
+          });
+    } finally {
+      unitOfWork.end();
+    }
+
+    for (Entry entry : batch) {
+      if (entry.traceBackId == null) {
+        entry.setTraceBackId(entry.traceBack.getId());
+      }
+    }
+  }
+
+  static final class Entry {
+    private TraceBack traceBack;
+    private Long traceBackId;
+    /** Occurrences not written yet. */
+    private int count;
+    /** Occurrences being written. */
+    private int written;
+
+    private Entry(TraceBack traceBack) {
+      this.traceBack = traceBack;
+    }
+
+    /** The traceback to insert, or null if it is written already. */
+    TraceBack getTraceBack() {
+      return traceBack;
+    }
+
+    Long getTraceBackId() {
+      return traceBackId;
+    }
+
+    /** Occurrences to write. */
+    int getWritten() {
+      return written;
+    }
+
+    /** Once inserted, only the id of the traceback is kept. */
+    void setTraceBackId(Long traceBackId) {
+      this.traceBackId = traceBackId;
+      this.traceBack = null;
+    }
+  }
+
+  private static final class Key {
+    private final long batchId;
+    private final Integer categorySelect;
+    private final String exception;
+    private final String message;
+    private final String origin;
+
+    private Key(TraceBack traceBack) {
+      this.batchId = traceBack.getBatchId() != null ? traceBack.getBatchId() : 0;
+      this.categorySelect = traceBack.getCategorySelect();
+      this.exception = traceBack.getException();
+      this.message = traceBack.getMessage();
+      this.origin = traceBack.getOrigin();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return batchId == other.batchId
+          && Objects.equals(categorySelect, other.categorySelect)
+          && Objects.equals(exception, other.exception)
+          && Objects.equals(message, other.message)
+          && Objects.equals(origin, other.origin);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(batchId, categorySelect, exception, message, origin);
+    }
+  }
+}
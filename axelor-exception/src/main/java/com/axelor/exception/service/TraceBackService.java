@@ -74,11 +74,19 @@ public class TraceBackService {
     }
 
     traceBack.setTrace(sw.toString());
-    Beans.get(TraceBackRepository.class).persist(traceBack);
 
     return traceBack;
   }
 
+  private static TraceBack _persist(TraceBack traceBack) {
+    if (traceBack.getBatchId() != null && traceBack.getBatchId() > 0) {
+      Beans.get(TraceBackQueue.class).enqueue(traceBack);
+    } else {
+      Beans.get(TraceBackRepository.class).persist(traceBack);
+    }
+    return traceBack;
+  }
+
   private static TraceBack _create(Exception e, String origin, int categorySelect, long batchId) {
     return _create(e, origin, TraceBackRepository.TYPE_TECHNICAL, categorySelect, batchId);
   }
@@ -123,11 +131,11 @@ public class TraceBackService {
 
             if (e instanceof AxelorException) {
 
-              LOG.trace(_create((AxelorException) e, origin, 0).getTrace());
+              LOG.trace(_persist(_create((AxelorException) e, origin, 0)).getTrace());
 
             } else {
 
-              LOG.error(_create(e, origin, 0, 0).getTrace());
+              LOG.error(_persist(_create(e, origin, 0, 0)).getTrace());
             }
           }
         });
@@ -136,17 +144,25 @@ public class TraceBackService {
   /**
    * Tracer une exception dans Traceback correspondant à un bug.
    *
+   * <p>The tracebacks of a batch are written in background by {@link TraceBackQueue}, which must be
+   * flushed by {@link #flush(long)} when the batch stops.
+   *
    * @param e L'exception cible.
    */
   public static void trace(final AxelorException e, final String origin, final long batchId) {
 
+    if (batchId > 0) {
+      LOG.trace(_persist(_create(e, origin, batchId)).getTrace());
+      return;
+    }
+
     JPA.runInTransaction(
         new Runnable() {
 
           @Override
           public void run() {
 
-            LOG.trace(_create(e, origin, batchId).getTrace());
+            LOG.trace(_persist(_create(e, origin, batchId)).getTrace());
           }
         });
   }
@@ -154,21 +170,39 @@ public class TraceBackService {
   /**
    * Tracer une exception dans Traceback correspondant à un bug.
    *
+   * <p>The tracebacks of a batch are written in background by {@link TraceBackQueue}, which must be
+   * flushed by {@link #flush(long)} when the batch stops.
+   *
    * @param e L'exception cible.
    */
   public static void trace(final Exception e, final String origin, final long batchId) {
 
+    if (batchId > 0) {
+      LOG.error(_persist(_create(e, origin, 0, batchId)).getTrace());
+      return;
+    }
+
     JPA.runInTransaction(
         new Runnable() {
 
           @Override
           public void run() {
 
-            LOG.error(_create(e, origin, 0, batchId).getTrace());
+            LOG.error(_persist(_create(e, origin, 0, batchId)).getTrace());
           }
         });
   }
 
+  /**
+   * Write the queued tracebacks of a batch and wait for them to be written.
+   *
+   * @param batchId
+   */
+  public static void flush(long batchId) {
+
+    Beans.get(TraceBackQueue.class).flush(batchId);
+  }
+
   /**
    * Tracer une exception dans Traceback correspondant à un bug.
    *
@@ -0,0 +1,138 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.exception.service;
+
+import com.axelor.exception.db.TraceBack;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TraceBackQueueTest {
+
+  /** Record the writes instead of running them, and only write on flush. */
+  private static class TestQueue extends TraceBackQueue {
+
+    private final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+    private long nextId = 1;
+    private Runnable duringNextPersist;
+    private boolean failNextPersist;
+
+    @Override
+    protected void schedule() {}
+
+    @Override
+    void persist(List<Entry> batch) {
+      if (duringNextPersist != null) {
+        Runnable task = duringNextPersist;
+        duringNextPersist = null;
+        task.run();
+      }
+      if (failNextPersist) {
+        failNextPersist = false;
+        throw new IllegalStateException("Database down");
+      }
+      for (Entry entry : batch) {
+        if (entry.getTraceBackId() == null) {
+          writes.add("insert " + entry.getTraceBack().getMessage() + " x" + entry.getWritten());
+          entry.setTraceBackId(nextId++);
+        } else {
+          writes.add("update " + entry.getTraceBackId() + " x" + entry.getWritten());
+        }
+      }
+    }
+  }
+
+  private static TraceBack traceBack(long batchId, String message) {
+    TraceBack traceBack = new TraceBack();
+    traceBack.setBatchId(batchId);
+    traceBack.setCategorySelect(1);
+    traceBack.setException("java.lang.IllegalArgumentException");
+    traceBack.setMessage(message);
+    return traceBack;
+  }
+
+  @Test
+  public void testCountOccurrences() {
+    TestQueue queue = new TestQueue();
+
+    queue.enqueue(traceBack(1, "a"));
+    queue.enqueue(traceBack(1, "a"));
+    queue.enqueue(traceBack(1, "b"));
+    queue.enqueue(traceBack(1, "a"));
+    Assert.assertEquals(2, queue.getPendingCount());
+
+    queue.flush();
+    Assert.assertEquals(Arrays.asList("insert a x3", "insert b x1"), queue.writes);
+    Assert.assertEquals(0, queue.getPendingCount());
+
+    queue.enqueue(traceBack(1, "b"));
+    queue.enqueue(traceBack(1, "b"));
+    queue.flush();
+    Assert.assertEquals(Arrays.asList("insert a x3", "insert b x1", "update 2 x2"), queue.writes);
+  }
+
+  @Test
+  public void testOccurrenceWhileWriting() {
+    TestQueue queue = new TestQueue();
+
+    queue.enqueue(traceBack(1, "a"));
+    queue.duringNextPersist = () -> queue.enqueue(traceBack(1, "a"));
+    queue.flush();
+
+    Assert.assertEquals(Arrays.asList("insert a x1", "update 1 x1"), queue.writes);
+    Assert.assertEquals(0, queue.getPendingCount());
+  }
+
+  @Test
+  public void testFailedWrite() {
+    TestQueue queue = new TestQueue();
+
+    queue.enqueue(traceBack(1, "a"));
+    queue.duringNextPersist = () -> queue.enqueue(traceBack(1, "a"));
+    queue.failNextPersist = true;
+    queue.flush();
+
+    // The occurrence queued while writing is dropped with the failed entry
+    Assert.assertEquals(Collections.emptyList(), queue.writes);
+    Assert.assertEquals(0, queue.getPendingCount());
+
+    queue.enqueue(traceBack(1, "a"));
+    queue.flush();
+    Assert.assertEquals(Arrays.asList("insert a x1"), queue.writes);
+  }
+
+  @Test
+  public void testFlushBatch() {
+    TestQueue queue = new TestQueue();
+
+    queue.enqueue(traceBack(1, "a"));
+    queue.enqueue(traceBack(2, "a"));
+    queue.flush(1);
+    Assert.assertEquals(Arrays.asList("insert a x1", "insert a x1"), queue.writes);
+
+    // The exceptions of batch 1 are forgotten, not the ones of batch 2
+    queue.enqueue(traceBack(1, "a"));
+    queue.enqueue(traceBack(2, "a"));
+    queue.flush();
+    Assert.assertEquals(
+        Arrays.asList("insert a x1", "insert a x1", "insert a x1", "update 2 x1"), queue.writes);
+  }
+}
@@ -18,6 +18,8 @@
 package com.axelor.apps.helpdesk.module;
 
 import com.axelor.app.AxelorModule;
+import com.axelor.apps.helpdesk.db.repo.SlaManagementRepository;
+import com.axelor.apps.helpdesk.db.repo.SlaRepository;
 import com.axelor.apps.helpdesk.db.repo.TicketManagementRepository;
 import com.axelor.apps.helpdesk.db.repo.TicketRepository;
 import com.axelor.apps.helpdesk.service.TicketService;
@@ -29,6 +31,7 @@ public class HelpdeskModule extends AxelorModule {
   protected void configure() {
 
     bind(TicketRepository.class).to(TicketManagementRepository.class);
+    bind(SlaRepository.class).to(SlaManagementRepository.class);
     bind(TicketService.class).to(TicketServiceImpl.class);
   }
 }
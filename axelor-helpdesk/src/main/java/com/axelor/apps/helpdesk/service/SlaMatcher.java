@@ -0,0 +1,101 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.helpdesk.service;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * SLA policies indexed by team, priority and ticket type, to find the policy of a ticket without
+ * querying the database.
+ *
+ * <p>A field left empty on a policy matches any ticket. The most specific policy wins: the one
+ * matching the three fields, else one matching two of them, else one of them, else the policy with
+ * no field. Among policies as specific, the first created is used. A field empty on the ticket only
+ * matches the policies where it is empty as well.
+ */
+@Immutable
+public final class SlaMatcher {
+
+  private static final int TEAM = 0b100;
+  private static final int PRIORITY = 0b010;
+  private static final int TICKET_TYPE = 0b001;
+
+  /** Fields to match, from the most specific policies to the least specific. */
+  private static final int[][] LEVELS = {
+    {TEAM | PRIORITY | TICKET_TYPE},
+    {TEAM | PRIORITY, PRIORITY | TICKET_TYPE, TEAM | TICKET_TYPE},
+    {TEAM, PRIORITY, TICKET_TYPE},
+    {0}
+  };
+
+  /** Smallest SLA id by team id, priority and ticket type id, null meaning any. */
+  private final Map<List<Object>, Long> slaIds = new HashMap<>();
+
+  /** @param rows SLA id, team id, priority and ticket type id of each policy */
+  public SlaMatcher(List<Object[]> rows) {
+    for (Object[] row : rows) {
+      slaIds.merge(Arrays.asList(row[1], row[2], row[3]), (Long) row[0], Math::min);
+    }
+  }
+
+  /**
+   * @param teamId may be null
+   * @param priority may be null
+   * @param ticketTypeId may be null
+   * @return the id of the most specific policy, or null if none matches
+   */
+  public Long match(Long teamId, Integer priority, Long ticketTypeId) {
+    Object[] values = {teamId, priority, ticketTypeId};
+
+    for (int[] level : LEVELS) {
+      Long slaId = null;
+      for (int fields : level) {
+        Long id = find(values, fields);
+        if (id != null && (slaId == null || id < slaId)) {
+          slaId = id;
+        }
+      }
+      if (slaId != null) {
+        return slaId;
+      }
+    }
+
+    return null;
+  }
+
+  public int size() {
+    return slaIds.size();
+  }
+
+  private Long find(Object[] values, int fields) {
+    Object[] key = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      if ((fields & (TEAM >> i)) != 0) {
+        if (values[i] == null) {
+          return null;
+        }
+        key[i] = values[i];
+      }
+    }
+    return slaIds.get(Arrays.asList(key));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.helpdesk.service;
+
+import com.axelor.db.JPA;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link SlaMatcher} of all the SLA policies, loaded with a single query.
+ *
+ * <p>It is reloaded when a policy is saved or removed, again once the transaction ends so that the
+ * policies read before the commit are not kept, and at least every {@link #MAX_AGE_MINUTES}
+ * minutes, for the policies modified by another server.
+ */
+@ThreadSafe
+@Singleton
+public class SlaMatcherService {
+
+  private static final long MAX_AGE_MINUTES = 5;
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private volatile SlaMatcher matcher;
+
+  private volatile long loadTime;
+
+  /** Incremented on invalidation, so that a matcher loaded meanwhile is not kept. */
+  private final AtomicLong generation = new AtomicLong();
+
+  public SlaMatcher getMatcher() {
+    SlaMatcher current = matcher;
+    if (current == null
+        || System.nanoTime() - loadTime > TimeUnit.MINUTES.toNanos(MAX_AGE_MINUTES)) {
+      current = load();
+    }
+    return current;
+  }
+
+  public void invalidate() {
+    generation.incrementAndGet();
+    matcher = null;
+  }
+
+  protected synchronized SlaMatcher load() {
+    long loadGeneration = generation.get();
+    List<Object[]> rows =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, team.id, self.prioritySelect, ticketType.id FROM Sla self "
+                    + "LEFT JOIN self.team team LEFT JOIN self.ticketType ticketType",
+                Object[].class)
+            .getResultList();
+
+    SlaMatcher current = new SlaMatcher(rows);
+    log.debug("{} SLA policies loaded", rows.size());
+
+    if (generation.get() == loadGeneration) {
+      loadTime = System.nanoTime();
+      matcher = current;
+    }
+    return current;
+  }
+}
@@ -22,17 +22,17 @@ import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.db.repo.AppHelpdeskRepository;
 import com.axelor.apps.base.db.repo.SequenceRepository;
 import com.axelor.apps.base.service.administration.SequenceService;
-import com.axelor.apps.base.service.publicHoliday.PublicHolidayService;
-import com.axelor.apps.base.service.weeklyplanning.WeeklyPlanningService;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
 import com.axelor.apps.helpdesk.db.Sla;
 import com.axelor.apps.helpdesk.db.Ticket;
 import com.axelor.apps.helpdesk.db.repo.SlaRepository;
 import com.axelor.apps.helpdesk.db.repo.TicketRepository;
 import com.axelor.auth.AuthUtils;
-import com.axelor.exception.AxelorException;
+import com.axelor.team.db.Team;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -46,11 +46,9 @@ public class TicketServiceImpl implements TicketService {
 
   @Inject private SlaRepository slaRepo;
 
-  @Inject private PublicHolidayService publicHolidayService;
+  @Inject private SlaMatcherService slaMatcherService;
 
-  @Inject private WeeklyPlanningService weeklyPlanningService;
-
-  private LocalDateTime toDate;
+  @Inject private WorkingDayCalendarService workingDayCalendarService;
 
   /** Generate sequence of the ticket. */
   @Override
@@ -73,63 +71,20 @@ public class TicketServiceImpl implements TicketService {
 
     if (helpdesk.getIsSla()) {
 
-      Sla sla =
-          slaRepo
-              .all()
-              .filter(
-                  "self.team = ?1 AND self.prioritySelect = ?2 AND self.ticketType = ?3",
-                  ticket.getAssignedToUser() == null
-                      ? null
-                      : ticket.getAssignedToUser().getActiveTeam(),
+      Team team =
+          ticket.getAssignedToUser() == null ? null : ticket.getAssignedToUser().getActiveTeam();
+      Long slaId =
+          slaMatcherService
+              .getMatcher()
+              .match(
+                  team == null ? null : team.getId(),
                   ticket.getPrioritySelect(),
-                  ticket.getTicketType())
-              .fetchOne();
-
-      if (sla == null) {
-        sla =
-            slaRepo
-                .all()
-                .filter(
-                    "self.team = ?1 AND self.prioritySelect = ?2 AND self.ticketType = null OR "
-                        + "(self.team = null AND self.prioritySelect = ?2 AND self.ticketType = ?3) OR "
-                        + "(self.team = ?1 AND self.prioritySelect = null AND self.ticketType = ?3)",
-                    ticket.getAssignedToUser() == null
-                        ? null
-                        : ticket.getAssignedToUser().getActiveTeam(),
-                    ticket.getPrioritySelect(),
-                    ticket.getTicketType())
-                .fetchOne();
-      }
-      if (sla == null) {
-        sla =
-            slaRepo
-                .all()
-                .filter(
-                    "self.team = ?1 AND self.prioritySelect = null AND self.ticketType = null OR "
-                        + "(self.team = null AND self.prioritySelect = ?2 AND self.ticketType = null) OR "
-                        + "(self.team = null AND self.prioritySelect = null AND self.ticketType = ?3)",
-                    ticket.getAssignedToUser() == null
-                        ? null
-                        : ticket.getAssignedToUser().getActiveTeam(),
-                    ticket.getPrioritySelect(),
-                    ticket.getTicketType())
-                .fetchOne();
-      }
-      if (sla == null) {
-        sla =
-            slaRepo
-                .all()
-                .filter(
-                    "self.team = null AND self.prioritySelect = null AND self.ticketType = null")
-                .fetchOne();
-      }
+                  ticket.getTicketType() == null ? null : ticket.getTicketType().getId());
+      Sla sla = slaId == null ? null : slaRepo.find(slaId);
+
       if (sla != null) {
         ticket.setSlaPolicy(sla);
-        try {
-          this.computeDuration(ticket, sla);
-        } catch (AxelorException e) {
-          e.printStackTrace();
-        }
+        this.computeDuration(ticket, sla);
       } else {
 
         ticket.setSlaPolicy(null);
@@ -142,9 +97,8 @@ public class TicketServiceImpl implements TicketService {
    *
    * @param ticket
    * @param sla
-   * @throws AxelorException
    */
-  private void computeDuration(Ticket ticket, Sla sla) throws AxelorException {
+  private void computeDuration(Ticket ticket, Sla sla) {
 
     if (sla.getIsWorkingDays()
         && ticket.getAssignedToUser() != null
@@ -153,9 +107,15 @@ public class TicketServiceImpl implements TicketService {
         && ticket.getAssignedToUser().getActiveCompany().getPublicHolidayEventsPlanning() != null) {
 
       if (sla.getDays() > 0) {
-        LocalDateTime fromDate = ticket.getStartDateT().plusDays(1);
-        this.calculateWorkingDays(
-            fromDate, ticket.getAssignedToUser().getActiveCompany(), sla.getDays());
+        LocalDateTime toDate =
+            this.calculateWorkingDays(
+                ticket.getStartDateT().plusDays(1),
+                ticket.getAssignedToUser().getActiveCompany(),
+                sla.getDays());
+        if (toDate == null) {
+          this.calculateAllDays(ticket, sla);
+          return;
+        }
         ticket.setDeadlineDateT(toDate.plusHours(sla.getHours()));
 
       } else {
@@ -180,32 +140,25 @@ public class TicketServiceImpl implements TicketService {
 
   /**
    * Calculate deadline date & time based on only working days if workingDays field in SLA is
-   * checked.
+   * checked: the last of the given number of days, from the given date, which are worked and are
+   * not public holidays.
    *
    * @param fromDate
-   * @param employee
+   * @param company
    * @param days
-   * @throws AxelorException
+   * @return the date of the last working day, at the time of day of the given date, or null if no
+   *     day of the weekly planning is worked
    */
-  private void calculateWorkingDays(LocalDateTime fromDate, Company company, int days)
-      throws AxelorException {
-
-    if (weeklyPlanningService.workingDayValue(company.getWeeklyPlanning(), fromDate.toLocalDate())
-            == 0
-        || publicHolidayService.checkPublicHolidayDay(
-            fromDate.toLocalDate(), company.getPublicHolidayEventsPlanning())) {
+  private LocalDateTime calculateWorkingDays(LocalDateTime fromDate, Company company, int days) {
 
-      fromDate = fromDate.plusDays(1);
-      this.calculateWorkingDays(fromDate, company, days);
+    LocalDate toDate =
+        workingDayCalendarService.findOpenDay(
+            company.getWeeklyPlanning(),
+            company.getPublicHolidayEventsPlanning(),
+            fromDate.toLocalDate(),
+            days);
 
-    } else {
-      toDate = fromDate;
-      days--;
-      if (days != 0) {
-        fromDate = fromDate.plusDays(1);
-        this.calculateWorkingDays(fromDate, company, days);
-      }
-    }
+    return toDate == null ? null : LocalDateTime.of(toDate, fromDate.toLocalTime());
   }
 
   /** Check if SLA is completed or not. */
@@ -0,0 +1,83 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.helpdesk.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlaMatcherTest {
+
+  private static final Long TEAM = 10L;
+  private static final Long OTHER_TEAM = 20L;
+  private static final Long TYPE = 100L;
+  private static final Long OTHER_TYPE = 200L;
+
+  /** SLA id, team id, priority and ticket type id. */
+  private static Object[] sla(long id, Long teamId, Integer priority, Long ticketTypeId) {
+    return new Object[] {id, teamId, priority, ticketTypeId};
+  }
+
+  private final SlaMatcher matcher =
+      new SlaMatcher(
+          Arrays.asList(
+              sla(1, null, null, null),
+              sla(2, TEAM, null, null),
+              sla(3, null, 2, null),
+              sla(4, TEAM, 2, null),
+              sla(5, TEAM, 2, TYPE),
+              sla(6, null, 2, TYPE),
+              sla(8, TEAM, null, OTHER_TYPE),
+              sla(7, null, 3, OTHER_TYPE),
+              sla(12, OTHER_TEAM, null, null),
+              sla(11, OTHER_TEAM, null, null)));
+
+  @Test
+  public void testMostSpecific() {
+    Assert.assertEquals(Long.valueOf(5), matcher.match(TEAM, 2, TYPE));
+    Assert.assertEquals(Long.valueOf(4), matcher.match(TEAM, 2, OTHER_TYPE));
+    Assert.assertEquals(Long.valueOf(6), matcher.match(OTHER_TEAM, 2, TYPE));
+    Assert.assertEquals(Long.valueOf(2), matcher.match(TEAM, 1, TYPE));
+    Assert.assertEquals(Long.valueOf(3), matcher.match(30L, 2, OTHER_TYPE));
+    Assert.assertEquals(Long.valueOf(1), matcher.match(30L, 1, TYPE));
+  }
+
+  @Test
+  public void testFirstCreatedAmongAsSpecific() {
+    // Team and type, or priority and type: two fields each
+    Assert.assertEquals(Long.valueOf(7), matcher.match(TEAM, 3, OTHER_TYPE));
+    // Same fields
+    Assert.assertEquals(Long.valueOf(11), matcher.match(OTHER_TEAM, 1, OTHER_TYPE));
+  }
+
+  @Test
+  public void testEmptyTicketField() {
+    Assert.assertEquals(Long.valueOf(3), matcher.match(null, 2, null));
+    Assert.assertEquals(Long.valueOf(2), matcher.match(TEAM, null, TYPE));
+    Assert.assertEquals(Long.valueOf(1), matcher.match(null, null, null));
+  }
+
+  @Test
+  public void testNoMatch() {
+    SlaMatcher withoutDefault = new SlaMatcher(Collections.singletonList(sla(1, TEAM, 2, TYPE)));
+
+    Assert.assertNull(withoutDefault.match(TEAM, 2, OTHER_TYPE));
+    Assert.assertNull(new SlaMatcher(Collections.emptyList()).match(TEAM, 2, TYPE));
+  }
+}
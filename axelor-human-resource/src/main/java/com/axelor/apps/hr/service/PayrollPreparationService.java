@@ -23,6 +23,7 @@ import com.axelor.apps.base.db.Period;
 import com.axelor.apps.base.db.repo.PeriodRepository;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.base.service.weeklyplanning.WeeklyPlanningService;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
 import com.axelor.apps.hr.db.Employee;
 import com.axelor.apps.hr.db.EmployeeBonusMgtLine;
 import com.axelor.apps.hr.db.EmploymentContract;
@@ -178,16 +179,14 @@ public class PayrollPreparationService {
       PayrollPreparation payrollPreparation, List<PayrollLeave> payrollLeaveList) {
     LocalDate fromDate = payrollPreparation.getPeriod().getFromDate();
     LocalDate toDate = payrollPreparation.getPeriod().getToDate();
-    LocalDate itDate = LocalDate.parse(fromDate.toString(), DateTimeFormatter.ISO_DATE);
     BigDecimal workingDays = BigDecimal.ZERO;
     BigDecimal leaveDays = BigDecimal.ZERO;
-    while (!itDate.isAfter(toDate)) {
+    if (!fromDate.isAfter(toDate)) {
       workingDays =
-          workingDays.add(
-              new BigDecimal(
-                  weeklyPlanningService.workingDayValue(
-                      payrollPreparation.getEmployee().getWeeklyPlanning(), itDate)));
-      itDate = itDate.plusDays(1);
+          Beans.get(WorkingDayCalendarService.class)
+              .getCalendar(
+                  payrollPreparation.getEmployee().getWeeklyPlanning(), null, fromDate, toDate)
+              .getWorkingDays(fromDate, toDate);
     }
     if (payrollLeaveList != null) {
       for (PayrollLeave payrollLeave : payrollLeaveList) {
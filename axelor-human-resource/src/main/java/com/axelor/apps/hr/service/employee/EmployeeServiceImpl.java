@@ -23,13 +23,14 @@ import com.axelor.apps.base.db.WeeklyPlanning;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.base.service.user.UserServiceImpl;
 import com.axelor.apps.base.service.weeklyplanning.WeeklyPlanningService;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendar;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
 import com.axelor.apps.hr.db.Employee;
 import com.axelor.apps.hr.db.HRConfig;
 import com.axelor.apps.hr.db.LeaveRequest;
 import com.axelor.apps.hr.db.repo.LeaveRequestRepository;
 import com.axelor.apps.hr.exception.IExceptionMessage;
 import com.axelor.apps.hr.service.leave.LeaveService;
-import com.axelor.apps.hr.service.publicHoliday.PublicHolidayHrService;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
 import com.axelor.i18n.I18n;
@@ -118,21 +119,14 @@ public class EmployeeServiceImpl extends UserServiceImpl implements EmployeeServ
           employee.getName());
     }
 
-    LocalDate itDate = fromDate;
-
-    while (!itDate.isAfter(toDate)) {
-      duration =
-          duration.add(
-              new BigDecimal(weeklyPlanningService.workingDayValue(weeklyPlanning, itDate)));
-      itDate = itDate.plusDays(1);
-    }
-
-    if (publicHolidayPlanning != null) {
+    if (!fromDate.isAfter(toDate)) {
+      WorkingDayCalendar calendar =
+          Beans.get(WorkingDayCalendarService.class)
+              .getCalendar(weeklyPlanning, publicHolidayPlanning, fromDate, toDate);
       duration =
-          duration.subtract(
-              Beans.get(PublicHolidayHrService.class)
-                  .computePublicHolidayDays(
-                      fromDate, toDate, weeklyPlanning, publicHolidayPlanning));
+          duration
+              .add(calendar.getWorkingDays(fromDate, toDate))
+              .subtract(calendar.getPublicHolidayDays(fromDate, toDate));
     }
 
     return duration;
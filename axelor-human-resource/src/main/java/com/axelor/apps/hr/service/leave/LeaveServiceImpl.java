@@ -26,6 +26,8 @@ import com.axelor.apps.base.db.repo.ICalendarEventRepository;
 import com.axelor.apps.base.ical.ICalendarService;
 import com.axelor.apps.base.service.app.AppBaseService;
 import com.axelor.apps.base.service.weeklyplanning.WeeklyPlanningService;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendar;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
 import com.axelor.apps.hr.db.Employee;
 import com.axelor.apps.hr.db.HRConfig;
 import com.axelor.apps.hr.db.LeaveLine;
@@ -187,6 +189,9 @@ public class LeaveServiceImpl implements LeaveService {
       }
 
       BigDecimal duration = BigDecimal.ZERO;
+      WorkingDayCalendar calendar =
+          Beans.get(WorkingDayCalendarService.class)
+              .getCalendar(weeklyPlanning, publicHolidayPlanning, from, to);
 
       // If the leave request is only for 1 day
       if (from.isEqual(to)) {
@@ -218,24 +223,14 @@ public class LeaveServiceImpl implements LeaveService {
         duration =
             duration.add(
                 new BigDecimal(this.computeStartDateWithSelect(from, startOn, weeklyPlanning)));
-        LocalDate itDate = leave.getFromDate().plusDays(1);
-
-        while (!itDate.isEqual(to) && !itDate.isAfter(to)) {
-          duration =
-              duration.add(
-                  new BigDecimal(weeklyPlanningService.workingDayValue(weeklyPlanning, itDate)));
-          itDate = itDate.plusDays(1);
-        }
+        duration = duration.add(calendar.getWorkingDays(from.plusDays(1), to.minusDays(1)));
 
         duration =
             duration.add(new BigDecimal(this.computeEndDateWithSelect(to, endOn, weeklyPlanning)));
       }
 
       if (publicHolidayPlanning != null) {
-        duration =
-            duration.subtract(
-                Beans.get(PublicHolidayHrService.class)
-                    .computePublicHolidayDays(from, to, weeklyPlanning, publicHolidayPlanning));
+        duration = duration.subtract(calendar.getPublicHolidayDays(from, to));
       }
 
       if (duration.compareTo(BigDecimal.ZERO) < 0) {
@@ -559,14 +554,19 @@ public class LeaveServiceImpl implements LeaveService {
       itDate = leaveRequest.getFromDate();
     }
 
-    while (!itDate.isEqual(leaveRequest.getToDate().plusDays(1)) && !itDate.isAfter(toDate)) {
-      leaveDays =
-          leaveDays.add(
-              BigDecimal.valueOf(weeklyPlanningService.workingDayValue(weeklyPlanning, itDate)));
-      if (publicHolidayHrService.checkPublicHolidayDay(itDate, employee)) {
-        leaveDays = leaveDays.subtract(BigDecimal.ONE);
+    LocalDate lastDate =
+        leaveRequest.getToDate().isBefore(toDate) ? leaveRequest.getToDate() : toDate;
+    if (!itDate.isAfter(lastDate)) {
+      WorkingDayCalendar calendar =
+          Beans.get(WorkingDayCalendarService.class)
+              .getCalendar(
+                  weeklyPlanning, employee.getPublicHolidayEventsPlanning(), itDate, lastDate);
+      leaveDays = leaveDays.add(calendar.getWorkingDays(itDate, lastDate));
+      if (employee.getPublicHolidayEventsPlanning() != null) {
+        leaveDays =
+            leaveDays.subtract(
+                BigDecimal.valueOf(calendar.getPublicHolidayCount(itDate, lastDate)));
       }
-      itDate = itDate.plusDays(1);
     }
 
     return leaveDays;
@@ -22,6 +22,7 @@ import com.axelor.apps.base.db.EventsPlanningLine;
 import com.axelor.apps.base.db.repo.EventsPlanningLineRepository;
 import com.axelor.apps.base.service.publicHoliday.PublicHolidayService;
 import com.axelor.apps.base.service.weeklyplanning.WeeklyPlanningService;
+import com.axelor.apps.base.service.weeklyplanning.WorkingDayCalendarService;
 import com.axelor.apps.hr.db.Employee;
 import com.axelor.exception.AxelorException;
 import com.google.inject.Inject;
@@ -33,8 +34,9 @@ public class PublicHolidayHrService extends PublicHolidayService {
   @Inject
   public PublicHolidayHrService(
       WeeklyPlanningService weeklyPlanningService,
-      EventsPlanningLineRepository eventsPlanningLineRepo) {
-    super(weeklyPlanningService, eventsPlanningLineRepo);
+      EventsPlanningLineRepository eventsPlanningLineRepo,
+      WorkingDayCalendarService workingDayCalendarService) {
+    super(weeklyPlanningService, eventsPlanningLineRepo, workingDayCalendarService);
   }
 
   public boolean checkPublicHolidayDay(LocalDate date, Employee employee) throws AxelorException {
@@ -28,4 +28,10 @@ public interface IExceptionMessage {
       "Error in sending emails. Please check the log file generated." /*)*/;
 
   static final String EMAIL_SUCCESS = /*$$(*/ "Emails sent successfully" /*)*/;
+
+  static final String EMAIL_IN_PROGRESS = /*$$(*/
+      "Emails are being sent in background, see the progress on the campaign." /*)*/;
+
+  static final String EMAIL_ALREADY_IN_PROGRESS = /*$$(*/
+      "An emailing is already in progress for this campaign" /*)*/;
 }
@@ -0,0 +1,391 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.marketing.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.base.db.Partner;
+import com.axelor.apps.crm.db.Lead;
+import com.axelor.apps.marketing.db.Campaign;
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.apps.message.db.Message;
+import com.axelor.apps.message.db.Template;
+import com.axelor.apps.message.service.MessageDeliveryService;
+import com.axelor.auth.db.User;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import com.axelor.meta.db.MetaFile;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.persist.UnitOfWork;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.persistence.EntityTransaction;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generate the messages of a campaign and hand them to the {@link MessageDeliveryService}.
+ *
+ * <p>Recipients are split in chunks which are rendered in parallel, each in its own transaction
+ * and with its own template maker, and whose messages are inserted in JDBC batches. The messages
+ * of a chunk are queued for delivery as soon as it is committed, and the progress counters of the
+ * campaign are updated at the same time, so that the form shows how far the emailing went.
+ */
+@Singleton
+public class CampaignDispatchService {
+
+  /** Number of recipients rendered in one transaction. */
+  public static final int CHUNK_SIZE = 200;
+
+  /** Number of statements sent to the database in one JDBC batch. */
+  public static final int JDBC_BATCH_SIZE = 50;
+
+  /** Configuration key of the number of chunks rendered in parallel. */
+  public static final String THREAD_COUNT_KEY = "marketing.campaign.threads";
+
+  /**
+   * Configuration key of the minutes without progress after which an emailing is considered
+   * interrupted, e.g. by a restart, and can be launched again.
+   */
+  public static final String LOCK_TIMEOUT_KEY = "marketing.campaign.lock-timeout";
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final ExecutorService launcher =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("campaign-dispatch-%d").setDaemon(true).build());
+
+  protected MessageDeliveryService messageDeliveryService;
+  protected UnitOfWork unitOfWork;
+
+  @Inject
+  public CampaignDispatchService(
+      MessageDeliveryService messageDeliveryService, UnitOfWork unitOfWork) {
+    this.messageDeliveryService = messageDeliveryService;
+    this.unitOfWork = unitOfWork;
+  }
+
+  /** Run a task in background, in its own unit of work. Campaigns are dispatched one at a time. */
+  public void submit(Runnable task) {
+    launcher.submit(
+        () -> {
+          unitOfWork.begin();
+          try {
+            task.run();
+          } catch (Exception e) {
+            TraceBackService.trace(e);
+          } finally {
+            unitOfWork.end();
+          }
+        });
+  }
+
+  public List<Long> getPartnerIds(Campaign campaign) {
+    return getRecipientIds(campaign, "partnerSet");
+  }
+
+  public List<Long> getLeadIds(Campaign campaign) {
+    return getRecipientIds(campaign, "leadSet");
+  }
+
+  protected List<Long> getRecipientIds(Campaign campaign, String field) {
+    return JPA.em()
+        .createQuery(
+            "SELECT recipient.id FROM Campaign self JOIN self."
+                + field
+                + " recipient WHERE self.id = :id ORDER BY recipient.id",
+            Long.class)
+        .setParameter("id", campaign.getId())
+        .getResultList();
+  }
+
+  /**
+   * Whether an emailing of the campaign is running. An emailing which made no progress for {@link
+   * #LOCK_TIMEOUT_KEY} minutes is not.
+   */
+  public boolean isInProgress(Campaign campaign) {
+    return Boolean.TRUE.equals(campaign.getEmailInProgress())
+        && campaign.getEmailProgressDateT() != null
+        && campaign.getEmailProgressDateT().isAfter(getLockExpiryDateTime());
+  }
+
+  protected LocalDateTime getLockExpiryDateTime() {
+    return LocalDateTime.now().minusMinutes(AppSettings.get().getInt(LOCK_TIMEOUT_KEY, 30));
+  }
+
+  /**
+   * Mark the emailing of the campaign as started and reset its progress counters.
+   *
+   * @return false if an emailing of the campaign is already in progress
+   */
+  public boolean start(Campaign campaign, int totalCount) {
+    int[] updated = new int[1];
+    JPA.runInTransaction(
+        () ->
+            updated[0] =
+                JPA.em()
+                    .createQuery(
+                        "UPDATE Campaign self SET self.emailInProgress = true, "
+                            + "self.emailProgressDateT = :now, "
+                            + "self.emailTotalCount = :total, self.emailGeneratedCount = 0, "
+                            + "self.emailErrorCount = 0 "
+                            + "WHERE self.id = :id "
+                            + "AND (self.emailInProgress IS NULL OR self.emailInProgress = false "
+                            + "OR self.emailProgressDateT IS NULL "
+                            + "OR self.emailProgressDateT < :expiry)")
+                    .setParameter("now", LocalDateTime.now())
+                    .setParameter("expiry", getLockExpiryDateTime())
+                    .setParameter("total", totalCount)
+                    .setParameter("id", campaign.getId())
+                    .executeUpdate());
+    return updated[0] > 0;
+  }
+
+  /** Mark the emailing of the campaign as finished and attach its error log, if any. */
+  public void finish(Campaign campaign, MetaFile emailLog) {
+    JPA.runInTransaction(
+        () ->
+            JPA.em()
+                .createQuery(
+                    "UPDATE Campaign self SET self.emailInProgress = false, "
+                        + "self.emailLog = :emailLog WHERE self.id = :id")
+                .setParameter("emailLog", emailLog)
+                .setParameter("id", campaign.getId())
+                .executeUpdate());
+  }
+
+  /**
+   * Generate the messages of the recipients with the template and queue them for delivery.
+   *
+   * <p>Chunks manage their own transactions, so this must not be called inside a transaction.
+   *
+   * @param model class of the recipients, {@link Partner} or {@link Lead}
+   * @param sender user set as sender of the messages, as there is no user in background threads
+   * @return names of the recipients whose message could not be generated, one per line
+   */
+  public String dispatch(
+      Campaign campaign,
+      Template template,
+      Class<? extends Model> model,
+      List<Long> recipientIds,
+      User sender) {
+
+    if (recipientIds.isEmpty()) {
+      return "";
+    }
+
+    long start = System.currentTimeMillis();
+
+    Dispatch dispatch = new Dispatch();
+    dispatch.campaignId = campaign.getId();
+    dispatch.templateId = template.getId();
+    dispatch.model = model;
+    dispatch.emailAccountId =
+        campaign.getEmailAccount() != null ? campaign.getEmailAccount().getId() : null;
+    dispatch.senderId = sender != null ? sender.getId() : null;
+
+    List<List<Long>> chunks = Lists.partition(recipientIds, CHUNK_SIZE);
+    int threadCount = Math.min(getThreadCount(), chunks.size());
+    StringBuilder errors = new StringBuilder();
+
+    if (threadCount <= 1) {
+      for (List<Long> chunk : chunks) {
+        errors.append(dispatchChunk(dispatch, chunk));
+      }
+    } else {
+      dispatchInParallel(dispatch, chunks, threadCount, errors);
+    }
+
+    log.debug(
+        "{} messages of campaign {} generated in {} ms",
+        recipientIds.size(),
+        dispatch.campaignId,
+        System.currentTimeMillis() - start);
+
+    return errors.toString();
+  }
+
+  protected int getThreadCount() {
+    return AppSettings.get()
+        .getInt(THREAD_COUNT_KEY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+  }
+
+  protected void dispatchInParallel(
+      Dispatch dispatch, List<List<Long>> chunks, int threadCount, StringBuilder errors) {
+
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    List<Future<String>> futures = new ArrayList<>();
+
+    try {
+      for (List<Long> chunk : chunks) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  unitOfWork.begin();
+                  try {
+                    return dispatchChunk(dispatch, chunk);
+                  } finally {
+                    unitOfWork.end();
+                  }
+                }));
+      }
+      for (Future<String> future : futures) {
+        errors.append(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Generate the messages of a chunk of recipients in a transaction. If it fails, the transaction
+   * is rolled back and the messages are generated again one by one, so that only the failing
+   * recipients are skipped.
+   *
+   * @return names of the recipients in error, one per line
+   */
+  protected String dispatchChunk(Dispatch dispatch, List<Long> recipientIds) {
+
+    // The template maker of the service is not thread-safe, so one instance is used per chunk
+    TemplateMessageServiceMarketingImpl templateMessageService =
+        Beans.get(TemplateMessageServiceMarketingImpl.class);
+    EntityTransaction transaction = JPA.em().getTransaction();
+    List<Long> messageIds = new ArrayList<>();
+    StringBuilder errors = new StringBuilder();
+
+    try {
+      transaction.begin();
+      JPA.em().unwrap(Session.class).setJdbcBatchSize(JDBC_BATCH_SIZE);
+      for (Long recipientId : recipientIds) {
+        messageIds.add(generateMessage(templateMessageService, dispatch, recipientId).getId());
+      }
+      transaction.commit();
+    } catch (Exception e) {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+      TraceBackService.trace(e);
+      log.debug(e.getMessage());
+      JPA.clear();
+      messageIds.clear();
+
+      for (Long recipientId : recipientIds) {
+        try {
+          transaction.begin();
+          messageIds.add(generateMessage(templateMessageService, dispatch, recipientId).getId());
+          transaction.commit();
+        } catch (Exception ex) {
+          if (transaction.isActive()) {
+            transaction.rollback();
+          }
+          TraceBackService.trace(ex);
+          JPA.clear();
+          errors.append(getName(dispatch.model, recipientId)).append("\n");
+        }
+      }
+    } finally {
+      JPA.clear();
+    }
+
+    messageDeliveryService.enqueue(messageIds);
+    updateProgress(dispatch.campaignId, messageIds.size(), recipientIds.size() - messageIds.size());
+
+    return errors.toString();
+  }
+
+  protected Message generateMessage(
+      TemplateMessageServiceMarketingImpl templateMessageService,
+      Dispatch dispatch,
+      Long recipientId)
+      throws ClassNotFoundException, InstantiationException, IllegalAccessException,
+          AxelorException, IOException {
+
+    Template template = JPA.find(Template.class, dispatch.templateId);
+    templateMessageService.setEmailAccount(
+        dispatch.emailAccountId != null
+            ? JPA.find(EmailAccount.class, dispatch.emailAccountId)
+            : null);
+
+    Message message =
+        templateMessageService.generateMessage(
+            recipientId, dispatch.model.getName(), dispatch.model.getSimpleName(), template);
+    // Committed with the message, so that it is delivered even if the queue is lost
+    message.setQueuedForDelivery(true);
+
+    if (dispatch.senderId != null) {
+      User sender = JPA.find(User.class, dispatch.senderId);
+      message.setSenderUser(sender);
+      message.setCompany(sender.getActiveCompany());
+    }
+
+    return message;
+  }
+
+  protected void updateProgress(Long campaignId, int generatedCount, int errorCount) {
+    JPA.runInTransaction(
+        () ->
+            JPA.em()
+                .createQuery(
+                    "UPDATE Campaign self "
+                        + "SET self.emailGeneratedCount = self.emailGeneratedCount + :generated, "
+                        + "self.emailErrorCount = self.emailErrorCount + :errors, "
+                        + "self.emailProgressDateT = :now "
+                        + "WHERE self.id = :id")
+                .setParameter("now", LocalDateTime.now())
+                .setParameter("generated", generatedCount)
+                .setParameter("errors", errorCount)
+                .setParameter("id", campaignId)
+                .executeUpdate());
+  }
+
+  protected String getName(Class<? extends Model> model, Long recipientId) {
+    return JPA.em()
+        .createQuery(
+            "SELECT self.name FROM " + model.getSimpleName() + " self WHERE self.id = :id",
+            String.class)
+        .setParameter("id", recipientId)
+        .getSingleResult();
+  }
+
+  /** Identifiers of what a dispatch needs, so that each thread loads them in its own context. */
+  protected static class Dispatch {
+    protected Long campaignId;
+    protected Long templateId;
+    protected Class<? extends Model> model;
+    protected Long emailAccountId;
+    protected Long senderId;
+  }
+}
@@ -18,11 +18,23 @@
 package com.axelor.apps.marketing.service;
 
 import com.axelor.apps.marketing.db.Campaign;
+import com.axelor.exception.AxelorException;
 import com.axelor.meta.db.MetaFile;
 
 public interface CampaignService {
 
-  public MetaFile sendEmail(Campaign campaign);
+  /**
+   * Generate the messages of the campaign and queue them for delivery.
+   *
+   * @return the log of the targets in error, or null if there is none
+   */
+  public MetaFile sendEmail(Campaign campaign) throws AxelorException;
+
+  /**
+   * Same as {@link #sendEmail(Campaign)}, in background. The progress is tracked on the campaign,
+   * which gets the log once done.
+   */
+  public void sendEmailInBackground(Campaign campaign) throws AxelorException;
 
   public void generateEvents(Campaign campaign);
 
@@ -22,9 +22,15 @@ import com.axelor.apps.crm.db.Event;
 import com.axelor.apps.crm.db.Lead;
 import com.axelor.apps.crm.db.repo.EventRepository;
 import com.axelor.apps.marketing.db.Campaign;
+import com.axelor.apps.marketing.db.repo.CampaignRepository;
 import com.axelor.apps.marketing.exception.IExceptionMessage;
 import com.axelor.apps.message.db.Template;
+import com.axelor.auth.AuthUtils;
+import com.axelor.auth.db.User;
+import com.axelor.auth.db.repo.UserRepository;
 import com.axelor.exception.AxelorException;
+import com.axelor.exception.db.repo.TraceBackRepository;
+import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
 import com.axelor.meta.MetaFiles;
@@ -33,87 +39,102 @@ import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import javax.mail.MessagingException;
 
 public class CampaignServiceImpl implements CampaignService {
 
-  protected TemplateMessageServiceMarketingImpl templateMessageServiceMarketingImpl;
+  protected CampaignDispatchService campaignDispatchService;
+
+  protected CampaignRepository campaignRepo;
+
+  protected UserRepository userRepo;
 
   protected EventRepository eventRepo;
 
   @Inject
   public CampaignServiceImpl(
-      TemplateMessageServiceMarketingImpl templateMessageServiceMarketingImpl,
+      CampaignDispatchService campaignDispatchService,
+      CampaignRepository campaignRepo,
+      UserRepository userRepo,
       EventRepository eventRepo) {
-    this.templateMessageServiceMarketingImpl = templateMessageServiceMarketingImpl;
+    this.campaignDispatchService = campaignDispatchService;
+    this.campaignRepo = campaignRepo;
+    this.userRepo = userRepo;
     this.eventRepo = eventRepo;
   }
 
-  public MetaFile sendEmail(Campaign campaign) {
-
-    String errorPartners = "";
-    String errorLeads = "";
-
-    templateMessageServiceMarketingImpl.setEmailAccount(campaign.getEmailAccount());
-
-    if (campaign.getPartnerTemplate() != null) {
-      errorPartners = sendToPartners(campaign.getPartnerSet(), campaign.getPartnerTemplate());
-    }
-
-    if (campaign.getLeadTemplate() != null) {
-      errorLeads = sendToLeads(campaign.getLeadSet(), campaign.getLeadTemplate());
-    }
-
-    if (errorPartners.isEmpty() && errorLeads.isEmpty()) {
-      return null;
-    }
-
-    return generateLog(errorPartners, errorLeads, campaign.getEmailLog(), campaign.getId());
+  public MetaFile sendEmail(Campaign campaign) throws AxelorException {
+    return sendEmail(campaign, AuthUtils.getUser());
   }
 
-  protected String sendToPartners(Set<Partner> partnerSet, Template template) {
-
-    StringBuilder errors = new StringBuilder();
-
-    for (Partner partner : partnerSet) {
+  public void sendEmailInBackground(Campaign campaign) throws AxelorException {
 
-      try {
-        templateMessageServiceMarketingImpl.generateAndSendMessage(partner, template);
-      } catch (ClassNotFoundException
-          | InstantiationException
-          | IllegalAccessException
-          | MessagingException
-          | IOException
-          | AxelorException e) {
-        errors.append(partner.getName() + "\n");
-        e.printStackTrace();
-      }
+    if (campaignDispatchService.isInProgress(campaign)) {
+      throw new AxelorException(
+          campaign,
+          TraceBackRepository.CATEGORY_INCONSISTENCY,
+          I18n.get(IExceptionMessage.EMAIL_ALREADY_IN_PROGRESS));
     }
 
-    return errors.toString();
+    Long campaignId = campaign.getId();
+    User user = AuthUtils.getUser();
+    Long userId = user != null ? user.getId() : null;
+
+    campaignDispatchService.submit(
+        () -> {
+          try {
+            sendEmail(
+                campaignRepo.find(campaignId), userId != null ? userRepo.find(userId) : null);
+          } catch (AxelorException e) {
+            TraceBackService.trace(e);
+          }
+        });
   }
 
-  protected String sendToLeads(Set<Lead> leadSet, Template template) {
-
-    StringBuilder errors = new StringBuilder();
+  protected MetaFile sendEmail(Campaign campaign, User sender) throws AxelorException {
+
+    // The campaign is detached by the dispatch, which clears the persistence context per chunk
+    Long campaignId = campaign.getId();
+    Template partnerTemplate = campaign.getPartnerTemplate();
+    Template leadTemplate = campaign.getLeadTemplate();
+
+    List<Long> partnerIds =
+        partnerTemplate != null
+            ? campaignDispatchService.getPartnerIds(campaign)
+            : Collections.emptyList();
+    List<Long> leadIds =
+        leadTemplate != null
+            ? campaignDispatchService.getLeadIds(campaign)
+            : Collections.emptyList();
+
+    if (!campaignDispatchService.start(campaign, partnerIds.size() + leadIds.size())) {
+      throw new AxelorException(
+          campaign,
+          TraceBackRepository.CATEGORY_INCONSISTENCY,
+          I18n.get(IExceptionMessage.EMAIL_ALREADY_IN_PROGRESS));
+    }
 
-    for (Lead lead : leadSet) {
+    MetaFile emailLog = null;
 
-      try {
-        templateMessageServiceMarketingImpl.generateAndSendMessage(lead, template);
-      } catch (ClassNotFoundException
-          | InstantiationException
-          | IllegalAccessException
-          | MessagingException
-          | IOException
-          | AxelorException e) {
-        errors.append(lead.getName() + "\n");
-        e.printStackTrace();
+    try {
+      String errorPartners =
+          campaignDispatchService.dispatch(
+              campaign, partnerTemplate, Partner.class, partnerIds, sender);
+      String errorLeads =
+          campaignDispatchService.dispatch(campaign, leadTemplate, Lead.class, leadIds, sender);
+
+      if (!errorPartners.isEmpty() || !errorLeads.isEmpty()) {
+        emailLog =
+            generateLog(
+                errorPartners, errorLeads, campaignRepo.find(campaignId).getEmailLog(), campaignId);
       }
+    } finally {
+      campaignDispatchService.finish(campaign, emailLog);
     }
 
-    return errors.toString();
+    return emailLog;
   }
 
   protected MetaFile generateLog(
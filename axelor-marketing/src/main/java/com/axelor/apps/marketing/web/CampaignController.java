@@ -23,7 +23,6 @@ import com.axelor.apps.marketing.exception.IExceptionMessage;
 import com.axelor.apps.marketing.service.CampaignService;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
-import com.axelor.meta.db.MetaFile;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
 import com.google.inject.Inject;
@@ -48,15 +47,9 @@ public class CampaignController {
         return;
       }
 
-      MetaFile logFile = campaignService.sendEmail(campaign);
-
-      if (logFile == null) {
-        response.setFlash(I18n.get(IExceptionMessage.EMAIL_SUCCESS));
-      } else {
-        response.setFlash(I18n.get(IExceptionMessage.EMAIL_ERROR2));
-      }
-
-      response.setValue("emailLog", logFile);
+      campaignService.sendEmailInBackground(campaign);
+      response.setFlash(I18n.get(IExceptionMessage.EMAIL_IN_PROGRESS));
+      response.setReload(true);
     } catch (Exception e) {
       TraceBackService.trace(response, e);
     }
@@ -0,0 +1,77 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.apps.message.db.Message;
+import java.util.Collection;
+
+/**
+ * Outbound queue of email messages. Queued messages are delivered in the background through the
+ * pooled SMTP connections of their email account, and their status is saved by batches once sent.
+ * A message which could not be sent is retried after a delay, doubled at each attempt.
+ *
+ * <p>The queue is kept in memory. Messages flagged as queued for delivery when they are created are
+ * queued again by {@link #resume()} after a restart, until they are sent or given up.
+ */
+public interface MessageDeliveryService {
+
+  /**
+   * Adds a message to the queue. The message must already be committed, as it is reloaded by the
+   * delivery thread.
+   *
+   * @param message the email message to send
+   */
+  void enqueue(Message message);
+
+  /**
+   * Adds messages to the queue.
+   *
+   * @param messageIds ids of committed email messages
+   */
+  void enqueue(Collection<Long> messageIds);
+
+  /**
+   * Queues the email messages flagged as queued for delivery which are not sent yet, such as the
+   * ones left by a restart. Messages already in the queue are not queued twice.
+   *
+   * @return the number of messages found
+   */
+  int resume();
+
+  /**
+   * Delivers the queued messages in the calling thread until the queue is empty.
+   *
+   * @return the number of messages sent
+   */
+  int deliver();
+
+  /** @return the number of messages waiting to be sent */
+  int getQueueSize();
+
+  /** @return the number of messages sent since startup */
+  long getSentCount();
+
+  /** @return the number of messages given up since startup */
+  long getFailedCount();
+
+  /** @return the number of sending attempts that have been retried since startup */
+  long getRetryCount();
+
+  /** @return the number of messages sent per second of delivery */
+  double getThroughput();
+}
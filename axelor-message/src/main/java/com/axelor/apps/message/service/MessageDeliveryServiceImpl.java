@@ -0,0 +1,379 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.message.db.Message;
+import com.axelor.apps.message.db.repo.MessageRepository;
+import com.axelor.auth.AuthUtils;
+import com.axelor.db.JPA;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.persist.UnitOfWork;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import javax.inject.Singleton;
+import javax.mail.MessagingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Singleton
+public class MessageDeliveryServiceImpl implements MessageDeliveryService {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  protected static final int BATCH_SIZE = 50;
+
+  private final int maxRetries;
+
+  /** Delay before the first retry, in seconds, doubled at each attempt. */
+  private final int retryDelay;
+
+  private final BlockingQueue<Long> queue = new LinkedBlockingQueue<>();
+
+  /** Ids in the queue or being sent, so that a message resumed twice is sent once. */
+  private final Set<Long> queuedIds = ConcurrentHashMap.newKeySet();
+
+  private final Map<Long, Integer> attempts = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("message-delivery-%d").setDaemon(true).build());
+
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  private final AtomicLong sentCount = new AtomicLong();
+
+  private final AtomicLong failedCount = new AtomicLong();
+
+  private final AtomicLong retryCount = new AtomicLong();
+
+  private final AtomicLong deliveryTime = new AtomicLong();
+
+  protected MessageService messageService;
+
+  protected MessageRepository messageRepo;
+
+  @Inject
+  public MessageDeliveryServiceImpl(MessageService messageService, MessageRepository messageRepo) {
+    this(
+        messageService,
+        messageRepo,
+        AppSettings.get().getInt("mail.delivery.max-retries", 3),
+        AppSettings.get().getInt("mail.delivery.retry-delay", 60));
+  }
+
+  MessageDeliveryServiceImpl(
+      MessageService messageService,
+      MessageRepository messageRepo,
+      int maxRetries,
+      int retryDelay) {
+    this.messageService = messageService;
+    this.messageRepo = messageRepo;
+    this.maxRetries = maxRetries;
+    this.retryDelay = retryDelay;
+  }
+
+  @Override
+  public void enqueue(Message message) {
+    enqueue(Collections.singletonList(message.getId()));
+  }
+
+  @Override
+  public void enqueue(Collection<Long> messageIds) {
+    for (Long messageId : messageIds) {
+      if (queuedIds.add(messageId)) {
+        queue.add(messageId);
+      }
+    }
+    schedule();
+  }
+
+  @Override
+  public int resume() {
+    List<Long> messageIds =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id FROM Message self WHERE self.queuedForDelivery = true "
+                    + "AND self.statusSelect != :sent ORDER BY self.id",
+                Long.class)
+            .setParameter("sent", MessageRepository.STATUS_SENT)
+            .getResultList();
+    enqueue(messageIds);
+    return messageIds.size();
+  }
+
+  protected void schedule() {
+    if (!scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    executor.submit(
+        () -> {
+          // The executor thread has no request scope, each run uses its own entity manager
+          UnitOfWork unitOfWork = Beans.get(UnitOfWork.class);
+          unitOfWork.begin();
+          try {
+            deliver();
+          } catch (Exception e) {
+            log.error("Unable to deliver queued messages", e);
+          } finally {
+            unitOfWork.end();
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+              schedule();
+            }
+          }
+        });
+  }
+
+  @Override
+  public int deliver() {
+    List<Long> batch = new ArrayList<>(BATCH_SIZE);
+    int sent = 0;
+
+    while (queue.drainTo(batch, BATCH_SIZE) > 0) {
+      sent += deliver(batch);
+      batch.clear();
+    }
+
+    log.debug(
+        "Messages delivered: {}, sent: {}, failed: {}, retried: {}, throughput: {}/s",
+        sent,
+        getSentCount(),
+        getFailedCount(),
+        getRetryCount(),
+        getThroughput());
+
+    return sent;
+  }
+
+  /**
+   * Sends a batch of messages, reusing the pooled connections of their email accounts, then saves
+   * the status of all the sent messages in a single transaction.
+   */
+  protected int deliver(List<Long> messageIds) {
+    List<Message> messages = findMessages(messageIds);
+    List<Message> sent = new ArrayList<>(messages.size());
+    List<Message> dropped = new ArrayList<>();
+
+    // Messages deleted meanwhile are not found
+    Set<Long> foundIds = messages.stream().map(Message::getId).collect(Collectors.toSet());
+    messageIds.stream().filter(id -> !foundIds.contains(id)).forEach(this::dequeue);
+
+    long start = System.currentTimeMillis();
+
+    for (Message message : messages) {
+      if (message.getStatusSelect() == MessageRepository.STATUS_SENT
+          || message.getMediaTypeSelect() != MessageRepository.MEDIA_TYPE_EMAIL) {
+        dequeue(message.getId());
+        continue;
+      }
+      try {
+        if (messageService.sendEmail(message)) {
+          sent.add(message);
+        } else {
+          dropped.add(message);
+        }
+      } catch (MessagingException | IOException e) {
+        if (!retry(message, e)) {
+          dropped.add(message);
+        }
+      } catch (AxelorException | RuntimeException e) {
+        // Caught per message, so that the status of the messages already sent is still saved
+        dropped.add(message);
+        failedCount.incrementAndGet();
+        trace(e);
+      }
+    }
+
+    deliveryTime.addAndGet(System.currentTimeMillis() - start);
+
+    if (sent.isEmpty() && dropped.isEmpty()) {
+      return 0;
+    }
+
+    saveStatus(sent, dropped);
+    // Kept as queued until their status is saved, so that resume() does not send them again
+    sent.forEach(message -> dequeue(message.getId()));
+    dropped.forEach(message -> dequeue(message.getId()));
+    sentCount.addAndGet(sent.size());
+
+    return sent.size();
+  }
+
+  /**
+   * Loads a batch of queued messages. The previous batch is detached first, so that the persistence
+   * context does not grow with the queue.
+   */
+  protected List<Message> findMessages(List<Long> messageIds) {
+    JPA.clear();
+    return messageRepo.all().filter("self.id IN (?1)", messageIds).fetch();
+  }
+
+  protected void saveStatus(List<Message> sent, List<Message> dropped) {
+    try {
+      JPA.runInTransaction(
+          () -> {
+            sent.forEach(this::setSent);
+            dropped.forEach(this::setDropped);
+          });
+    } catch (Exception e) {
+      log.error(
+          "Unable to save the status of {} messages, saving them one by one",
+          sent.size() + dropped.size(),
+          e);
+      JPA.clear();
+      saveOneByOne(sent, this::setSent);
+      saveOneByOne(dropped, this::setDropped);
+    }
+  }
+
+  protected void setSent(Message message) {
+    message.setQueuedForDelivery(false);
+    message.setSentByEmail(true);
+    message.setStatusSelect(MessageRepository.STATUS_SENT);
+    message.setSentDateT(LocalDateTime.now());
+    if (message.getSenderUser() == null) {
+      message.setSenderUser(AuthUtils.getUser());
+    }
+    messageRepo.save(message);
+  }
+
+  /** Save the status of each message in its own transaction, once the batch has failed. */
+  protected void saveOneByOne(List<Message> messages, Consumer<Message> status) {
+    for (Message message : messages) {
+      try {
+        JPA.runInTransaction(
+            () -> {
+              Message found = messageRepo.find(message.getId());
+              if (found != null) {
+                status.accept(found);
+              }
+            });
+      } catch (Exception e) {
+        // The email is gone already, but the message is still flagged as queued for delivery
+        log.error(
+            "Unable to save the status of message {}, resume() will send it again",
+            message.getId(),
+            e);
+        JPA.clear();
+      }
+    }
+  }
+
+  /** A message which is not sent and will not be retried is no longer queued after a restart. */
+  protected void setDropped(Message message) {
+    message.setQueuedForDelivery(false);
+    messageRepo.save(message);
+  }
+
+  protected void dequeue(Long messageId) {
+    attempts.remove(messageId);
+    queuedIds.remove(messageId);
+  }
+
+  /**
+   * Queue a message again once the retry delay, doubled at each attempt, has elapsed, so that a
+   * short outage of the SMTP server does not use up all the attempts. The message stays in {@link
+   * #queuedIds} meanwhile.
+   *
+   * @return false if the message has been given up
+   */
+  protected boolean retry(Message message, Exception e) {
+    int attempt = attempts.merge(message.getId(), 1, Integer::sum);
+
+    if (attempt > maxRetries) {
+      failedCount.incrementAndGet();
+      trace(e);
+      return false;
+    }
+
+    long delay = (long) retryDelay << (attempt - 1);
+    log.debug(
+        "Unable to send message {}, attempt {}, retried in {} s: {}",
+        message.getId(),
+        attempt,
+        delay,
+        e.getMessage());
+    retryCount.incrementAndGet();
+
+    Long messageId = message.getId();
+    schedule(
+        () -> {
+          queue.add(messageId);
+          schedule();
+        },
+        delay);
+    return true;
+  }
+
+  /** Runs the task on the delivery thread once the delay, in seconds, has elapsed. */
+  protected void schedule(Runnable task, long delay) {
+    executor.schedule(task, delay, TimeUnit.SECONDS);
+  }
+
+  protected void trace(Exception e) {
+    TraceBackService.trace(e);
+  }
+
+  @Override
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  @Override
+  public long getSentCount() {
+    return sentCount.get();
+  }
+
+  @Override
+  public long getFailedCount() {
+    return failedCount.get();
+  }
+
+  @Override
+  public long getRetryCount() {
+    return retryCount.get();
+  }
+
+  @Override
+  public double getThroughput() {
+    long time = deliveryTime.get();
+    return time == 0 ? 0 : sentCount.get() * 1000d / time;
+  }
+}
@@ -54,10 +54,19 @@ public interface MessageService {
 
   public Message sendMessage(Message message) throws AxelorException;
 
-  @Transactional(rollbackOn = {MessagingException.class, IOException.class, Exception.class})
   public Message sendByEmail(Message message)
       throws MessagingException, IOException, AxelorException;
 
+  /**
+   * Sends the message through a pooled SMTP connection of its email account, without updating
+   * the message. No transaction is held while the server is contacted.
+   *
+   * @param message Message to send.
+   * @return false if the message has no email account and was not sent.
+   */
+  public boolean sendEmail(Message message)
+      throws MessagingException, IOException, AxelorException;
+
   @Transactional(rollbackOn = Exception.class)
   public Message sendToUser(Message message);
 
@@ -32,8 +32,6 @@ import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
 import com.axelor.mail.MailBuilder;
-import com.axelor.mail.MailSender;
-import com.axelor.mail.SmtpAccount;
 import com.axelor.meta.MetaFiles;
 import com.axelor.meta.db.MetaAttachment;
 import com.axelor.meta.db.MetaFile;
@@ -52,6 +50,7 @@ import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Set;
 import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -61,6 +60,8 @@ public class MessageServiceImpl implements MessageService {
   private MetaAttachmentRepository metaAttachmentRepository;
   protected MessageRepository messageRepository;
 
+  @Inject protected SmtpConnectionPool smtpConnectionPool;
+
   @Inject
   public MessageServiceImpl(
       MetaAttachmentRepository metaAttachmentRepository, MessageRepository messageRepository) {
@@ -239,25 +240,53 @@ public class MessageServiceImpl implements MessageService {
     return messageRepository.save(message);
   }
 
-  @Transactional(rollbackOn = {MessagingException.class, IOException.class, Exception.class})
   public Message sendByEmail(Message message)
       throws MessagingException, IOException, AxelorException {
 
+    if (!sendEmail(message)) {
+      return message;
+    }
+
+    message.setSentByEmail(true);
+    message.setStatusSelect(MessageRepository.STATUS_SENT);
+    message.setSentDateT(LocalDateTime.now());
+    message.setSenderUser(AuthUtils.getUser());
+
+    JPA.runInTransaction(() -> messageRepository.save(message));
+
+    return message;
+  }
+
+  @Override
+  public boolean sendEmail(Message message)
+      throws MessagingException, IOException, AxelorException {
+
     EmailAccount mailAccount = message.getMailAccount();
 
     if (mailAccount == null) {
-      return message;
+      return false;
     }
 
     log.debug("Sent email");
-    MailAccountService mailAccountService = Beans.get(MailAccountService.class);
-    com.axelor.mail.MailAccount account =
-        new SmtpAccount(
-            mailAccount.getHost(),
-            mailAccount.getPort().toString(),
-            mailAccount.getLogin(),
-            mailAccountService.getDecryptPassword(mailAccount.getPassword()),
-            mailAccountService.getSecurity(mailAccount));
+    SmtpConnection connection = smtpConnectionPool.borrow(mailAccount);
+
+    try {
+      connection.send(buildEmail(message, connection.compose()));
+    } catch (MessagingException e) {
+      smtpConnectionPool.invalidate(connection);
+      throw e;
+    } catch (IOException | AxelorException | RuntimeException e) {
+      smtpConnectionPool.release(connection);
+      throw e;
+    }
+
+    smtpConnectionPool.release(connection);
+
+    return true;
+  }
+
+  protected MimeMessage buildEmail(Message message, MailBuilder mailBuilder)
+      throws MessagingException, IOException, AxelorException {
 
     List<String> replytoRecipients = this.getEmailAddresses(message.getReplyToEmailAddressSet()),
         toRecipients = this.getEmailAddresses(message.getToEmailAddressSet()),
@@ -271,9 +300,6 @@ public class MessageServiceImpl implements MessageService {
           I18n.get(IExceptionMessage.MESSAGE_8));
     }
 
-    MailSender sender = new MailSender(account);
-    MailBuilder mailBuilder = sender.compose();
-
     mailBuilder.subject(message.getSubject());
 
     if (message.getFromEmailAddress() != null) {
@@ -306,14 +332,7 @@ public class MessageServiceImpl implements MessageService {
       mailBuilder.attach(metaFile.getFileName(), MetaFiles.getPath(metaFile).toString());
     }
 
-    mailBuilder.send();
-
-    message.setSentByEmail(true);
-    message.setStatusSelect(MessageRepository.STATUS_SENT);
-    message.setSentDateT(LocalDateTime.now());
-    message.setSenderUser(AuthUtils.getUser());
-
-    return messageRepository.save(message);
+    return mailBuilder.build();
   }
 
   public Set<MetaAttachment> getMetaAttachments(Message message) {
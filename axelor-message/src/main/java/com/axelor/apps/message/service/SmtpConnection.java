@@ -0,0 +1,97 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.mail.MailAccount;
+import com.axelor.mail.MailBuilder;
+import com.axelor.mail.MailSender;
+import java.util.Date;
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * A connected SMTP transport of an {@link EmailAccount}, reused by the {@link SmtpConnectionPool}
+ * to send several messages on the same connection.
+ */
+public class SmtpConnection {
+
+  private final Long emailAccountId;
+
+  private final Integer emailAccountVersion;
+
+  private final MailSender sender;
+
+  private final Transport transport;
+
+  private int sentCount;
+
+  private long lastUsed;
+
+  SmtpConnection(EmailAccount emailAccount, MailAccount mailAccount) throws MessagingException {
+    this(
+        emailAccount,
+        new MailSender(mailAccount),
+        mailAccount.getSession().getTransport("smtp"));
+  }
+
+  SmtpConnection(EmailAccount emailAccount, MailSender sender, Transport transport)
+      throws MessagingException {
+    this.emailAccountId = emailAccount.getId();
+    this.emailAccountVersion = emailAccount.getVersion();
+    this.sender = sender;
+    this.transport = transport;
+    this.transport.connect();
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  public MailBuilder compose() {
+    return sender.compose();
+  }
+
+  public void send(MimeMessage email) throws MessagingException {
+    if (email.getSentDate() == null) {
+      email.setSentDate(new Date());
+    }
+    email.saveChanges();
+    transport.sendMessage(email, email.getAllRecipients());
+    sentCount++;
+    lastUsed = System.currentTimeMillis();
+  }
+
+  public Long getEmailAccountId() {
+    return emailAccountId;
+  }
+
+  boolean isValid(EmailAccount emailAccount, int maxMessages, long idleTimeout) {
+    return emailAccountId.equals(emailAccount.getId())
+        && emailAccountVersion.equals(emailAccount.getVersion())
+        && sentCount < maxMessages
+        && System.currentTimeMillis() - lastUsed < idleTimeout
+        && transport.isConnected();
+  }
+
+  void close() {
+    try {
+      transport.close();
+    } catch (MessagingException e) {
+      // the server may already have dropped the connection
+    }
+  }
+}
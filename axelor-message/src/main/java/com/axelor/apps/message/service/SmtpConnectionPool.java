@@ -0,0 +1,131 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.message.db.EmailAccount;
+import com.axelor.mail.MailAccount;
+import com.google.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import javax.inject.Singleton;
+import javax.mail.MessagingException;
+
+/**
+ * Keeps connected SMTP transports per {@link EmailAccount}, so that emails are sent over persistent
+ * connections instead of opening a new one for each message.
+ *
+ * <p>A connection is dropped when the account has been modified, when it has sent {@code
+ * mail.smtp.pool.max-messages} messages or when it stayed idle more than {@code
+ * mail.smtp.pool.idle-timeout} seconds. At most {@code mail.smtp.pool.size} idle connections are
+ * kept per account. Connecting times out after {@code mail.smtp.pool.connection-timeout} seconds.
+ */
+@Singleton
+public class SmtpConnectionPool {
+
+  private final int poolSize;
+
+  private final int maxMessages;
+
+  private final long idleTimeout;
+
+  private final int connectionTimeout;
+
+  private final Map<Long, BlockingDeque<SmtpConnection>> idleConnections =
+      new ConcurrentHashMap<>();
+
+  @Inject private MailAccountService mailAccountService;
+
+  public SmtpConnectionPool() {
+    this(
+        AppSettings.get().getInt("mail.smtp.pool.size", 4),
+        AppSettings.get().getInt("mail.smtp.pool.max-messages", 100),
+        AppSettings.get().getInt("mail.smtp.pool.idle-timeout", 60),
+        AppSettings.get().getInt("mail.smtp.pool.connection-timeout", 60));
+  }
+
+  /** Timeouts are in seconds. */
+  SmtpConnectionPool(int poolSize, int maxMessages, int idleTimeout, int connectionTimeout) {
+    this.poolSize = poolSize;
+    this.maxMessages = maxMessages;
+    this.idleTimeout = idleTimeout * 1000L;
+    this.connectionTimeout = connectionTimeout * 1000;
+  }
+
+  /**
+   * Returns an idle connection of the email account, or opens a new one. The connection must be
+   * given back with {@link #release(SmtpConnection)}, or {@link #invalidate(SmtpConnection)} if
+   * sending failed.
+   *
+   * @param emailAccount the SMTP account
+   * @return a connected transport
+   * @throws MessagingException if the connection to the server failed
+   */
+  public SmtpConnection borrow(EmailAccount emailAccount) throws MessagingException {
+    BlockingDeque<SmtpConnection> connections = getIdleConnections(emailAccount.getId());
+
+    SmtpConnection connection;
+    while ((connection = connections.pollFirst()) != null) {
+      if (connection.isValid(emailAccount, maxMessages, idleTimeout)) {
+        return connection;
+      }
+      connection.close();
+    }
+
+    return connect(emailAccount);
+  }
+
+  protected SmtpConnection connect(EmailAccount emailAccount) throws MessagingException {
+    MailAccount mailAccount = mailAccountService.getMailAccount(emailAccount);
+    // The account is built with the short timeout of the configuration check
+    mailAccount.setConnectionTimeout(connectionTimeout);
+
+    return new SmtpConnection(emailAccount, mailAccount);
+  }
+
+  public void release(SmtpConnection connection) {
+    if (!getIdleConnections(connection.getEmailAccountId()).offerFirst(connection)) {
+      connection.close();
+    }
+  }
+
+  public void invalidate(SmtpConnection connection) {
+    connection.close();
+  }
+
+  /** Closes all the idle connections. */
+  public void clear() {
+    for (BlockingDeque<SmtpConnection> connections : idleConnections.values()) {
+      SmtpConnection connection;
+      while ((connection = connections.pollFirst()) != null) {
+        connection.close();
+      }
+    }
+  }
+
+  public int getIdleCount() {
+    return idleConnections.values().stream().mapToInt(BlockingDeque::size).sum();
+  }
+
+  private BlockingDeque<SmtpConnection> getIdleConnections(Long emailAccountId) {
+    return idleConnections.computeIfAbsent(
+        emailAccountId, id -> new LinkedBlockingDeque<>(poolSize));
+  }
+}
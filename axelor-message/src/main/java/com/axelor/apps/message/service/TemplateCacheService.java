@@ -0,0 +1,115 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.app.AppSettings;
+import com.axelor.apps.message.db.Template;
+import com.axelor.tool.template.CompiledTemplate;
+import com.axelor.tool.template.TemplateMaker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Templates of {@link Template} fields compiled once, for all the messages generated with them.
+ *
+ * <p>Entries are keyed by template id, version and field, so that a modified template is compiled
+ * again, and are dropped when the template is saved or removed.
+ */
+@Singleton
+public class TemplateCacheService {
+
+  /** Configuration key of the maximum number of compiled templates kept in memory. */
+  public static final String CACHE_SIZE_KEY = "template.cache.size";
+
+  private final Cache<Key, CompiledTemplate> cache =
+      CacheBuilder.newBuilder()
+          .maximumSize(AppSettings.get().getInt(CACHE_SIZE_KEY, 1000))
+          .recordStats()
+          .build();
+
+  /**
+   * Get the compiled text of a field of the template, compiling it with the maker if needed.
+   * Templates which are not saved yet are not cached.
+   */
+  public CompiledTemplate get(Template template, String field, String text, TemplateMaker maker) {
+
+    if (template.getId() == null) {
+      return maker.compile(text);
+    }
+
+    Key key = new Key(template.getId(), template.getVersion(), field);
+    try {
+      CompiledTemplate compiledTemplate = cache.get(key, () -> maker.compile(text));
+      if (!compiledTemplate.getText().equals(text)) {
+        // Template modified without its version being incremented, by a bulk update
+        compiledTemplate = maker.compile(text);
+        cache.put(key, compiledTemplate);
+      }
+      return compiledTemplate;
+    } catch (ExecutionException e) {
+      throw new IllegalArgumentException(e.getCause());
+    }
+  }
+
+  public void invalidate(Long templateId) {
+    cache.asMap().keySet().removeIf(key -> key.templateId.equals(templateId));
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public double hitRate() {
+    return cache.stats().hitRate();
+  }
+
+  private static final class Key {
+    private final Long templateId;
+    private final Integer version;
+    private final String field;
+
+    private Key(Long templateId, Integer version, String field) {
+      this.templateId = templateId;
+      this.version = version;
+      this.field = field;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return templateId.equals(other.templateId)
+          && Objects.equals(version, other.version)
+          && field.equals(other.field);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(templateId, version, field);
+    }
+  }
+}
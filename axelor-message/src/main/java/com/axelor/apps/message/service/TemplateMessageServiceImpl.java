@@ -64,6 +64,8 @@ public class TemplateMessageServiceImpl implements TemplateMessageService {
 
   protected MessageService messageService;
 
+  @Inject protected TemplateCacheService templateCacheService;
+
   @Inject
   public TemplateMessageServiceImpl(MessageService messageService) {
     this.messageService = messageService;
@@ -111,50 +113,40 @@ public class TemplateMessageServiceImpl implements TemplateMessageService {
     int mediaTypeSelect;
 
     if (!Strings.isNullOrEmpty(template.getContent())) {
-      // Set template
-      maker.setTemplate(template.getContent());
-      content = maker.make();
+      content = make(template, "content", template.getContent());
     }
 
     if (!Strings.isNullOrEmpty(template.getAddressBlock())) {
-      maker.setTemplate(template.getAddressBlock());
-      // Make it
-      addressBlock = maker.make();
+      addressBlock = make(template, "addressBlock", template.getAddressBlock());
     }
 
     if (!Strings.isNullOrEmpty(template.getSubject())) {
-      maker.setTemplate(template.getSubject());
-      subject = maker.make();
+      subject = make(template, "subject", template.getSubject());
       log.debug("Subject ::: {}", subject);
     }
 
     if (!Strings.isNullOrEmpty(template.getFromAdress())) {
-      maker.setTemplate(template.getFromAdress());
-      from = maker.make();
+      from = make(template, "fromAdress", template.getFromAdress());
       log.debug("From ::: {}", from);
     }
 
     if (!Strings.isNullOrEmpty(template.getReplyToRecipients())) {
-      maker.setTemplate(template.getReplyToRecipients());
-      replyToRecipients = maker.make();
+      replyToRecipients = make(template, "replyToRecipients", template.getReplyToRecipients());
       log.debug("Reply to ::: {}", replyToRecipients);
     }
 
     if (template.getToRecipients() != null) {
-      maker.setTemplate(template.getToRecipients());
-      toRecipients = maker.make();
+      toRecipients = make(template, "toRecipients", template.getToRecipients());
       log.debug("To ::: {}", toRecipients);
     }
 
     if (template.getCcRecipients() != null) {
-      maker.setTemplate(template.getCcRecipients());
-      ccRecipients = maker.make();
+      ccRecipients = make(template, "ccRecipients", template.getCcRecipients());
       log.debug("CC ::: {}", ccRecipients);
     }
 
     if (template.getBccRecipients() != null) {
-      maker.setTemplate(template.getBccRecipients());
-      bccRecipients = maker.make();
+      bccRecipients = make(template, "bccRecipients", template.getBccRecipients());
       log.debug("BCC ::: {}", bccRecipients);
     }
 
@@ -186,6 +178,12 @@ public class TemplateMessageServiceImpl implements TemplateMessageService {
     return message;
   }
 
+  /** Render a field of the template with the current context of the maker. */
+  protected String make(Template template, String field, String text) {
+    maker.setTemplate(templateCacheService.get(template, field, text, maker));
+    return maker.make();
+  }
+
   @Override
   public Message generateAndSendMessage(Model model, Template template)
       throws MessagingException, IOException, AxelorException, ClassNotFoundException,
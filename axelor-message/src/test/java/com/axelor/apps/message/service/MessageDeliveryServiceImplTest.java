@@ -0,0 +1,267 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.apps.message.db.Message;
+import com.axelor.apps.message.db.repo.MessageRepository;
+import com.axelor.auth.db.User;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.mail.MessagingException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageDeliveryServiceImplTest {
+
+  /** Send the emails to memory, failing as many times as asked for each message. */
+  private static class TestMessageService extends MessageServiceImpl {
+
+    private final List<Long> sent = new ArrayList<>();
+    private final Map<Long, Integer> failures = new HashMap<>();
+    private final Set<Long> invalid = new HashSet<>();
+
+    private TestMessageService() {
+      super(null, null);
+    }
+
+    @Override
+    public boolean sendEmail(Message message) throws MessagingException {
+      Long id = message.getId();
+      if (invalid.contains(id)) {
+        throw new IllegalStateException("No recipient");
+      }
+      int remaining = failures.getOrDefault(id, 0);
+      if (remaining > 0) {
+        failures.put(id, remaining - 1);
+        throw new MessagingException("Connection refused");
+      }
+      sent.add(id);
+      return true;
+    }
+  }
+
+  /** Read the messages from memory, save nothing and only run the retries when asked. */
+  private static class TestDeliveryService extends MessageDeliveryServiceImpl {
+
+    private final Map<Long, Message> messages = new HashMap<>();
+    private final List<Runnable> retries = new ArrayList<>();
+    private final List<Long> delays = new ArrayList<>();
+    private final List<Exception> traces = new ArrayList<>();
+
+    private TestDeliveryService(TestMessageService messageService, int maxRetries) {
+      super(
+          messageService,
+          new MessageRepository() {
+            @Override
+            public Message save(Message message) {
+              return message;
+            }
+          },
+          maxRetries,
+          60);
+    }
+
+    @Override
+    protected void schedule() {}
+
+    @Override
+    protected void schedule(Runnable task, long delay) {
+      retries.add(task);
+      delays.add(delay);
+    }
+
+    @Override
+    protected List<Message> findMessages(List<Long> messageIds) {
+      return messageIds
+          .stream()
+          .map(messages::get)
+          .filter(Objects::nonNull)
+          .collect(Collectors.toList());
+    }
+
+    @Override
+    protected void saveStatus(List<Message> sent, List<Message> dropped) {
+      sent.forEach(this::setSent);
+      dropped.forEach(this::setDropped);
+    }
+
+    @Override
+    protected void trace(Exception e) {
+      traces.add(e);
+    }
+
+    private Message add(long id) {
+      Message message = new Message();
+      message.setId(id);
+      message.setStatusSelect(MessageRepository.STATUS_DRAFT);
+      message.setMediaTypeSelect(MessageRepository.MEDIA_TYPE_EMAIL);
+      message.setQueuedForDelivery(true);
+      message.setSenderUser(new User());
+      messages.put(id, message);
+      return message;
+    }
+
+    private void runRetries() {
+      List<Runnable> tasks = new ArrayList<>(retries);
+      retries.clear();
+      tasks.forEach(Runnable::run);
+    }
+  }
+
+  private static void assertSent(Message message) {
+    Assert.assertEquals(MessageRepository.STATUS_SENT, (int) message.getStatusSelect());
+    Assert.assertFalse(message.getQueuedForDelivery());
+    Assert.assertTrue(message.getSentByEmail());
+    Assert.assertNotNull(message.getSentDateT());
+  }
+
+  private static void assertQueued(Message message) {
+    Assert.assertEquals(MessageRepository.STATUS_DRAFT, (int) message.getStatusSelect());
+    Assert.assertTrue(message.getQueuedForDelivery());
+  }
+
+  @Test
+  public void testQueuedToSent() {
+    TestMessageService messageService = new TestMessageService();
+    TestDeliveryService deliveryService = new TestDeliveryService(messageService, 3);
+
+    List<Long> ids = new ArrayList<>();
+    for (long id = 1; id <= 120; id++) {
+      deliveryService.add(id);
+      ids.add(id);
+    }
+    deliveryService.enqueue(ids);
+    // Enqueued twice, sent once
+    deliveryService.enqueue(deliveryService.messages.get(1L));
+    Assert.assertEquals(120, deliveryService.getQueueSize());
+
+    Assert.assertEquals(120, deliveryService.deliver());
+    Assert.assertEquals(ids, messageService.sent);
+    deliveryService.messages.values().forEach(MessageDeliveryServiceImplTest::assertSent);
+    Assert.assertEquals(0, deliveryService.getQueueSize());
+    Assert.assertEquals(120, deliveryService.getSentCount());
+    Assert.assertEquals(0, deliveryService.getFailedCount());
+
+    // Already sent, it is not sent again
+    deliveryService.enqueue(Collections.singletonList(1L));
+    Assert.assertEquals(0, deliveryService.deliver());
+    Assert.assertEquals(120, messageService.sent.size());
+  }
+
+  @Test
+  public void testRetry() {
+    TestMessageService messageService = new TestMessageService();
+    TestDeliveryService deliveryService = new TestDeliveryService(messageService, 3);
+    Message message = deliveryService.add(1);
+    deliveryService.add(2);
+    messageService.failures.put(1L, 2);
+
+    deliveryService.enqueue(Arrays.asList(1L, 2L));
+    Assert.assertEquals(1, deliveryService.deliver());
+    assertQueued(message);
+
+    // Waiting for its retry, the message is not queued twice
+    deliveryService.enqueue(message);
+    Assert.assertEquals(0, deliveryService.getQueueSize());
+
+    deliveryService.runRetries();
+    Assert.assertEquals(0, deliveryService.deliver());
+    assertQueued(message);
+
+    deliveryService.runRetries();
+    Assert.assertEquals(1, deliveryService.deliver());
+    assertSent(message);
+
+    // The delay is doubled at each attempt
+    Assert.assertEquals(Arrays.asList(60L, 120L), deliveryService.delays);
+    Assert.assertEquals(2, deliveryService.getRetryCount());
+    Assert.assertEquals(2, deliveryService.getSentCount());
+    Assert.assertTrue(deliveryService.retries.isEmpty());
+    Assert.assertTrue(deliveryService.traces.isEmpty());
+  }
+
+  @Test
+  public void testGiveUp() {
+    TestMessageService messageService = new TestMessageService();
+    TestDeliveryService deliveryService = new TestDeliveryService(messageService, 2);
+    Message message = deliveryService.add(1);
+    messageService.failures.put(1L, 10);
+
+    deliveryService.enqueue(message);
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(0, deliveryService.deliver());
+      deliveryService.runRetries();
+    }
+
+    // Dropped after the last retry, it is no longer queued after a restart
+    Assert.assertEquals(Arrays.asList(60L, 120L), deliveryService.delays);
+    Assert.assertEquals(MessageRepository.STATUS_DRAFT, (int) message.getStatusSelect());
+    Assert.assertFalse(message.getQueuedForDelivery());
+    Assert.assertEquals(1, deliveryService.getFailedCount());
+    Assert.assertEquals(1, deliveryService.traces.size());
+    Assert.assertEquals(0, deliveryService.getQueueSize());
+
+    // It can be queued again by hand
+    messageService.failures.clear();
+    deliveryService.enqueue(message);
+    Assert.assertEquals(1, deliveryService.deliver());
+    assertSent(message);
+  }
+
+  @Test
+  public void testInvalidMessage() {
+    TestMessageService messageService = new TestMessageService();
+    TestDeliveryService deliveryService = new TestDeliveryService(messageService, 3);
+    Message invalid = deliveryService.add(2);
+    deliveryService.add(1);
+    deliveryService.add(3);
+    messageService.invalid.add(2L);
+
+    deliveryService.enqueue(Arrays.asList(1L, 2L, 3L));
+
+    // The other messages of the batch are still sent, the invalid one is not retried
+    Assert.assertEquals(2, deliveryService.deliver());
+    Assert.assertEquals(Arrays.asList(1L, 3L), messageService.sent);
+    Assert.assertFalse(invalid.getQueuedForDelivery());
+    Assert.assertEquals(1, deliveryService.traces.size());
+    Assert.assertTrue(deliveryService.retries.isEmpty());
+  }
+
+  @Test
+  public void testDeletedMessage() {
+    TestMessageService messageService = new TestMessageService();
+    TestDeliveryService deliveryService = new TestDeliveryService(messageService, 3);
+
+    deliveryService.enqueue(Collections.singletonList(1L));
+    Assert.assertEquals(0, deliveryService.deliver());
+
+    // Forgotten once not found, so that the id can be queued again
+    Message message = deliveryService.add(1);
+    deliveryService.enqueue(message);
+    Assert.assertEquals(1, deliveryService.deliver());
+    assertSent(message);
+  }
+}
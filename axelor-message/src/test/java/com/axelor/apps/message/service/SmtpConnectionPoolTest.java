@@ -0,0 +1,218 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.message.service;
+
+import com.axelor.apps.message.db.EmailAccount;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import javax.mail.Address;
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+import javax.mail.internet.MimeMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SmtpConnectionPoolTest {
+
+  private static final Session SESSION = Session.getInstance(new Properties());
+
+  /** Record the sent emails instead of talking to a server. */
+  private static class FakeTransport extends Transport {
+
+    private int sentCount;
+
+    private FakeTransport() {
+      super(SESSION, new URLName("smtp", "localhost", 25, null, null, null));
+    }
+
+    @Override
+    protected boolean protocolConnect(String host, int port, String user, String password) {
+      return true;
+    }
+
+    @Override
+    public void sendMessage(javax.mail.Message message, Address[] addresses)
+        throws MessagingException {
+      if (!isConnected()) {
+        throw new MessagingException("Not connected");
+      }
+      sentCount++;
+    }
+  }
+
+  /** Open fake transports instead of connecting to the SMTP server of the account. */
+  private static class TestPool extends SmtpConnectionPool {
+
+    private final List<FakeTransport> transports = new ArrayList<>();
+
+    private TestPool(int poolSize, int maxMessages, int idleTimeout) {
+      super(poolSize, maxMessages, idleTimeout, 60);
+    }
+
+    @Override
+    protected SmtpConnection connect(EmailAccount emailAccount) throws MessagingException {
+      FakeTransport transport = new FakeTransport();
+      transports.add(transport);
+      return new SmtpConnection(emailAccount, null, transport);
+    }
+  }
+
+  private static EmailAccount emailAccount(long id) {
+    EmailAccount emailAccount = new EmailAccount();
+    emailAccount.setId(id);
+    emailAccount.setVersion(0);
+    return emailAccount;
+  }
+
+  private static MimeMessage email() throws MessagingException {
+    MimeMessage email = new MimeMessage(SESSION);
+    email.setRecipients(RecipientType.TO, "test@example.com");
+    email.setSubject("Test");
+    email.setText("Test");
+    return email;
+  }
+
+  @Test
+  public void testReuseConnection() throws MessagingException {
+    TestPool pool = new TestPool(4, 100, 60);
+    EmailAccount emailAccount = emailAccount(1);
+
+    SmtpConnection connection = pool.borrow(emailAccount);
+    connection.send(email());
+    pool.release(connection);
+    Assert.assertEquals(1, pool.getIdleCount());
+
+    Assert.assertSame(connection, pool.borrow(emailAccount));
+    connection.send(email());
+    pool.release(connection);
+
+    Assert.assertEquals(1, pool.transports.size());
+    Assert.assertEquals(2, pool.transports.get(0).sentCount);
+  }
+
+  @Test
+  public void testConnectionPerAccount() throws MessagingException {
+    TestPool pool = new TestPool(4, 100, 60);
+
+    SmtpConnection first = pool.borrow(emailAccount(1));
+    SmtpConnection second = pool.borrow(emailAccount(2));
+    Assert.assertNotSame(first, second);
+    pool.release(first);
+    pool.release(second);
+
+    Assert.assertSame(second, pool.borrow(emailAccount(2)));
+    Assert.assertEquals(2, pool.transports.size());
+  }
+
+  @Test
+  public void testPoolSize() throws MessagingException {
+    TestPool pool = new TestPool(2, 100, 60);
+    EmailAccount emailAccount = emailAccount(1);
+
+    List<SmtpConnection> connections = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      connections.add(pool.borrow(emailAccount));
+    }
+    connections.forEach(pool::release);
+
+    // The connection given back once the pool is full is closed
+    Assert.assertEquals(2, pool.getIdleCount());
+    Assert.assertEquals(3, pool.transports.size());
+    Assert.assertTrue(pool.transports.get(0).isConnected());
+    Assert.assertTrue(pool.transports.get(1).isConnected());
+    Assert.assertFalse(pool.transports.get(2).isConnected());
+
+    pool.clear();
+    Assert.assertEquals(0, pool.getIdleCount());
+    Assert.assertFalse(pool.transports.get(0).isConnected());
+  }
+
+  @Test
+  public void testMaxMessages() throws MessagingException {
+    TestPool pool = new TestPool(4, 2, 60);
+    EmailAccount emailAccount = emailAccount(1);
+
+    SmtpConnection connection = pool.borrow(emailAccount);
+    connection.send(email());
+    pool.release(connection);
+    Assert.assertSame(connection, pool.borrow(emailAccount));
+    connection.send(email());
+    pool.release(connection);
+
+    Assert.assertNotSame(connection, pool.borrow(emailAccount));
+    Assert.assertFalse(pool.transports.get(0).isConnected());
+  }
+
+  @Test
+  public void testModifiedAccount() throws MessagingException {
+    TestPool pool = new TestPool(4, 100, 60);
+    EmailAccount emailAccount = emailAccount(1);
+
+    SmtpConnection connection = pool.borrow(emailAccount);
+    pool.release(connection);
+    emailAccount.setVersion(1);
+
+    Assert.assertNotSame(connection, pool.borrow(emailAccount));
+    Assert.assertFalse(pool.transports.get(0).isConnected());
+  }
+
+  @Test
+  public void testIdleTimeout() throws MessagingException {
+    TestPool pool = new TestPool(4, 100, 0);
+    EmailAccount emailAccount = emailAccount(1);
+
+    SmtpConnection connection = pool.borrow(emailAccount);
+    pool.release(connection);
+
+    Assert.assertNotSame(connection, pool.borrow(emailAccount));
+    Assert.assertFalse(pool.transports.get(0).isConnected());
+  }
+
+  @Test
+  public void testDroppedConnection() throws MessagingException {
+    TestPool pool = new TestPool(4, 100, 60);
+    EmailAccount emailAccount = emailAccount(1);
+
+    SmtpConnection connection = pool.borrow(emailAccount);
+    pool.release(connection);
+    // The server closed the connection meanwhile
+    pool.transports.get(0).close();
+
+    SmtpConnection other = pool.borrow(emailAccount);
+    Assert.assertNotSame(connection, other);
+    other.send(email());
+    Assert.assertEquals(1, pool.transports.get(1).sentCount);
+  }
+
+  @Test
+  public void testInvalidate() throws MessagingException {
+    TestPool pool = new TestPool(4, 100, 60);
+    EmailAccount emailAccount = emailAccount(1);
+
+    SmtpConnection connection = pool.borrow(emailAccount);
+    pool.invalidate(connection);
+
+    Assert.assertEquals(0, pool.getIdleCount());
+    Assert.assertFalse(pool.transports.get(0).isConnected());
+    Assert.assertNotSame(connection, pool.borrow(emailAccount));
+  }
+}
@@ -18,6 +18,8 @@
 package com.axelor.apps.stock.db.repo;
 
 import com.axelor.apps.stock.db.StockMoveLine;
+import com.axelor.apps.stock.service.StockHistoryService;
+import com.axelor.inject.Beans;
 
 public class StockMoveLineStockRepository extends StockMoveLineRepository {
 
@@ -28,4 +30,10 @@ public class StockMoveLineStockRepository extends StockMoveLineRepository {
     copy.setPlannedStockMove(null);
     return copy;
   }
+
+  @Override
+  public void remove(StockMoveLine entity) {
+    Beans.get(StockHistoryService.class).removeSnapshots(entity);
+    super.remove(entity);
+  }
 }
@@ -20,6 +20,7 @@ package com.axelor.apps.stock.db.repo;
 import com.axelor.apps.base.service.administration.SequenceService;
 import com.axelor.apps.stock.db.StockMove;
 import com.axelor.apps.stock.exception.IExceptionMessage;
+import com.axelor.apps.stock.service.StockHistoryService;
 import com.axelor.apps.stock.service.StockMoveService;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
@@ -43,6 +44,7 @@ public class StockMoveManagementRepository extends StockMoveRepository {
   @Override
   public StockMove save(StockMove entity) {
     try {
+      Beans.get(StockHistoryService.class).removeOutdatedSnapshots(entity);
       StockMove stockMove = super.save(entity);
       SequenceService sequenceService = Beans.get(SequenceService.class);
 
@@ -68,6 +70,7 @@ public class StockMoveManagementRepository extends StockMoveRepository {
     } else if (entity.getStatusSelect() == STATUS_REALIZED) {
       entity.setArchived(true);
     } else {
+      Beans.get(StockHistoryService.class).removeSnapshots(entity);
       super.remove(entity);
     }
   }
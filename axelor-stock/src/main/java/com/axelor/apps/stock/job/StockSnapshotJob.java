@@ -0,0 +1,39 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.job;
+
+import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.apps.stock.service.StockHistoryService;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/** Save the stock of every location and product at the end of the previous day. */
+public class StockSnapshotJob implements Job {
+  @Override
+  public void execute(JobExecutionContext context) throws JobExecutionException {
+    try {
+      Beans.get(StockHistoryService.class)
+          .createSnapshots(Beans.get(AppBaseService.class).getTodayDate().minusDays(1));
+    } catch (Exception e) {
+      TraceBackService.trace(new Exception(e));
+    }
+  }
+}
@@ -41,6 +41,8 @@ import com.axelor.apps.stock.service.PartnerProductQualityRatingService;
 import com.axelor.apps.stock.service.PartnerProductQualityRatingServiceImpl;
 import com.axelor.apps.stock.service.PartnerStockSettingsService;
 import com.axelor.apps.stock.service.PartnerStockSettingsServiceImpl;
+import com.axelor.apps.stock.service.StockHistoryService;
+import com.axelor.apps.stock.service.StockHistoryServiceImpl;
 import com.axelor.apps.stock.service.StockLocationLineService;
 import com.axelor.apps.stock.service.StockLocationLineServiceImpl;
 import com.axelor.apps.stock.service.StockLocationService;
@@ -75,6 +77,7 @@ public class StockModule extends AxelorModule {
     bind(PartnerStockSettingsService.class).to(PartnerStockSettingsServiceImpl.class);
     bind(AppStockService.class).to(AppStockServiceImpl.class);
     bind(StockMoveLineRepository.class).to(StockMoveLineStockRepository.class);
+    bind(StockHistoryService.class).to(StockHistoryServiceImpl.class);
     PartnerAddressRepository.modelPartnerFieldMap.put(StockMove.class.getName(), "partner");
   }
 }
@@ -0,0 +1,76 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.apps.stock.db.StockMove;
+import com.axelor.apps.stock.db.StockMoveLine;
+import com.google.inject.persist.Transactional;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+public interface StockHistoryService {
+
+  /**
+   * Get the stock of a product in a location for each day of a period. The stock of a day includes
+   * the quantities of the stock moves, not canceled, whose estimated or real date is before or on
+   * this day.
+   *
+   * @param locationId
+   * @param productId
+   * @param fromDate
+   * @param toDate
+   * @return a list of maps with the date as <code>$date</code> and the quantity as <code>$qty
+   *     </code>
+   */
+  List<Map<String, Object>> getStockPerDate(
+      Long locationId, Long productId, LocalDate fromDate, LocalDate toDate);
+
+  /**
+   * Save the stock of every product in every location at a date, to be used as the opening
+   * balance of {@link #getStockPerDate}.
+   *
+   * @param date
+   * @return the number of snapshots saved
+   */
+  @Transactional
+  int createSnapshots(LocalDate date);
+
+  /**
+   * Delete the snapshots made obsolete by the removal of a stock move.
+   *
+   * @param stockMove
+   */
+  void removeSnapshots(StockMove stockMove);
+
+  /**
+   * Delete the snapshots made obsolete by the removal of a stock move line.
+   *
+   * @param stockMoveLine
+   */
+  void removeSnapshots(StockMoveLine stockMoveLine);
+
+  /**
+   * Delete the snapshots made obsolete by the changes of a stock move about to be saved, which the
+   * modification dates of the lines do not reveal: lines removed from the move or moved to another
+   * product, a change of location and a change of date.
+   *
+   * @param stockMove
+   */
+  void removeOutdatedSnapshots(StockMove stockMove);
+}
@@ -0,0 +1,419 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.stock.db.StockLocation;
+import com.axelor.apps.stock.db.StockMove;
+import com.axelor.apps.stock.db.StockMoveLine;
+import com.axelor.apps.stock.db.StockSnapshot;
+import com.axelor.apps.stock.db.repo.StockMoveRepository;
+import com.axelor.db.JPA;
+import com.google.inject.persist.Transactional;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class StockHistoryServiceImpl implements StockHistoryService {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static final int FLUSH_SIZE = 500;
+
+  /** Date from which a stock move line is counted: the earliest of its move dates. */
+  private static final String EFFECTIVE_DATE_FILTER =
+      "(stockMove.estimatedDate <= :toDate OR stockMove.realDate <= :toDate)";
+
+  private static final String AFTER_SNAPSHOT_FILTER =
+      "(stockMove.estimatedDate IS NULL OR stockMove.estimatedDate > :snapshotDate) "
+          + "AND (stockMove.realDate IS NULL OR stockMove.realDate > :snapshotDate)";
+
+  @Override
+  public List<Map<String, Object>> getStockPerDate(
+      Long locationId, Long productId, LocalDate fromDate, LocalDate toDate) {
+
+    List<Map<String, Object>> stock = new ArrayList<>();
+
+    if (fromDate.isAfter(toDate)) {
+      return stock;
+    }
+
+    StockSnapshot snapshot = findSnapshot(locationId, productId, fromDate);
+    BigDecimal qty = snapshot == null ? BigDecimal.ZERO : snapshot.getQty();
+
+    // Daily deltas of the period, the moves before the period are summed in the opening balance
+    int days = (int) ChronoUnit.DAYS.between(fromDate, toDate) + 1;
+    BigDecimal[] deltas = new BigDecimal[days];
+    Arrays.fill(deltas, BigDecimal.ZERO);
+
+    for (Object[] row : getDeltas(locationId, productId, snapshot, toDate)) {
+      LocalDate date = getEffectiveDate((LocalDate) row[0], (LocalDate) row[1]);
+      BigDecimal delta = (BigDecimal) row[2];
+      if (date.isBefore(fromDate)) {
+        qty = qty.add(delta);
+      } else {
+        int index = (int) ChronoUnit.DAYS.between(fromDate, date);
+        deltas[index] = deltas[index].add(delta);
+      }
+    }
+
+    LocalDate date = fromDate;
+    for (BigDecimal delta : deltas) {
+      qty = qty.add(delta);
+      Map<String, Object> dateStock = new HashMap<>();
+      dateStock.put("$date", date);
+      dateStock.put("$qty", qty);
+      stock.add(dateStock);
+      date = date.plusDays(1);
+    }
+
+    return stock;
+  }
+
+  /**
+   * Sum the quantities in and out of the location by estimated and real date, for the moves
+   * counted after the snapshot and up to the last date.
+   */
+  protected List<Object[]> getDeltas(
+      Long locationId, Long productId, StockSnapshot snapshot, LocalDate toDate) {
+
+    TypedQuery<Object[]> query =
+        JPA.em()
+            .createQuery(
+                "SELECT stockMove.estimatedDate, stockMove.realDate, "
+                    + "SUM(CASE WHEN stockMove.toStockLocation.id = :location "
+                    + "THEN self.qty ELSE 0 END) "
+                    + "- SUM(CASE WHEN stockMove.fromStockLocation.id = :location "
+                    + "THEN self.qty ELSE 0 END) "
+                    + "FROM StockMoveLine self JOIN self.stockMove stockMove "
+                    + "WHERE self.product.id = :product "
+                    + "AND (stockMove.toStockLocation.id = :location "
+                    + "OR stockMove.fromStockLocation.id = :location) "
+                    + "AND stockMove.statusSelect != :canceled "
+                    + "AND "
+                    + EFFECTIVE_DATE_FILTER
+                    + (snapshot == null ? "" : " AND " + AFTER_SNAPSHOT_FILTER)
+                    + " GROUP BY stockMove.estimatedDate, stockMove.realDate",
+                Object[].class)
+            .setParameter("location", locationId)
+            .setParameter("product", productId)
+            .setParameter("canceled", StockMoveRepository.STATUS_CANCELED)
+            .setParameter("toDate", toDate);
+
+    if (snapshot != null) {
+      query.setParameter("snapshotDate", snapshot.getSnapshotDate());
+    }
+
+    return query.getResultList();
+  }
+
+  /**
+   * Find the latest snapshot before a date, if no stock move line of the product and location
+   * counted in it has been created or modified since it was taken. Lines dated after the snapshot
+   * are not counted in it, the snapshots of a move dated out of them are removed on save.
+   */
+  protected StockSnapshot findSnapshot(Long locationId, Long productId, LocalDate date) {
+
+    List<StockSnapshot> snapshots =
+        JPA.em()
+            .createQuery(
+                "SELECT self FROM StockSnapshot self "
+                    + "WHERE self.stockLocation.id = :location AND self.product.id = :product "
+                    + "AND self.snapshotDate < :date ORDER BY self.snapshotDate DESC",
+                StockSnapshot.class)
+            .setParameter("location", locationId)
+            .setParameter("product", productId)
+            .setParameter("date", date)
+            .setMaxResults(1)
+            .getResultList();
+
+    if (snapshots.isEmpty()) {
+      return null;
+    }
+
+    StockSnapshot snapshot = snapshots.get(0);
+
+    long modified =
+        JPA.em()
+            .createQuery(
+                "SELECT COUNT(self) FROM StockMoveLine self JOIN self.stockMove stockMove "
+                    + "WHERE self.product.id = :product "
+                    + "AND (stockMove.toStockLocation.id = :location "
+                    + "OR stockMove.fromStockLocation.id = :location) "
+                    + "AND "
+                    + EFFECTIVE_DATE_FILTER
+                    + " AND (self.createdOn > :createdOn OR self.updatedOn > :createdOn "
+                    + "OR stockMove.updatedOn > :createdOn)",
+                Long.class)
+            .setParameter("location", locationId)
+            .setParameter("product", productId)
+            .setParameter("toDate", snapshot.getSnapshotDate())
+            .setParameter("createdOn", snapshot.getCreatedOn())
+            .getSingleResult();
+
+    if (modified > 0) {
+      log.debug(
+          "Stock snapshot of {} ignored, {} stock move lines modified since", date, modified);
+      return null;
+    }
+
+    return snapshot;
+  }
+
+  protected LocalDate getEffectiveDate(LocalDate estimatedDate, LocalDate realDate) {
+    if (estimatedDate == null) {
+      return realDate;
+    }
+    if (realDate == null) {
+      return estimatedDate;
+    }
+    return realDate.isBefore(estimatedDate) ? realDate : estimatedDate;
+  }
+
+  @Override
+  @Transactional
+  public int createSnapshots(LocalDate date) {
+
+    EntityManager em = JPA.em();
+
+    em.createQuery("DELETE FROM StockSnapshot self WHERE self.snapshotDate = :date")
+        .setParameter("date", date)
+        .executeUpdate();
+
+    Map<Pair<Long, Long>, BigDecimal> qtyMap = new HashMap<>();
+    sumQty(qtyMap, "toStockLocation", date, BigDecimal.ONE);
+    sumQty(qtyMap, "fromStockLocation", date, BigDecimal.ONE.negate());
+
+    int count = 0;
+    for (Map.Entry<Pair<Long, Long>, BigDecimal> entry : qtyMap.entrySet()) {
+      StockSnapshot snapshot = new StockSnapshot();
+      snapshot.setStockLocation(em.getReference(StockLocation.class, entry.getKey().getLeft()));
+      snapshot.setProduct(em.getReference(Product.class, entry.getKey().getRight()));
+      snapshot.setSnapshotDate(date);
+      snapshot.setQty(entry.getValue());
+      em.persist(snapshot);
+
+      if (++count % FLUSH_SIZE == 0) {
+        em.flush();
+        em.clear();
+      }
+    }
+
+    log.debug("{} stock snapshots saved for {}", count, date);
+
+    return count;
+  }
+
+  private void sumQty(
+      Map<Pair<Long, Long>, BigDecimal> qtyMap,
+      String locationField,
+      LocalDate date,
+      BigDecimal sign) {
+
+    List<Object[]> rows =
+        JPA.em()
+            .createQuery(
+                "SELECT stockMove."
+                    + locationField
+                    + ".id, self.product.id, SUM(self.qty) "
+                    + "FROM StockMoveLine self JOIN self.stockMove stockMove "
+                    + "WHERE stockMove."
+                    + locationField
+                    + " IS NOT NULL AND self.product IS NOT NULL "
+                    + "AND stockMove.statusSelect != :canceled AND "
+                    + EFFECTIVE_DATE_FILTER
+                    + " GROUP BY stockMove."
+                    + locationField
+                    + ".id, self.product.id",
+                Object[].class)
+            .setParameter("canceled", StockMoveRepository.STATUS_CANCELED)
+            .setParameter("toDate", date)
+            .getResultList();
+
+    for (Object[] row : rows) {
+      qtyMap.merge(
+          Pair.of((Long) row[0], (Long) row[1]),
+          sign.multiply((BigDecimal) row[2]),
+          BigDecimal::add);
+    }
+  }
+
+  @Override
+  public void removeSnapshots(StockMove stockMove) {
+    List<Long> locationIds = getLocationIds(stockMove);
+    if (!locationIds.isEmpty()) {
+      JPA.em()
+          .createQuery("DELETE FROM StockSnapshot self WHERE self.stockLocation.id IN (:locations)")
+          .setParameter("locations", locationIds)
+          .executeUpdate();
+    }
+  }
+
+  @Override
+  public void removeSnapshots(StockMoveLine stockMoveLine) {
+    List<Long> locationIds = getLocationIds(stockMoveLine.getStockMove());
+    if (!locationIds.isEmpty() && stockMoveLine.getProduct() != null) {
+      JPA.em()
+          .createQuery(
+              "DELETE FROM StockSnapshot self WHERE self.stockLocation.id IN (:locations) "
+                  + "AND self.product.id = :product")
+          .setParameter("locations", locationIds)
+          .setParameter("product", stockMoveLine.getProduct().getId())
+          .executeUpdate();
+    }
+  }
+
+  @Override
+  public void removeOutdatedSnapshots(StockMove stockMove) {
+    if (stockMove.getId() == null) {
+      return;
+    }
+
+    // The saved move and lines, read without flushing the changes about to be saved
+    List<Object[]> savedMoves =
+        JPA.em()
+            .createQuery(
+                "SELECT fromStockLocation.id, toStockLocation.id, "
+                    + "self.estimatedDate, self.realDate FROM StockMove self "
+                    + "LEFT JOIN self.fromStockLocation fromStockLocation "
+                    + "LEFT JOIN self.toStockLocation toStockLocation "
+                    + "WHERE self.id = :id",
+                Object[].class)
+            .setFlushMode(FlushModeType.COMMIT)
+            .setParameter("id", stockMove.getId())
+            .getResultList();
+
+    if (savedMoves.isEmpty()) {
+      return;
+    }
+    Object[] savedMove = savedMoves.get(0);
+
+    List<Object[]> savedLines =
+        JPA.em()
+            .createQuery(
+                "SELECT self.id, self.product.id FROM StockMoveLine self "
+                    + "WHERE self.stockMove.id = :id AND self.product IS NOT NULL",
+                Object[].class)
+            .setFlushMode(FlushModeType.COMMIT)
+            .setParameter("id", stockMove.getId())
+            .getResultList();
+
+    List<Long> locationIds = getLocationIds(stockMove);
+    List<Long> savedLocationIds = getNonNullIds(savedMove[0], savedMove[1]);
+    boolean moved = !locationIds.containsAll(savedLocationIds);
+    locationIds.addAll(savedLocationIds);
+
+    Map<Long, Long> productIds = new HashMap<>();
+    if (stockMove.getStockMoveLineList() != null) {
+      for (StockMoveLine stockMoveLine : stockMove.getStockMoveLineList()) {
+        if (stockMoveLine.getId() != null && stockMoveLine.getProduct() != null) {
+          productIds.put(stockMoveLine.getId(), stockMoveLine.getProduct().getId());
+        }
+      }
+    }
+
+    Set<Long> outdatedProductIds = new HashSet<>();
+    Set<Long> savedProductIds = new HashSet<>();
+    for (Object[] savedLine : savedLines) {
+      Long productId = (Long) savedLine[1];
+      savedProductIds.add(productId);
+      if (moved || !productId.equals(productIds.get((Long) savedLine[0]))) {
+        outdatedProductIds.add(productId);
+      }
+    }
+
+    if (locationIds.isEmpty()) {
+      return;
+    }
+
+    int count = removeSnapshots(locationIds, outdatedProductIds, null);
+
+    // A new date only changes the snapshots taken between the saved and the new date
+    LocalDate savedDate = getEffectiveDate((LocalDate) savedMove[2], (LocalDate) savedMove[3]);
+    LocalDate date = getEffectiveDate(stockMove.getEstimatedDate(), stockMove.getRealDate());
+    if (!Objects.equals(savedDate, date)) {
+      LocalDate fromDate =
+          savedDate == null || (date != null && date.isBefore(savedDate)) ? date : savedDate;
+      savedProductIds.removeAll(outdatedProductIds);
+      count += removeSnapshots(locationIds, savedProductIds, fromDate);
+    }
+
+    log.debug("{} stock snapshots removed by the changes of {}", count, stockMove.getId());
+  }
+
+  /** Delete the snapshots of products in locations, taken from a date if any. */
+  private int removeSnapshots(List<Long> locationIds, Set<Long> productIds, LocalDate fromDate) {
+    if (productIds.isEmpty()) {
+      return 0;
+    }
+
+    Query query =
+        JPA.em()
+            .createQuery(
+                "DELETE FROM StockSnapshot self WHERE self.stockLocation.id IN (:locations) "
+                    + "AND self.product.id IN (:products)"
+                    + (fromDate == null ? "" : " AND self.snapshotDate >= :fromDate"))
+            .setParameter("locations", locationIds)
+            .setParameter("products", productIds);
+
+    if (fromDate != null) {
+      query.setParameter("fromDate", fromDate);
+    }
+
+    return query.executeUpdate();
+  }
+
+  private List<Long> getNonNullIds(Object... ids) {
+    List<Long> nonNullIds = new ArrayList<>();
+    for (Object id : ids) {
+      if (id != null) {
+        nonNullIds.add((Long) id);
+      }
+    }
+    return nonNullIds;
+  }
+
+  private List<Long> getLocationIds(StockMove stockMove) {
+    List<Long> locationIds = new ArrayList<>();
+    if (stockMove != null) {
+      if (stockMove.getFromStockLocation() != null) {
+        locationIds.add(stockMove.getFromStockLocation().getId());
+      }
+      if (stockMove.getToStockLocation() != null) {
+        locationIds.add(stockMove.getToStockLocation().getId());
+      }
+    }
+    return locationIds;
+  }
+}
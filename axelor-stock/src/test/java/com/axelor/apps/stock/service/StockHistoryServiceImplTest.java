@@ -0,0 +1,177 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.stock.service;
+
+import com.axelor.apps.stock.db.StockSnapshot;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StockHistoryServiceImplTest {
+
+  private static final LocalDate FROM_DATE = LocalDate.of(2018, 3, 1);
+  private static final LocalDate TO_DATE = LocalDate.of(2018, 3, 31);
+
+  /** A stock move line, with the dates of its move and its quantity, negative when going out. */
+  private static class Line {
+    private final LocalDate estimatedDate;
+    private final LocalDate realDate;
+    private final BigDecimal qty;
+
+    private Line(LocalDate estimatedDate, LocalDate realDate, BigDecimal qty) {
+      this.estimatedDate = estimatedDate;
+      this.realDate = realDate;
+      this.qty = qty;
+    }
+
+    private boolean isCounted(LocalDate date) {
+      return (estimatedDate != null && !estimatedDate.isAfter(date))
+          || (realDate != null && !realDate.isAfter(date));
+    }
+  }
+
+  /** Read the stock move lines and the snapshot from memory, as the queries would. */
+  private static class TestStockHistoryService extends StockHistoryServiceImpl {
+
+    private final List<Line> lines;
+    private final LocalDate snapshotDate;
+
+    private TestStockHistoryService(List<Line> lines, LocalDate snapshotDate) {
+      this.lines = lines;
+      this.snapshotDate = snapshotDate;
+    }
+
+    @Override
+    protected StockSnapshot findSnapshot(Long locationId, Long productId, LocalDate date) {
+      if (snapshotDate == null || !snapshotDate.isBefore(date)) {
+        return null;
+      }
+      StockSnapshot snapshot = new StockSnapshot();
+      snapshot.setSnapshotDate(snapshotDate);
+      snapshot.setQty(getStock(lines, snapshotDate));
+      return snapshot;
+    }
+
+    @Override
+    protected List<Object[]> getDeltas(
+        Long locationId, Long productId, StockSnapshot snapshot, LocalDate toDate) {
+      Map<List<LocalDate>, BigDecimal> deltas = new HashMap<>();
+      for (Line line : lines) {
+        if (line.isCounted(toDate)
+            && (snapshot == null || !line.isCounted(snapshot.getSnapshotDate()))) {
+          deltas.merge(Arrays.asList(line.estimatedDate, line.realDate), line.qty, BigDecimal::add);
+        }
+      }
+      List<Object[]> rows = new ArrayList<>();
+      deltas.forEach((dates, qty) -> rows.add(new Object[] {dates.get(0), dates.get(1), qty}));
+      return rows;
+    }
+  }
+
+  /** The stock at a date as getStock computed it before, summing all the lines counted. */
+  private static BigDecimal getStock(List<Line> lines, LocalDate date) {
+    BigDecimal qty = BigDecimal.ZERO;
+    for (Line line : lines) {
+      if (line.isCounted(date)) {
+        qty = qty.add(line.qty);
+      }
+    }
+    return qty;
+  }
+
+  private static List<Line> createLines(Random random, int count) {
+    List<Line> lines = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      LocalDate estimatedDate =
+          random.nextInt(10) == 0 ? null : FROM_DATE.plusDays(random.nextInt(120) - 60);
+      LocalDate realDate =
+          estimatedDate == null || random.nextBoolean()
+              ? FROM_DATE.plusDays(random.nextInt(120) - 60)
+              : null;
+      BigDecimal qty = BigDecimal.valueOf(random.nextInt(2001) - 1000, 2);
+      lines.add(new Line(estimatedDate, realDate, qty));
+    }
+    return lines;
+  }
+
+  private static void assertStockPerDate(List<Line> lines, LocalDate snapshotDate) {
+    List<Map<String, Object>> stock =
+        new TestStockHistoryService(lines, snapshotDate)
+            .getStockPerDate(1L, 1L, FROM_DATE, TO_DATE);
+
+    Assert.assertEquals(31, stock.size());
+    LocalDate date = FROM_DATE;
+    for (Map<String, Object> dateStock : stock) {
+      Assert.assertEquals(date, dateStock.get("$date"));
+      BigDecimal expected = getStock(lines, date);
+      BigDecimal qty = (BigDecimal) dateStock.get("$qty");
+      Assert.assertTrue(date + ": " + qty + " != " + expected, expected.compareTo(qty) == 0);
+      date = date.plusDays(1);
+    }
+  }
+
+  @Test
+  public void testStockPerDate() {
+    Random random = new Random(42);
+    for (int i = 0; i < 20; i++) {
+      assertStockPerDate(createLines(random, 200), null);
+    }
+  }
+
+  @Test
+  public void testStockPerDateFromSnapshot() {
+    Random random = new Random(42);
+    for (int i = 0; i < 20; i++) {
+      List<Line> lines = createLines(random, 200);
+      assertStockPerDate(lines, FROM_DATE.minusDays(1));
+      assertStockPerDate(lines, FROM_DATE.minusDays(30));
+    }
+  }
+
+  @Test
+  public void testEarliestDateCounted() {
+    List<Line> lines =
+        Arrays.asList(
+            new Line(LocalDate.of(2018, 3, 10), LocalDate.of(2018, 3, 5), BigDecimal.TEN),
+            new Line(LocalDate.of(2018, 3, 5), LocalDate.of(2018, 3, 20), BigDecimal.ONE),
+            new Line(null, LocalDate.of(2018, 3, 7), BigDecimal.ONE.negate()));
+
+    List<Map<String, Object>> stock =
+        new TestStockHistoryService(lines, null).getStockPerDate(1L, 1L, FROM_DATE, TO_DATE);
+
+    Assert.assertEquals(0, BigDecimal.ZERO.compareTo((BigDecimal) stock.get(3).get("$qty")));
+    Assert.assertEquals(0, BigDecimal.valueOf(11).compareTo((BigDecimal) stock.get(4).get("$qty")));
+    Assert.assertEquals(0, BigDecimal.TEN.compareTo((BigDecimal) stock.get(6).get("$qty")));
+    Assert.assertEquals(0, BigDecimal.TEN.compareTo((BigDecimal) stock.get(30).get("$qty")));
+  }
+
+  @Test
+  public void testEmptyPeriod() {
+    Assert.assertTrue(
+        new TestStockHistoryService(new ArrayList<>(), null)
+            .getStockPerDate(1L, 1L, TO_DATE, FROM_DATE)
+            .isEmpty());
+  }
+}
@@ -17,8 +17,10 @@
  */
 package com.axelor.studio.service.wkf;
 
+import com.axelor.apps.tool.TransactionTool;
 import com.axelor.db.EntityHelper;
 import com.axelor.db.Model;
+import com.axelor.inject.Beans;
 import com.axelor.meta.MetaStore;
 import com.axelor.meta.db.MetaJsonField;
 import com.axelor.meta.db.MetaJsonRecord;
@@ -42,7 +44,10 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 import javax.script.SimpleBindings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,8 +81,9 @@ public class WkfTrackingService {
   private String oldStatus;
 
   /**
-   * Root method to access the service. It create WkfTracking record. WkfTracking is linked with
-   * record of model and workflow of model.
+   * Root method to access the service. It queues the current status of the record, the
+   * WkfTracking record being created or updated by {@link WkfTrackingWorker}. WkfTracking is linked
+   * with record of model and workflow of model.
    *
    * @param model Model having workflow.
    * @param modelId Record id of model to track.
@@ -106,13 +112,14 @@ public class WkfTrackingService {
         ctx = new Context(model.getId(), object.getClass());
       }
 
-      WkfTracking wkfTracking = getWorkflowTracking(ctx, object.getClass().getName());
+      String modelName = object.getClass().getName();
+      Wkf wkf = getWorkflow(ctx, modelName);
 
-      if (wkfTracking == null) {
+      if (wkf == null) {
         return;
       }
 
-      MetaJsonField wkfField = wkfTracking.getWkf().getStatusField();
+      MetaJsonField wkfField = wkf.getStatusField();
 
       Object status = null;
       status = ctx.get(wkfField.getName());
@@ -129,24 +136,102 @@ public class WkfTrackingService {
         return;
       }
 
-      durationHrs = BigDecimal.ZERO;
-      WkfTrackingLine trackingLine = updateTrackingLine(wkfTracking, item.getTitle());
-      if (trackingLine != null) {
-        updateTrackingTotal(wkfTracking, item.getTitle());
-        updateTrackingTime(wkfTracking, item.getTitle());
+      String jsonModel = (String) ctx.get("jsonModel");
+
+      WkfTrackingWorker.Event event =
+          new WkfTrackingWorker.Event(
+              wkf.getId(),
+              jsonModel != null ? jsonModel : modelName,
+              (Long) ctx.get("id"),
+              item.getTitle(),
+              LocalDateTime.now());
+
+      // The change is only tracked once the record is saved
+      TransactionTool.afterCommit(() -> Beans.get(WkfTrackingWorker.class).submit(event));
+    }
+  }
+
+  /**
+   * Apply status changes queued by {@link #track(Object)}. The changes of a record are applied in
+   * order, with one lookup of its WkfTracking and last WkfTrackingLine.
+   *
+   * @param events Status changes to apply.
+   */
+  @Transactional
+  public void applyEvents(List<WkfTrackingWorker.Event> events) {
+
+    for (List<WkfTrackingWorker.Event> recordEvents : groupByRecord(events).values()) {
+
+      WkfTrackingWorker.Event firstEvent = recordEvents.get(0);
+      WkfTracking wkfTracking =
+          getWorkflowTracking(
+              wkfRepo.find(firstEvent.getWkfId()),
+              firstEvent.getRecordModel(),
+              firstEvent.getRecordId());
+
+      WkfTrackingLine lastLine =
+          trackingLineRepo
+              .all()
+              .filter("self.wkfTracking = ?1", wkfTracking)
+              .order("-id")
+              .fetchOne();
+      LocalDateTime lastDateTime = lastLine != null ? lastLine.getStatusDateTime() : null;
+
+      for (WkfTrackingWorker.Event event : recordEvents) {
+        String status = event.getStatus();
+        if (lastLine != null && lastLine.getStatus().equals(status)) {
+          continue;
+        }
+
+        durationHrs = BigDecimal.ZERO;
+        oldStatus = null;
+        if (lastLine != null) {
+          oldStatus = lastLine.getStatus();
+          durationHrs = getDurationHours(lastDateTime, event.getDateTime());
+          lastLine.setTimeSpent(durationHrs);
+          trackingLineRepo.save(lastLine);
+        }
+
+        lastLine = new WkfTrackingLine();
+        lastLine.setWkfTracking(wkfTracking);
+        lastLine.setStatus(status);
+        lastLine.setStatusDateTime(event.getDateTime());
+        lastLine = trackingLineRepo.save(lastLine);
+        lastDateTime = event.getDateTime();
+
+        updateTrackingTotal(wkfTracking, status);
+        updateTrackingTime(wkfTracking, status);
       }
     }
   }
 
+  /** Group status changes by tracked record, keeping their order. */
+  protected static Map<List<Object>, List<WkfTrackingWorker.Event>> groupByRecord(
+      List<WkfTrackingWorker.Event> events) {
+    return events
+        .stream()
+        .collect(
+            Collectors.groupingBy(
+                WkfTrackingWorker.Event::getKey, LinkedHashMap::new, Collectors.toList()));
+  }
+
+  protected BigDecimal getDurationHours(LocalDateTime from, LocalDateTime to) {
+    long minutes = Duration.between(from, to).toMinutes();
+    log.debug("Minutes between {} and {} : {}", from, to, minutes);
+    BigDecimal hours =
+        new BigDecimal(minutes).divide(new BigDecimal(60), 2, RoundingMode.HALF_UP);
+    log.debug("Hours between {} and {} : {}", from, to, hours);
+    return hours;
+  }
+
   /**
-   * Method find or create WkfTracking for model record.
+   * Method find the workflow of a model record.
    *
+   * @param ctx Context of the record.
    * @param model Model of record.
-   * @param modelId Id of record.
-   * @return WkfTracking instance created/found.s
+   * @return Wkf of the record or null if the model has no workflow.
    */
-  @Transactional
-  public WkfTracking getWorkflowTracking(SimpleBindings ctx, String model) {
+  public Wkf getWorkflow(SimpleBindings ctx, String model) {
 
     String jsonModel = (String) ctx.get("jsonModel");
 
@@ -163,22 +248,29 @@ public class WkfTrackingService {
       return null;
     }
 
-    Wkf wkf = null;
-
     if (wkfs.size() > 1) {
       for (Wkf w : wkfs) {
         if (ctx.get(w.getJsonField()) != null) {
-          wkf = w;
-          break;
+          return w;
         }
       }
-      if (wkf == null) {
-        return null;
-      }
-    } else {
-      wkf = wkfs.get(0);
+      return null;
     }
 
+    return wkfs.get(0);
+  }
+
+  /**
+   * Method find or create WkfTracking for a record of a workflow.
+   *
+   * @param wkf Workflow of the record.
+   * @param model Model of record.
+   * @param recordId Id of record.
+   * @return WkfTracking instance created/found.
+   */
+  @Transactional
+  public WkfTracking getWorkflowTracking(Wkf wkf, String model, Long recordId) {
+
     WkfTracking wkfTracking =
         wkfTrackingRepo
             .all()
@@ -186,59 +278,20 @@ public class WkfTrackingService {
                 "self.wkf = ?1 and self.recordModel = ?2 and self.recordId = ?3",
                 wkf,
                 model,
-                ctx.get("id"))
+                recordId)
             .fetchOne();
 
     if (wkfTracking == null) {
       wkfTracking = new WkfTracking();
       wkfTracking.setWkf(wkf);
       wkfTracking.setRecordModel(model);
-      wkfTracking.setRecordId((Long) ctx.get("id"));
+      wkfTracking.setRecordId(recordId);
       wkfTracking = wkfTrackingRepo.save(wkfTracking);
     }
 
     return wkfTracking;
   }
 
-  /**
-   * Method add new WkfTrackingLine in WkfTracking for given status if that status is not last
-   * status added.
-   *
-   * @param wkfTracking WkfTracking to update with new line.
-   * @param status Status to check for update.
-   * @return WkfTrackingLine created or return null if status not changed.
-   */
-  @Transactional
-  public WkfTrackingLine updateTrackingLine(WkfTracking wkfTracking, String status) {
-
-    WkfTrackingLine trackingLine =
-        trackingLineRepo.all().filter("self.wkfTracking = ?1", wkfTracking).fetchOne();
-
-    if (trackingLine == null || !trackingLine.getStatus().equals(status)) {
-
-      LocalDateTime now = LocalDateTime.now();
-
-      if (trackingLine != null) {
-        oldStatus = trackingLine.getStatus();
-        LocalDateTime lastUpdated = trackingLine.getCreatedOn();
-        long minutes = Duration.between(lastUpdated, now).toMinutes();
-        log.debug("Minutes between {} and {} : {}", lastUpdated, now, minutes);
-        durationHrs = new BigDecimal(minutes).divide(new BigDecimal(60), 2, RoundingMode.HALF_UP);
-        log.debug("Hours between {} and {} : {}", lastUpdated, now, durationHrs);
-        trackingLine.setTimeSpent(durationHrs);
-        trackingLineRepo.save(trackingLine);
-      }
-
-      trackingLine = new WkfTrackingLine();
-      trackingLine.setWkfTracking(wkfTracking);
-      trackingLine.setStatus(status);
-      trackingLine.setWkfTracking(wkfTracking);
-      return trackingLineRepo.save(trackingLine);
-    }
-
-    return null;
-  }
-
   /**
    * Update o2m to WkfTrackingTotal in WkfTracking. Create or Update WkfTrackingTotal for given
    * status with updated count of status.
@@ -0,0 +1,359 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.studio.service.wkf;
+
+import com.axelor.app.AppSettings;
+import com.axelor.db.JPA;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.inject.Beans;
+import com.google.inject.Singleton;
+import com.google.inject.persist.UnitOfWork;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue of workflow status changes applied to the WkfTracking records by a background thread.
+ *
+ * <p>Changes are only applied by the worker thread, in their own transactions, so that they stay
+ * ordered and never run in the transaction of the thread which submitted them. They are applied
+ * as the user who submitted them, who is the creator of the tracking lines. The queue is
+ * bounded: when the worker is behind, submitting a change waits for room.
+ *
+ * <p>{@link #flush()} waits until the changes queued so far are applied. When the application
+ * stops, {@link WkfTrackingContextListener} calls {@link #stop()}, which flushes the queue before
+ * the persistence is shut down. The worker also ends once it has been idle for a while, and is
+ * started again by the next change.
+ */
+@Singleton
+public class WkfTrackingWorker {
+
+  private final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String QUEUE_SIZE_KEY = "studio.wkf.tracking.queue.size";
+
+  protected static final int BATCH_SIZE = 200;
+
+  protected static final long POLL_TIMEOUT = 1;
+
+  protected static final long IDLE_TIMEOUT = 60;
+
+  protected static final long SHUTDOWN_TIMEOUT = 30;
+
+  private final BlockingQueue<Event> queue =
+      new ArrayBlockingQueue<>(AppSettings.get().getInt(QUEUE_SIZE_KEY, 10000));
+
+  private volatile Thread worker;
+
+  private volatile boolean stopped;
+
+  /** A status change of a record. */
+  public static class Event {
+
+    private final Long wkfId;
+
+    private final String recordModel;
+
+    private final Long recordId;
+
+    private final String status;
+
+    private final LocalDateTime dateTime;
+
+    /** User who made the change, null if none is logged in. */
+    private final Subject subject;
+
+    public Event(
+        Long wkfId, String recordModel, Long recordId, String status, LocalDateTime dateTime) {
+      this.wkfId = wkfId;
+      this.recordModel = recordModel;
+      this.recordId = recordId;
+      this.status = status;
+      this.dateTime = dateTime;
+      this.subject = ThreadContext.getSubject();
+    }
+
+    public Long getWkfId() {
+      return wkfId;
+    }
+
+    public String getRecordModel() {
+      return recordModel;
+    }
+
+    public Long getRecordId() {
+      return recordId;
+    }
+
+    public String getStatus() {
+      return status;
+    }
+
+    public LocalDateTime getDateTime() {
+      return dateTime;
+    }
+
+    public Subject getSubject() {
+      return subject;
+    }
+
+    /** Code of the user who made the change, null if none is logged in. */
+    public Object getPrincipal() {
+      return subject != null ? subject.getPrincipal() : null;
+    }
+
+    /** Key of the tracked record, the changes of a record being applied together. */
+    public List<Object> getKey() {
+      return Arrays.asList(wkfId, recordModel, recordId);
+    }
+  }
+
+  /** Queued by {@link #flush()}, released once the changes queued before it are applied. */
+  private static class FlushRequest extends Event {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private FlushRequest() {
+      super(null, null, null, null, null);
+    }
+  }
+
+  /**
+   * Queue a status change. If the queue is full, wait until the worker has made room for it.
+   *
+   * @param event the status change
+   */
+  public void submit(Event event) {
+
+    if (stopped) {
+      log.warn("Workflow tracking stopped, status change of {} lost", event.getKey());
+      return;
+    }
+
+    start();
+
+    try {
+      while (!queue.offer(event, POLL_TIMEOUT, TimeUnit.SECONDS)) {
+        log.debug("Workflow tracking queue full, waiting for the worker");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    // The worker may have ended, being idle, before the change was queued
+    start();
+  }
+
+  /** Wait until the status changes submitted so far have been applied by the worker. */
+  public void flush() {
+    flush(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Wait until the status changes submitted so far have been applied, at most for the given time.
+   *
+   * @return false if the time elapsed before they were applied
+   */
+  protected boolean flush(long timeout, TimeUnit unit) {
+
+    if (Thread.currentThread() == worker || stopped) {
+      return true;
+    }
+
+    FlushRequest request = new FlushRequest();
+    submit(request);
+
+    try {
+      return request.done.await(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Apply the queued status changes and end the worker. Changes submitted afterwards are dropped.
+   */
+  public void stop() {
+
+    if (!flush(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+      log.warn("Workflow tracking not flushed after {} s, stopping anyway", SHUTDOWN_TIMEOUT);
+    }
+
+    Thread current;
+    synchronized (this) {
+      stopped = true;
+      current = worker;
+    }
+
+    if (current != null) {
+      try {
+        current.join(TimeUnit.SECONDS.toMillis(POLL_TIMEOUT * 2));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    if (!queue.isEmpty()) {
+      log.warn("Workflow tracking stopped, {} status changes lost", queue.size());
+    }
+  }
+
+  protected synchronized void start() {
+
+    if (worker != null || stopped) {
+      return;
+    }
+
+    worker = new Thread(this::run, "wkf-tracking");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * End the worker if no change has been queued meanwhile. Synchronized with {@link #start()}, so
+   * that a change queued before the worker ends is always applied by a new worker.
+   */
+  protected synchronized boolean stopIfIdle() {
+
+    if (!queue.isEmpty()) {
+      return false;
+    }
+
+    worker = null;
+    return true;
+  }
+
+  protected void run() {
+
+    long idleSince = System.currentTimeMillis();
+    while (true) {
+      try {
+        Event event = queue.poll(POLL_TIMEOUT, TimeUnit.SECONDS);
+        if (event == null) {
+          if ((stopped
+                  || System.currentTimeMillis() - idleSince
+                      >= TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT))
+              && stopIfIdle()) {
+            return;
+          }
+          continue;
+        }
+
+        List<Event> events = new ArrayList<>();
+        events.add(event);
+        queue.drainTo(events, BATCH_SIZE - 1);
+        process(events);
+        idleSince = System.currentTimeMillis();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        synchronized (this) {
+          worker = null;
+        }
+        return;
+      } catch (Exception e) {
+        TraceBackService.trace(e);
+      }
+    }
+  }
+
+  /** Apply a batch of queued status changes, then release the flush requests found in it. */
+  protected void process(List<Event> events) {
+
+    List<FlushRequest> flushRequests = new ArrayList<>();
+    for (Iterator<Event> it = events.iterator(); it.hasNext(); ) {
+      Event event = it.next();
+      if (event instanceof FlushRequest) {
+        flushRequests.add((FlushRequest) event);
+        it.remove();
+      }
+    }
+
+    if (events.isEmpty()) {
+      flushRequests.forEach(request -> request.done.countDown());
+      return;
+    }
+
+    UnitOfWork unitOfWork = Beans.get(UnitOfWork.class);
+    unitOfWork.begin();
+    try {
+      for (List<Event> userEvents : groupBySubject(events)) {
+        Subject subject = userEvents.get(0).getSubject();
+        if (subject != null) {
+          subject.associateWith(() -> apply(userEvents)).run();
+        } else {
+          apply(userEvents);
+        }
+      }
+    } finally {
+      unitOfWork.end();
+      flushRequests.forEach(request -> request.done.countDown());
+    }
+  }
+
+  /** Split the changes in runs of consecutive changes of the same user, keeping their order. */
+  protected List<List<Event>> groupBySubject(List<Event> events) {
+
+    List<List<Event>> groups = new ArrayList<>();
+    List<Event> group = null;
+    for (Event event : events) {
+      if (group == null || !Objects.equals(group.get(0).getPrincipal(), event.getPrincipal())) {
+        group = new ArrayList<>();
+        groups.add(group);
+      }
+      group.add(event);
+    }
+    return groups;
+  }
+
+  /**
+   * Apply a batch of status changes in one transaction. If it fails, the changes of each record
+   * are applied in their own transaction so that one record does not prevent the others.
+   */
+  protected void apply(List<Event> events) {
+
+    WkfTrackingService wkfTrackingService = Beans.get(WkfTrackingService.class);
+
+    try {
+      wkfTrackingService.applyEvents(events);
+    } catch (Exception e) {
+      log.debug("Workflow tracking batch failed, applying the records one by one", e);
+      JPA.clear();
+      for (List<Event> recordEvents : WkfTrackingService.groupByRecord(events).values()) {
+        try {
+          wkfTrackingService.applyEvents(recordEvents);
+        } catch (Exception recordException) {
+          TraceBackService.trace(recordException);
+        }
+      }
+    }
+  }
+}
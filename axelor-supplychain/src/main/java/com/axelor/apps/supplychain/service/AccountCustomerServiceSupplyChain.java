@@ -21,13 +21,21 @@ import com.axelor.apps.account.db.AccountingSituation;
 import com.axelor.apps.account.db.repo.AccountingSituationRepository;
 import com.axelor.apps.account.service.AccountCustomerService;
 import com.axelor.apps.account.service.AccountingSituationService;
+import com.axelor.apps.account.service.app.AppAccountService;
+import com.axelor.apps.base.db.Company;
 import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
+import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
+import java.util.Collection;
+import java.util.List;
 
 public class AccountCustomerServiceSupplyChain extends AccountCustomerService {
 
+  protected static final int FETCH_LIMIT = 100;
+
   @Inject
   public AccountCustomerServiceSupplyChain(
       AccountingSituationService accountingSituationService,
@@ -66,4 +74,52 @@ public class AccountCustomerServiceSupplyChain extends AccountCustomerService {
 
     return accountingSituation;
   }
+
+  @Override
+  @Transactional(rollbackOn = {AxelorException.class, Exception.class})
+  public int updateAccountingSituations(
+      Company company,
+      Collection<Long> partnerIds,
+      boolean onlyFlagged,
+      boolean updateCustAccount,
+      boolean updateDueCustAccount,
+      boolean updateDueDebtRecoveryCustAccount)
+      throws AxelorException {
+
+    if (!updateCustAccount
+        || !Beans.get(AppAccountService.class).getAppAccount().getManageCustomerCredit()) {
+      return super.updateAccountingSituations(
+          company,
+          partnerIds,
+          onlyFlagged,
+          updateCustAccount,
+          updateDueCustAccount,
+          updateDueDebtRecoveryCustAccount);
+    }
+
+    List<Long> accountingSituationIds =
+        this.getAccountingSituationIds(company, partnerIds, onlyFlagged);
+
+    int count =
+        super.updateAccountingSituations(
+            company,
+            partnerIds,
+            onlyFlagged,
+            updateCustAccount,
+            updateDueCustAccount,
+            updateDueDebtRecoveryCustAccount);
+
+    int i = 0;
+    for (Long id : accountingSituationIds) {
+      accountingSituationService.updateCustomerCredit(accSituationRepo.find(id).getPartner());
+
+      // Without partners the whole company is updated, keep the persistence context small
+      if (partnerIds == null && ++i % FETCH_LIMIT == 0) {
+        JPA.flush();
+        JPA.clear();
+      }
+    }
+
+    return count;
+  }
 }
@@ -51,6 +51,7 @@ import com.axelor.apps.supplychain.db.repo.MrpLineTypeRepository;
 import com.axelor.apps.supplychain.db.repo.MrpRepository;
 import com.axelor.apps.supplychain.exception.IExceptionMessage;
 import com.axelor.apps.tool.StringTool;
+import com.axelor.db.JPA;
 import com.axelor.db.Model;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.db.repo.TraceBackRepository;
@@ -65,12 +66,14 @@ import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -96,6 +99,23 @@ public class MrpServiceImpl implements MrpService {
   protected Map<Long, Integer> productMap;
   protected Mrp mrp;
 
+  /** Mrp lines of each product, kept sorted in computation order during the calculation. */
+  protected Map<Long, List<MrpLine>> mrpLineMap;
+
+  protected Map<Integer, MrpLineType> mrpLineTypeMap;
+  protected Map<Pair<Long, Long>, StockLocationLine> stockLocationLineMap;
+  protected Map<Pair<Long, Long>, StockRules> stockRulesMap;
+
+  protected static final int QUERY_CHUNK_SIZE = 1000;
+
+  protected static final int JDBC_BATCH_SIZE = 50;
+
+  protected static final Comparator<MrpLine> MRP_LINE_COMPARATOR =
+      Comparator.comparing(MrpLine::getMaturityDate)
+          .thenComparing(mrpLine -> mrpLine.getMrpLineType().getTypeSelect())
+          .thenComparing(mrpLine -> mrpLine.getMrpLineType().getSequence())
+          .thenComparing(MrpLine::getId, Comparator.nullsLast(Comparator.naturalOrder()));
+
   @Inject
   public MrpServiceImpl(
       AppBaseService appBaseService,
@@ -167,6 +187,7 @@ public class MrpServiceImpl implements MrpService {
 
     // Initialize
     this.mrp = mrp;
+    this.mrpLineTypeMap = new HashMap<>();
     this.stockLocationList = this.getAllLocationAndSubLocation(mrp.getStockLocation());
     this.assignProductAndLevel(this.getProductList());
 
@@ -189,6 +210,9 @@ public class MrpServiceImpl implements MrpService {
 
     mrpRepository.save(mrp);
 
+    this.initMrpLineMap();
+    this.loadStockRules();
+
     this.checkInsufficientCumulativeQty();
 
     //		this.consolidateMrp(mrp);
@@ -198,15 +222,55 @@ public class MrpServiceImpl implements MrpService {
 
   protected void checkInsufficientCumulativeQty() throws AxelorException {
 
-    for (int level = 0; level <= this.getMaxLevel(); level++) {
+    Map<Integer, List<Long>> productIdsByLevel = this.getProductIdsByLevel();
+    int maxLevel = this.getMaxLevel();
+
+    // The proposals of a level are inserted by batches when the level is flushed
+    Session session = JPA.em().unwrap(Session.class);
+    Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(JDBC_BATCH_SIZE);
 
-      for (Product product : this.getProductList(level)) {
+    try {
+      for (int level = 0; level <= maxLevel; level++) {
 
-        this.checkInsufficientCumulativeQty(product);
+        long startTime = System.currentTimeMillis();
+        List<Product> productList =
+            this.getProductList(productIdsByLevel.getOrDefault(level, Lists.newArrayList()));
+
+        for (Product product : productList) {
+
+          this.checkInsufficientCumulativeQty(product);
+        }
+
+        // Send the proposals of the level to the database before computing the next one
+        JPA.flush();
+
+        log.info(
+            "MRP {} : level {}/{} computed, {} products in {} ms",
+            mrp.getId(),
+            level,
+            maxLevel,
+            productList.size(),
+            System.currentTimeMillis() - startTime);
       }
+    } finally {
+      session.setJdbcBatchSize(jdbcBatchSize);
     }
   }
 
+  protected Map<Integer, List<Long>> getProductIdsByLevel() {
+
+    Map<Integer, List<Long>> productIdsByLevel = new HashMap<>();
+
+    for (Map.Entry<Long, Integer> entry : this.productMap.entrySet()) {
+      productIdsByLevel
+          .computeIfAbsent(entry.getValue(), level -> new ArrayList<>())
+          .add(entry.getKey());
+    }
+
+    return productIdsByLevel;
+  }
+
   /**
    * Get the list of product for a level
    *
@@ -215,16 +279,92 @@ public class MrpServiceImpl implements MrpService {
    */
   protected List<Product> getProductList(int level) {
 
+    return this.getProductList(
+        this.getProductIdsByLevel().getOrDefault(level, Lists.newArrayList()));
+  }
+
+  protected List<Product> getProductList(List<Long> productIdList) {
+
     List<Product> productList = Lists.newArrayList();
 
-    for (Long productId : this.productMap.keySet()) {
+    for (List<Long> productIds : Lists.partition(productIdList, QUERY_CHUNK_SIZE)) {
+      productList.addAll(
+          productRepository
+              .all()
+              .filter("self.id IN (:productIds)")
+              .bind("productIds", productIds)
+              .fetch());
+    }
+
+    return productList;
+  }
+
+  /** Group the mrp lines by product, in computation order. */
+  protected void initMrpLineMap() {
+
+    this.mrpLineMap = new HashMap<>();
+
+    for (MrpLine mrpLine : mrp.getMrpLineList()) {
+      this.mrpLineMap
+          .computeIfAbsent(mrpLine.getProduct().getId(), productId -> new ArrayList<>())
+          .add(mrpLine);
+    }
+
+    for (List<MrpLine> mrpLineList : this.mrpLineMap.values()) {
+      mrpLineList.sort(MRP_LINE_COMPARATOR);
+    }
+  }
+
+  protected List<MrpLine> getMrpLineList(Product product) {
+
+    return this.mrpLineMap.computeIfAbsent(product.getId(), productId -> new ArrayList<>());
+  }
+
+  protected void addMrpLine(MrpLine mrpLine) {
+
+    List<MrpLine> mrpLineList = this.getMrpLineList(mrpLine.getProduct());
 
-      if (this.productMap.get(productId) == level) {
-        productList.add(productRepository.find(productId));
+    int index = Collections.binarySearch(mrpLineList, mrpLine, MRP_LINE_COMPARATOR);
+    mrpLineList.add(index < 0 ? -index - 1 : index + 1, mrpLine);
+  }
+
+  /** Load the stock rules used for MRP of all the products at once. */
+  protected void loadStockRules() {
+
+    this.stockRulesMap = new HashMap<>();
+
+    for (List<Long> productIds :
+        Lists.partition(new ArrayList<>(this.productMap.keySet()), QUERY_CHUNK_SIZE)) {
+
+      List<StockRules> stockRulesList =
+          Beans.get(StockRulesRepository.class)
+              .all()
+              .filter("self.product.id IN (:productIds) AND self.useCaseSelect = :useCase")
+              .bind("productIds", productIds)
+              .bind("useCase", StockRulesRepository.USE_CASE_USED_FOR_MRP)
+              .fetch();
+
+      for (StockRules stockRules : stockRulesList) {
+        if (stockRules.getStockLocation() != null) {
+          this.stockRulesMap.putIfAbsent(
+              Pair.of(stockRules.getProduct().getId(), stockRules.getStockLocation().getId()),
+              stockRules);
+        }
       }
     }
+  }
 
-    return productList;
+  protected StockRules getStockRules(Product product, StockLocation stockLocation) {
+
+    if (this.stockRulesMap != null && this.productMap.containsKey(product.getId())) {
+      return this.stockRulesMap.get(Pair.of(product.getId(), stockLocation.getId()));
+    }
+
+    return stockRulesService.getStockRules(
+        product,
+        stockLocation,
+        StockRulesRepository.TYPE_FUTURE,
+        StockRulesRepository.USE_CASE_USED_FOR_MRP);
   }
 
   protected int getMaxLevel() {
@@ -243,77 +383,63 @@ public class MrpServiceImpl implements MrpService {
 
   protected void checkInsufficientCumulativeQty(Product product) throws AxelorException {
 
-    boolean doASecondPass = false;
+    List<MrpLine> mrpLineList = this.getMrpLineList(product);
 
-    this.computeCumulativeQty(product);
+    boolean doASecondPass;
 
-    List<MrpLine> mrpLineList =
-        mrpLineRepository
-            .all()
-            .filter("self.mrp = ?1 AND self.product = ?2", mrp, product)
-            .order("maturityDate")
-            .order("mrpLineType.typeSelect")
-            .order("mrpLineType.sequence")
-            .order("id")
-            .fetch();
+    do {
+      doASecondPass = false;
 
-    for (MrpLine mrpLine : mrpLineList) {
+      this.computeCumulativeQty(product);
 
-      BigDecimal cumulativeQty = mrpLine.getCumulativeQty();
+      for (MrpLine mrpLine : mrpLineList) {
 
-      MrpLineType mrpLineType = mrpLine.getMrpLineType();
+        BigDecimal cumulativeQty = mrpLine.getCumulativeQty();
 
-      boolean isProposalElement = this.isProposalElement(mrpLineType);
+        MrpLineType mrpLineType = mrpLine.getMrpLineType();
 
-      BigDecimal minQty = mrpLine.getMinQty();
+        boolean isProposalElement = this.isProposalElement(mrpLineType);
 
-      if (mrpLine.getMrpLineType().getElementSelect()
-              != MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK
-          && (!isProposalElement || mrpLineType.getTypeSelect() == MrpLineTypeRepository.TYPE_OUT)
-          && cumulativeQty.compareTo(mrpLine.getMinQty()) < 0) {
-
-        log.debug(
-            "Cumulative qty ({} < {}) is insufficient for product ({}) at the maturity date ({})",
-            cumulativeQty,
-            minQty,
-            product.getFullName(),
-            mrpLine.getMaturityDate());
-
-        BigDecimal reorderQty = minQty.subtract(cumulativeQty);
-
-        StockRules stockRules =
-            stockRulesService.getStockRules(
-                product,
-                mrpLine.getStockLocation(),
-                StockRulesRepository.TYPE_FUTURE,
-                StockRulesRepository.USE_CASE_USED_FOR_MRP);
-
-        if (stockRules != null) {
-          reorderQty = reorderQty.max(stockRules.getReOrderQty());
-        }
+        BigDecimal minQty = mrpLine.getMinQty();
 
-        MrpLineType mrpLineTypeProposal = this.getMrpLineTypeForProposal(stockRules, product);
+        if (mrpLine.getMrpLineType().getElementSelect()
+                != MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK
+            && (!isProposalElement
+                || mrpLineType.getTypeSelect() == MrpLineTypeRepository.TYPE_OUT)
+            && cumulativeQty.compareTo(mrpLine.getMinQty()) < 0) {
 
-        this.createProposalMrpLine(
-            product,
-            mrpLineTypeProposal,
-            reorderQty,
-            mrpLine.getStockLocation(),
-            mrpLine.getMaturityDate(),
-            mrpLine.getMrpLineOriginList(),
-            mrpLine.getRelatedToSelectName());
+          log.debug(
+              "Cumulative qty ({} < {}) is insufficient for product ({}) at the maturity date ({})",
+              cumulativeQty,
+              minQty,
+              product.getFullName(),
+              mrpLine.getMaturityDate());
 
-        doASecondPass = true;
+          BigDecimal reorderQty = minQty.subtract(cumulativeQty);
 
-        break;
-      }
-    }
+          StockRules stockRules = this.getStockRules(product, mrpLine.getStockLocation());
 
-    if (doASecondPass) {
-      mrpRepository.save(mrp);
+          if (stockRules != null) {
+            reorderQty = reorderQty.max(stockRules.getReOrderQty());
+          }
 
-      this.checkInsufficientCumulativeQty(product);
-    }
+          MrpLineType mrpLineTypeProposal = this.getMrpLineTypeForProposal(stockRules, product);
+
+          this.createProposalMrpLine(
+              product,
+              mrpLineTypeProposal,
+              reorderQty,
+              mrpLine.getStockLocation(),
+              mrpLine.getMaturityDate(),
+              mrpLine.getMrpLineOriginList(),
+              mrpLine.getRelatedToSelectName());
+
+          doASecondPass = true;
+
+          break;
+        }
+      }
+    } while (doASecondPass);
   }
 
   public MrpLine getPreviousProposalMrpLine(
@@ -335,17 +461,16 @@ public class MrpServiceImpl implements MrpService {
       startPeriodDate = maturityDate.minusDays(mrpFamily.getDayNb());
     }
 
-    return mrpLineRepository
-        .all()
-        .filter(
-            "self.mrp = ?1 AND self.product = ?2 AND self.mrpLineType = ?3 AND self.stockLocation = ?4 AND self.maturityDate > ?5 AND self.maturityDate <= ?6",
-            mrp,
-            product,
-            mrpLineType,
-            stockLocation,
-            startPeriodDate,
-            maturityDate)
-        .fetchOne();
+    for (MrpLine mrpLine : this.getMrpLineList(product)) {
+      if (mrpLine.getMrpLineType().equals(mrpLineType)
+          && stockLocation.equals(mrpLine.getStockLocation())
+          && mrpLine.getMaturityDate().isAfter(startPeriodDate)
+          && !mrpLine.getMaturityDate().isAfter(maturityDate)) {
+        return mrpLine;
+      }
+    }
+
+    return null;
   }
 
   protected void createProposalMrpLine(
@@ -381,6 +506,7 @@ public class MrpServiceImpl implements MrpService {
                   product, mrpLineType, reorderQty, maturityDate, BigDecimal.ZERO, stockLocation));
       mrp.addMrpLineListItem(mrpLine);
       mrpLine.setRelatedToSelectName(relatedToSelectName);
+      this.addMrpLine(mrpLine);
     }
 
     this.copyMrpLineOrigins(mrpLine, mrpLineOriginList);
@@ -464,23 +590,15 @@ public class MrpServiceImpl implements MrpService {
 
   protected void computeCumulativeQty() {
 
-    for (Long productId : this.productMap.keySet()) {
+    for (Product product : this.getProductList(new ArrayList<>(this.productMap.keySet()))) {
 
-      this.computeCumulativeQty(productRepository.find(productId));
+      this.computeCumulativeQty(product);
     }
   }
 
   protected void computeCumulativeQty(Product product) {
 
-    List<MrpLine> mrpLineList =
-        mrpLineRepository
-            .all()
-            .filter("self.mrp = ?1 AND self.product = ?2", mrp, product)
-            .order("maturityDate")
-            .order("mrpLineType.typeSelect")
-            .order("mrpLineType.sequence")
-            .order("id")
-            .fetch();
+    List<MrpLine> mrpLineList = this.getMrpLineList(product);
 
     BigDecimal previousCumulativeQty = BigDecimal.ZERO;
 
@@ -702,13 +820,49 @@ public class MrpServiceImpl implements MrpService {
     MrpLineType availableStockMrpLineType =
         this.getMrpLineType(MrpLineTypeRepository.ELEMENT_AVAILABLE_STOCK);
 
-    for (Long productId : this.productMap.keySet()) {
+    List<Product> productList = this.getProductList(new ArrayList<>(this.productMap.keySet()));
+
+    this.loadStockLocationLines(productList);
+
+    for (Product product : productList) {
 
       for (StockLocation stockLocation : this.stockLocationList) {
 
         mrp.addMrpLineListItem(
-            this.createAvailableStockMrpLine(
-                productRepository.find(productId), stockLocation, availableStockMrpLineType));
+            this.createAvailableStockMrpLine(product, stockLocation, availableStockMrpLineType));
+      }
+    }
+  }
+
+  /** Load the stock location lines of the given products on the mrp stock locations at once. */
+  protected void loadStockLocationLines(List<Product> productList) {
+
+    this.stockLocationLineMap = new HashMap<>();
+
+    for (List<Product> products : Lists.partition(productList, QUERY_CHUNK_SIZE)) {
+
+      List<StockLocationLine> stockLocationLineList =
+          stockLocationLineRepository
+              .all()
+              .filter("self.product IN (:products) AND self.stockLocation IN (:stockLocations)")
+              .bind("products", products)
+              .bind("stockLocations", this.stockLocationList)
+              .fetch();
+
+      for (StockLocationLine stockLocationLine : stockLocationLineList) {
+        this.stockLocationLineMap.putIfAbsent(
+            Pair.of(
+                stockLocationLine.getProduct().getId(),
+                stockLocationLine.getStockLocation().getId()),
+            stockLocationLine);
+      }
+
+      // Remember the pairs without a line too so that they are not queried again one by one.
+      for (Product product : products) {
+        for (StockLocation stockLocation : this.stockLocationList) {
+          this.stockLocationLineMap.putIfAbsent(
+              Pair.of(product.getId(), stockLocation.getId()), null);
+        }
       }
     }
   }
@@ -732,7 +886,15 @@ public class MrpServiceImpl implements MrpService {
   protected MrpLineType getMrpLineType(int elementSelect) throws AxelorException {
 
     MrpLineType mrpLineType =
-        mrpLineTypeRepository.all().filter("self.elementSelect = ?1", elementSelect).fetchOne();
+        this.mrpLineTypeMap != null ? this.mrpLineTypeMap.get(elementSelect) : null;
+
+    if (mrpLineType == null) {
+      mrpLineType =
+          mrpLineTypeRepository.all().filter("self.elementSelect = ?1", elementSelect).fetchOne();
+      if (mrpLineType != null && this.mrpLineTypeMap != null) {
+        this.mrpLineTypeMap.put(elementSelect, mrpLineType);
+      }
+    }
 
     if (mrpLineType != null) {
       return mrpLineType;
@@ -749,6 +911,12 @@ public class MrpServiceImpl implements MrpService {
 
   protected StockLocationLine getStockLocationLine(Product product, StockLocation stockLocation) {
 
+    Pair<Long, Long> key = Pair.of(product.getId(), stockLocation.getId());
+
+    if (this.stockLocationLineMap != null && this.stockLocationLineMap.containsKey(key)) {
+      return this.stockLocationLineMap.get(key);
+    }
+
     return stockLocationLineRepository
         .all()
         .filter("self.stockLocation = ?1 AND self.product = ?2", stockLocation, product)
@@ -31,11 +31,8 @@ import com.axelor.exception.db.IException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.inject.Beans;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 public class BatchOrderInvoicingSale extends BatchOrderInvoicing {
@@ -100,42 +97,31 @@ public class BatchOrderInvoicingSale extends BatchOrderInvoicing {
 
     query.bind("invoiceStatusSelect", InvoiceRepository.STATUS_CANCELED);
 
-    List<Long> anomalyList = Lists.newArrayList(0L);
-    filterList.add("self.id NOT IN (:anomalyList)");
-    query.bind("anomalyList", anomalyList);
-
     String filter =
         filterList
             .stream()
             .map(item -> String.format("(%s)", item))
             .collect(Collectors.joining(" AND "));
-    query.filter(filter);
+    query.filter(filter).order("id");
+
+    List<Long> idList =
+        query
+            .select("id")
+            .fetch(0, 0)
+            .stream()
+            .map(values -> (Long) values.get("id"))
+            .collect(Collectors.toList());
 
+    SaleOrderRepository saleOrderRepo = Beans.get(SaleOrderRepository.class);
     SaleOrderInvoiceService saleOrderInvoiceService = Beans.get(SaleOrderInvoiceService.class);
-    Set<Long> treatedSet = new HashSet<>();
-
-    for (List<SaleOrder> saleOrderList;
-        !(saleOrderList = query.fetch(FETCH_LIMIT)).isEmpty();
-        JPA.clear()) {
-      for (SaleOrder saleOrder : saleOrderList) {
-        if (treatedSet.contains(saleOrder.getId())) {
-          throw new IllegalArgumentException("Invoice generation error");
-        }
-
-        treatedSet.add(saleOrder.getId());
-
-        try {
-          saleOrderInvoiceService.generateInvoice(saleOrder);
-          incrementDone();
-        } catch (Exception e) {
-          incrementAnomaly();
-          anomalyList.add(saleOrder.getId());
-          query.bind("anomalyList", anomalyList);
-          TraceBackService.trace(e, IException.INVOICE_ORIGIN, batch.getId());
-          e.printStackTrace();
-          break;
-        }
-      }
-    }
+
+    processPartitioned(
+        idList, id -> saleOrderInvoiceService.generateInvoice(saleOrderRepo.find(id)));
+  }
+
+  @Override
+  protected void onRecordError(Long id, Exception e) {
+    JPA.clear();
+    TraceBackService.trace(e, IException.INVOICE_ORIGIN, getCurrentBatchId());
   }
 }
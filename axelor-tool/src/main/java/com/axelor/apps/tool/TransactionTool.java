@@ -0,0 +1,72 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.tool;
+
+import com.axelor.db.JPA;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.hibernate.Session;
+
+public final class TransactionTool {
+
+  private TransactionTool() {}
+
+  /**
+   * Run a task once the current transaction is committed, or immediately if no transaction is
+   * active. The task is not run if the transaction is rolled back.
+   *
+   * @param task
+   */
+  public static void afterCommit(Runnable task) {
+    register(task, true);
+  }
+
+  /**
+   * Run a task once the current transaction is committed or rolled back, or immediately if no
+   * transaction is active. Used to drop caches which may have been filled with the data of the
+   * transaction, or with the data it replaces.
+   *
+   * @param task
+   */
+  public static void afterCompletion(Runnable task) {
+    register(task, false);
+  }
+
+  private static void register(Runnable task, boolean committedOnly) {
+    if (!JPA.em().getTransaction().isActive()) {
+      task.run();
+      return;
+    }
+
+    JPA.em()
+        .unwrap(Session.class)
+        .getTransaction()
+        .registerSynchronization(
+            new Synchronization() {
+              @Override
+              public void beforeCompletion() {}
+
+              @Override
+              public void afterCompletion(int status) {
+                if (!committedOnly || status == Status.STATUS_COMMITTED) {
+                  task.run();
+                }
+              }
+            });
+  }
+}
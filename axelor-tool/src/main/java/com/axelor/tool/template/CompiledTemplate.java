@@ -0,0 +1,59 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.tool.template;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.compiler.CompiledST;
+
+/**
+ * A template parsed and compiled once by {@link TemplateMaker#compile(String)}, to be rendered any
+ * number of times, possibly by several threads.
+ *
+ * <p>The attributes of the template are declared at compilation, so that rendering never modifies
+ * the compiled code. Each rendering gets its own instance, holding its own attribute values.
+ */
+public class CompiledTemplate {
+
+  private final String text;
+  private final STGroup group;
+  private final CompiledST impl;
+  private final Set<String> attributeNames;
+
+  CompiledTemplate(String text, STGroup group, CompiledST impl, Set<String> attributeNames) {
+    this.text = text;
+    this.group = group;
+    this.impl = impl;
+    this.attributeNames = ImmutableSet.copyOf(attributeNames);
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /** Whether the template can be rendered with these attributes without being compiled again. */
+  public boolean accepts(Set<String> names) {
+    return attributeNames.containsAll(names);
+  }
+
+  ST newInstance() {
+    return group.createStringTemplate(impl);
+  }
+}
@@ -42,6 +42,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.stringtemplate.v4.AttributeRenderer;
 import org.stringtemplate.v4.DateRenderer;
@@ -51,6 +52,8 @@ import org.stringtemplate.v4.NumberRenderer;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.StringRenderer;
+import org.stringtemplate.v4.compiler.CompiledST;
+import org.stringtemplate.v4.compiler.FormalArgument;
 import org.stringtemplate.v4.misc.ObjectModelAdaptor;
 
 public class TemplateMaker {
@@ -59,6 +62,7 @@ public class TemplateMaker {
   private Map<String, Object> localContext;
 
   private String template;
+  private CompiledTemplate compiledTemplate;
   private STGroup stGroup;
   private Locale locale;
 
@@ -112,6 +116,37 @@ public class TemplateMaker {
 
   public void setTemplate(String text) {
     this.template = text;
+    this.compiledTemplate = null;
+  }
+
+  /**
+   * Use a template compiled by {@link #compile(String)}, so that it is not parsed again on each
+   * {@link #make()}.
+   */
+  public void setTemplate(CompiledTemplate compiledTemplate) {
+    this.template = compiledTemplate.getText();
+    this.compiledTemplate = compiledTemplate;
+  }
+
+  /**
+   * Parse and compile a template with the delimiters and renderers of this maker. The attributes of
+   * the compiled template are the ones of the current context, which is enough for the template to
+   * be rendered again with any context of the same shape.
+   */
+  public CompiledTemplate compile(String text) {
+    if (Strings.isNullOrEmpty(text)) {
+      throw new IllegalArgumentException(I18n.get(IExceptionMessage.TEMPLATE_MAKER_2));
+    }
+
+    CompiledST impl = new ST(stGroup, text).impl;
+    Set<String> attributeNames = makeMap().keySet();
+    for (String name : attributeNames) {
+      impl.addArg(new FormalArgument(name));
+    }
+    // Attributes are now declared, adding an unknown one fails instead of modifying the template
+    impl.hasFormalArgs = true;
+
+    return new CompiledTemplate(text, stGroup, impl, attributeNames);
   }
 
   public void setTemplate(File file) throws FileNotFoundException {
@@ -153,8 +188,27 @@ public class TemplateMaker {
       throw new IllegalArgumentException(I18n.get(IExceptionMessage.TEMPLATE_MAKER_2));
     }
 
-    ST st = new ST(stGroup, template);
+    Map<String, Object> _map = makeMap();
 
+    ST st;
+    if (compiledTemplate != null && compiledTemplate.accepts(_map.keySet())) {
+      st = compiledTemplate.newInstance();
+    } else {
+      st = new ST(stGroup, template);
+    }
+
+    for (String key : _map.keySet()) {
+      Object value = _map.get(key);
+      if (value instanceof String) {
+        value = StringEscapeUtils.escapeXml11(value.toString());
+      }
+      st.add(key, value);
+    }
+
+    return _make(st);
+  }
+
+  private Map<String, Object> makeMap() {
     Map<String, Object> _map = Maps.newHashMap();
     if (localContext != null && !localContext.isEmpty()) {
       _map.putAll(localContext);
@@ -169,15 +223,7 @@ public class TemplateMaker {
     _map.put("__time__", LocalTime.now());
     _map.put("__datetime__", LocalDateTime.now());
 
-    for (String key : _map.keySet()) {
-      Object value = _map.get(key);
-      if (value instanceof String) {
-        value = StringEscapeUtils.escapeXml11(value.toString());
-      }
-      st.add(key, value);
-    }
-
-    return _make(st);
+    return _map;
   }
 
   private String _make(ST st) {
@@ -0,0 +1,193 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.tool.templating;
+
+import com.axelor.apps.tool.db.Contact;
+import com.axelor.apps.tool.db.Title;
+import com.axelor.tool.template.CompiledTemplate;
+import com.axelor.tool.template.TemplateMaker;
+import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CompiledTemplateTest {
+
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Renders of the benchmark, which only runs if set, e.g. -Dtemplate.benchmark.renders=20000 */
+  private static final int BENCHMARK_RENDERS = Integer.getInteger("template.benchmark.renders", 0);
+
+  /** Shaped like an invoice reminder: a subject, recipients and an HTML body. */
+  private static final String[] TEMPLATES = {
+    "Reminder: invoice for $contact.fullName$",
+    "$contact.email$",
+    ""
+        + "<p>Dear $contact.title$ $contact.lastName;format=\"upper\"$,</p>"
+        + "<p>Unless we are mistaken, the invoice issued on"
+        + " $contact.dateOfBirth;format=\"dd/MM/yyyy\"$"
+        + " for an amount of <strong>$contact.payeurQuality;format=\"%,2.2f\"$</strong>"
+        + " is still unpaid as of $__date__;format=\"dd/MM/yyyy\"$.</p>"
+        + "<table><tr><th>Customer</th><th>Email</th><th>Amount</th></tr>"
+        + "<tr><td>$contact.firstName$ $contact.lastName$</td><td>$contact.email$</td>"
+        + "<td>$contact.payeurQuality;format=\"%,2.2f\"$</td></tr></table>"
+        + "<p>Please disregard this reminder if the payment was made in the meantime.</p>"
+        + "<p>Best regards,<br/>$if(__user__)$$__user__.name$$else$Accounting$endif$</p>"
+  };
+
+  private List<Contact> contacts = new ArrayList<>();
+
+  @Before
+  public void prepareTest() {
+    for (int i = 0; i < 100; i++) {
+      Contact contact = new Contact("FirstName" + i, "LastName" + i);
+      contact.setEmail("contact" + i + "@axelor.com");
+      contact.setFullName(contact.getFullName());
+      contact.setDateOfBirth(LocalDate.of(2018, 1, 1).plusDays(i));
+      contact.setPayeurQuality(new BigDecimal("1234.5").add(BigDecimal.valueOf(i)));
+      contact.setTitle(new Title("Title" + i % 3, "T" + i % 3));
+      contacts.add(contact);
+    }
+  }
+
+  @Test
+  public void testSameResult() {
+    TemplateMaker maker = new TemplateMaker(new Locale("fr"), '$', '$');
+    maker.setContext(contacts.get(0), "contact");
+    List<CompiledTemplate> compiledTemplates = compile(maker);
+
+    for (Contact contact : contacts) {
+      maker.setContext(contact, "contact");
+      for (int i = 0; i < TEMPLATES.length; i++) {
+        maker.setTemplate(TEMPLATES[i]);
+        String expected = maker.make();
+        maker.setTemplate(compiledTemplates.get(i));
+        Assert.assertEquals(expected, maker.make());
+      }
+    }
+  }
+
+  @Test
+  public void testUnknownAttribute() {
+    TemplateMaker maker = new TemplateMaker(new Locale("fr"), '$', '$');
+    maker.setContext(contacts.get(0), "contact");
+    CompiledTemplate compiledTemplate = maker.compile("$contact.lastName$ $extra$");
+
+    // Not declared at compilation, the template is parsed again to render it
+    maker.addInContext("extra", "value");
+    maker.setTemplate(compiledTemplate);
+    Assert.assertEquals("LastName0 value", maker.make());
+  }
+
+  @Test
+  public void testConcurrentRendering() throws Exception {
+    TemplateMaker compilingMaker = new TemplateMaker(new Locale("fr"), '$', '$');
+    compilingMaker.setContext(contacts.get(0), "contact");
+    List<CompiledTemplate> compiledTemplates = compile(compilingMaker);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int t = 0; t < 4; t++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  TemplateMaker maker = new TemplateMaker(new Locale("fr"), '$', '$');
+                  for (Contact contact : contacts) {
+                    maker.setContext(contact, "contact");
+                    maker.setTemplate(compiledTemplates.get(0));
+                    Assert.assertEquals(
+                        "Reminder: invoice for " + contact.getFullName(), maker.make());
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testThroughput() {
+    Assume.assumeTrue(BENCHMARK_RENDERS > 0);
+
+    TemplateMaker maker = new TemplateMaker(new Locale("fr"), '$', '$');
+    maker.setContext(contacts.get(0), "contact");
+    List<CompiledTemplate> compiledTemplates = compile(maker);
+
+    // Warm up both paths before measuring
+    render(maker, null, BENCHMARK_RENDERS / 10);
+    render(maker, compiledTemplates, BENCHMARK_RENDERS / 10);
+
+    long parsed = render(maker, null, BENCHMARK_RENDERS);
+    long compiled = render(maker, compiledTemplates, BENCHMARK_RENDERS);
+
+    log.info(
+        "Templates : {} renders in {} ms parsed each time, {} ms compiled once ({} vs {}/s)",
+        BENCHMARK_RENDERS,
+        parsed,
+        compiled,
+        BENCHMARK_RENDERS * 1000L / parsed,
+        BENCHMARK_RENDERS * 1000L / compiled);
+  }
+
+  private List<CompiledTemplate> compile(TemplateMaker maker) {
+    List<CompiledTemplate> compiledTemplates = new ArrayList<>();
+    for (String template : TEMPLATES) {
+      compiledTemplates.add(maker.compile(template));
+    }
+    return compiledTemplates;
+  }
+
+  /**
+   * Render the templates for the contacts, in turn.
+   *
+   * @return elapsed time in milliseconds
+   */
+  private long render(TemplateMaker maker, List<CompiledTemplate> compiledTemplates, int count) {
+    long start = System.nanoTime();
+    int length = 0;
+
+    for (int i = 0; i < count; i++) {
+      maker.setContext(contacts.get(i % contacts.size()), "contact");
+      int index = i % TEMPLATES.length;
+      if (compiledTemplates != null) {
+        maker.setTemplate(compiledTemplates.get(index));
+      } else {
+        maker.setTemplate(TEMPLATES[index]);
+      }
+      length += maker.make().length();
+    }
+
+    Assert.assertTrue(length > 0);
+    return Math.max(1, (System.nanoTime() - start) / 1000000);
+  }
+}